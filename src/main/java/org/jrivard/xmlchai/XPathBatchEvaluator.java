@@ -0,0 +1,197 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Internal helper to evaluate a fixed set of xpath expressions against many documents in parallel.
+ *
+ * <p>{@link XPathExpression} instances are not thread-safe, so compiled expression sets are kept in a
+ * pool; each task borrows a set, evaluates it and returns it.  The number of sets compiled is therefore bounded by
+ * the number of concurrently running tasks, which also works well with executors that create a new thread
+ * per task.</p>
+ */
+class XPathBatchEvaluator
+{
+    /**
+     * Maximum number of documents evaluated ahead of the consumer of the result stream.
+     */
+    private static final int MAX_IN_FLIGHT = 256;
+
+    /**
+     * The xpath expressions, in caller supplied order.
+     */
+    private final List<String> xpathExpressions;
+
+    /**
+     * Pool of compiled expression sets not currently in use by a task.
+     */
+    private final Queue<XPathExpression[]> compiledPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Executor used to run the evaluation tasks.
+     */
+    private final Executor executor;
+
+    XPathBatchEvaluator( final List<String> xpathExpressions, final Executor executor )
+    {
+        this.xpathExpressions = Collections.unmodifiableList( new ArrayList<>( xpathExpressions ) );
+        this.executor = executor;
+
+        // compile once up front so invalid expressions are reported to the caller immediately.
+        compiledPool.add( compile() );
+    }
+
+    Stream<List<List<XmlElement>>> evaluate( final Collection<XmlDocument> documents )
+    {
+        final Iterator<List<List<XmlElement>>> iterator = new OrderedResultIterator( documents.iterator() );
+        final int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED;
+        return StreamSupport.stream( Spliterators.spliterator( iterator, documents.size(), characteristics ), false );
+    }
+
+    @SuppressFBWarnings( value = { "XPATH_INJECTION", "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" } )
+    // XPATH_INJECTION it is the client's responsibility to protect xpath expressions from untrusted data
+    private XPathExpression[] compile()
+    {
+        final XPath xPath = XPathFactory.newInstance().newXPath();
+        final XPathExpression[] compiled = new XPathExpression[xpathExpressions.size()];
+        for ( int i = 0; i < compiled.length; i++ )
+        {
+            try
+            {
+                compiled[i] = xPath.compile( xpathExpressions.get( i ) );
+            }
+            catch ( final XPathExpressionException e )
+            {
+                throw new IllegalArgumentException( "error compiling xpath expression '"
+                        + xpathExpressions.get( i ) + "': " + e.getMessage(), e );
+            }
+        }
+        return compiled;
+    }
+
+    private List<List<XmlElement>> evaluateDocument( final XmlDocument document )
+    {
+        final XPathExpression[] pooled = compiledPool.poll();
+        final XPathExpression[] compiled = pooled == null ? compile() : pooled;
+        try
+        {
+            final List<List<XmlElement>> results = new ArrayList<>( compiled.length );
+            for ( int i = 0; i < compiled.length; i++ )
+            {
+                // other implementations, such as compact documents, evaluate using their own xpath support
+                results.add( document instanceof XmlDocumentW3c
+                        ? ( ( XmlDocumentW3c ) document ).evaluateXpathExpression( compiled[i] )
+                        : document.evaluateXpathToElements( xpathExpressions.get( i ) ) );
+            }
+            return Collections.unmodifiableList( results );
+        }
+        finally
+        {
+            compiledPool.offer( compiled );
+        }
+    }
+
+    /**
+     * Iterator that keeps a bounded window of documents evaluating ahead of the consumer and
+     * returns results in the iteration order of the source documents.
+     */
+    private class OrderedResultIterator implements Iterator<List<List<XmlElement>>>
+    {
+        /**
+         * Source documents that have not yet been submitted.
+         */
+        private final Iterator<XmlDocument> documentIterator;
+
+        /**
+         * Submitted evaluations, in document order.
+         */
+        private final Deque<CompletableFuture<List<List<XmlElement>>>> inFlight = new ArrayDeque<>();
+
+        OrderedResultIterator( final Iterator<XmlDocument> documentIterator )
+        {
+            this.documentIterator = documentIterator;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            fillWindow();
+            return !inFlight.isEmpty();
+        }
+
+        @Override
+        @SuppressFBWarnings( "LEST_LOST_EXCEPTION_STACK_TRACE" )
+        // LEST_LOST_EXCEPTION_STACK_TRACE the evaluation exception is unwrapped from the CompletionException
+        public List<List<XmlElement>> next()
+        {
+            fillWindow();
+            if ( inFlight.isEmpty() )
+            {
+                throw new NoSuchElementException();
+            }
+
+            try
+            {
+                return inFlight.removeFirst().join();
+            }
+            catch ( final CompletionException e )
+            {
+                if ( e.getCause() instanceof RuntimeException )
+                {
+                    throw ( RuntimeException ) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        private void fillWindow()
+        {
+            while ( inFlight.size() < MAX_IN_FLIGHT && documentIterator.hasNext() )
+            {
+                final XmlDocument document = documentIterator.next();
+                inFlight.addLast( CompletableFuture.supplyAsync( () -> evaluateDocument( document ), executor ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,1092 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.XMLConstants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Internal evaluator for a common subset of xpath location paths that walks the w3c tree directly instead
+ * of using the JAXP xpath engine.  The supported subset is:
+ * <ul>
+ *     <li>absolute or relative paths of child ({@code /}) and descendant ({@code //}) steps</li>
+ *     <li>element name tests, optionally prefixed, and the {@code *} wildcard</li>
+ *     <li>attribute predicates: {@code [@name]}, {@code [@name=$var]} and {@code [@name='literal']}</li>
+ *     <li>positional predicates: {@code [n]}</li>
+ * </ul>
+ *
+ * <p>Any other expression is reported as unsupported, and must be evaluated by JAXP.  Results of supported
+ * expressions are identical to JAXP, including document order, positional predicates being relative to the parent
+ * element, and variables being considered used only once a predicate referencing them is evaluated.</p>
+ *
+ * <p>Prefixed name tests are resolved per evaluation using the supplied namespace context; expressions with a prefix
+ * not bound by the context are left to JAXP, which reports the unresolvable prefix.  As in xpath 1.0, unprefixed
+ * name tests only match elements without a namespace.</p>
+ */
+final class XPathFastEvaluator
+{
+    /**
+     * Maximum number of parsed expressions retained in {@link #PARSED_CACHE}.
+     */
+    private static final int MAX_CACHE_SIZE = 1_000;
+
+    /**
+     * Cache of parsed expressions, including expressions that are not supported.
+     */
+    private static final Map<String, XPathFastEvaluator> PARSED_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Cache marker for expressions that are not supported by this evaluator.
+     */
+    private static final XPathFastEvaluator UNSUPPORTED = new XPathFastEvaluator( Collections.emptyList(), Collections.emptySet(), false );
+
+    /**
+     * The parsed location steps of the expression.
+     */
+    private final List<Step> steps;
+
+    /**
+     * Names of all variables referenced by the expression.
+     */
+    private final Set<String> variableNames;
+
+    /**
+     * True if any step has a prefixed name test.
+     */
+    private final boolean prefixed;
+
+    private XPathFastEvaluator( final List<Step> steps, final Set<String> variableNames, final boolean prefixed )
+    {
+        this.steps = steps;
+        this.variableNames = variableNames;
+        this.prefixed = prefixed;
+    }
+
+    /**
+     * Evaluate the expression, if it is supported.
+     * @param xpathExpression the xpath expression.
+     * @param document the context document.
+     * @param values variable values, may be null.
+     * @param namespaceContext bindings used to resolve prefixed name tests.
+     * @param attributeIndex attribute index of the document, may be null.
+     * @return matching elements in document order, or null if the expression must be evaluated by JAXP.
+     * @throws IllegalArgumentException if a supplied variable value is not used by the expression.
+     */
+    static List<Element> evaluate(
+            final String xpathExpression,
+            final Document document,
+            final Map<String, String> values,
+            final XPathNamespaceContext namespaceContext,
+            final XmlAttributeIndexW3c attributeIndex
+    )
+    {
+        final XPathFastEvaluator evaluator = parsed( xpathExpression );
+        final Map<String, String> params = values == null ? Collections.emptyMap() : values;
+        if ( evaluator == UNSUPPORTED || !evaluator.hasValues( params ) )
+        {
+            return null;
+        }
+
+        final List<Step> resolvedSteps = evaluator.resolveSteps( namespaceContext.getBindings() );
+        if ( resolvedSteps == null )
+        {
+            // let JAXP report the unresolvable prefix
+            return null;
+        }
+
+        return evaluateSteps( resolvedSteps, document, params, attributeIndex );
+    }
+
+    /**
+     * Evaluate the expression against the elements of a compact document, if it is supported.  Elements of compact
+     * documents have no namespace, so expressions with prefixed name tests are not supported.
+     * @param xpathExpression the xpath expression.
+     * @param store the elements of the context document.
+     * @param values variable values, may be null.
+     * @return matching elements in document order, or null if the expression is not supported.
+     * @throws IllegalArgumentException if a supplied variable value is not used by the expression.
+     */
+    static List<Integer> evaluate(
+            final String xpathExpression,
+            final XmlCompactStore store,
+            final Map<String, String> values
+    )
+    {
+        final XPathFastEvaluator evaluator = parsed( xpathExpression );
+        final Map<String, String> params = values == null ? Collections.emptyMap() : values;
+        if ( evaluator == UNSUPPORTED || evaluator.prefixed || !evaluator.hasValues( params ) )
+        {
+            return null;
+        }
+
+        final Evaluation evaluation = new Evaluation( params );
+        List<Integer> contexts = Collections.singletonList( XmlCompactStore.NONE );
+        List<Integer> results = Collections.emptyList();
+        boolean contextsFlat = true;
+
+        for ( final Step step : evaluator.steps )
+        {
+            results = new ArrayList<>();
+            if ( step.isDescendant() )
+            {
+                for ( final Integer context : topLevelElements( store, contexts ) )
+                {
+                    evaluation.collectDescendants( store, context, step, results );
+                }
+                contextsFlat = false;
+            }
+            else
+            {
+                final boolean nested = !contextsFlat && topLevelElements( store, contexts ).size() != contexts.size();
+                for ( final Integer context : contexts )
+                {
+                    evaluation.collectChildren( store, context, step, results );
+                }
+                if ( nested )
+                {
+                    // children of nested contexts are distinct but not in document order, which is element number order
+                    Collections.sort( results );
+                }
+                contextsFlat = !nested;
+            }
+            contexts = results;
+        }
+
+        evaluation.checkVariablesUsed();
+        return results;
+    }
+
+    private static XPathFastEvaluator parsed( final String xpathExpression )
+    {
+        Objects.requireNonNull( xpathExpression );
+
+        XPathFastEvaluator evaluator = PARSED_CACHE.get( xpathExpression );
+        if ( evaluator == null )
+        {
+            evaluator = Parser.parse( xpathExpression );
+            if ( PARSED_CACHE.size() >= MAX_CACHE_SIZE )
+            {
+                PARSED_CACHE.clear();
+            }
+            PARSED_CACHE.put( xpathExpression, evaluator );
+        }
+        return evaluator;
+    }
+
+    /**
+     * Test if a value is supplied for every variable referenced by the expression.
+     * @param params variable values.
+     * @return false if a variable is unresolvable, which is left to JAXP to report.
+     */
+    private boolean hasValues( final Map<String, String> params )
+    {
+        for ( final String variableName : variableNames )
+        {
+            if ( params.get( variableName ) == null )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the prefixes of the steps of this expression.
+     * @param bindings namespace uri per prefix.
+     * @return steps with resolved namespaces, or null if a prefix is not bound.
+     */
+    private List<Step> resolveSteps( final Map<String, String> bindings )
+    {
+        if ( !prefixed )
+        {
+            return steps;
+        }
+
+        final List<Step> resolvedSteps = new ArrayList<>( steps.size() );
+        for ( final Step step : steps )
+        {
+            if ( step.getPrefix() == null )
+            {
+                resolvedSteps.add( step );
+            }
+            else
+            {
+                final String namespaceUri = bindings.get( step.getPrefix() );
+                if ( namespaceUri == null )
+                {
+                    return null;
+                }
+                resolvedSteps.add( step.withNamespaceUri( namespaceUri ) );
+            }
+        }
+        return resolvedSteps;
+    }
+
+    private static List<Element> evaluateSteps(
+            final Iterable<Step> steps,
+            final Document document,
+            final Map<String, String> params,
+            final XmlAttributeIndexW3c attributeIndex
+    )
+    {
+        final Evaluation evaluation = new Evaluation( params );
+
+        List<? extends Node> contexts = Collections.singletonList( document );
+        List<Element> results = Collections.emptyList();
+        boolean contextsFlat = true;
+
+        for ( final Step step : steps )
+        {
+            results = new ArrayList<>();
+            if ( contexts.size() == 1 && contexts.get( 0 ) == document && step.isIndexedBy( attributeIndex ) )
+            {
+                evaluation.collectIndexed( document, step, attributeIndex, results );
+                contextsFlat = false;
+            }
+            else if ( step.isDescendant() )
+            {
+                for ( final Node context : topLevelNodes( contexts ) )
+                {
+                    evaluation.collectDescendants( context, step, results );
+                }
+                contextsFlat = false;
+            }
+            else
+            {
+                if ( !contextsFlat && !isFlat( contexts ) )
+                {
+                    // results of child steps of nested contexts would need to be sorted into document order
+                    return null;
+                }
+                for ( final Node context : contexts )
+                {
+                    evaluation.collectChildren( context, step, results );
+                }
+                contextsFlat = true;
+            }
+            contexts = results;
+        }
+
+        evaluation.checkVariablesUsed();
+        return results;
+    }
+
+    /**
+     * Test if none of the nodes is a descendant of another node in the list.
+     * @param nodes nodes in document order.
+     * @return true if no node is nested within another.
+     */
+    private static boolean isFlat( final List<? extends Node> nodes )
+    {
+        return topLevelNodes( nodes ).size() == nodes.size();
+    }
+
+    /**
+     * Filter a list of nodes to those nodes that are not descendants of another node in the list.
+     * @param nodes nodes in document order.
+     * @param <T> node type.
+     * @return the top level nodes, in document order.
+     */
+    private static <T extends Node> List<T> topLevelNodes( final List<T> nodes )
+    {
+        if ( nodes.size() < 2 )
+        {
+            return nodes;
+        }
+
+        final List<T> returnList = new ArrayList<>( nodes.size() );
+        Node lastTopLevel = null;
+        for ( final T node : nodes )
+        {
+            if ( lastTopLevel == null || !isDescendant( node, lastTopLevel ) )
+            {
+                returnList.add( node );
+                lastTopLevel = node;
+            }
+        }
+        return returnList;
+    }
+
+    /**
+     * Filter a list of compact document elements to those elements that are not descendants of another element in
+     * the list.
+     * @param store the elements of the document.
+     * @param elements elements in document order, or {@link XmlCompactStore#NONE} for the document.
+     * @return the top level elements, in document order.
+     */
+    private static List<Integer> topLevelElements( final XmlCompactStore store, final List<Integer> elements )
+    {
+        if ( elements.size() < 2 )
+        {
+            return elements;
+        }
+
+        final List<Integer> returnList = new ArrayList<>( elements.size() );
+        int lastTopLevel = XmlCompactStore.NONE;
+        for ( final Integer element : elements )
+        {
+            if ( lastTopLevel == XmlCompactStore.NONE || !store.isDescendant( element, lastTopLevel ) )
+            {
+                returnList.add( element );
+                lastTopLevel = element;
+            }
+        }
+        return returnList;
+    }
+
+    private static boolean isDescendant( final Node node, final Node ancestor )
+    {
+        for ( Node parent = node.getParentNode(); parent != null; parent = parent.getParentNode() )
+        {
+            if ( parent == ancestor )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * State of a single evaluation.
+     */
+    private static final class Evaluation
+    {
+        /**
+         * Variable values.
+         */
+        private final Map<String, String> params;
+
+        /**
+         * Names of variables referenced by evaluated predicates.
+         */
+        private final Set<String> usedVariables = new HashSet<>();
+
+        Evaluation( final Map<String, String> params )
+        {
+            this.params = params;
+        }
+
+        void collectChildren( final Node parent, final Step step, final Collection<Element> results )
+        {
+            final int[] positions = new int[step.getPredicates().size()];
+            for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                if ( child.getNodeType() == Node.ELEMENT_NODE && matches( ( Element ) child, step, positions ) )
+                {
+                    results.add( ( Element ) child );
+                }
+            }
+        }
+
+        /**
+         * Collect the child elements of a compact document element selected by a step.
+         * @param store the elements of the document.
+         * @param parent the parent element, or {@link XmlCompactStore#NONE} for the document.
+         * @param step the step.
+         * @param results collection to add the selected elements to.
+         */
+        void collectChildren( final XmlCompactStore store, final int parent, final Step step, final Collection<Integer> results )
+        {
+            final int[] positions = new int[step.getPredicates().size()];
+            for ( int child = firstChild( store, parent ); child != XmlCompactStore.NONE; child = store.getNextSibling( child ) )
+            {
+                if ( matches( store, child, step, positions ) )
+                {
+                    results.add( child );
+                }
+            }
+        }
+
+        /**
+         * Collect the descendant elements of a compact document element selected by a step.  As elements are numbered
+         * in document order, the descendants are the elements following the parent up to its last descendant, and are
+         * visited without recursion.  Predicate positions are counted per parent, using a stack of the open ancestors.
+         * @param store the elements of the document.
+         * @param parent the parent element, or {@link XmlCompactStore#NONE} for the document.
+         * @param step the step.
+         * @param results collection to add the selected elements to.
+         */
+        void collectDescendants( final XmlCompactStore store, final int parent, final Step step, final Collection<Integer> results )
+        {
+            final int predicateCount = step.getPredicates().size();
+            final int lastDescendant = store.getLastDescendant( parent == XmlCompactStore.NONE ? 0 : parent );
+            int[] openElements = new int[16];
+            final List<int[]> openPositions = new ArrayList<>();
+            openElements[0] = parent;
+            openPositions.add( new int[predicateCount] );
+            int depth = 1;
+            for ( int element = parent + 1; element <= lastDescendant; element++ )
+            {
+                final int elementParent = store.getParent( element );
+                while ( openElements[depth - 1] != elementParent )
+                {
+                    depth--;
+                }
+                if ( matches( store, element, step, openPositions.get( depth - 1 ) ) )
+                {
+                    results.add( element );
+                }
+
+                if ( depth == openElements.length )
+                {
+                    openElements = Arrays.copyOf( openElements, depth * 2 );
+                }
+                openElements[depth] = element;
+                if ( depth == openPositions.size() )
+                {
+                    openPositions.add( new int[predicateCount] );
+                }
+                else
+                {
+                    Arrays.fill( openPositions.get( depth ), 0 );
+                }
+                depth++;
+            }
+        }
+
+        private static int firstChild( final XmlCompactStore store, final int parent )
+        {
+            return parent == XmlCompactStore.NONE ? 0 : store.getFirstChild( parent );
+        }
+
+        void collectDescendants( final Node parent, final Step step, final Collection<Element> results )
+        {
+            final int[] positions = new int[step.getPredicates().size()];
+            for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                if ( child.getNodeType() == Node.ELEMENT_NODE )
+                {
+                    if ( matches( ( Element ) child, step, positions ) )
+                    {
+                        results.add( ( Element ) child );
+                    }
+                    collectDescendants( child, step, results );
+                }
+            }
+        }
+
+        /**
+         * Collect the elements selected by a descendant step of the document using the attribute index.  Variable
+         * use is recorded as if the step were evaluated against each element matching the step name.
+         * @param document the context document.
+         * @param step a step for which {@link Step#isIndexedBy(XmlAttributeIndexW3c)} is true.
+         * @param attributeIndex the attribute index.
+         * @param results collection to add the selected elements to.
+         */
+        void collectIndexed( final Document document, final Step step, final XmlAttributeIndexW3c attributeIndex, final Collection<Element> results )
+        {
+            final Predicate indexedPredicate = step.getPredicates().get( 0 );
+            final String value = indexedPredicate.getVariableName() == null
+                    ? indexedPredicate.getLiteral()
+                    : params.get( indexedPredicate.getVariableName() );
+
+            boolean nameMatched = false;
+            for ( final Element element : attributeIndex.lookup( indexedPredicate.getAttributeName(), value ) )
+            {
+                if ( step.matchesName( element ) )
+                {
+                    nameMatched = true;
+                    if ( matches( element, step, new int[step.getPredicates().size()] ) )
+                    {
+                        results.add( element );
+                    }
+                }
+            }
+
+            if ( !nameMatched && indexedPredicate.getVariableName() != null )
+            {
+                if ( anyElementMatchesName( document, step ) )
+                {
+                    usedVariables.add( indexedPredicate.getVariableName() );
+                }
+            }
+        }
+
+        private static boolean anyElementMatchesName( final Document document, final Step step )
+        {
+            if ( step.getName() == null )
+            {
+                return document.getDocumentElement() != null;
+            }
+
+            final NodeList elements = document.getElementsByTagName( "*" );
+            for ( int i = 0; i < elements.getLength(); i++ )
+            {
+                if ( step.matchesName( ( Element ) elements.item( i ) ) )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Test an element against the step.
+         * @param element the candidate element.
+         * @param step the step to test.
+         * @param positions for each predicate, the count of siblings that have reached that predicate so far.
+         * @return true if the element is selected by the step.
+         */
+        private boolean matches( final Element element, final Step step, final int[] positions )
+        {
+            if ( !step.matchesName( element ) )
+            {
+                return false;
+            }
+
+            for ( int i = 0; i < positions.length; i++ )
+            {
+                final Predicate predicate = step.getPredicates().get( i );
+                positions[i]++;
+                if ( !predicate.test( element, positions[i], this ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean matches( final XmlCompactStore store, final int element, final Step step, final int[] positions )
+        {
+            if ( !step.matchesName( store.getName( element ) ) )
+            {
+                return false;
+            }
+
+            for ( int i = 0; i < positions.length; i++ )
+            {
+                final Predicate predicate = step.getPredicates().get( i );
+                positions[i]++;
+                final String attributeName = predicate.getAttributeName();
+                final String attributeValue = attributeName == null ? null : store.getAttributeValue( element, attributeName );
+                if ( !predicate.test( attributeValue, positions[i], this ) )
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Check that every supplied variable value was referenced by an evaluated predicate.
+         * @throws IllegalArgumentException if a variable value was not used.
+         */
+        void checkVariablesUsed()
+        {
+            final Set<String> unusedKeys = new HashSet<>( params.keySet() );
+            unusedKeys.removeAll( usedVariables );
+            if ( !unusedKeys.isEmpty() )
+            {
+                final String key = unusedKeys.iterator().next();
+                throw new IllegalArgumentException( "xpath expression did not utilize variable $"
+                        + key
+                        + " for which a parameter value was included" );
+            }
+        }
+
+        String variableValue( final String variableName )
+        {
+            usedVariables.add( variableName );
+            return params.get( variableName );
+        }
+    }
+
+    /**
+     * A single location step.
+     */
+    private static final class Step
+    {
+        /**
+         * True for a descendant ({@code //}) step, false for a child ({@code /}) step.
+         */
+        private final boolean descendant;
+
+        /**
+         * Local element name to match, or null to match any element.
+         */
+        private final String name;
+
+        /**
+         * Prefix of the name test, or null for an unprefixed name test.
+         */
+        private final String prefix;
+
+        /**
+         * Namespace uri of the prefix, once resolved.
+         */
+        private final String namespaceUri;
+
+        /**
+         * Predicates of the step, in order.
+         */
+        private final List<Predicate> predicates;
+
+        Step( final boolean descendant, final String name, final String prefix, final String namespaceUri, final List<Predicate> predicates )
+        {
+            this.descendant = descendant;
+            this.name = name;
+            this.prefix = prefix;
+            this.namespaceUri = namespaceUri;
+            this.predicates = predicates;
+        }
+
+        Step withNamespaceUri( final String namespaceUri )
+        {
+            return new Step( descendant, name, prefix, namespaceUri, predicates );
+        }
+
+        boolean isDescendant()
+        {
+            return descendant;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        String getPrefix()
+        {
+            return prefix;
+        }
+
+        List<Predicate> getPredicates()
+        {
+            return predicates;
+        }
+
+        /**
+         * Test the name of an element against the name test of the step.  Elements created without namespace
+         * support have no namespace and are matched using their full name.
+         * @param element the candidate element.
+         * @return true if the element matches the name test.
+         */
+        boolean matchesName( final Element element )
+        {
+            if ( name == null )
+            {
+                return true;
+            }
+
+            if ( prefix == null )
+            {
+                if ( element.getNamespaceURI() != null )
+                {
+                    return false;
+                }
+                final String localName = element.getLocalName();
+                return name.equals( localName == null ? element.getTagName() : localName );
+            }
+
+            return name.equals( element.getLocalName() ) && namespaceUri.equals( element.getNamespaceURI() );
+        }
+
+        /**
+         * Test the name of an element without a namespace against the unprefixed name test of the step.
+         * @param elementName name of the candidate element.
+         * @return true if the element matches the name test.
+         */
+        boolean matchesName( final String elementName )
+        {
+            return name == null || name.equals( elementName );
+        }
+
+        /**
+         * Test if the step can be evaluated from the document using an attribute index.  This is the case for
+         * descendant steps whose predicates are all attribute predicates, the first comparing an indexed attribute.
+         * @param attributeIndex attribute index, may be null.
+         * @return true if the step can use the index.
+         */
+        boolean isIndexedBy( final XmlAttributeIndexW3c attributeIndex )
+        {
+            if ( attributeIndex == null || !descendant || predicates.isEmpty() )
+            {
+                return false;
+            }
+
+            for ( final Predicate predicate : predicates )
+            {
+                if ( predicate.getAttributeName() == null )
+                {
+                    return false;
+                }
+            }
+
+            final Predicate first = predicates.get( 0 );
+            return ( first.getLiteral() != null || first.getVariableName() != null )
+                    && attributeIndex.isIndexed( first.getAttributeName() );
+        }
+    }
+
+    /**
+     * A single step predicate.
+     */
+    private static final class Predicate
+    {
+        /**
+         * Position to match, or zero for an attribute predicate.
+         */
+        private final int position;
+
+        /**
+         * Attribute name for an attribute predicate.
+         */
+        private final String attributeName;
+
+        /**
+         * Literal value to compare the attribute to, if any.
+         */
+        private final String literal;
+
+        /**
+         * Variable name containing the value to compare the attribute to, if any.
+         */
+        private final String variableName;
+
+        Predicate( final int position, final String attributeName, final String literal, final String variableName )
+        {
+            this.position = position;
+            this.attributeName = attributeName;
+            this.literal = literal;
+            this.variableName = variableName;
+        }
+
+        String getAttributeName()
+        {
+            return attributeName;
+        }
+
+        String getLiteral()
+        {
+            return literal;
+        }
+
+        String getVariableName()
+        {
+            return variableName;
+        }
+
+        boolean test( final Element element, final int contextPosition, final Evaluation evaluation )
+        {
+            final Attr attr = attributeName == null ? null : element.getAttributeNode( attributeName );
+            return test( attr == null ? null : attr.getValue(), contextPosition, evaluation );
+        }
+
+        /**
+         * Test an element against the predicate.
+         * @param attributeValue value of the attribute of the predicate, or null if the element has no such
+         *     attribute or this is a positional predicate.
+         * @param contextPosition position of the element among the siblings that reached this predicate.
+         * @param evaluation the evaluation, recording variable use.
+         * @return true if the element is selected by the predicate.
+         */
+        boolean test( final String attributeValue, final int contextPosition, final Evaluation evaluation )
+        {
+            if ( attributeName == null )
+            {
+                return contextPosition == position;
+            }
+
+            final String compareValue = variableName == null ? literal : evaluation.variableValue( variableName );
+            if ( attributeValue == null )
+            {
+                return false;
+            }
+
+            return compareValue == null || compareValue.equals( attributeValue );
+        }
+    }
+
+    /**
+     * Parser for the supported expression subset.
+     */
+    @SuppressFBWarnings( "STT_STRING_PARSING_A_FIELD" )
+    // STT_STRING_PARSING_A_FIELD the parser intentionally scans its expression field
+    private static final class Parser
+    {
+        /**
+         * The expression being parsed.
+         */
+        private final String expression;
+
+        /**
+         * Variables referenced by the expression.
+         */
+        private final Set<String> variableNames = new HashSet<>();
+
+        /**
+         * True once a prefixed name test has been parsed.
+         */
+        private boolean prefixed;
+
+        /**
+         * Current parse position.
+         */
+        private int index;
+
+        private Parser( final String expression )
+        {
+            this.expression = expression;
+        }
+
+        static XPathFastEvaluator parse( final String expression )
+        {
+            final Parser parser = new Parser( expression );
+            final List<Step> steps = parser.parseSteps();
+            return steps == null
+                    ? UNSUPPORTED
+                    : new XPathFastEvaluator( Collections.unmodifiableList( steps ), Collections.unmodifiableSet( parser.variableNames ), parser.prefixed );
+        }
+
+        private List<Step> parseSteps()
+        {
+            final List<Step> steps = new ArrayList<>( 4 );
+            boolean firstStep = true;
+
+            while ( index < expression.length() || firstStep )
+            {
+                boolean descendant = false;
+                if ( expression.startsWith( "//", index ) )
+                {
+                    descendant = true;
+                    index += 2;
+                }
+                else if ( expression.startsWith( "/", index ) )
+                {
+                    index++;
+                }
+                else if ( !firstStep )
+                {
+                    return null;
+                }
+                firstStep = false;
+
+                final Step step = parseStep( descendant );
+                if ( step == null )
+                {
+                    return null;
+                }
+                steps.add( step );
+            }
+
+            return steps;
+        }
+
+        private Step parseStep( final boolean descendant )
+        {
+            String prefix = null;
+            String name = null;
+            if ( expression.startsWith( "*", index ) )
+            {
+                index++;
+            }
+            else
+            {
+                name = parseName();
+                if ( name != null && expression.startsWith( ":", index ) )
+                {
+                    index++;
+                    prefix = name;
+                    prefixed = true;
+                    name = parseName();
+                }
+                if ( name == null || expression.startsWith( ":", index ) )
+                {
+                    return null;
+                }
+            }
+
+            final List<Predicate> predicates = new ArrayList<>( 2 );
+            while ( expression.startsWith( "[", index ) )
+            {
+                index++;
+                final Predicate predicate = parsePredicate();
+                if ( predicate == null )
+                {
+                    return null;
+                }
+                predicates.add( predicate );
+            }
+
+            return new Step( descendant, name, prefix, null, predicates.isEmpty() ? Collections.emptyList() : predicates );
+        }
+
+        private Predicate parsePredicate()
+        {
+            skipWhitespace();
+            final Predicate predicate;
+
+            if ( expression.startsWith( "@", index ) )
+            {
+                index++;
+                final String attributeName = parseName();
+                if ( attributeName == null || expression.startsWith( ":", index ) || XMLConstants.XMLNS_ATTRIBUTE.equals( attributeName ) )
+                {
+                    // prefixed attributes and namespace declarations are left to JAXP
+                    return null;
+                }
+
+                skipWhitespace();
+                if ( expression.startsWith( "=", index ) )
+                {
+                    index++;
+                    skipWhitespace();
+                    predicate = parseComparison( attributeName );
+                    if ( predicate == null )
+                    {
+                        return null;
+                    }
+                }
+                else
+                {
+                    predicate = new Predicate( 0, attributeName, null, null );
+                }
+            }
+            else
+            {
+                final int start = index;
+                while ( index < expression.length() && expression.charAt( index ) >= '0' && expression.charAt( index ) <= '9' )
+                {
+                    index++;
+                }
+                if ( index == start || index - start > 9 || expression.charAt( start ) == '0' )
+                {
+                    return null;
+                }
+                predicate = new Predicate( Integer.parseInt( expression.substring( start, index ) ), null, null, null );
+            }
+
+            skipWhitespace();
+            if ( !expression.startsWith( "]", index ) )
+            {
+                return null;
+            }
+            index++;
+            return predicate;
+        }
+
+        private Predicate parseComparison( final String attributeName )
+        {
+            if ( index >= expression.length() )
+            {
+                return null;
+            }
+
+            final char firstChar = expression.charAt( index );
+            if ( firstChar == '$' )
+            {
+                index++;
+                final int start = index;
+                while ( index < expression.length() && isVariableNameChar( expression.charAt( index ) ) )
+                {
+                    index++;
+                }
+                if ( index == start )
+                {
+                    return null;
+                }
+                final String variableName = expression.substring( start, index );
+                variableNames.add( variableName );
+                return new Predicate( 0, attributeName, null, variableName );
+            }
+
+            if ( firstChar == '\'' || firstChar == '"' )
+            {
+                final int end = expression.indexOf( firstChar, index + 1 );
+                if ( end < 0 )
+                {
+                    return null;
+                }
+                final String literal = expression.substring( index + 1, end );
+                index = end + 1;
+                return new Predicate( 0, attributeName, literal, null );
+            }
+
+            return null;
+        }
+
+        /**
+         * Parse an element or attribute name, or one part of a prefixed name.
+         * @return the name, or null for names of an xpath axis or function.
+         */
+        private String parseName()
+        {
+            final int start = index;
+            if ( index >= expression.length() || !isNameStartChar( expression.charAt( index ) ) )
+            {
+                return null;
+            }
+            index++;
+            while ( index < expression.length() && isNameChar( expression.charAt( index ) ) )
+            {
+                index++;
+            }
+
+            if ( expression.startsWith( "::", index ) || expression.startsWith( "(", index ) )
+            {
+                return null;
+            }
+
+            return expression.substring( start, index );
+        }
+
+        private void skipWhitespace()
+        {
+            while ( index < expression.length() && Character.isWhitespace( expression.charAt( index ) ) )
+            {
+                index++;
+            }
+        }
+
+        private static boolean isNameStartChar( final char value )
+        {
+            return Character.isLetter( value ) || value == '_';
+        }
+
+        private static boolean isNameChar( final char value )
+        {
+            return Character.isLetterOrDigit( value ) || value == '_' || value == '-' || value == '.';
+        }
+
+        private static boolean isVariableNameChar( final char value )
+        {
+            return Character.isLetterOrDigit( value ) || value == '_' || value == '-';
+        }
+    }
+}
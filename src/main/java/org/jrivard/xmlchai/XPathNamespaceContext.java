@@ -0,0 +1,160 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Immutable prefix to namespace uri bindings used to resolve prefixed xpath name tests, shared by the
+ * JAXP evaluator and {@link XPathFastEvaluator}.
+ */
+final class XPathNamespaceContext implements NamespaceContext
+{
+    /**
+     * Context without any bindings.
+     */
+    static final XPathNamespaceContext EMPTY = new XPathNamespaceContext( Collections.emptyMap() );
+
+    /**
+     * Prefix of namespace declaration attributes.
+     */
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+
+    /**
+     * Namespace uri per prefix.
+     */
+    private final Map<String, String> bindings;
+
+    private XPathNamespaceContext( final Map<String, String> bindings )
+    {
+        this.bindings = bindings;
+    }
+
+    /**
+     * Create a context of the prefixes declared on an element.
+     * @param element the element, may be null.
+     * @return the declared prefixes, excluding any default namespace which does not apply to xpath name tests.
+     */
+    static XPathNamespaceContext declaredBy( final Element element )
+    {
+        if ( element == null )
+        {
+            return EMPTY;
+        }
+
+        final Map<String, String> declared = new HashMap<>();
+        final NamedNodeMap attributes = element.getAttributes();
+        for ( int i = 0; i < attributes.getLength(); i++ )
+        {
+            final Node attribute = attributes.item( i );
+            if ( attribute.getNodeName().startsWith( XMLNS_PREFIX ) )
+            {
+                declared.put( attribute.getNodeName().substring( XMLNS_PREFIX.length() ), attribute.getNodeValue() );
+            }
+        }
+        return declared.isEmpty() ? EMPTY : new XPathNamespaceContext( Collections.unmodifiableMap( declared ) );
+    }
+
+    /**
+     * Create a context combining these bindings with {@code additional} bindings.
+     * @param additional bindings that take precedence over the bindings of this context.
+     * @return the combined context, or this context if {@code additional} is empty.
+     */
+    XPathNamespaceContext withBindings( final Map<String, String> additional )
+    {
+        if ( additional.isEmpty() )
+        {
+            return this;
+        }
+
+        final Map<String, String> combined = new HashMap<>( bindings );
+        for ( final Map.Entry<String, String> entry : additional.entrySet() )
+        {
+            combined.put( Objects.requireNonNull( entry.getKey() ), Objects.requireNonNull( entry.getValue() ) );
+        }
+        return new XPathNamespaceContext( Collections.unmodifiableMap( combined ) );
+    }
+
+    Map<String, String> getBindings()
+    {
+        return bindings;
+    }
+
+    @Override
+    public String getNamespaceURI( final String prefix )
+    {
+        Objects.requireNonNull( prefix );
+
+        if ( XMLConstants.XML_NS_PREFIX.equals( prefix ) )
+        {
+            return XMLConstants.XML_NS_URI;
+        }
+        if ( XMLConstants.XMLNS_ATTRIBUTE.equals( prefix ) )
+        {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        final String namespaceUri = bindings.get( prefix );
+        return namespaceUri == null ? XMLConstants.NULL_NS_URI : namespaceUri;
+    }
+
+    @Override
+    public String getPrefix( final String namespaceUri )
+    {
+        final Iterator<String> prefixes = getPrefixes( namespaceUri );
+        return prefixes.hasNext() ? prefixes.next() : null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes( final String namespaceUri )
+    {
+        Objects.requireNonNull( namespaceUri );
+
+        if ( XMLConstants.XML_NS_URI.equals( namespaceUri ) )
+        {
+            return Collections.singletonList( XMLConstants.XML_NS_PREFIX ).iterator();
+        }
+        if ( XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals( namespaceUri ) )
+        {
+            return Collections.singletonList( XMLConstants.XMLNS_ATTRIBUTE ).iterator();
+        }
+
+        final List<String> prefixes = new ArrayList<>( 1 );
+        for ( final Map.Entry<String, String> entry : bindings.entrySet() )
+        {
+            if ( entry.getValue().equals( namespaceUri ) )
+            {
+                prefixes.add( entry.getKey() );
+            }
+        }
+        return Collections.unmodifiableList( prefixes ).iterator();
+    }
+}
@@ -19,6 +19,7 @@
 
 package org.jrivard.xmlchai;
 
+import javax.xml.namespace.NamespaceContext;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathFactory;
 import java.util.Collections;
@@ -42,9 +43,10 @@ class XPathVariableInjector
      */
     private final XPath xpath;
 
-    XPathVariableInjector( final Map<String, String> suppliedParams )
+    XPathVariableInjector( final Map<String, String> suppliedParams, final NamespaceContext namespaceContext )
     {
         xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext( namespaceContext );
 
         final Map<String, String> copiedParams = new HashMap<>( suppliedParams == null ? Collections.emptyMap() : suppliedParams );
 
@@ -0,0 +1,280 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Internal index of the elements of a w3c document by attribute value.  Callers are expected to hold the lock of
+ * the owning document.
+ *
+ * <p>The index for an attribute name is built on the first lookup.  After that the index is maintained eagerly: the
+ * document calls the {@code ...Removing} methods before an element, subtree or attribute leaves the document or
+ * changes, and {@link #attributeSet(Element, String)} or {@link #subtreeAttached(Element)} afterwards, so the index
+ * never holds elements that are no longer part of the document.</p>
+ */
+final class XmlAttributeIndexW3c
+{
+    /**
+     * Orders nodes of the same document in document order.
+     */
+    private static final Comparator<Node> DOCUMENT_ORDER = ( node1, node2 ) ->
+    {
+        if ( node1 == node2 )
+        {
+            return 0;
+        }
+        return ( node1.compareDocumentPosition( node2 ) & Node.DOCUMENT_POSITION_FOLLOWING ) != 0 ? -1 : 1;
+    };
+
+    /**
+     * The indexed document.
+     */
+    private final Node document;
+
+    /**
+     * Indexes by attribute name.  The value is null until the index for the attribute is first used.
+     */
+    private final Map<String, Map<String, Set<Element>>> indexes = new HashMap<>();
+
+    XmlAttributeIndexW3c( final Node document )
+    {
+        this.document = document;
+    }
+
+    void addAttributeName( final String attributeName )
+    {
+        indexes.putIfAbsent( attributeName, null );
+    }
+
+    boolean isIndexed( final String attributeName )
+    {
+        return indexes.containsKey( attributeName );
+    }
+
+    /**
+     * Lookup the elements having an indexed attribute value.
+     * @param attributeName an indexed attribute name.
+     * @param value the attribute value.
+     * @return the matching elements in document order.
+     */
+    List<Element> lookup( final String attributeName, final String value )
+    {
+        Map<String, Set<Element>> index = indexes.get( attributeName );
+        if ( index == null )
+        {
+            index = new HashMap<>();
+            addSubtree( document, attributeName, index );
+            indexes.put( attributeName, index );
+        }
+
+        final Set<Element> elements = index.get( value );
+        if ( elements == null )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<Element> results = new ArrayList<>( elements );
+        results.sort( DOCUMENT_ORDER );
+        return results;
+    }
+
+    /**
+     * Record the current value of an attribute of an element attached to the document.
+     * @param element the modified element.
+     * @param attributeName name of the set attribute.
+     */
+    void attributeSet( final Element element, final String attributeName )
+    {
+        final Map<String, Set<Element>> index = indexes.get( attributeName );
+        if ( index != null )
+        {
+            addElement( element, attributeName, index );
+        }
+    }
+
+    /**
+     * Remove an element from the index of an attribute before the attribute is changed or removed.
+     * @param element the element to be modified.
+     * @param attributeName name of the attribute to be changed or removed.
+     */
+    void attributeRemoving( final Element element, final String attributeName )
+    {
+        final Map<String, Set<Element>> index = indexes.get( attributeName );
+        if ( index != null )
+        {
+            removeElement( element, attributeName, index );
+        }
+    }
+
+    /**
+     * Remove an element from all indexes before all of its attributes are removed.
+     * @param element the element to be modified.
+     */
+    void attributesRemoving( final Element element )
+    {
+        for ( final Map.Entry<String, Map<String, Set<Element>>> entry : indexes.entrySet() )
+        {
+            if ( entry.getValue() != null )
+            {
+                removeElement( element, entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Remove the elements of a subtree before it is detached from the document.
+     * @param subtreeRoot root element of the subtree to be detached.
+     */
+    void subtreeRemoving( final Element subtreeRoot )
+    {
+        attributesRemoving( subtreeRoot );
+        childrenRemoving( subtreeRoot );
+    }
+
+    /**
+     * Remove the descendant elements of an element before its children are removed or replaced.
+     * @param parent the element whose children are to be removed.
+     */
+    void childrenRemoving( final Node parent )
+    {
+        for ( final Map.Entry<String, Map<String, Set<Element>>> entry : indexes.entrySet() )
+        {
+            if ( entry.getValue() != null )
+            {
+                removeSubtree( parent, entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Record the attributes of a subtree newly attached to the document.
+     * @param subtreeRoot root element of the attached subtree.
+     */
+    void subtreeAttached( final Element subtreeRoot )
+    {
+        for ( final Map.Entry<String, Map<String, Set<Element>>> entry : indexes.entrySet() )
+        {
+            if ( entry.getValue() != null )
+            {
+                addElement( subtreeRoot, entry.getKey(), entry.getValue() );
+                addSubtree( subtreeRoot, entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+    /**
+     * Find elements having an attribute value by scanning the entire subtree.
+     * @param parent the subtree root.
+     * @param attributeName attribute name.
+     * @param value attribute value.
+     * @param results list to add the matching elements to, in document order.
+     */
+    static void scan( final Node parent, final String attributeName, final String value, final Collection<Element> results )
+    {
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                final Attr attr = ( ( Element ) child ).getAttributeNode( attributeName );
+                if ( attr != null && value.equals( attr.getValue() ) )
+                {
+                    results.add( ( Element ) child );
+                }
+                scan( child, attributeName, value, results );
+            }
+        }
+    }
+
+    private static void addSubtree(
+            final Node parent,
+            final String attributeName,
+            final Map<String, Set<Element>> index
+    )
+    {
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                addElement( ( Element ) child, attributeName, index );
+                addSubtree( child, attributeName, index );
+            }
+        }
+    }
+
+    private static void addElement(
+            final Element element,
+            final String attributeName,
+            final Map<String, Set<Element>> index
+    )
+    {
+        final Attr attr = element.getAttributeNode( attributeName );
+        if ( attr != null )
+        {
+            // identity based, so re-adding an element that is already indexed is a constant time no-op
+            index.computeIfAbsent( attr.getValue(), k -> Collections.newSetFromMap( new IdentityHashMap<>( 1 ) ) ).add( element );
+        }
+    }
+
+    private static void removeSubtree(
+            final Node parent,
+            final String attributeName,
+            final Map<String, Set<Element>> index
+    )
+    {
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                removeElement( ( Element ) child, attributeName, index );
+                removeSubtree( child, attributeName, index );
+            }
+        }
+    }
+
+    private static void removeElement(
+            final Element element,
+            final String attributeName,
+            final Map<String, Set<Element>> index
+    )
+    {
+        final Attr attr = element.getAttributeNode( attributeName );
+        if ( attr != null )
+        {
+            final Set<Element> elements = index.get( attr.getValue() );
+            if ( elements != null && elements.remove( element ) && elements.isEmpty() )
+            {
+                index.remove( attr.getValue() );
+            }
+        }
+    }
+}
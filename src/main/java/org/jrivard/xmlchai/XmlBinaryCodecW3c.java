@@ -0,0 +1,677 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal encoder and decoder of the binary document format used by {@link XmlFactory#outputBinary(XmlDocument, OutputStream)}.
+ *
+ * <p>The format is a header followed by a pre-order sequence of node records.  Each record starts with a
+ * node type byte, element records are terminated by an {@link #END} byte after their children.  Strings are
+ * UTF-8 encoded and prefixed with their byte length as an unsigned varint, and are never escaped.  Element and
+ * attribute names are written once and afterwards referenced by their index in a name table that is built
+ * up in the same order by the encoder and decoder.</p>
+ *
+ * <p>Documents parsed with namespace support are encoded with the {@link #FLAG_NAMESPACES} header flag, in which
+ * case every element and attribute name is followed by a namespace reference.  Namespace uris share the name
+ * table.</p>
+ */
+final class XmlBinaryCodecW3c
+{
+    /**
+     * Leading bytes of every encoded document.
+     */
+    private static final byte[] MAGIC = {'X', 'C', 'B'};
+
+    /**
+     * Version of the binary format.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Header flag indicating the document is standalone.
+     */
+    private static final int FLAG_STANDALONE = 1;
+
+    /**
+     * Header flag indicating element and attribute names are followed by a namespace reference.
+     */
+    private static final int FLAG_NAMESPACES = 2;
+
+    /**
+     * Record marking the end of the children of an element or document.
+     */
+    private static final int END = 0;
+
+    /**
+     * Element record: name, attribute count, attributes, children, {@link #END}.
+     */
+    private static final int ELEMENT = 1;
+
+    /**
+     * Text record: value.
+     */
+    private static final int TEXT = 2;
+
+    /**
+     * CDATA section record: value.
+     */
+    private static final int CDATA = 3;
+
+    /**
+     * Comment record: value.
+     */
+    private static final int COMMENT = 4;
+
+    /**
+     * Processing instruction record: target, data.
+     */
+    private static final int PROCESSING_INSTRUCTION = 5;
+
+    /**
+     * Name reference value introducing a name that is not yet in the name table.
+     */
+    private static final int NEW_NAME = 0;
+
+    /**
+     * Namespace reference value of a name without a namespace.
+     */
+    private static final int NO_NAMESPACE = 0;
+
+    /**
+     * Namespace reference value introducing a namespace uri that is not yet in the name table.  Larger values
+     * reference the name table entry at the value minus two.
+     */
+    private static final int NEW_NAMESPACE = 1;
+
+    /**
+     * Size of the input and output buffers.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private XmlBinaryCodecW3c()
+    {
+    }
+
+    static void encode( final Document document, final OutputStream outputStream )
+            throws IOException
+    {
+        final Element rootElement = document.getDocumentElement();
+        final boolean namespaces = rootElement != null && rootElement.getLocalName() != null;
+
+        final Encoder encoder = new Encoder( outputStream, namespaces );
+        encoder.writeBytes( MAGIC );
+        encoder.writeVarint( FORMAT_VERSION );
+        encoder.writeVarint( ( document.getXmlStandalone() ? FLAG_STANDALONE : 0 ) | ( namespaces ? FLAG_NAMESPACES : 0 ) );
+        encoder.writeString( document.getXmlVersion() == null ? "1.0" : document.getXmlVersion() );
+        encoder.writeChildren( document );
+        encoder.flush();
+    }
+
+    /**
+     * Decode a document.
+     * @param inputStream source of the encoded document.
+     * @param document an empty document that receives the decoded content.
+     * @throws IOException if the data is not valid or the stream fails.
+     * @throws org.w3c.dom.DOMException if the data contains an invalid name or node structure.
+     */
+    static void decode( final InputStream inputStream, final Document document )
+            throws IOException
+    {
+        final Decoder decoder = new Decoder( inputStream );
+        for ( final byte magicByte : MAGIC )
+        {
+            if ( decoder.readByte() != magicByte )
+            {
+                throw new IOException( "input is not xmlchai binary xml data" );
+            }
+        }
+
+        final int version = decoder.readVarint();
+        if ( version != FORMAT_VERSION )
+        {
+            throw new IOException( "unsupported binary xml format version " + version );
+        }
+
+        final int flags = decoder.readVarint();
+        final String xmlVersion = decoder.readString();
+        decoder.setNamespaces( ( flags & FLAG_NAMESPACES ) != 0 );
+
+        document.setXmlStandalone( ( flags & FLAG_STANDALONE ) != 0 );
+        document.setXmlVersion( xmlVersion );
+
+        // the data may not have been created by the encoder, so names are checked as nodes are created and the
+        // document structure is checked by the decoder
+        decoder.readChildren( document );
+    }
+
+    /**
+     * Writes records to a buffered output stream.
+     */
+    private static final class Encoder
+    {
+        /**
+         * Destination stream.
+         */
+        private final OutputStream outputStream;
+
+        /**
+         * Bytes not yet written to {@link #outputStream}.
+         */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * Index in the name table of each name already written.
+         */
+        private final Map<String, Integer> nameTable = new HashMap<>();
+
+        /**
+         * True if names are followed by a namespace reference.
+         */
+        private final boolean namespaces;
+
+        /**
+         * Count of bytes used in {@link #buffer}.
+         */
+        private int position;
+
+        Encoder( final OutputStream outputStream, final boolean namespaces )
+        {
+            this.outputStream = outputStream;
+            this.namespaces = namespaces;
+        }
+
+        /**
+         * Write the children of a node followed by an {@link #END} record.  The tree is walked through parent and
+         * sibling references rather than by recursion, so the element depth of the document is not limited by
+         * the thread stack size.
+         * @param parent the node whose children are written.
+         * @throws IOException if the stream fails.
+         */
+        void writeChildren( final Node parent )
+                throws IOException
+        {
+            Node container = parent;
+            Node node = parent.getFirstChild();
+            while ( true )
+            {
+                if ( node == null )
+                {
+                    // entity references are written as their replacement content and have no end record
+                    if ( container.getNodeType() != Node.ENTITY_REFERENCE_NODE )
+                    {
+                        writeVarint( END );
+                    }
+                    if ( container == parent )
+                    {
+                        return;
+                    }
+                    node = container.getNextSibling();
+                    container = container.getParentNode();
+                }
+                else if ( writeNode( node ) )
+                {
+                    container = node;
+                    node = node.getFirstChild();
+                }
+                else
+                {
+                    node = node.getNextSibling();
+                }
+            }
+        }
+
+        /**
+         * Write the record of a node, without its children.
+         * @param node the node to write.
+         * @return true if the children of the node are to be written next.
+         * @throws IOException if the stream fails.
+         */
+        private boolean writeNode( final Node node )
+                throws IOException
+        {
+            switch ( node.getNodeType() )
+            {
+                case Node.ELEMENT_NODE:
+                    writeVarint( ELEMENT );
+                    writeName( node.getNodeName() );
+                    writeNamespace( node.getNamespaceURI() );
+                    final NamedNodeMap attributes = node.getAttributes();
+                    final int attributeCount = attributes.getLength();
+                    writeVarint( attributeCount );
+                    for ( int i = 0; i < attributeCount; i++ )
+                    {
+                        final Attr attr = ( Attr ) attributes.item( i );
+                        writeName( attr.getName() );
+                        writeNamespace( attr.getNamespaceURI() );
+                        writeString( attr.getValue() );
+                    }
+                    return true;
+
+                case Node.TEXT_NODE:
+                    writeVarint( TEXT );
+                    writeString( node.getNodeValue() );
+                    break;
+
+                case Node.CDATA_SECTION_NODE:
+                    writeVarint( CDATA );
+                    writeString( node.getNodeValue() );
+                    break;
+
+                case Node.COMMENT_NODE:
+                    writeVarint( COMMENT );
+                    writeString( node.getNodeValue() );
+                    break;
+
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    writeVarint( PROCESSING_INSTRUCTION );
+                    writeString( ( ( ProcessingInstruction ) node ).getTarget() );
+                    writeString( ( ( ProcessingInstruction ) node ).getData() );
+                    break;
+
+                case Node.ENTITY_REFERENCE_NODE:
+                    // entity references are written as their replacement content
+                    return true;
+
+                default:
+                    break;
+            }
+            return false;
+        }
+
+        private void writeName( final String name )
+                throws IOException
+        {
+            final Integer index = nameTable.get( name );
+            if ( index != null )
+            {
+                writeVarint( index + 1 );
+            }
+            else
+            {
+                nameTable.put( name, nameTable.size() );
+                writeVarint( NEW_NAME );
+                writeString( name );
+            }
+        }
+
+        private void writeNamespace( final String namespaceUri )
+                throws IOException
+        {
+            if ( !namespaces )
+            {
+                return;
+            }
+
+            if ( namespaceUri == null )
+            {
+                writeVarint( NO_NAMESPACE );
+                return;
+            }
+
+            final Integer index = nameTable.get( namespaceUri );
+            if ( index != null )
+            {
+                writeVarint( index + 2 );
+            }
+            else
+            {
+                nameTable.put( namespaceUri, nameTable.size() );
+                writeVarint( NEW_NAMESPACE );
+                writeString( namespaceUri );
+            }
+        }
+
+        void writeString( final String value )
+                throws IOException
+        {
+            final byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            writeVarint( bytes.length );
+            writeBytes( bytes );
+        }
+
+        void writeVarint( final int value )
+                throws IOException
+        {
+            if ( position > BUFFER_SIZE - 5 )
+            {
+                flushBuffer();
+            }
+
+            int remaining = value;
+            while ( ( remaining & ~0x7F ) != 0 )
+            {
+                buffer[position++] = ( byte ) ( ( remaining & 0x7F ) | 0x80 );
+                remaining >>>= 7;
+            }
+            buffer[position++] = ( byte ) remaining;
+        }
+
+        void writeBytes( final byte[] bytes )
+                throws IOException
+        {
+            if ( bytes.length > BUFFER_SIZE - position )
+            {
+                flushBuffer();
+                if ( bytes.length > BUFFER_SIZE )
+                {
+                    outputStream.write( bytes );
+                    return;
+                }
+            }
+            System.arraycopy( bytes, 0, buffer, position, bytes.length );
+            position += bytes.length;
+        }
+
+        void flush()
+                throws IOException
+        {
+            flushBuffer();
+            outputStream.flush();
+        }
+
+        private void flushBuffer()
+                throws IOException
+        {
+            outputStream.write( buffer, 0, position );
+            position = 0;
+        }
+    }
+
+    /**
+     * Reads records from an input stream.
+     */
+    private static final class Decoder
+    {
+        /**
+         * Source stream.
+         */
+        private final InputStream inputStream;
+
+        /**
+         * Bytes read from {@link #inputStream}.
+         */
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+
+        /**
+         * Names in order of their first appearance.
+         */
+        private final List<String> nameTable = new ArrayList<>();
+
+        /**
+         * Index of the next unread byte in {@link #buffer}.
+         */
+        private int position;
+
+        /**
+         * Count of valid bytes in {@link #buffer}.
+         */
+        private int limit;
+
+        /**
+         * True if names are followed by a namespace reference.
+         */
+        private boolean namespaces;
+
+        Decoder( final InputStream inputStream )
+        {
+            this.inputStream = inputStream;
+        }
+
+        void setNamespaces( final boolean namespaces )
+        {
+            this.namespaces = namespaces;
+        }
+
+        /**
+         * Read the records of the document.  Nesting is tracked through the parent of the current node rather than
+         * by recursion, so the element depth of the data is not limited by the thread stack size.  The document
+         * may hold a single root element and no text, which the decoder checks itself as appending is done without
+         * the strict error checking of the document.
+         * @param document the document receiving the decoded nodes.
+         * @throws IOException if the data is not valid or the stream fails.
+         */
+        void readChildren( final Document document )
+                throws IOException
+        {
+            Node parent = document;
+            while ( true )
+            {
+                final int recordType = readVarint();
+                switch ( recordType )
+                {
+                    case END:
+                        if ( parent == document )
+                        {
+                            return;
+                        }
+                        parent = parent.getParentNode();
+                        break;
+
+                    case ELEMENT:
+                        if ( parent == document && document.getDocumentElement() != null )
+                        {
+                            throw new IOException( "binary xml data has more than one root element" );
+                        }
+                        final String elementName = readName();
+                        final Element element = namespaces
+                                ? ( Element ) append( document, parent, document.createElementNS( readNamespace(), elementName ) )
+                                : ( Element ) append( document, parent, document.createElement( elementName ) );
+                        final int attributeCount = readVarint();
+                        for ( int i = 0; i < attributeCount; i++ )
+                        {
+                            final String attributeName = readName();
+                            if ( namespaces )
+                            {
+                                element.setAttributeNS( readNamespace(), attributeName, readString() );
+                            }
+                            else
+                            {
+                                element.setAttribute( attributeName, readString() );
+                            }
+                        }
+                        parent = element;
+                        break;
+
+                    case TEXT:
+                        checkTextParent( document, parent );
+                        append( document, parent, document.createTextNode( readString() ) );
+                        break;
+
+                    case CDATA:
+                        checkTextParent( document, parent );
+                        append( document, parent, document.createCDATASection( readString() ) );
+                        break;
+
+                    case COMMENT:
+                        append( document, parent, document.createComment( readString() ) );
+                        break;
+
+                    case PROCESSING_INSTRUCTION:
+                        final String target = readString();
+                        append( document, parent, document.createProcessingInstruction( target, readString() ) );
+                        break;
+
+                    default:
+                        throw new IOException( "unknown binary xml record type " + recordType );
+                }
+            }
+        }
+
+        private static void checkTextParent( final Document document, final Node parent )
+                throws IOException
+        {
+            if ( parent == document )
+            {
+                throw new IOException( "binary xml data has text outside of the root element" );
+            }
+        }
+
+        /**
+         * Append a newly created node.  Nodes are created with strict error checking so their names are validated,
+         * but it is turned off for the append itself, which would otherwise scan all ancestors of the parent and
+         * make decoding quadratic in the element depth.
+         * @param document the document receiving the decoded nodes.
+         * @param parent the parent of the new node.
+         * @param child the new node.
+         * @return the appended node.
+         */
+        private static Node append( final Document document, final Node parent, final Node child )
+        {
+            final boolean strictErrorChecking = document.getStrictErrorChecking();
+            document.setStrictErrorChecking( false );
+            try
+            {
+                return parent.appendChild( child );
+            }
+            finally
+            {
+                document.setStrictErrorChecking( strictErrorChecking );
+            }
+        }
+
+        private String readName()
+                throws IOException
+        {
+            final int reference = readVarint();
+            if ( reference == NEW_NAME )
+            {
+                final String name = XmlChaiInternalUtils.internName( readString() );
+                nameTable.add( name );
+                return name;
+            }
+
+            if ( reference > nameTable.size() )
+            {
+                throw new IOException( "invalid binary xml name reference " + reference );
+            }
+            return nameTable.get( reference - 1 );
+        }
+
+        private String readNamespace()
+                throws IOException
+        {
+            final int reference = readVarint();
+            if ( reference == NO_NAMESPACE )
+            {
+                return null;
+            }
+            if ( reference == NEW_NAMESPACE )
+            {
+                final String namespaceUri = readString();
+                nameTable.add( namespaceUri );
+                return namespaceUri;
+            }
+
+            if ( reference - 1 > nameTable.size() )
+            {
+                throw new IOException( "invalid binary xml namespace reference " + reference );
+            }
+            return nameTable.get( reference - 2 );
+        }
+
+        String readString()
+                throws IOException
+        {
+            final int length = readVarint();
+            if ( length <= limit - position )
+            {
+                final String value = new String( buffer, position, length, StandardCharsets.UTF_8 );
+                position += length;
+                return value;
+            }
+
+            // the declared length is not trusted for the allocation size; the output grows as data is actually read
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream( Math.min( length, BUFFER_SIZE * 8 ) );
+            int remaining = length;
+            while ( remaining > 0 )
+            {
+                if ( position == limit )
+                {
+                    fill();
+                }
+                final int count = Math.min( remaining, limit - position );
+                bytes.write( buffer, position, count );
+                position += count;
+                remaining -= count;
+            }
+            return new String( bytes.toByteArray(), StandardCharsets.UTF_8 );
+        }
+
+        int readVarint()
+                throws IOException
+        {
+            int value = 0;
+            for ( int shift = 0; shift < 32; shift += 7 )
+            {
+                final int nextByte = readByte() & 0xFF;
+                value |= ( nextByte & 0x7F ) << shift;
+                if ( ( nextByte & 0x80 ) == 0 )
+                {
+                    if ( value < 0 )
+                    {
+                        break;
+                    }
+                    return value;
+                }
+            }
+            throw new IOException( "malformed binary xml varint" );
+        }
+
+        byte readByte()
+                throws IOException
+        {
+            if ( position == limit )
+            {
+                fill();
+            }
+            return buffer[position++];
+        }
+
+        private void fill()
+                throws IOException
+        {
+            final int read = inputStream.read( buffer, 0, BUFFER_SIZE );
+            if ( read <= 0 )
+            {
+                throw new EOFException( "unexpected end of binary xml data" );
+            }
+            position = 0;
+            limit = read;
+        }
+    }
+}
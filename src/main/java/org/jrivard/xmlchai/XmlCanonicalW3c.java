@@ -0,0 +1,419 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.XMLConstants;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Internal writer of the Canonical XML 1.0 form of a w3c document or element, written directly from the tree.
+ * An element is canonicalized as a document subset consisting of the element and its descendants, so it also renders
+ * the namespace declarations and {@code xml:} attributes it inherits from its ancestors.  Namespace declarations are
+ * recognized by name, so documents parsed with or without namespace awareness have the same canonical form.  Callers
+ * are expected to hold the lock of the owning document or element.
+ */
+final class XmlCanonicalW3c
+{
+    /**
+     * Prefix of namespace declaration attribute names.
+     */
+    private static final String XMLNS_PREFIX = XMLConstants.XMLNS_ATTRIBUTE + ":";
+
+    /**
+     * Prefix of attribute names in the XML namespace.
+     */
+    private static final String XML_PREFIX = XMLConstants.XML_NS_PREFIX + ":";
+
+    /**
+     * Canonical order of attributes, by namespace URI and then local name.
+     */
+    private static final Comparator<CanonicalAttribute> ATTRIBUTE_ORDER = Comparator
+            .comparing( CanonicalAttribute::getNamespaceUri )
+            .thenComparing( CanonicalAttribute::getLocalName );
+
+    /**
+     * Destination of the canonical form.
+     */
+    private final XmlUtf8Output output;
+
+    /**
+     * True to include comments.
+     */
+    private final boolean withComments;
+
+    private XmlCanonicalW3c( final OutputStream outputStream, final boolean withComments )
+    {
+        this.output = new XmlUtf8Output( outputStream );
+        this.withComments = withComments;
+    }
+
+    /**
+     * Write the canonical form of a document or element.
+     * @param node a document or element.
+     * @param outputStream destination of the canonical form, which is flushed but not closed.
+     * @param withComments true to include comments.
+     * @throws IOException if the destination fails.
+     * @throws IllegalArgumentException if the node contains characters that can not be represented in XML.
+     */
+    static void write( final Node node, final OutputStream outputStream, final boolean withComments )
+            throws IOException
+    {
+        final XmlCanonicalW3c canonical = new XmlCanonicalW3c( outputStream, withComments );
+        if ( node.getNodeType() == Node.DOCUMENT_NODE )
+        {
+            canonical.writeDocument( node );
+        }
+        else
+        {
+            canonical.writeApex( ( org.w3c.dom.Element ) node );
+        }
+        canonical.output.flush();
+    }
+
+    /**
+     * Update a message digest with the canonical form of a document or element, without buffering the canonical form.
+     * @param node a document or element.
+     * @param messageDigest the digest to update.
+     * @param withComments true to include comments.
+     * @throws IOException never, as the digest does not fail.
+     * @throws IllegalArgumentException if the node contains characters that can not be represented in XML.
+     */
+    static void digest( final Node node, final MessageDigest messageDigest, final boolean withComments )
+            throws IOException
+    {
+        write( node, new DigestSink( messageDigest ), withComments );
+    }
+
+    private void writeDocument( final Node document )
+            throws IOException
+    {
+        boolean afterRoot = false;
+        for ( Node child = document.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            final short nodeType = child.getNodeType();
+            if ( nodeType == Node.ELEMENT_NODE )
+            {
+                writeElement( ( org.w3c.dom.Element ) child, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap() );
+                afterRoot = true;
+            }
+            else if ( nodeType == Node.PROCESSING_INSTRUCTION_NODE || ( nodeType == Node.COMMENT_NODE && withComments ) )
+            {
+                if ( afterRoot )
+                {
+                    output.writeAscii( '\n' );
+                }
+                writeChild( child, Collections.emptyMap() );
+                if ( !afterRoot )
+                {
+                    output.writeAscii( '\n' );
+                }
+            }
+        }
+    }
+
+    private void writeApex( final org.w3c.dom.Element element )
+            throws IOException
+    {
+        final Map<String, String> inheritedNamespaces = new HashMap<>();
+        final Map<String, String> inheritedXmlAttributes = new HashMap<>();
+        for ( Node ancestor = element.getParentNode(); ancestor != null && ancestor.getNodeType() == Node.ELEMENT_NODE; ancestor = ancestor.getParentNode() )
+        {
+            final NamedNodeMap attributes = ancestor.getAttributes();
+            for ( int i = 0; i < attributes.getLength(); i++ )
+            {
+                final Node attribute = attributes.item( i );
+                final String name = attribute.getNodeName();
+                final String prefix = namespacePrefix( name );
+                if ( prefix != null )
+                {
+                    inheritedNamespaces.putIfAbsent( prefix, attribute.getNodeValue() );
+                }
+                else if ( name.startsWith( XML_PREFIX ) )
+                {
+                    inheritedXmlAttributes.putIfAbsent( name, attribute.getNodeValue() );
+                }
+            }
+        }
+
+        writeElement( element, Collections.emptyMap(), inheritedNamespaces, inheritedXmlAttributes );
+    }
+
+    /**
+     * Write an element and its descendants.
+     * @param element the element.
+     * @param renderedNamespaces namespace prefixes, with the empty string for the default namespace, mapped to the URIs
+     *     declared by the output parent of the element.
+     * @param inheritedNamespaces namespace declarations of the ancestors of an apex element, otherwise empty.
+     * @param inheritedXmlAttributes {@code xml:} attributes of the ancestors of an apex element, otherwise empty.
+     * @throws IOException if the destination fails.
+     */
+    private void writeElement(
+            final org.w3c.dom.Element element,
+            final Map<String, String> renderedNamespaces,
+            final Map<String, String> inheritedNamespaces,
+            final Map<String, String> inheritedXmlAttributes
+    )
+            throws IOException
+    {
+        final Map<String, String> declaredNamespaces = new TreeMap<>( inheritedNamespaces );
+        final Map<String, String> attributeValues = new HashMap<>();
+        final NamedNodeMap attributeMap = element.getAttributes();
+        for ( int i = 0; i < attributeMap.getLength(); i++ )
+        {
+            final Attr attribute = ( Attr ) attributeMap.item( i );
+            final String prefix = namespacePrefix( attribute.getName() );
+            if ( prefix == null )
+            {
+                attributeValues.put( attribute.getName(), attribute.getValue() );
+            }
+            else
+            {
+                declaredNamespaces.put( prefix, attribute.getValue() );
+            }
+        }
+        for ( final Map.Entry<String, String> entry : inheritedXmlAttributes.entrySet() )
+        {
+            attributeValues.putIfAbsent( entry.getKey(), entry.getValue() );
+        }
+
+        Map<String, String> namespaces = renderedNamespaces;
+        output.writeAscii( '<' );
+        output.writeRaw( element.getNodeName() );
+        for ( final Map.Entry<String, String> entry : declaredNamespaces.entrySet() )
+        {
+            final String prefix = entry.getKey();
+            final String uri = entry.getValue();
+            if ( !uri.equals( namespaces.getOrDefault( prefix, "" ) ) )
+            {
+                if ( namespaces == renderedNamespaces )
+                {
+                    namespaces = new HashMap<>( renderedNamespaces );
+                }
+                namespaces.put( prefix, uri );
+                output.writeRaw( prefix.isEmpty() ? " xmlns=\"" : " xmlns:" + prefix + "=\"" );
+                output.writeCanonicalAttribute( uri );
+                output.writeAscii( '"' );
+            }
+        }
+
+        final List<CanonicalAttribute> attributes = new ArrayList<>( attributeValues.size() );
+        for ( final Map.Entry<String, String> entry : attributeValues.entrySet() )
+        {
+            attributes.add( new CanonicalAttribute( entry.getKey(), entry.getValue(), namespaces ) );
+        }
+        attributes.sort( ATTRIBUTE_ORDER );
+        for ( final CanonicalAttribute attribute : attributes )
+        {
+            output.writeAscii( ' ' );
+            output.writeRaw( attribute.getName() );
+            output.writeAscii( '=' );
+            output.writeAscii( '"' );
+            output.writeCanonicalAttribute( attribute.getValue() );
+            output.writeAscii( '"' );
+        }
+        output.writeAscii( '>' );
+
+        writeChildren( element, namespaces );
+
+        output.writeAscii( '<' );
+        output.writeAscii( '/' );
+        output.writeRaw( element.getNodeName() );
+        output.writeAscii( '>' );
+    }
+
+    private void writeChildren( final Node parent, final Map<String, String> namespaces )
+            throws IOException
+    {
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            writeChild( child, namespaces );
+        }
+    }
+
+    private void writeChild( final Node child, final Map<String, String> namespaces )
+            throws IOException
+    {
+        switch ( child.getNodeType() )
+        {
+            case Node.ELEMENT_NODE:
+                writeElement( ( org.w3c.dom.Element ) child, namespaces, Collections.emptyMap(), Collections.emptyMap() );
+                break;
+
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                output.writeCanonicalText( child.getNodeValue() );
+                break;
+
+            case Node.COMMENT_NODE:
+                if ( withComments )
+                {
+                    output.writeRaw( "<!--" );
+                    output.writeRaw( child.getNodeValue() );
+                    output.writeRaw( "-->" );
+                }
+                break;
+
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                final ProcessingInstruction processingInstruction = ( ProcessingInstruction ) child;
+                output.writeRaw( "<?" );
+                output.writeRaw( processingInstruction.getTarget() );
+                if ( !XmlChaiInternalUtils.isEmpty( processingInstruction.getData() ) )
+                {
+                    output.writeAscii( ' ' );
+                    output.writeRaw( processingInstruction.getData() );
+                }
+                output.writeRaw( "?>" );
+                break;
+
+            case Node.ENTITY_REFERENCE_NODE:
+                writeChildren( child, namespaces );
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the prefix declared by a namespace declaration attribute.
+     * @param attributeName an attribute name.
+     * @return the declared prefix, the empty string for a default namespace declaration, or null if the attribute is
+     *     not a namespace declaration.
+     */
+    private static String namespacePrefix( final String attributeName )
+    {
+        if ( XMLConstants.XMLNS_ATTRIBUTE.equals( attributeName ) )
+        {
+            return "";
+        }
+        if ( attributeName.startsWith( XMLNS_PREFIX ) )
+        {
+            return attributeName.substring( XMLNS_PREFIX.length() );
+        }
+        return null;
+    }
+
+    /**
+     * An attribute other than a namespace declaration, with its sort key.
+     */
+    private static final class CanonicalAttribute
+    {
+        /**
+         * Qualified name of the attribute.
+         */
+        private final String name;
+
+        /**
+         * Value of the attribute.
+         */
+        private final String value;
+
+        /**
+         * Namespace URI of the attribute, or the empty string if it has none.
+         */
+        private final String namespaceUri;
+
+        /**
+         * Local name of the attribute.
+         */
+        private final String localName;
+
+        /**
+         * Resolve the namespace URI and local name of an attribute.  A prefix that is not declared is treated as part
+         * of the local name.
+         * @param name qualified name of the attribute.
+         * @param value value of the attribute.
+         * @param namespaces namespace prefixes in scope mapped to their URIs.
+         */
+        CanonicalAttribute( final String name, final String value, final Map<String, String> namespaces )
+        {
+            this.name = name;
+            this.value = value;
+
+            final int colon = name.indexOf( ':' );
+            final String prefix = colon > 0 ? name.substring( 0, colon ) : null;
+            final String uri = XMLConstants.XML_NS_PREFIX.equals( prefix ) ? XMLConstants.XML_NS_URI : prefix == null ? null : namespaces.get( prefix );
+            this.namespaceUri = uri == null ? "" : uri;
+            this.localName = uri == null ? name : name.substring( colon + 1 );
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        String getValue()
+        {
+            return value;
+        }
+
+        String getNamespaceUri()
+        {
+            return namespaceUri;
+        }
+
+        String getLocalName()
+        {
+            return localName;
+        }
+    }
+
+    /**
+     * Output stream that only updates a message digest.
+     */
+    private static final class DigestSink extends OutputStream
+    {
+        /**
+         * The digest to update.
+         */
+        private final MessageDigest messageDigest;
+
+        DigestSink( final MessageDigest messageDigest )
+        {
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public void write( final int b )
+        {
+            messageDigest.update( ( byte ) b );
+        }
+
+        @Override
+        public void write( final byte[] bytes, final int offset, final int length )
+        {
+            messageDigest.update( bytes, offset, length );
+        }
+    }
+}
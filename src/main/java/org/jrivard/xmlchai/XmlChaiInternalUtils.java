@@ -19,10 +19,56 @@
 
 package org.jrivard.xmlchai;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 class XmlChaiInternalUtils
 {
+    /**
+     * Lock used to order acquisition of two distinct locks that share the same identity hash.
+     */
+    private static final Lock TIE_LOCK = new ReentrantLock();
+
+    /**
+     * Get the canonical instance of an element or attribute name.  The JDK XML parser interns the names of parsed
+     * nodes, so interning the names of created nodes as well means every node name is stored once and names can be
+     * compared by reference.
+     * @param name an element or attribute name.
+     * @return the canonical instance of {@code name}.
+     */
+    static String internName( final String name )
+    {
+        return name.intern();
+    }
+
+    /**
+     * Append a value without its leading and trailing whitespace, as trimmed by {@link String#trim()}.
+     * @param target the builder to append to.
+     * @param value the value to append.
+     */
+    static void appendTrimmed( final StringBuilder target, final CharSequence value )
+    {
+        int start = 0;
+        int end = value.length();
+        while ( start < end && value.charAt( start ) <= ' ' )
+        {
+            start++;
+        }
+        while ( end > start && value.charAt( end - 1 ) <= ' ' )
+        {
+            end--;
+        }
+        target.append( value, start, end );
+    }
+
     static boolean isEmpty( final CharSequence value )
     {
         return value == null || value.length() == 0;
@@ -51,4 +97,121 @@ class XmlChaiInternalUtils
     {
         return collection == null || collection.isEmpty();
     }
+
+    /**
+     * Execute {@code supplier} while holding both locks.  Locks are always acquired in a consistent order
+     * so that concurrent callers holding the same pair of locks can not deadlock.
+     * @param lock1 first lock to acquire.
+     * @param lock2 second lock to acquire, may be the same instance as {@code lock1}.
+     * @param supplier operation to execute while both locks are held.
+     * @param <T> return type of the {@code supplier}.
+     * @return the value returned by {@code supplier}.
+     */
+    static <T> T executeWithLocks( final Lock lock1, final Lock lock2, final Supplier<T> supplier )
+    {
+        if ( lock1 == lock2 )
+        {
+            lock1.lock();
+            try
+            {
+                return supplier.get();
+            }
+            finally
+            {
+                lock1.unlock();
+            }
+        }
+
+        final int hash1 = System.identityHashCode( lock1 );
+        final int hash2 = System.identityHashCode( lock2 );
+        final boolean needsTieLock = hash1 == hash2;
+        final Lock firstLock = hash1 <= hash2 ? lock1 : lock2;
+        final Lock secondLock = firstLock == lock1 ? lock2 : lock1;
+
+        if ( needsTieLock )
+        {
+            TIE_LOCK.lock();
+        }
+        try
+        {
+            firstLock.lock();
+            try
+            {
+                secondLock.lock();
+                try
+                {
+                    return supplier.get();
+                }
+                finally
+                {
+                    secondLock.unlock();
+                }
+            }
+            finally
+            {
+                firstLock.unlock();
+            }
+        }
+        finally
+        {
+            if ( needsTieLock )
+            {
+                TIE_LOCK.unlock();
+            }
+        }
+    }
+
+    /**
+     * Execute {@code supplier} while holding all of {@code locks}.  Locks are acquired in the same consistent order
+     * as {@link #executeWithLocks(Lock, Lock, Supplier)}, so callers of either method can not deadlock.
+     * @param locks locks to acquire, duplicate instances are acquired once.
+     * @param supplier operation to execute while all locks are held.
+     * @param <T> return type of the {@code supplier}.
+     * @return the value returned by {@code supplier}.
+     */
+    static <T> T executeWithLocks( final Collection<Lock> locks, final Supplier<T> supplier )
+    {
+        final Set<Lock> distinctLocks = Collections.newSetFromMap( new IdentityHashMap<>( locks.size() ) );
+        final List<Lock> orderedLocks = new ArrayList<>( locks.size() );
+        for ( final Lock lock : locks )
+        {
+            if ( distinctLocks.add( lock ) )
+            {
+                orderedLocks.add( lock );
+            }
+        }
+        orderedLocks.sort( Comparator.comparingInt( System::identityHashCode ) );
+
+        boolean needsTieLock = false;
+        for ( int i = 1; i < orderedLocks.size(); i++ )
+        {
+            needsTieLock |= System.identityHashCode( orderedLocks.get( i - 1 ) ) == System.identityHashCode( orderedLocks.get( i ) );
+        }
+
+        if ( needsTieLock )
+        {
+            TIE_LOCK.lock();
+        }
+        int lockedCount = 0;
+        try
+        {
+            for ( final Lock lock : orderedLocks )
+            {
+                lock.lock();
+                lockedCount++;
+            }
+            return supplier.get();
+        }
+        finally
+        {
+            for ( int i = lockedCount - 1; i >= 0; i-- )
+            {
+                orderedLocks.get( i ).unlock();
+            }
+            if ( needsTieLock )
+            {
+                TIE_LOCK.unlock();
+            }
+        }
+    }
 }
@@ -0,0 +1,309 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Immutable document whose elements are kept in an {@link XmlCompactStore} instead of a w3c DOM.  Only elements,
+ * attributes and element text are retained; comments, processing instructions and the position of text among child
+ * elements are not.  Xpath expressions are evaluated by {@link XPathFastEvaluator}, expressions outside of its subset
+ * are not supported.  Instances need no locking, as neither the document nor its store can be modified.
+ */
+@SuppressFBWarnings( "FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY" )
+// FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY the document and its element flyweights intentionally reference each other
+final class XmlCompactDocument implements XmlDocument
+{
+    /**
+     * The elements of this document.
+     */
+    private final XmlCompactStore store;
+
+    /**
+     * Names of the attributes that have been indexed.
+     */
+    private final Set<String> indexedAttributes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Attribute value indexes, by attribute name, built the first time they are used.  Unlike the elements, indexes
+     * are held on the heap.
+     */
+    private final Map<String, Map<String, List<Integer>>> attributeIndexes = new ConcurrentHashMap<>();
+
+    /**
+     * Content hash of the document, or zero if not yet calculated.
+     */
+    private volatile int contentHash;
+
+    XmlCompactDocument( final XmlCompactStore store )
+    {
+        this.store = Objects.requireNonNull( store );
+    }
+
+    XmlCompactStore getStore()
+    {
+        return store;
+    }
+
+    @Override
+    public XmlElement getRootElement()
+    {
+        return new XmlCompactElement( this, 0 );
+    }
+
+    @Override
+    public Optional<XmlElement> evaluateXpathToElement( final String xpathExpression )
+    {
+        final List<XmlElement> elements = evaluateXpathToElements( xpathExpression );
+        return elements.isEmpty() ? Optional.empty() : Optional.of( elements.get( 0 ) );
+    }
+
+    @Override
+    public List<XmlElement> evaluateXpathToElements( final String xpathExpression )
+    {
+        return evaluateXpathToElements( xpathExpression, Collections.emptyMap() );
+    }
+
+    @Override
+    public List<XmlElement> evaluateXpathToElements( final String xpathExpression, final List<String> values )
+    {
+        final Map<String, String> map = new HashMap<>();
+        if ( values != null )
+        {
+            for ( int i = 0; i < values.size(); i++ )
+            {
+                map.put( String.valueOf( i ), values.get( i ) );
+            }
+        }
+        return evaluateXpathToElements( xpathExpression, map );
+    }
+
+    @Override
+    public List<XmlElement> evaluateXpathToElements( final String xpathExpression, final Map<String, String> values )
+    {
+        return evaluateXpathToElements( xpathExpression, values, Collections.emptyMap() );
+    }
+
+    /**
+     * {@inheritDoc}  Compact documents do not resolve namespaces and expressions with prefixed name tests are not
+     * supported, so {@code namespaces} bindings are not used.
+     * @throws UnsupportedOperationException if the expression is not supported by compact documents.
+     */
+    @Override
+    public List<XmlElement> evaluateXpathToElements(
+            final String xpathExpression,
+            final Map<String, String> values,
+            final Map<String, String> namespaces
+    )
+    {
+        Objects.requireNonNull( namespaces );
+
+        final List<Integer> elements = XPathFastEvaluator.evaluate( xpathExpression, store, values );
+        if ( elements == null )
+        {
+            throw new UnsupportedOperationException( "xpath expression is not supported by compact documents: " + xpathExpression );
+        }
+        return toElementList( elements );
+    }
+
+    /**
+     * Make a mutable w3c copy of the document.  Text of each element precedes its child elements in the copy.
+     * @return a new document.
+     */
+    @Override
+    public XmlDocument copy()
+    {
+        return copyW3c();
+    }
+
+    XmlDocumentW3c copyW3c()
+    {
+        final org.w3c.dom.Document document = XmlFactoryW3c.newW3cDocument();
+        document.appendChild( copySubtree( store, 0, document ) );
+        return new XmlDocumentW3c( XmlFactoryW3c.getW3cFactory(), document, AccessMode.MUTABLE );
+    }
+
+    @Override
+    public XmlDocument copy( final ForkJoinPool forkJoinPool )
+    {
+        Objects.requireNonNull( forkJoinPool );
+
+        return copy();
+    }
+
+    @Override
+    public int contentHash()
+    {
+        int hash = contentHash;
+        if ( hash == 0 )
+        {
+            // as by XmlContentHashW3c of a document holding only the root element
+            hash = 31 * 31 * org.w3c.dom.Node.DOCUMENT_NODE + store.contentHash( 0 );
+            contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * {@inheritDoc}  A compact document is equal to another implementation's document if its {@link #copy()} is.
+     */
+    @Override
+    public boolean contentEquals( final XmlDocument other )
+    {
+        Objects.requireNonNull( other );
+
+        if ( contentHash() != other.contentHash() )
+        {
+            return false;
+        }
+        if ( other instanceof XmlCompactDocument )
+        {
+            return store.contentEquals( 0, ( ( XmlCompactDocument ) other ).store, 0 );
+        }
+        return copy().contentEquals( other );
+    }
+
+    /**
+     * {@inheritDoc}  The index is built by a scan of all elements on the first use of
+     * {@link #findByAttribute(String, String)}, and held on the heap as a map of each value to the numbers of the
+     * elements with that value, so it uses several dozen bytes of heap memory per indexed element.  Attributes that
+     * occur on many elements of a large document are better found without an index, by a scan of the store.
+     */
+    @Override
+    public void addAttributeIndex( final String attributeName )
+    {
+        Objects.requireNonNull( attributeName );
+
+        indexedAttributes.add( attributeName );
+    }
+
+    @Override
+    public List<XmlElement> findByAttribute( final String attributeName, final String value )
+    {
+        Objects.requireNonNull( attributeName );
+        Objects.requireNonNull( value );
+
+        if ( indexedAttributes.contains( attributeName ) )
+        {
+            final Map<String, List<Integer>> index = attributeIndexes.computeIfAbsent( attributeName, this::buildAttributeIndex );
+            return toElementList( index.getOrDefault( value, Collections.emptyList() ) );
+        }
+
+        final List<Integer> elements = new ArrayList<>();
+        final int elementCount = store.getElementCount();
+        for ( int element = 0; element < elementCount; element++ )
+        {
+            if ( value.equals( store.getAttributeValue( element, attributeName ) ) )
+            {
+                elements.add( element );
+            }
+        }
+        return toElementList( elements );
+    }
+
+    @Override
+    public void release()
+    {
+        attributeIndexes.clear();
+        store.release();
+    }
+
+    @Override
+    public AccessMode getAccessMode()
+    {
+        return AccessMode.IMMUTABLE;
+    }
+
+    List<XmlElement> toElementList( final Collection<Integer> elements )
+    {
+        if ( elements.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<XmlElement> returnList = new ArrayList<>( elements.size() );
+        for ( final Integer element : elements )
+        {
+            returnList.add( new XmlCompactElement( this, element ) );
+        }
+        return Collections.unmodifiableList( returnList );
+    }
+
+    private Map<String, List<Integer>> buildAttributeIndex( final String attributeName )
+    {
+        final Map<String, List<Integer>> index = new HashMap<>();
+        final int elementCount = store.getElementCount();
+        for ( int element = 0; element < elementCount; element++ )
+        {
+            final String value = store.getAttributeValue( element, attributeName );
+            if ( value != null )
+            {
+                index.computeIfAbsent( value, key -> new ArrayList<>( 1 ) ).add( element );
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Copy an element and its descendants into a w3c document.  As elements are numbered in document order, the
+     * subtree is copied in a single pass without recursion.
+     * @param store the elements of the document.
+     * @param element the element to copy.
+     * @param document the document that creates the copied nodes.
+     * @return the copied element, not yet attached.
+     */
+    static org.w3c.dom.Element copySubtree( final XmlCompactStore store, final int element, final org.w3c.dom.Document document )
+    {
+        final int lastDescendant = store.getLastDescendant( element );
+        final org.w3c.dom.Element[] copies = new org.w3c.dom.Element[lastDescendant - element + 1];
+        for ( int source = element; source <= lastDescendant; source++ )
+        {
+            final org.w3c.dom.Element copy = document.createElement( XmlChaiInternalUtils.internName( store.getName( source ) ) );
+            final int attributeCount = store.getAttributeCount( source );
+            for ( int i = 0; i < attributeCount; i++ )
+            {
+                copy.setAttribute( store.getAttributeName( source, i ), store.getAttributeValue( source, i ) );
+            }
+            final String text = store.getText( source );
+            if ( !text.isEmpty() )
+            {
+                copy.appendChild( document.createTextNode( text ) );
+            }
+            if ( source != element )
+            {
+                copies[store.getParent( source ) - element].appendChild( copy );
+            }
+            copies[source - element] = copy;
+        }
+        return copies[0];
+    }
+}
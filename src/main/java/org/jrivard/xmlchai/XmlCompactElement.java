@@ -0,0 +1,316 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Flyweight accessor of an element of an {@link XmlCompactDocument}, holding only the document and the element
+ * number.  All modifications are rejected, as compact documents are immutable.
+ */
+final class XmlCompactElement implements XmlElement
+{
+    /**
+     * Message of the exception thrown by modify operations.
+     */
+    private static final String IMMUTABLE_MESSAGE = "parent XmlDocument has modify mode set to immutable";
+
+    /**
+     * The document of this element.
+     */
+    private final XmlCompactDocument document;
+
+    /**
+     * Number of this element in the store of {@link #document}.
+     */
+    private final int element;
+
+    XmlCompactElement( final XmlCompactDocument document, final int element )
+    {
+        this.document = document;
+        this.element = element;
+    }
+
+    XmlCompactStore getStore()
+    {
+        return document.getStore();
+    }
+
+    int getElement()
+    {
+        return element;
+    }
+
+    @Override
+    public List<String> getAttributeNames()
+    {
+        final XmlCompactStore store = getStore();
+        final int attributeCount = store.getAttributeCount( element );
+        if ( attributeCount == 0 )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<String> returnList = new ArrayList<>( attributeCount );
+        for ( int i = 0; i < attributeCount; i++ )
+        {
+            returnList.add( store.getAttributeName( element, i ) );
+        }
+        return Collections.unmodifiableList( returnList );
+    }
+
+    @Override
+    public Optional<String> getAttribute( final String attributeName )
+    {
+        final String value = getStore().getAttributeValue( element, attributeName );
+        return XmlChaiInternalUtils.isEmpty( value ) ? Optional.empty() : Optional.of( value );
+    }
+
+    @Override
+    public Optional<XmlElement> getChild( final String elementName )
+    {
+        Objects.requireNonNull( elementName );
+
+        final XmlCompactStore store = getStore();
+        for ( int child = store.getFirstChild( element ); child != XmlCompactStore.NONE; child = store.getNextSibling( child ) )
+        {
+            if ( elementName.equals( store.getName( child ) ) )
+            {
+                return Optional.of( new XmlCompactElement( document, child ) );
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    @SuppressFBWarnings( "PSC_PRESIZE_COLLECTIONS" )
+    // PSC_PRESIZE_COLLECTIONS the child count is not known until the siblings are walked
+    public List<XmlElement> getChildren()
+    {
+        final XmlCompactStore store = getStore();
+        final List<Integer> children = new ArrayList<>();
+        for ( int child = store.getFirstChild( element ); child != XmlCompactStore.NONE; child = store.getNextSibling( child ) )
+        {
+            children.add( child );
+        }
+        return document.toElementList( children );
+    }
+
+    @Override
+    public List<XmlElement> getChildren( final String elementName )
+    {
+        Objects.requireNonNull( elementName );
+
+        final XmlCompactStore store = getStore();
+        final List<Integer> children = new ArrayList<>();
+        for ( int child = store.getFirstChild( element ); child != XmlCompactStore.NONE; child = store.getNextSibling( child ) )
+        {
+            if ( elementName.equals( store.getName( child ) ) )
+            {
+                children.add( child );
+            }
+        }
+        return document.toElementList( children );
+    }
+
+    /**
+     * {@inheritDoc}  Compact documents do not resolve namespaces, so no element has a namespace.
+     */
+    @Override
+    public List<XmlElement> getChildren( final String namespaceUri, final String localName )
+    {
+        Objects.requireNonNull( localName );
+
+        if ( namespaceUri != null )
+        {
+            return Collections.emptyList();
+        }
+
+        final XmlCompactStore store = getStore();
+        final List<Integer> children = new ArrayList<>();
+        for ( int child = store.getFirstChild( element ); child != XmlCompactStore.NONE; child = store.getNextSibling( child ) )
+        {
+            final String name = store.getName( child );
+            if ( localName.equals( name.substring( name.indexOf( ':' ) + 1 ) ) )
+            {
+                children.add( child );
+            }
+        }
+        return document.toElementList( children );
+    }
+
+    @Override
+    public String getName()
+    {
+        return getStore().getName( element );
+    }
+
+    @Override
+    public Optional<String> getText()
+    {
+        final String text = getStore().getText( element );
+        return text.isEmpty() ? Optional.empty() : Optional.of( text );
+    }
+
+    @Override
+    public Optional<XmlElement> parent()
+    {
+        final int parent = getStore().getParent( element );
+        return parent == XmlCompactStore.NONE ? Optional.empty() : Optional.of( new XmlCompactElement( document, parent ) );
+    }
+
+    @Override
+    public void setAttribute( final String attributeName, final String value )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void removeChildren()
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void removeChildren( final String elementName )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void removeAttributes()
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void removeAttribute( final String attributeName )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public XmlElement newChildElement( final String elementName )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void attachElement( final XmlElement element )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void attachElement( final Collection<XmlElement> elements )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void removeText()
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void setText( final String text )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void setComment( final List<String> textLines )
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    @Override
+    public void detach()
+    {
+        throw new UnsupportedOperationException( IMMUTABLE_MESSAGE );
+    }
+
+    /**
+     * Create a detached, mutable w3c copy of this element and its descendants.  Text of each element precedes its
+     * child elements in the copy.
+     * @return A new instance of the current element.
+     */
+    @Override
+    public XmlElement copy()
+    {
+        return copyW3c();
+    }
+
+    XmlElementW3c copyW3c()
+    {
+        final org.w3c.dom.Document w3cDocument = XmlFactoryW3c.newW3cDocument();
+        final org.w3c.dom.Element copiedElement = XmlCompactDocument.copySubtree( getStore(), element, w3cDocument );
+        return new XmlElementW3c( copiedElement, XmlFactoryW3c.getW3cFactory(), null );
+    }
+
+    @Override
+    public XmlElement copy( final ForkJoinPool forkJoinPool )
+    {
+        Objects.requireNonNull( forkJoinPool );
+
+        return copy();
+    }
+
+    @Override
+    public int contentHash()
+    {
+        return getStore().contentHash( element );
+    }
+
+    /**
+     * {@inheritDoc}  A compact element is equal to another implementation's element if its {@link #copy()} is.
+     */
+    @Override
+    public boolean contentEquals( final XmlElement other )
+    {
+        Objects.requireNonNull( other );
+
+        if ( contentHash() != other.contentHash() )
+        {
+            return false;
+        }
+        if ( other instanceof XmlCompactElement )
+        {
+            final XmlCompactElement otherCompact = ( XmlCompactElement ) other;
+            return getStore().contentEquals( element, otherCompact.getStore(), otherCompact.element );
+        }
+        return copy().contentEquals( other );
+    }
+
+    @Override
+    public AccessMode getAccessMode()
+    {
+        return AccessMode.IMMUTABLE;
+    }
+}
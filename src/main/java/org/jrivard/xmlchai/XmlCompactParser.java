@@ -0,0 +1,288 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Internal builder of an {@link XmlCompactStore} from a StAX parse.  Only the open elements are held on the heap
+ * while parsing, so the heap needed does not depend on the size of the document.  The text of each element is
+ * collected as by {@link XmlElement#getText()}: each run of adjacent character data is trimmed, CDATA sections are
+ * kept verbatim unless text is coalesced.
+ */
+final class XmlCompactParser
+{
+    /**
+     * The store being built.
+     */
+    private final XmlCompactStore store;
+
+    /**
+     * True to treat CDATA sections as character data, as {@link XmlFactory.ParseFlag#CoalesceText}.
+     */
+    private final boolean coalesce;
+
+    /**
+     * Name table, in order of first use.
+     */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Name table index of each name.
+     */
+    private final Map<String, Integer> nameIndexes = new HashMap<>();
+
+    /**
+     * Open elements, outermost first.
+     */
+    private final List<OpenElement> openElements = new ArrayList<>();
+
+    /**
+     * Character data not yet added to the text of the innermost open element.
+     */
+    private final StringBuilder textRun = new StringBuilder();
+
+    /**
+     * Count of open elements.
+     */
+    private int depth;
+
+    private XmlCompactParser( final XmlCompactStore store, final boolean coalesce )
+    {
+        this.store = store;
+        this.coalesce = coalesce;
+    }
+
+    /**
+     * Parse a document into a new store.
+     * @param inputStream the document.
+     * @param allocator allocator of the pages of the store, which is closed once the store is built.
+     * @param coalesce true to treat CDATA sections as character data.
+     * @return the built store.
+     * @throws IOException if the document can not be read or parsed, or does not fit in a store.
+     */
+    static XmlCompactStore parse( final InputStream inputStream, final XmlCompactStore.PageAllocator allocator, final boolean coalesce )
+            throws IOException
+    {
+        try ( XmlCompactStore.PageAllocator closedAllocator = allocator )
+        {
+            final XmlCompactParser parser = new XmlCompactParser( new XmlCompactStore( closedAllocator ), coalesce );
+            final XMLStreamReader reader = XmlMappedStreamW3c.newReader( inputStream );
+            try
+            {
+                parser.read( reader );
+            }
+            finally
+            {
+                reader.close();
+            }
+            return parser.store;
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new IOException( "error parsing xml data: " + e.getMessage(), e );
+        }
+    }
+
+    private void read( final XMLStreamReader reader )
+            throws XMLStreamException, IOException
+    {
+        while ( reader.hasNext() )
+        {
+            final int event = reader.next();
+            switch ( event )
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    startElement( reader );
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    endElement();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if ( depth > 0 )
+                    {
+                        textRun.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    }
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    if ( coalesce )
+                    {
+                        textRun.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    }
+                    else
+                    {
+                        endTextRun();
+                        currentElement().text.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                    }
+                    break;
+
+                case XMLStreamConstants.DTD:
+                    throw new XMLStreamException( "DOCTYPE is disallowed", reader.getLocation() );
+
+                default:
+                    // comments and processing instructions end a text node
+                    endTextRun();
+                    break;
+            }
+        }
+
+        if ( store.getElementCount() == 0 )
+        {
+            throw new XMLStreamException( "document has no root element" );
+        }
+        store.setNames( names );
+        store.seal();
+    }
+
+    private void startElement( final XMLStreamReader reader )
+            throws IOException
+    {
+        endTextRun();
+
+        final int attributeStart = store.getNextAttribute();
+        final int attributeCount = reader.getAttributeCount();
+        for ( int i = 0; i < attributeCount; i++ )
+        {
+            store.addAttribute( nameIndex( qualifiedName( reader.getAttributePrefix( i ), reader.getAttributeLocalName( i ) ) ), reader.getAttributeValue( i ) );
+        }
+
+        final OpenElement parent = depth == 0 ? null : currentElement();
+        final int element = store.addElement(
+                nameIndex( qualifiedName( reader.getPrefix(), reader.getLocalName() ) ),
+                parent == null ? XmlCompactStore.NONE : parent.element,
+                attributeStart,
+                attributeCount );
+        if ( parent != null )
+        {
+            if ( parent.lastChild == XmlCompactStore.NONE )
+            {
+                store.setFirstChild( parent.element, element );
+            }
+            else
+            {
+                store.setNextSibling( parent.lastChild, element );
+            }
+            parent.lastChild = element;
+        }
+
+        if ( depth == openElements.size() )
+        {
+            openElements.add( new OpenElement() );
+        }
+        openElements.get( depth++ ).open( element );
+    }
+
+    private void endElement()
+            throws IOException
+    {
+        endTextRun();
+
+        final OpenElement current = currentElement();
+        if ( current.text.length() > 0 )
+        {
+            store.setText( current.element, current.text );
+        }
+        store.setLastDescendant( current.element, store.getElementCount() - 1 );
+        depth--;
+    }
+
+    /**
+     * Add the current run of character data to the text of the innermost open element.
+     */
+    private void endTextRun()
+    {
+        if ( textRun.length() > 0 )
+        {
+            if ( depth > 0 )
+            {
+                XmlChaiInternalUtils.appendTrimmed( currentElement().text, textRun );
+            }
+            textRun.setLength( 0 );
+        }
+    }
+
+    private OpenElement currentElement()
+    {
+        return openElements.get( depth - 1 );
+    }
+
+    private int nameIndex( final String name )
+    {
+        final Integer existing = nameIndexes.get( name );
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        final int index = names.size();
+        names.add( name );
+        nameIndexes.put( name, index );
+        return index;
+    }
+
+    private static String qualifiedName( final String prefix, final String localName )
+    {
+        return XmlChaiInternalUtils.isEmpty( prefix ) ? localName : prefix + ':' + localName;
+    }
+
+    /**
+     * State of an open element.  Instances are reused for elements at the same depth.
+     */
+    @SuppressFBWarnings( "FCBL_FIELD_COULD_BE_LOCAL" )
+    // FCBL_FIELD_COULD_BE_LOCAL fields are state of the enclosing parser
+    private static final class OpenElement
+    {
+        /**
+         * Text of the element so far.
+         */
+        private final StringBuilder text = new StringBuilder();
+
+        /**
+         * The element.
+         */
+        private int element;
+
+        /**
+         * Last child element added so far, or {@link XmlCompactStore#NONE}.
+         */
+        private int lastChild;
+
+        void open( final int openedElement )
+        {
+            this.element = openedElement;
+            this.lastChild = XmlCompactStore.NONE;
+            this.text.setLength( 0 );
+        }
+    }
+}
@@ -0,0 +1,826 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Node;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Internal read-only table of the elements of a document, kept outside of the java heap.  Elements are numbered in
+ * document order, starting with the root element as {@code 0}, and stored as fixed size records of int fields.
+ * Attributes are stored as records of a second table, and strings in a third region as length prefixed UTF-8.
+ * Element and attribute names are interned in a name table on the heap, as documents have few distinct names.
+ *
+ * <p>Each region is a sequence of fixed size pages obtained from a {@link PageAllocator}, so the size of a store is
+ * not limited by the size of a single buffer.  Records never span pages.  Once built, a store is only read using
+ * absolute gets, so it is safe for use by multiple threads.</p>
+ */
+final class XmlCompactStore
+{
+    /**
+     * Log2 of the page size.
+     */
+    static final int PAGE_SHIFT = 23;
+
+    /**
+     * Size of each page in bytes.
+     */
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+
+    /**
+     * Value of element reference fields that do not reference an element.
+     */
+    static final int NONE = -1;
+
+    /**
+     * Count of int fields of an element record.
+     */
+    private static final int ELEMENT_INTS = 8;
+
+    /**
+     * Element record field: index of the element name in the name table.
+     */
+    private static final int NAME = 0;
+
+    /**
+     * Element record field: parent element, or {@link #NONE} for the root element.
+     */
+    private static final int PARENT = 1;
+
+    /**
+     * Element record field: first child element, or {@link #NONE}.
+     */
+    private static final int FIRST_CHILD = 2;
+
+    /**
+     * Element record field: next sibling element, or {@link #NONE}.
+     */
+    private static final int NEXT_SIBLING = 3;
+
+    /**
+     * Element record field: last element of the subtree of the element, in document order.
+     */
+    private static final int LAST_DESCENDANT = 4;
+
+    /**
+     * Element record field: first attribute record of the element.
+     */
+    private static final int ATTRIBUTE_START = 5;
+
+    /**
+     * Element record field: count of attributes of the element.
+     */
+    private static final int ATTRIBUTE_COUNT = 6;
+
+    /**
+     * Element record field: string reference of the element text.
+     */
+    private static final int TEXT = 7;
+
+    /**
+     * Count of int fields of an attribute record.
+     */
+    private static final int ATTRIBUTE_INTS = 2;
+
+    /**
+     * Attribute record field: string reference of the attribute value.
+     */
+    private static final int VALUE = 1;
+
+    /**
+     * Largest string region address that can be referenced.  String references are unsigned ints counting 4 byte
+     * units, with zero referencing the empty string.
+     */
+    private static final long MAX_STRING_ADDRESS = 0xFFFF_FFFFL << 2;
+
+    /**
+     * Element records.
+     */
+    private final Region elements;
+
+    /**
+     * Attribute records.
+     */
+    private final Region attributes;
+
+    /**
+     * Length prefixed strings.
+     */
+    private final Region strings;
+
+    /**
+     * Interned element and attribute names, indexed by name table index.
+     */
+    private String[] names = new String[0];
+
+    /**
+     * Count of element records.
+     */
+    private int elementCount;
+
+    /**
+     * Count of attribute records.
+     */
+    private int attributeCount;
+
+    XmlCompactStore( final PageAllocator allocator )
+            throws IOException
+    {
+        this.elements = new Region( allocator );
+        this.attributes = new Region( allocator );
+        this.strings = new Region( allocator );
+
+        // reserve string reference zero for the empty string
+        strings.allocate( Integer.BYTES );
+    }
+
+    int getElementCount()
+    {
+        return elementCount;
+    }
+
+    String getName( final int element )
+    {
+        return names[elements.getInt( field( element, NAME ) )];
+    }
+
+    int getParent( final int element )
+    {
+        return elements.getInt( field( element, PARENT ) );
+    }
+
+    int getFirstChild( final int element )
+    {
+        return elements.getInt( field( element, FIRST_CHILD ) );
+    }
+
+    int getNextSibling( final int element )
+    {
+        return elements.getInt( field( element, NEXT_SIBLING ) );
+    }
+
+    int getLastDescendant( final int element )
+    {
+        return elements.getInt( field( element, LAST_DESCENDANT ) );
+    }
+
+    int getAttributeCount( final int element )
+    {
+        return elements.getInt( field( element, ATTRIBUTE_COUNT ) );
+    }
+
+    String getAttributeName( final int element, final int index )
+    {
+        return names[attributes.getInt( attributeField( element, index, NAME ) )];
+    }
+
+    String getAttributeValue( final int element, final int index )
+    {
+        return getString( attributes.getInt( attributeField( element, index, VALUE ) ) );
+    }
+
+    /**
+     * Get the value of a named attribute.
+     * @param element an element.
+     * @param attributeName name of the attribute.
+     * @return the attribute value, or null if the element has no such attribute.
+     */
+    String getAttributeValue( final int element, final String attributeName )
+    {
+        final int count = getAttributeCount( element );
+        for ( int i = 0; i < count; i++ )
+        {
+            if ( attributeName.equals( getAttributeName( element, i ) ) )
+            {
+                return getAttributeValue( element, i );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the text of an element, as returned by {@link XmlElement#getText()}.
+     * @param element an element.
+     * @return the text, or an empty string if the element has none.
+     */
+    String getText( final int element )
+    {
+        return getString( elements.getInt( field( element, TEXT ) ) );
+    }
+
+    /**
+     * Test if an element has text.
+     * @param element an element.
+     * @return true if the text of the element is not empty.
+     */
+    boolean hasText( final int element )
+    {
+        return elements.getInt( field( element, TEXT ) ) != 0;
+    }
+
+    /**
+     * Write the text of an element, escaped, without decoding it.
+     * @param element an element.
+     * @param output the destination.
+     * @throws IOException if the destination fails.
+     */
+    void writeText( final int element, final XmlUtf8Output output )
+            throws IOException
+    {
+        writeString( elements.getInt( field( element, TEXT ) ), output, false );
+    }
+
+    /**
+     * Write the value of an attribute, escaped, without decoding it.
+     * @param element an element.
+     * @param index index of the attribute.
+     * @param output the destination.
+     * @throws IOException if the destination fails.
+     */
+    void writeAttributeValue( final int element, final int index, final XmlUtf8Output output )
+            throws IOException
+    {
+        writeString( attributes.getInt( attributeField( element, index, VALUE ) ), output, true );
+    }
+
+    /**
+     * Test if an element is a descendant of another element.
+     * @param element an element.
+     * @param ancestor a possible ancestor.
+     * @return true if {@code element} is within the subtree of {@code ancestor}, excluding {@code ancestor} itself.
+     */
+    boolean isDescendant( final int element, final int ancestor )
+    {
+        return element > ancestor && element <= getLastDescendant( ancestor );
+    }
+
+    /**
+     * Add an element record.  Links to children, the last descendant and the text are set once known.
+     * @param nameIndex name table index of the element name.
+     * @param parent parent element, or {@link #NONE}.
+     * @param attributeStart first attribute record of the element.
+     * @param elementAttributeCount count of attributes of the element.
+     * @return the new element.
+     * @throws IOException if the store can not be extended.
+     */
+    int addElement( final int nameIndex, final int parent, final int attributeStart, final int elementAttributeCount )
+            throws IOException
+    {
+        if ( elementCount == Integer.MAX_VALUE )
+        {
+            throw new IOException( "document has too many elements for compact storage" );
+        }
+
+        final int element = elementCount++;
+        elements.allocate( ELEMENT_INTS * Integer.BYTES );
+        elements.putInt( field( element, NAME ), nameIndex );
+        elements.putInt( field( element, PARENT ), parent );
+        elements.putInt( field( element, FIRST_CHILD ), NONE );
+        elements.putInt( field( element, NEXT_SIBLING ), NONE );
+        elements.putInt( field( element, LAST_DESCENDANT ), element );
+        elements.putInt( field( element, ATTRIBUTE_START ), attributeStart );
+        elements.putInt( field( element, ATTRIBUTE_COUNT ), elementAttributeCount );
+        elements.putInt( field( element, TEXT ), 0 );
+        return element;
+    }
+
+    void setFirstChild( final int element, final int child )
+    {
+        elements.putInt( field( element, FIRST_CHILD ), child );
+    }
+
+    void setNextSibling( final int element, final int sibling )
+    {
+        elements.putInt( field( element, NEXT_SIBLING ), sibling );
+    }
+
+    void setLastDescendant( final int element, final int lastDescendant )
+    {
+        elements.putInt( field( element, LAST_DESCENDANT ), lastDescendant );
+    }
+
+    void setText( final int element, final CharSequence text )
+            throws IOException
+    {
+        elements.putInt( field( element, TEXT ), addString( text ) );
+    }
+
+    /**
+     * Add an attribute record, following the attribute records of the same element.
+     * @param nameIndex name table index of the attribute name.
+     * @param value attribute value.
+     * @return index of the new attribute record.
+     * @throws IOException if the store can not be extended.
+     */
+    int addAttribute( final int nameIndex, final CharSequence value )
+            throws IOException
+    {
+        if ( attributeCount == Integer.MAX_VALUE )
+        {
+            throw new IOException( "document has too many attributes for compact storage" );
+        }
+
+        final int attribute = attributeCount++;
+        final long address = attributes.allocate( ATTRIBUTE_INTS * Integer.BYTES );
+        attributes.putInt( address, nameIndex );
+        attributes.putInt( address + VALUE * Integer.BYTES, addString( value ) );
+        return attribute;
+    }
+
+    int getNextAttribute()
+    {
+        return attributeCount;
+    }
+
+    void setNames( final Collection<String> nameTable )
+    {
+        names = nameTable.toArray( new String[0] );
+    }
+
+    /**
+     * Complete the build of the store, replacing each page with the page returned by
+     * {@link PageAllocator#seal(ByteBuffer, int)}.  Must be called before the allocator is closed.
+     * @throws IOException if a page can not be sealed.
+     */
+    void seal()
+            throws IOException
+    {
+        elements.seal();
+        attributes.seal();
+        strings.seal();
+    }
+
+    /**
+     * Drop the pages of the store, so that the memory or file space holding them is released by the next garbage
+     * collection even while the store itself is still referenced.  Once released, reading an element throws
+     * {@link IllegalStateException}.  Must not be called while the store is read by another thread.
+     */
+    void release()
+    {
+        elements.release();
+        attributes.release();
+        strings.release();
+    }
+
+    /**
+     * Calculate the content hash of an element and its descendants.  The hash is equal to the content hash of the w3c
+     * copy of the element made by {@link XmlCompactDocument#copySubtree(XmlCompactStore, int, org.w3c.dom.Document)},
+     * so it is consistent both with {@link #contentEquals(int, XmlCompactStore, int)} and with the comparison of
+     * compact and w3c elements.  Descendants are hashed in document order using a stack of the open ancestors, so
+     * deep documents need no recursion.
+     * @param element the element to hash.
+     * @return content hash of the subtree.
+     */
+    int contentHash( final int element )
+    {
+        final int lastDescendant = getLastDescendant( element );
+        int[] openElements = new int[16];
+        int[] openHashes = new int[16];
+        int depth = 0;
+        for ( int current = element; current <= lastDescendant; current++ )
+        {
+            while ( depth > 0 && getLastDescendant( openElements[depth - 1] ) < current )
+            {
+                depth--;
+                openHashes[depth - 1] = 31 * openHashes[depth - 1] + openHashes[depth];
+            }
+            if ( depth == openElements.length )
+            {
+                openElements = Arrays.copyOf( openElements, depth * 2 );
+                openHashes = Arrays.copyOf( openHashes, depth * 2 );
+            }
+            openElements[depth] = current;
+            openHashes[depth] = startHash( current );
+            depth++;
+        }
+        while ( depth > 1 )
+        {
+            depth--;
+            openHashes[depth - 1] = 31 * openHashes[depth - 1] + openHashes[depth];
+        }
+        return openHashes[0];
+    }
+
+    /**
+     * Hash an element without its child elements, as by {@link XmlContentHashW3c} of an element holding a single text
+     * node, if any.
+     * @param element the element to hash.
+     * @return the hash, to be extended by the hashes of the child elements.
+     */
+    private int startHash( final int element )
+    {
+        // attribute order is not significant, so individual attribute hashes are summed
+        int attributeHash = 0;
+        final int attributeCount = getAttributeCount( element );
+        for ( int i = 0; i < attributeCount; i++ )
+        {
+            attributeHash += 31 * getAttributeName( element, i ).hashCode() ^ getAttributeValue( element, i ).hashCode();
+        }
+
+        int hash = 31 * Node.ELEMENT_NODE;
+        hash = 31 * hash + getName( element ).hashCode();
+        hash = 31 * hash + attributeHash;
+        final String text = getText( element );
+        if ( !text.isEmpty() )
+        {
+            hash = 31 * hash + 31 * Node.TEXT_NODE + text.hashCode();
+        }
+        return hash;
+    }
+
+    /**
+     * Deep compare the content of two elements.  Attribute order is not significant.
+     * @param element1 the element of this store.
+     * @param store2 the elements of the other document.
+     * @param element2 the element of the other store.
+     * @return true if both subtrees have the same shape, and equal names, attributes and text.
+     */
+    boolean contentEquals( final int element1, final XmlCompactStore store2, final int element2 )
+    {
+        final int size = getLastDescendant( element1 ) - element1;
+        if ( size != store2.getLastDescendant( element2 ) - element2 )
+        {
+            return false;
+        }
+
+        for ( int offset = 0; offset <= size; offset++ )
+        {
+            final int current1 = element1 + offset;
+            final int current2 = element2 + offset;
+            if ( offset > 0 && getParent( current1 ) - element1 != store2.getParent( current2 ) - element2 )
+            {
+                return false;
+            }
+            if ( !getName( current1 ).equals( store2.getName( current2 ) )
+                    || !getText( current1 ).equals( store2.getText( current2 ) ) )
+            {
+                return false;
+            }
+
+            final int attributeCount = getAttributeCount( current1 );
+            if ( attributeCount != store2.getAttributeCount( current2 ) )
+            {
+                return false;
+            }
+            for ( int i = 0; i < attributeCount; i++ )
+            {
+                if ( !getAttributeValue( current1, i ).equals( store2.getAttributeValue( current2, getAttributeName( current1, i ) ) ) )
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private int addString( final CharSequence value )
+            throws IOException
+    {
+        if ( value.length() == 0 )
+        {
+            return 0;
+        }
+
+        final byte[] bytes = value.toString().getBytes( StandardCharsets.UTF_8 );
+        final int paddedLength = ( Integer.BYTES + bytes.length + Integer.BYTES - 1 ) & -Integer.BYTES;
+        final long address = strings.allocate( paddedLength );
+        if ( address > MAX_STRING_ADDRESS )
+        {
+            throw new IOException( "document text exceeds the size of compact storage" );
+        }
+        strings.putInt( address, bytes.length );
+        strings.putBytes( address + Integer.BYTES, bytes );
+        return ( int ) ( address >>> 2 );
+    }
+
+    private String getString( final int reference )
+    {
+        if ( reference == 0 )
+        {
+            return "";
+        }
+
+        final long address = Integer.toUnsignedLong( reference ) << 2;
+        final byte[] bytes = strings.getBytes( address + Integer.BYTES, strings.getInt( address ) );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private void writeString( final int reference, final XmlUtf8Output output, final boolean attribute )
+            throws IOException
+    {
+        if ( reference != 0 )
+        {
+            final long address = Integer.toUnsignedLong( reference ) << 2;
+            strings.writeEscaped( address + Integer.BYTES, strings.getInt( address ), output, attribute );
+        }
+    }
+
+    private long attributeField( final int element, final int index, final int attributeField )
+    {
+        final long attribute = ( long ) elements.getInt( field( element, ATTRIBUTE_START ) ) + index;
+        return ( attribute * ATTRIBUTE_INTS + attributeField ) * Integer.BYTES;
+    }
+
+    private static long field( final int element, final int elementField )
+    {
+        return ( ( long ) element * ELEMENT_INTS + elementField ) * Integer.BYTES;
+    }
+
+    /**
+     * Source of the pages of a store.
+     */
+    interface PageAllocator extends Closeable
+    {
+        /**
+         * Allocate a zeroed page of {@link #PAGE_SIZE} bytes.
+         * @return a new page.
+         * @throws IOException if no page can be allocated.
+         */
+        ByteBuffer allocatePage()
+                throws IOException;
+
+        /**
+         * Called once the store is built with each page of a region and the count of bytes used in it.  The returned
+         * buffer replaces the page, and must hold the same content for at least {@code length} bytes.
+         * @param page a page allocated by this allocator.
+         * @param length count of bytes used in the page.
+         * @return the page to keep in the store.
+         * @throws IOException if the page can not be sealed.
+         */
+        default ByteBuffer seal( final ByteBuffer page, final int length )
+                throws IOException
+        {
+            return page;
+        }
+    }
+
+    /**
+     * Allocator of pages mapped from a temporary file, which is deleted once the allocator is closed.  Pages remain
+     * mapped until they are no longer referenced, or the store is released.
+     */
+    static final class MappedFileAllocator implements PageAllocator
+    {
+        /**
+         * The temporary file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * File offset of the next page.
+         */
+        private long nextPosition;
+
+        MappedFileAllocator()
+                throws IOException
+        {
+            final Path path = Files.createTempFile( "xmlchai", ".compact" );
+            this.channel = FileChannel.open( path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE );
+        }
+
+        @Override
+        public ByteBuffer allocatePage()
+                throws IOException
+        {
+            final ByteBuffer page = channel.map( FileChannel.MapMode.READ_WRITE, nextPosition, PAGE_SIZE );
+            nextPosition += PAGE_SIZE;
+            return page;
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Allocator of pages held in direct buffers, outside of the heap and not backed by a file.  Pages are built in a
+     * temporary file as by {@link MappedFileAllocator}, and sealed by copying the used part of each page into a direct
+     * buffer of the same size, so a small document does not keep whole pages allocated.  The memory of a direct
+     * buffer is released by the JVM once the buffer is no longer referenced, or the store is released, so a store
+     * holds only a few heap objects however many elements it has.  The total size of direct buffers is limited by
+     * the {@code -XX:MaxDirectMemorySize} JVM option, which defaults to the maximum heap size.
+     */
+    static final class DirectAllocator implements PageAllocator
+    {
+        /**
+         * Allocator of the pages written while building the store.
+         */
+        private final MappedFileAllocator buildAllocator;
+
+        DirectAllocator()
+                throws IOException
+        {
+            this.buildAllocator = new MappedFileAllocator();
+        }
+
+        @Override
+        public ByteBuffer allocatePage()
+                throws IOException
+        {
+            return buildAllocator.allocatePage();
+        }
+
+        @Override
+        public ByteBuffer seal( final ByteBuffer page, final int length )
+                throws IOException
+        {
+            try
+            {
+                return XmlPlatform.copyDirect( page, length );
+            }
+            catch ( final OutOfMemoryError e )
+            {
+                // direct buffer memory is limited separately from the heap
+                throw new IOException( "direct buffer memory is exhausted, the limit is set by -XX:MaxDirectMemorySize: " + e.getMessage(), e );
+            }
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            buildAllocator.close();
+        }
+    }
+
+    /**
+     * A growable sequence of pages, addressed by byte offset.
+     */
+    private static final class Region
+    {
+        /**
+         * Source of new pages.
+         */
+        private final PageAllocator allocator;
+
+        /**
+         * Pages of this region.
+         */
+        private final List<ByteBuffer> pages = new ArrayList<>();
+
+        /**
+         * Count of allocated bytes.
+         */
+        private long size;
+
+        Region( final PageAllocator allocator )
+        {
+            this.allocator = allocator;
+        }
+
+        /**
+         * Allocate space at the end of the region.  Space for records is allocated in multiples of the record size,
+         * which divides the page size, so records never span pages.
+         * @param length count of bytes to allocate.
+         * @return address of the allocated space.
+         * @throws IOException if a page can not be allocated.
+         */
+        long allocate( final int length )
+                throws IOException
+        {
+            final long address = size;
+            size += length;
+            while ( ( ( long ) pages.size() << PAGE_SHIFT ) < size )
+            {
+                pages.add( allocator.allocatePage().order( ByteOrder.nativeOrder() ) );
+            }
+            return address;
+        }
+
+        /**
+         * Replace each page with its sealed page.
+         * @throws IOException if a page can not be sealed.
+         */
+        void seal()
+                throws IOException
+        {
+            for ( int i = 0; i < pages.size(); i++ )
+            {
+                final int length = ( int ) Math.min( PAGE_SIZE, size - ( ( long ) i << PAGE_SHIFT ) );
+                pages.set( i, allocator.seal( pages.get( i ), length ).order( ByteOrder.nativeOrder() ) );
+            }
+        }
+
+        /**
+         * Drop the pages of the region, so their memory is released once no buffer of them is referenced.
+         */
+        void release()
+        {
+            pages.clear();
+        }
+
+        private ByteBuffer page( final long address )
+        {
+            final int index = ( int ) ( address >>> PAGE_SHIFT );
+            if ( index >= pages.size() )
+            {
+                // addresses are always within the allocated size, so only a released region has too few pages
+                throw new IllegalStateException( "compact document storage has been released" );
+            }
+            return pages.get( index );
+        }
+
+        int getInt( final long address )
+        {
+            return page( address ).getInt( ( int ) ( address & ( PAGE_SIZE - 1 ) ) );
+        }
+
+        void putInt( final long address, final int value )
+        {
+            page( address ).putInt( ( int ) ( address & ( PAGE_SIZE - 1 ) ), value );
+        }
+
+        byte[] getBytes( final long address, final int length )
+        {
+            final byte[] bytes = new byte[length];
+            int copied = 0;
+            while ( copied < length )
+            {
+                final long position = address + copied;
+                final ByteBuffer page = page( position );
+                final int index = ( int ) ( position & ( PAGE_SIZE - 1 ) );
+                final int count = Math.min( length - copied, page.limit() - index );
+                XmlPlatform.getBytes( page, index, bytes, copied, count );
+                copied += count;
+            }
+            return bytes;
+        }
+
+        /**
+         * Write UTF-8 encoded text held in the region, escaped.  Text spanning pages is written a page at a time, which
+         * is safe as escaped characters are single bytes.
+         * @param address address of the first byte.
+         * @param length count of bytes.
+         * @param output the destination.
+         * @param attribute true to escape as an attribute value, false as element text.
+         * @throws IOException if the destination fails.
+         */
+        void writeEscaped( final long address, final int length, final XmlUtf8Output output, final boolean attribute )
+                throws IOException
+        {
+            int written = 0;
+            while ( written < length )
+            {
+                final long position = address + written;
+                final ByteBuffer page = page( position );
+                final int index = ( int ) ( position & ( PAGE_SIZE - 1 ) );
+                final int count = Math.min( length - written, page.limit() - index );
+                if ( attribute )
+                {
+                    output.writeEscapedAttribute( page, index, count );
+                }
+                else
+                {
+                    output.writeEscapedText( page, index, count );
+                }
+                written += count;
+            }
+        }
+
+        void putBytes( final long address, final byte[] bytes )
+        {
+            int copied = 0;
+            while ( copied < bytes.length )
+            {
+                final long position = address + copied;
+                final ByteBuffer page = page( position );
+                final int index = ( int ) ( position & ( PAGE_SIZE - 1 ) );
+                final int count = Math.min( bytes.length - copied, page.limit() - index );
+                XmlPlatform.putBytes( page, index, bytes, copied, count );
+                copied += count;
+            }
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Internal gzip support for parsing and output.  Compressed input is recognized by the gzip magic bytes, so
+ * uncompressed input passes through unchanged.
+ */
+final class XmlCompression
+{
+    /**
+     * Size of the compression buffers, and of the chunks passed from a decompression task to the parser.  Large
+     * enough that inflating and deflating are not dominated by per-call overhead, unlike the 512 byte default of the
+     * gzip streams.
+     */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Count of decompressed chunks a decompression task may get ahead of the parser.
+     */
+    private static final int PIPE_CHUNKS = 8;
+
+    /**
+     * First byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_1 = 0x1f;
+
+    /**
+     * Second byte of the gzip magic number.
+     */
+    private static final int GZIP_MAGIC_2 = 0x8b;
+
+    private XmlCompression()
+    {
+    }
+
+    /**
+     * Wrap a stream so that it is decompressed if it starts with the gzip magic bytes.  The returned stream must be
+     * closed to release the native resources of decompression; closing it does not close {@code inputStream}.
+     * @param inputStream a compressed or uncompressed stream.
+     * @return a buffered stream of the decompressed or unchanged content.
+     * @throws IOException if the stream can not be read.
+     */
+    static InputStream decompress( final InputStream inputStream )
+            throws IOException
+    {
+        final BufferedInputStream bufferedStream = new BufferedInputStream( new UnclosedInputStream( inputStream ), BUFFER_SIZE );
+        return isGzip( bufferedStream ) ? new GZIPInputStream( bufferedStream, BUFFER_SIZE ) : bufferedStream;
+    }
+
+    /**
+     * Wrap a stream so that it is decompressed if it starts with the gzip magic bytes.  Compressed content is
+     * decompressed by a task run on {@code executor}, which stays up to a few chunks ahead of the reader of the
+     * returned stream, so decompression and parsing overlap.  The task closes {@code inputStream} once it is fully read
+     * or the returned stream is closed.  The executor must run the task on another thread, as the task blocks until the
+     * returned stream is read.
+     * @param inputStream a compressed or uncompressed stream.
+     * @param executor executor of the decompression task.
+     * @return a stream of the decompressed or unchanged content.
+     * @throws IOException if the stream can not be read.
+     */
+    static InputStream decompress( final InputStream inputStream, final Executor executor )
+            throws IOException
+    {
+        final BufferedInputStream bufferedStream = new BufferedInputStream( inputStream, BUFFER_SIZE );
+        if ( !isGzip( bufferedStream ) )
+        {
+            return bufferedStream;
+        }
+
+        final ChunkPipe pipe = new ChunkPipe( bufferedStream );
+        executor.execute( pipe::fill );
+        return pipe;
+    }
+
+    /**
+     * Wrap a stream so that content written to it is gzip compressed.  Closing the returned stream completes the
+     * compressed content and flushes {@code outputStream}, but does not close it.
+     * @param outputStream destination of the compressed content.
+     * @return a compressing stream.
+     * @throws IOException if the gzip header can not be written.
+     */
+    static OutputStream compress( final OutputStream outputStream )
+            throws IOException
+    {
+        return new GZIPOutputStream( new UnclosedOutputStream( outputStream ), BUFFER_SIZE );
+    }
+
+    private static boolean isGzip( final BufferedInputStream inputStream )
+            throws IOException
+    {
+        inputStream.mark( 2 );
+        final boolean gzip = inputStream.read() == GZIP_MAGIC_1 && inputStream.read() == GZIP_MAGIC_2;
+        inputStream.reset();
+        return gzip;
+    }
+
+    /**
+     * Stream of chunks decompressed by another thread.  Only one thread may read the stream.
+     */
+    private static final class ChunkPipe extends InputStream
+    {
+        /**
+         * Marker of the end of the decompressed content.
+         */
+        private static final byte[] END = new byte[0];
+
+        /**
+         * How long the decompression task waits for free space before checking whether the pipe has been closed.
+         */
+        private static final long OFFER_TIMEOUT_MS = 100;
+
+        /**
+         * The gzip stream.
+         */
+        private final InputStream compressedStream;
+
+        /**
+         * Decompressed chunks not yet read, with room for {@link #END} beyond the {@link #PIPE_CHUNKS} data chunks, so
+         * the end can always be published without blocking.
+         */
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>( PIPE_CHUNKS + 1 );
+
+        /**
+         * Free data chunk slots in {@link #chunks}, acquired by the decompression task and released by the reader.
+         */
+        private final Semaphore freeChunks = new Semaphore( PIPE_CHUNKS );
+
+        /**
+         * The chunk being read, or null once the end has been reached.
+         */
+        private byte[] chunk = new byte[0];
+
+        /**
+         * Position of the next byte to read in {@link #chunk}.
+         */
+        private int position;
+
+        /**
+         * Failure of the decompression task, reported to the reader at the end of the decompressed content.
+         */
+        private volatile Throwable failure;
+
+        /**
+         * True once the reader has closed the pipe.
+         */
+        private volatile boolean closed;
+
+        ChunkPipe( final InputStream compressedStream )
+        {
+            this.compressedStream = compressedStream;
+        }
+
+        /**
+         * Decompress the gzip stream into the pipe, then close it.  Runs on the executor.  Whatever the outcome, the
+         * end is published so the reader never waits forever, and any failure is reported to the reader.
+         */
+        void fill()
+        {
+            try ( InputStream decompressedStream = new GZIPInputStream( compressedStream, BUFFER_SIZE ) )
+            {
+                while ( !closed )
+                {
+                    final byte[] buffer = new byte[BUFFER_SIZE];
+                    int length = 0;
+                    int count = 0;
+                    while ( length < buffer.length && ( count = decompressedStream.read( buffer, length, buffer.length - length ) ) >= 0 )
+                    {
+                        length += count;
+                    }
+                    if ( length > 0 )
+                    {
+                        offer( length == buffer.length ? buffer : Arrays.copyOf( buffer, length ) );
+                    }
+                    if ( count < 0 )
+                    {
+                        break;
+                    }
+                }
+            }
+            catch ( final InterruptedException e )
+            {
+                failure = new InterruptedIOException( "decompression was interrupted" );
+                Thread.currentThread().interrupt();
+            }
+            catch ( final IOException | RuntimeException | Error e )
+            {
+                failure = e;
+            }
+            finally
+            {
+                // the reserved slot is always free, so this never blocks or fails
+                chunks.add( END );
+            }
+        }
+
+        private void offer( final byte[] value )
+                throws InterruptedException
+        {
+            while ( !closed )
+            {
+                // wait for the reader to take a chunk or close the pipe
+                if ( freeChunks.tryAcquire( OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS ) )
+                {
+                    chunks.add( value );
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            if ( !nextChunk() )
+            {
+                return -1;
+            }
+            return chunk[position++] & 0xff;
+        }
+
+        @Override
+        public int read( final byte[] bytes, final int offset, final int length )
+                throws IOException
+        {
+            if ( length == 0 )
+            {
+                return 0;
+            }
+            if ( !nextChunk() )
+            {
+                return -1;
+            }
+            final int count = Math.min( length, chunk.length - position );
+            System.arraycopy( chunk, position, bytes, offset, count );
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return chunk == null ? 0 : chunk.length - position;
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+            chunks.clear();
+        }
+
+        /**
+         * Wait until a byte is available to read.
+         * @return false at the end of the decompressed content.
+         * @throws IOException if decompression failed, or the pipe is closed.
+         */
+        private boolean nextChunk()
+                throws IOException
+        {
+            if ( closed )
+            {
+                throw new IOException( "stream is closed" );
+            }
+            while ( chunk != null && position == chunk.length )
+            {
+                try
+                {
+                    final byte[] next = chunks.take();
+                    if ( next == END )
+                    {
+                        chunk = null;
+                    }
+                    else
+                    {
+                        chunk = next;
+                        freeChunks.release();
+                    }
+                    position = 0;
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "interrupted while waiting for decompressed content" );
+                }
+            }
+            if ( chunk == null )
+            {
+                final Throwable taskFailure = failure;
+                if ( taskFailure != null )
+                {
+                    throw new IOException( "error decompressing stream: " + taskFailure.getMessage(), taskFailure );
+                }
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Stream that does not close its source.
+     */
+    static final class UnclosedInputStream extends FilterInputStream
+    {
+        UnclosedInputStream( final InputStream inputStream )
+        {
+            super( inputStream );
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * Stream that flushes instead of closing its destination.
+     */
+    static final class UnclosedOutputStream extends FilterOutputStream
+    {
+        UnclosedOutputStream( final OutputStream outputStream )
+        {
+            super( outputStream );
+        }
+
+        @Override
+        public void write( final byte[] bytes, final int offset, final int length )
+                throws IOException
+        {
+            out.write( bytes, offset, length );
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            out.flush();
+        }
+    }
+}
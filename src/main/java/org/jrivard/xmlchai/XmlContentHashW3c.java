@@ -0,0 +1,322 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+/**
+ * Internal helper to calculate and compare content based hashes of w3c nodes.  Hashes of element and document
+ * nodes are cached in a map per owner document, and must be invalidated using {@link #invalidate(Node)} before the
+ * node or any of its descendants are modified.  The map is weakly keyed, so the entries of nodes removed from the
+ * document are dropped once the nodes are no longer referenced; detached subtrees are removed immediately using
+ * {@link #discard(Node)}.  Callers are expected to hold the lock of the owning document or element.
+ */
+final class XmlContentHashW3c
+{
+    /**
+     * Key used to store the hash cache of a document as user data of the w3c document node.
+     */
+    private static final String USER_DATA_KEY = XmlContentHashW3c.class.getName();
+
+    private XmlContentHashW3c()
+    {
+    }
+
+    /**
+     * Calculate the content hash of a node, re-using any cached subtree hashes.
+     * @param node the node to hash.
+     * @return content hash of the node and all of its descendants.
+     */
+    static int contentHash( final Node node )
+    {
+        final short nodeType = node.getNodeType();
+        switch ( nodeType )
+        {
+            case Node.ELEMENT_NODE:
+            case Node.DOCUMENT_NODE:
+                return cachedParentHash( node );
+
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+            case Node.COMMENT_NODE:
+                return 31 * nodeType + Objects.hashCode( node.getNodeValue() );
+
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return ( 31 * nodeType + Objects.hashCode( ( ( ProcessingInstruction ) node ).getTarget() ) ) * 31
+                        + Objects.hashCode( ( ( ProcessingInstruction ) node ).getData() );
+
+            case Node.ENTITY_REFERENCE_NODE:
+                return 31 * nodeType + Objects.hashCode( node.getNodeName() );
+
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Compare the content of two nodes and all of their descendants.  Cached subtree hashes are used to
+     * stop the comparison as soon as a difference is detected.
+     * @param node1 first node to compare.
+     * @param node2 second node to compare.
+     * @return true if the content of both nodes is equal.
+     */
+    static boolean contentEquals( final Node node1, final Node node2 )
+    {
+        if ( node1 == node2 )
+        {
+            return true;
+        }
+
+        if ( !isHashedType( node1.getNodeType() ) || node1.getNodeType() != node2.getNodeType() )
+        {
+            return false;
+        }
+
+        if ( contentHash( node1 ) != contentHash( node2 ) )
+        {
+            return false;
+        }
+
+        switch ( node1.getNodeType() )
+        {
+            case Node.ELEMENT_NODE:
+                return Objects.equals( node1.getNodeName(), node2.getNodeName() )
+                        && attributesEqual( node1.getAttributes(), node2.getAttributes() )
+                        && childrenEqual( node1, node2 );
+
+            case Node.DOCUMENT_NODE:
+                return childrenEqual( node1, node2 );
+
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                return Objects.equals( ( ( ProcessingInstruction ) node1 ).getTarget(), ( ( ProcessingInstruction ) node2 ).getTarget() )
+                        && Objects.equals( ( ( ProcessingInstruction ) node1 ).getData(), ( ( ProcessingInstruction ) node2 ).getData() );
+
+            case Node.ENTITY_REFERENCE_NODE:
+                return Objects.equals( node1.getNodeName(), node2.getNodeName() );
+
+            default:
+                return Objects.equals( node1.getNodeValue(), node2.getNodeValue() );
+        }
+    }
+
+    /**
+     * Remove the cached hash of the node and all of its ancestors.  Must be called before any modification
+     * of the node or its descendants.
+     * @param node the node about to be modified.
+     */
+    static void invalidate( final Node node )
+    {
+        final Map<Node, Integer> cache = existingCache( node );
+        if ( cache == null )
+        {
+            return;
+        }
+
+        for ( Node loopNode = node; loopNode != null; loopNode = loopNode.getParentNode() )
+        {
+            cache.remove( loopNode );
+        }
+    }
+
+    /**
+     * Remove the cached hashes of a node about to be detached, its ancestors and all of its descendants.
+     * @param node the node about to be detached.
+     */
+    static void discard( final Node node )
+    {
+        final Map<Node, Integer> cache = existingCache( node );
+        if ( cache == null || cache.isEmpty() )
+        {
+            return;
+        }
+
+        invalidate( node );
+        Node loopNode = node.getFirstChild();
+        while ( loopNode != null && loopNode != node )
+        {
+            cache.remove( loopNode );
+            if ( loopNode.getFirstChild() != null )
+            {
+                loopNode = loopNode.getFirstChild();
+                continue;
+            }
+            while ( loopNode != node && loopNode.getNextSibling() == null )
+            {
+                loopNode = loopNode.getParentNode();
+            }
+            if ( loopNode != node )
+            {
+                loopNode = loopNode.getNextSibling();
+            }
+        }
+    }
+
+    /**
+     * Get the hash cache of the owner document of a node, creating it if needed.  Cache keys rely on the identity
+     * based {@code equals} of w3c nodes.
+     * @param node a node.
+     * @return the hash cache.
+     */
+    private static Map<Node, Integer> cache( final Node node )
+    {
+        final Map<Node, Integer> existing = existingCache( node );
+        if ( existing != null )
+        {
+            return existing;
+        }
+
+        final Map<Node, Integer> cache = new WeakHashMap<>();
+        ownerDocument( node ).setUserData( USER_DATA_KEY, cache, null );
+        return cache;
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static Map<Node, Integer> existingCache( final Node node )
+    {
+        return ( Map<Node, Integer> ) ownerDocument( node ).getUserData( USER_DATA_KEY );
+    }
+
+    private static Document ownerDocument( final Node node )
+    {
+        return node.getNodeType() == Node.DOCUMENT_NODE ? ( Document ) node : node.getOwnerDocument();
+    }
+
+    private static int cachedParentHash( final Node node )
+    {
+        final Map<Node, Integer> cache = cache( node );
+        final Integer cachedValue = cache.get( node );
+        if ( cachedValue != null )
+        {
+            return cachedValue;
+        }
+
+        int hash = 31 * node.getNodeType();
+
+        if ( node.getNodeType() == Node.ELEMENT_NODE )
+        {
+            hash = 31 * hash + Objects.hashCode( node.getNodeName() );
+            hash = 31 * hash + attributesHash( node.getAttributes() );
+        }
+
+        for ( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( isHashedType( child.getNodeType() ) )
+            {
+                hash = 31 * hash + contentHash( child );
+            }
+        }
+
+        cache.put( node, hash );
+        return hash;
+    }
+
+    private static int attributesHash( final NamedNodeMap attributes )
+    {
+        // attribute order is not significant, so individual attribute hashes are summed
+        int hash = 0;
+        if ( attributes != null )
+        {
+            final int length = attributes.getLength();
+            for ( int i = 0; i < length; i++ )
+            {
+                final Attr attr = ( Attr ) attributes.item( i );
+                hash += 31 * Objects.hashCode( attr.getName() ) ^ Objects.hashCode( attr.getValue() );
+            }
+        }
+        return hash;
+    }
+
+    private static boolean attributesEqual( final NamedNodeMap attributes1, final NamedNodeMap attributes2 )
+    {
+        final int length1 = attributes1 == null ? 0 : attributes1.getLength();
+        final int length2 = attributes2 == null ? 0 : attributes2.getLength();
+        if ( length1 != length2 )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < length1; i++ )
+        {
+            final Attr attr1 = ( Attr ) attributes1.item( i );
+            final Attr attr2 = ( Attr ) attributes2.getNamedItem( attr1.getName() );
+            if ( attr2 == null || !Objects.equals( attr1.getValue(), attr2.getValue() ) )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean childrenEqual( final Node parent1, final Node parent2 )
+    {
+        Node child1 = nextHashedSibling( parent1.getFirstChild() );
+        Node child2 = nextHashedSibling( parent2.getFirstChild() );
+
+        while ( child1 != null && child2 != null )
+        {
+            if ( !contentEquals( child1, child2 ) )
+            {
+                return false;
+            }
+
+            child1 = nextHashedSibling( child1.getNextSibling() );
+            child2 = nextHashedSibling( child2.getNextSibling() );
+        }
+
+        return child1 == null && child2 == null;
+    }
+
+    private static Node nextHashedSibling( final Node node )
+    {
+        Node loopNode = node;
+        while ( loopNode != null && !isHashedType( loopNode.getNodeType() ) )
+        {
+            loopNode = loopNode.getNextSibling();
+        }
+        return loopNode;
+    }
+
+    private static boolean isHashedType( final short nodeType )
+    {
+        switch ( nodeType )
+        {
+            case Node.ELEMENT_NODE:
+            case Node.DOCUMENT_NODE:
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+            case Node.COMMENT_NODE:
+            case Node.PROCESSING_INSTRUCTION_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                return true;
+
+            default:
+                return false;
+        }
+    }
+}
@@ -22,6 +22,7 @@ package org.jrivard.xmlchai;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents the parsed XML Document.  <code>XmlDocument</code> instances
@@ -115,6 +116,35 @@ public interface XmlDocument
             String xpathExpression,
             Map<String, String> values );
 
+    /**
+     * Execute the xpath query and return all the matching elements, if any, resolving prefixes of
+     * name tests using {@code namespaces}.
+     *
+     * <p>Prefixes declared on the root element of the document are always available to xpath
+     * expressions; bindings in {@code namespaces} take precedence over them.  As in xpath 1.0,
+     * unprefixed name tests only match elements without a namespace.  Namespaces are only resolved in
+     * documents parsed with {@link XmlFactory.ParseFlag#NamespaceAware}.</p>
+     *
+     * <p><b>Example:</b></p>
+     * <pre>
+     * {@code var xPathExpression = "//v:PLANT[@id=$key]";}
+     * {@code var values = Map.of("key","1");}
+     * {@code var namespaces = Map.of("v","urn:example:vendor");}
+     * </pre>
+     *
+     * @param xpathExpression A valid xpath with optional variable substitutions.
+     * @param values Map of key/values to be used as variable value substitutions.  If all keys are not used
+     *               in the expression, an exception will be thrown.
+     * @param namespaces Map of prefix to namespace uri bindings.
+     * @return Return all the matching elements, if any.
+     * @throws NullPointerException if the {@code xpathExpression} or {@code namespaces} is null.
+     * @throws IllegalArgumentException if the {@code xpathExpression} in invalid.
+     */
+    List<XmlElement> evaluateXpathToElements(
+            String xpathExpression,
+            Map<String, String> values,
+            Map<String, String> namespaces );
+
 
     /**
      * Make a copy of the entire document.  The {@code AccessMode} of the copied
@@ -123,6 +153,70 @@ public interface XmlDocument
      */
     XmlDocument copy();
 
+    /**
+     * Make a copy of the entire document, using the threads of {@code forkJoinPool} to copy independent
+     * subtrees in parallel.  The result is equivalent to {@link #copy()}.  This document is locked only
+     * while its content is being read; the copied subtrees are assembled after the lock is released.  Small
+     * documents are copied without using the pool.
+     * @param forkJoinPool pool used to copy subtrees in parallel.
+     * @return A new copy of the current document.
+     * @throws NullPointerException if {@code forkJoinPool} is null.
+     */
+    XmlDocument copy( ForkJoinPool forkJoinPool );
+
+    /**
+     * Get a hash value derived from the content of the entire document.  Documents that are equal according to
+     * {@link #contentEquals(XmlDocument)} always have the same content hash.  The value is cached until
+     * the document is modified.
+     * @return A content based hash value of this document.
+     * @see XmlElement#contentHash()
+     */
+    int contentHash();
+
+    /**
+     * Deep compare the content of this document to {@code other}.
+     * @param other document to compare to.
+     * @return true if both documents have equal content.
+     * @throws NullPointerException if {@code other} is null.
+     * @see XmlElement#contentEquals(XmlElement)
+     */
+    boolean contentEquals( XmlDocument other );
+
+    /**
+     * Release storage held outside of the heap by a compact document, as parsed by
+     * {@link XmlFactory#parseCompact(java.io.InputStream, XmlFactory.CompactStorage, XmlFactory.ParseFlag...)}.  The
+     * storage is otherwise released only once the document is no longer referenced and is collected, which may be
+     * much later for a document referenced from a long lived cache.  Once released, the memory or file space is
+     * returned by the next garbage collection, and using the document or any of its elements throws
+     * {@link IllegalStateException}.  Must not be called while the document is used by another thread.  Other
+     * documents are held on the heap, so the default implementation does nothing.
+     */
+    default void release()
+    {
+        // only compact documents hold storage outside of the heap
+    }
+
+    /**
+     * Maintain an index of elements by the value of the named attribute.  The index is used by
+     * {@link #findByAttribute(String, String)} and by xpath expressions that start with a step such as
+     * {@code //PLANT[@id=$0]}, and is built the first time it is used.  Indexes are not included in
+     * copies of this document.
+     * @param attributeName Name of the attribute to index.
+     * @throws NullPointerException if {@code attributeName} is null.
+     */
+    void addAttributeIndex( String attributeName );
+
+    /**
+     * Find all elements of the document that have an attribute with the given value.  If an index has been
+     * added for {@code attributeName} the lookup does not scan the document.
+     * @param attributeName Name of the attribute.
+     * @param value Value of the attribute.
+     * @return All matching elements in document order, if any.
+     * @throws NullPointerException if {@code attributeName} or {@code value} is null.
+     * @see #addAttributeIndex(String)
+     */
+    List<XmlElement> findByAttribute( String attributeName, String value );
+
     /**
      * Get the access mode of this document.
      * @return The access mode of this document.
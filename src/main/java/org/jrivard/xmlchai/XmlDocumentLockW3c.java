@@ -0,0 +1,182 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.w3c.dom.Document;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Registry of the lock guarding each w3c {@link Document}.  Xerces nodes share mutable state with their owner
+ * document, so every node owned by a document, attached or not, must be guarded by the same lock.  Locks are
+ * {@link ReentrantLock}s rather than monitors so that virtual threads waiting on them are not pinned to their
+ * carrier thread.
+ *
+ * <p>The registry is split into stripes selected by the identity hash of the document, each a weakly keyed map
+ * guarded by its own lock, so threads registering or looking up different documents rarely contend.</p>
+ */
+final class XmlDocumentLockW3c
+{
+    /**
+     * Count of registry stripes, a power of two.
+     */
+    private static final int STRIPE_COUNT = 64;
+
+    /**
+     * Registry stripes.
+     */
+    private static final Stripe[] STRIPES = new Stripe[STRIPE_COUNT];
+
+    static
+    {
+        for ( int i = 0; i < STRIPE_COUNT; i++ )
+        {
+            STRIPES[i] = new Stripe();
+        }
+    }
+
+    private XmlDocumentLockW3c()
+    {
+    }
+
+    /**
+     * Register {@code document} as confined to a single thread.  Nodes it owns are not locked until they are
+     * adopted by another document.
+     * @param document a newly created document not yet visible to other threads.
+     */
+    static void registerUnlocked( final Document document )
+    {
+        stripe( document ).register( document, NoOpLock.INSTANCE );
+    }
+
+    /**
+     * Get the lock guarding {@code document} and all nodes it owns.
+     * @param document the owner document.
+     * @return the lock of the document, created on first use.
+     */
+    static Lock forDocument( final Document document )
+    {
+        return stripe( document ).forDocument( document );
+    }
+
+    private static Stripe stripe( final Document document )
+    {
+        final int hash = System.identityHashCode( document );
+        return STRIPES[( hash ^ ( hash >>> 16 ) ) & ( STRIPE_COUNT - 1 )];
+    }
+
+    /**
+     * One part of the registry.
+     */
+    private static final class Stripe
+    {
+        /**
+         * Lock per owner document.  Entries are removed once the document is no longer referenced.
+         */
+        @SuppressFBWarnings( "PMB_POSSIBLE_MEMORY_BLOAT" )
+        // PMB_POSSIBLE_MEMORY_BLOAT keys are weakly referenced and removed once the document is unreachable
+        private final Map<Document, Lock> locks = new WeakHashMap<>();
+
+        /**
+         * Guards {@link #locks}.  Only held for the duration of a map lookup.
+         */
+        private final Lock lock = new ReentrantLock();
+
+        void register( final Document document, final Lock documentLock )
+        {
+            lock.lock();
+            try
+            {
+                locks.put( document, documentLock );
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        Lock forDocument( final Document document )
+        {
+            lock.lock();
+            try
+            {
+                return locks.computeIfAbsent( document, key -> new ReentrantLock() );
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Lock that does nothing, used for documents confined to a single thread.
+     */
+    static final class NoOpLock implements Lock
+    {
+        /**
+         * Singleton instance.
+         */
+        static final NoOpLock INSTANCE = new NoOpLock();
+
+        private NoOpLock()
+        {
+        }
+
+        @Override
+        public void lock()
+        {
+        }
+
+        @Override
+        public void lockInterruptibly()
+        {
+        }
+
+        @Override
+        public boolean tryLock()
+        {
+            return true;
+        }
+
+        @Override
+        public boolean tryLock( final long time, final TimeUnit unit )
+        {
+            return true;
+        }
+
+        @Override
+        public void unlock()
+        {
+        }
+
+        @Override
+        public Condition newCondition()
+        {
+            throw new UnsupportedOperationException( "conditions are not supported for single threaded elements" );
+        }
+    }
+}
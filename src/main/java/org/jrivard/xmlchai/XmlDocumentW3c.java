@@ -21,22 +21,34 @@ package org.jrivard.xmlchai;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
+import javax.xml.XMLConstants;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
+@SuppressFBWarnings( "FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY" )
+// FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY the document and factory intentionally reference each other
 class XmlDocumentW3c implements XmlDocument
 {
+    /**
+     * User data key under which each wrapped w3c document references its {@link XmlDocumentW3c}.
+     */
+    private static final String USER_DATA_KEY = XmlDocumentW3c.class.getName();
+
     /**
      * The factory associated with this XmlDocument.
      */
@@ -55,7 +67,17 @@ class XmlDocumentW3c implements XmlDocument
     /**
      * The lock used by this document and all attached {@link XmlElementW3c} instances.
      */
-    private final Lock lock = new ReentrantLock();
+    private final Lock lock;
+
+    /**
+     * Attribute value index of this document, or null if no attribute has been indexed.
+     */
+    private XmlAttributeIndexW3c attributeIndex;
+
+    /**
+     * Prefixes declared on the root element, or null until first needed or after a declaration changes.
+     */
+    private XPathNamespaceContext declaredNamespaces;
 
     XmlDocumentW3c(
             final XmlFactoryW3c factory,
@@ -66,6 +88,32 @@ class XmlDocumentW3c implements XmlDocument
         this.factory = Objects.requireNonNull( factory );
         this.document = Objects.requireNonNull( document );
         this.accessMode = Objects.requireNonNull( mode );
+        this.lock = XmlDocumentLockW3c.forDocument( document );
+        document.setUserData( USER_DATA_KEY, this, null );
+    }
+
+    /**
+     * Resolve the document a node is currently part of, from the node's owner document and its ancestors rather
+     * than from the document a wrapper was created for, so that elements built detached and later attached, or
+     * detached along with an ancestor, are tracked correctly.  Must be called while holding the document lock.
+     * @param node the node to resolve.
+     * @return the document containing the node, or null if the node is not attached to a wrapped document.
+     */
+    static XmlDocumentW3c attachedDocument( final Node node )
+    {
+        final Document ownerDocument = node.getOwnerDocument();
+        final Object xmlDocument = ownerDocument == null ? null : ownerDocument.getUserData( USER_DATA_KEY );
+        if ( !( xmlDocument instanceof XmlDocumentW3c ) )
+        {
+            return null;
+        }
+
+        Node top = node;
+        while ( top.getParentNode() != null )
+        {
+            top = top.getParentNode();
+        }
+        return top == ownerDocument ? ( XmlDocumentW3c ) xmlDocument : null;
     }
 
     Lock getLock()
@@ -148,10 +196,35 @@ class XmlDocumentW3c implements XmlDocument
             final Map<String, String> values
     )
     {
+        return evaluateXpathToElements( xpathExpression, values, Collections.emptyMap() );
+    }
+
+    @Override
+    @SuppressFBWarnings( value = { "XPATH_INJECTION", "EXS_EXCEPTION_SOFTENING_NO_CHECKED" } )
+    public List<XmlElement> evaluateXpathToElements(
+            final String xpathExpression,
+            final Map<String, String> values,
+            final Map<String, String> namespaces
+    )
+    {
+        Objects.requireNonNull( namespaces );
+
         getLock().lock();
         try
         {
-            final XPathVariableInjector xPathVariableInjector = new XPathVariableInjector( values );
+            if ( declaredNamespaces == null )
+            {
+                declaredNamespaces = XPathNamespaceContext.declaredBy( document.getDocumentElement() );
+            }
+            final XPathNamespaceContext namespaceContext = declaredNamespaces.withBindings( namespaces );
+
+            final List<Element> fastResults = XPathFastEvaluator.evaluate( xpathExpression, document, values, namespaceContext, attributeIndex );
+            if ( fastResults != null )
+            {
+                return elementsToElementList( fastResults );
+            }
+
+            final XPathVariableInjector xPathVariableInjector = new XPathVariableInjector( values, namespaceContext );
 
             final XPathExpression expression = xPathVariableInjector.getXPath().compile( xpathExpression );
             final NodeList nodeList = ( NodeList ) expression.evaluate( document, XPathConstants.NODESET );
@@ -170,6 +243,45 @@ class XmlDocumentW3c implements XmlDocument
         }
     }
 
+    private List<XmlElement> elementsToElementList( final Collection<Element> elements )
+    {
+        if ( elements.isEmpty() )
+        {
+            return Collections.emptyList();
+        }
+
+        final List<XmlElement> returnList = new ArrayList<>( elements.size() );
+        for ( final Element element : elements )
+        {
+            returnList.add( new XmlElementW3c( element, factory, this ) );
+        }
+        return Collections.unmodifiableList( returnList );
+    }
+
+    /**
+     * Evaluate a compiled xpath expression against this document.  The caller must ensure the
+     * {@code expression} is not concurrently used by other threads.
+     * @param expression a compiled xpath expression.
+     * @return all matching elements, if any.
+     */
+    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    List<XmlElement> evaluateXpathExpression( final XPathExpression expression )
+    {
+        lock.lock();
+        try
+        {
+            final NodeList nodeList = ( NodeList ) expression.evaluate( document, XPathConstants.NODESET );
+            return XmlFactoryW3c.nodeListToElementList( factory, nodeList, this );
+        }
+        catch ( final XPathExpressionException e )
+        {
+            throw new IllegalStateException( "error evaluating xpath expression: " + e.getMessage(), e );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
 
     @Override
     public XmlDocument copy()
@@ -186,4 +298,189 @@ class XmlDocumentW3c implements XmlDocument
         }
     }
 
+    @Override
+    public XmlDocument copy( final ForkJoinPool forkJoinPool )
+    {
+        Objects.requireNonNull( forkJoinPool );
+
+        final org.w3c.dom.Document copiedDocument = XmlParallelCopyW3c.copyDocument( document, lock, forkJoinPool );
+        return new XmlDocumentW3c( factory, copiedDocument, accessMode );
+    }
+
+    @Override
+    public int contentHash()
+    {
+        lock.lock();
+        try
+        {
+            return XmlContentHashW3c.contentHash( document );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contentEquals( final XmlDocument other )
+    {
+        Objects.requireNonNull( other );
+
+        if ( other instanceof XmlCompactDocument )
+        {
+            // compared by the compact implementation, which compares its w3c copy
+            return other.contentEquals( this );
+        }
+        if ( !( other instanceof XmlDocumentW3c ) )
+        {
+            return false;
+        }
+
+        final XmlDocumentW3c otherW3c = ( XmlDocumentW3c ) other;
+        return XmlChaiInternalUtils.executeWithLocks(
+                getLock(),
+                otherW3c.getLock(),
+                () -> XmlContentHashW3c.contentEquals( document, otherW3c.document ) );
+    }
+
+    @Override
+    public void addAttributeIndex( final String attributeName )
+    {
+        Objects.requireNonNull( attributeName );
+
+        lock.lock();
+        try
+        {
+            if ( attributeIndex == null )
+            {
+                attributeIndex = new XmlAttributeIndexW3c( document );
+            }
+            attributeIndex.addAttributeName( attributeName );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<XmlElement> findByAttribute( final String attributeName, final String value )
+    {
+        Objects.requireNonNull( attributeName );
+        Objects.requireNonNull( value );
+
+        lock.lock();
+        try
+        {
+            if ( attributeIndex != null && attributeIndex.isIndexed( attributeName ) )
+            {
+                return elementsToElementList( attributeIndex.lookup( attributeName, value ) );
+            }
+
+            final List<Element> elements = new ArrayList<>();
+            XmlAttributeIndexW3c.scan( document, attributeName, value, elements );
+            return elementsToElementList( elements );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Update attribute indexes before an attribute of an attached element is changed or removed.  Must be called
+     * while holding the document lock.
+     * @param element the element to be modified.
+     * @param attributeName name of the attribute to be changed or removed.
+     */
+    void attributeRemoving( final Element element, final String attributeName )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.attributeRemoving( element, attributeName );
+        }
+    }
+
+    /**
+     * Update attribute indexes before all attributes of an attached element are removed.  Must be called while
+     * holding the document lock.
+     * @param element the element to be modified.
+     */
+    void attributesRemoving( final Element element )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.attributesRemoving( element );
+        }
+    }
+
+    /**
+     * Update attribute indexes before an element is detached from the document.  Must be called while holding
+     * the document lock.
+     * @param element the element to be detached.
+     */
+    void elementDetaching( final Element element )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.subtreeRemoving( element );
+        }
+    }
+
+    /**
+     * Update attribute indexes before the children of an attached element are removed or replaced.  Must be
+     * called while holding the document lock.
+     * @param element the element whose children are to be removed.
+     */
+    void childrenDetaching( final Element element )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.childrenRemoving( element );
+        }
+    }
+
+    /**
+     * Update attribute indexes after an attribute of an attached element is set.  Must be called while
+     * holding the document lock.
+     * @param element the modified element.
+     * @param attributeName name of the set attribute.
+     */
+    void attributeSet( final Element element, final String attributeName )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.attributeSet( element, attributeName );
+        }
+        if ( element == document.getDocumentElement() && attributeName.startsWith( XMLConstants.XMLNS_ATTRIBUTE ) )
+        {
+            declaredNamespaces = null;
+        }
+    }
+
+    /**
+     * Discard cached namespace declarations after attributes of an attached element are removed.  Must be
+     * called while holding the document lock.
+     * @param element the modified element.
+     */
+    void attributesRemoved( final Element element )
+    {
+        if ( element == document.getDocumentElement() )
+        {
+            declaredNamespaces = null;
+        }
+    }
+
+    /**
+     * Update attribute indexes after an element is attached to the document.  Must be called while
+     * holding the document lock.
+     * @param element the attached element.
+     */
+    void elementAttached( final Element element )
+    {
+        if ( attributeIndex != null )
+        {
+            attributeIndex.subtreeAttached( element );
+        }
+    }
 }
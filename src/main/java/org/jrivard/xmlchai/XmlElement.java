@@ -22,6 +22,7 @@ package org.jrivard.xmlchai;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Represents a XML element.  XmlElement instances are threadsafe.
@@ -66,6 +67,19 @@ public interface XmlElement
      */
     List<XmlElement> getChildren( String elementName );
 
+    /**
+     * Get all the direct child elements of this element in the namespace {@code namespaceUri} with the local name
+     * {@code localName}, regardless of the prefix used in the document.  Namespaces are only resolved in documents
+     * parsed with {@link XmlFactory.ParseFlag#NamespaceAware}; in other documents the local name is the part of the
+     * element name following any prefix, and no element has a namespace.  If no such elements are present, an empty
+     * list is returned.
+     * @param namespaceUri namespace of the elements to get, or null for elements without a namespace.
+     * @param localName local name of the elements to get.
+     * @return A {@link List} containing the element(s), if any.
+     * @throws NullPointerException if {@code localName} is null.
+     */
+    List<XmlElement> getChildren( String namespaceUri, String localName );
+
     /**
      * Get the name of this element.
      * @return the name of this element.
@@ -145,6 +159,8 @@ public interface XmlElement
      * @param element an {@code XmlElement} without an attached parent
      * @throws NullPointerException if {@code element} is null.
      * @throws IllegalStateException if the element already has an attached parent.
+     * @throws IllegalArgumentException if the element is not a mutable element, such as an element of a compact
+     *     document, or if it is the top element of this element; attach a {@link #copy()} instead.
      * @throws UnsupportedOperationException if the parent {@link XmlDocument}'s {@code AccessMode} is set to {@link AccessMode#IMMUTABLE}.
      */
     @ModifyOperation
@@ -155,6 +171,8 @@ public interface XmlElement
      * @param elements a collection of {@code XmlElement}s each without an attached parent.
      * @throws NullPointerException if {@code elements} is null.
      * @throws IllegalStateException if any of the elements already has an attached parent.
+     * @throws IllegalArgumentException if any of the elements is not a mutable element, such as an element of a
+     *     compact document, or if it is the top element of this element; attach a {@link #copy()} instead.
      * @throws UnsupportedOperationException if the parent {@link XmlDocument}'s {@code AccessMode} is set to {@link AccessMode#IMMUTABLE}.
      */
     @ModifyOperation
@@ -200,6 +218,37 @@ public interface XmlElement
      */
     XmlElement copy();
 
+    /**
+     * Create and return a new instance of the current element and all of its descendants, using the threads
+     * of {@code forkJoinPool} to copy independent subtrees in parallel.  The result is equivalent to {@link #copy()}.
+     * @param forkJoinPool pool used to copy subtrees in parallel.
+     * @return A new instance of the current element.
+     * @throws NullPointerException if {@code forkJoinPool} is null.
+     * @see XmlDocument#copy(ForkJoinPool)
+     */
+    XmlElement copy( ForkJoinPool forkJoinPool );
+
+    /**
+     * Get a hash value derived from the content of this element and all of its descendants.  The hash includes the
+     * element names, attributes, text, CDATA and comment nodes of the subtree.  Elements that are equal according to
+     * {@link #contentEquals(XmlElement)} always have the same content hash.
+     *
+     * <p>The hash of each subtree is computed lazily and cached until the subtree is modified, so repeated calls
+     * on unmodified elements are inexpensive.</p>
+     * @return A content based hash value of this element and its descendants.
+     */
+    int contentHash();
+
+    /**
+     * Deep compare the content of this element and all of its descendants to {@code other}.  Attribute order is
+     * not significant, all other child node order is significant.  Cached subtree hashes are used to end the
+     * comparison as soon as a difference is found.
+     * @param other element to compare to.
+     * @return true if both elements have equal names, attributes and child content.
+     * @throws NullPointerException if {@code other} is null.
+     */
+    boolean contentEquals( XmlElement other );
+
     /**
      * Get the access mode of this document.
      * @return The access mode of this document.
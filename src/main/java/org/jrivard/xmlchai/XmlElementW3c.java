@@ -21,6 +21,7 @@ package org.jrivard.xmlchai;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import org.w3c.dom.Attr;
+import org.w3c.dom.DocumentFragment;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -32,8 +33,8 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 class XmlElementW3c implements XmlElement
 {
@@ -50,14 +51,12 @@ class XmlElementW3c implements XmlElement
     /**
      * The parent document of this element.  If null, this element is detached from its parent.
      */
-    private XmlDocumentW3c xmlDocument;
-
-
+    private volatile XmlDocumentW3c xmlDocument;
 
     /**
-     * A local lock instance used only when mutations are done on detached elements.
+     * Lock of the owner document while this element is detached, cached to avoid a registry lookup per call.
      */
-    private Lock localLock;
+    private volatile OwnerLock ownerLock;
 
     @SuppressFBWarnings( "FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY" )
     XmlElementW3c( final org.w3c.dom.Element element, final XmlFactory factory, final XmlDocumentW3c xmlDocument )
@@ -67,19 +66,34 @@ class XmlElementW3c implements XmlElement
         this.xmlDocument = xmlDocument;
     }
 
-    private Lock getLock()
+    /**
+     * Get the lock guarding this element.  Detached elements share the lock of their owner document, so all
+     * wrappers of the same detached subtree are guarded by the same lock.
+     * @return the lock guarding this element.
+     */
+    Lock getLock()
     {
-        if ( xmlDocument != null )
+        final XmlDocumentW3c currentDocument = xmlDocument;
+        if ( currentDocument != null )
         {
-            return xmlDocument.getLock();
+            return currentDocument.getLock();
         }
 
-        if ( localLock == null )
+        final org.w3c.dom.Document ownerDocument = element.getOwnerDocument();
+        final OwnerLock cachedLock = ownerLock;
+        if ( cachedLock != null && cachedLock.getDocument() == ownerDocument )
         {
-            localLock = new ReentrantLock();
+            return cachedLock.getLock();
         }
 
-        return localLock;
+        final Lock lock = XmlDocumentLockW3c.forDocument( ownerDocument );
+        ownerLock = new OwnerLock( ownerDocument, lock );
+        return lock;
+    }
+
+    org.w3c.dom.Element getW3cElement()
+    {
+        return element;
     }
 
     @Override
@@ -211,34 +225,57 @@ class XmlElementW3c implements XmlElement
     }
 
     @Override
-    public Optional<String> getText()
+    public List<XmlElement> getChildren( final String namespaceUri, final String localName )
     {
+        Objects.requireNonNull( localName );
+
         final Lock lock = getLock();
         lock.lock();
         try
         {
-            final StringBuilder output = new StringBuilder();
-            final NodeList nodeList = element.getChildNodes();
-            if ( nodeList != null )
+            final List<XmlElement> returnList = new ArrayList<>();
+            for ( Node child = element.getFirstChild(); child != null; child = child.getNextSibling() )
             {
-                for ( int i = 0; i < nodeList.getLength(); i++ )
+                if ( child.getNodeType() == Node.ELEMENT_NODE
+                        && localName.equals( localName( child ) )
+                        && Objects.equals( namespaceUri, child.getNamespaceURI() ) )
                 {
-                    final Node node = nodeList.item( i );
-                    final short nodeType = node.getNodeType();
-                    if ( nodeType == Node.TEXT_NODE )
-                    {
-                        final String text = node.getTextContent();
-                        output.append( text == null ? "" : text.trim() );
-                    }
-                    else if ( nodeType == Node.CDATA_SECTION_NODE )
-                    {
-                        final String text = node.getTextContent();
-                        output.append( text == null ? "" : text );
-                    }
+                    returnList.add( new XmlElementW3c( ( org.w3c.dom.Element ) child, factory, xmlDocument ) );
                 }
             }
+            return Collections.unmodifiableList( returnList );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the local name of a node, including nodes created without namespace support.
+     * @param node an element or attribute node.
+     * @return the local name, or for nodes created without namespace support the node name following any prefix.
+     */
+    private static String localName( final Node node )
+    {
+        final String localName = node.getLocalName();
+        if ( localName != null )
+        {
+            return localName;
+        }
+        final String nodeName = node.getNodeName();
+        return nodeName.substring( nodeName.indexOf( ':' ) + 1 );
+    }
 
-            return output.length() < 1 ? Optional.empty() : Optional.of( output.toString() );
+    @Override
+    public Optional<String> getText()
+    {
+        final Lock lock = getLock();
+        lock.lock();
+        try
+        {
+            final String text = elementText( element );
+            return text.isEmpty() ? Optional.empty() : Optional.of( text );
         }
         finally
         {
@@ -246,6 +283,55 @@ class XmlElementW3c implements XmlElement
         }
     }
 
+    /**
+     * Get the text of an element as returned by {@link #getText()}.  Must be called while holding the lock
+     * of the element.
+     * @param element the element.
+     * @return the text of the element, or an empty string if it has none.
+     */
+    static String elementText( final org.w3c.dom.Element element )
+    {
+        final Node firstChild = element.getFirstChild();
+        if ( firstChild == null )
+        {
+            return "";
+        }
+
+        // common case of a single text child, such as in documents parsed with whitespace stripping
+        if ( firstChild.getNextSibling() == null )
+        {
+            return nodeText( firstChild );
+        }
+
+        final StringBuilder output = new StringBuilder();
+        for ( Node node = firstChild; node != null; node = node.getNextSibling() )
+        {
+            output.append( nodeText( node ) );
+        }
+        return output.toString();
+    }
+
+    /**
+     * Get the contribution of a child node to {@link #getText()}.  Text is trimmed, CDATA sections are not.
+     * @param node a child node.
+     * @return the node's text, or an empty string if the node is not a text node.
+     */
+    private static String nodeText( final Node node )
+    {
+        final short nodeType = node.getNodeType();
+        if ( nodeType == Node.TEXT_NODE )
+        {
+            final String text = node.getNodeValue();
+            return text == null ? "" : text.trim();
+        }
+        else if ( nodeType == Node.CDATA_SECTION_NODE )
+        {
+            final String text = node.getNodeValue();
+            return text == null ? "" : text;
+        }
+        return "";
+    }
+
     @Override
     public void setAttribute( final String attributeName, final String value )
     {
@@ -258,7 +344,17 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
-            element.setAttribute( attributeName, value );
+            XmlContentHashW3c.invalidate( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.attributeRemoving( element, attributeName );
+            }
+            element.setAttribute( XmlChaiInternalUtils.internName( attributeName ), value );
+            if ( attached != null )
+            {
+                attached.attributeSet( element, attributeName );
+            }
         }
         finally
         {
@@ -275,6 +371,12 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.discard( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.elementDetaching( element );
+            }
             element.getParentNode().removeChild( element );
         }
         finally
@@ -293,12 +395,8 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
-            final NodeList nodeList = element.getChildNodes();
-            for ( final XmlElement child : XmlFactoryW3c.nodeListToElementList( factory, nodeList, xmlDocument ) )
-            {
-                element.removeChild( ( ( XmlElementW3c ) child ).element );
-                ( ( XmlElementW3c ) child ).xmlDocument = null;
-            }
+            XmlContentHashW3c.invalidate( element );
+            removeChildElements();
         }
         finally
         {
@@ -309,18 +407,16 @@ class XmlElementW3c implements XmlElement
     @Override
     public void removeChildren( final String elementName )
     {
+        Objects.requireNonNull( elementName );
+
         modificationCheck();
 
         final Lock lock = getLock();
         lock.lock();
         try
         {
-            final NodeList nodeList = element.getElementsByTagName( elementName );
-            for ( final XmlElement child : XmlFactoryW3c.nodeListToElementList( factory, nodeList, xmlDocument ) )
-            {
-                element.removeChild( ( ( XmlElementW3c ) child ).element );
-                ( ( XmlElementW3c ) child ).xmlDocument = null;
-            }
+            XmlContentHashW3c.invalidate( element );
+            removeDescendantElements( elementName );
         }
         finally
         {
@@ -328,6 +424,52 @@ class XmlElementW3c implements XmlElement
         }
     }
 
+    /**
+     * Remove all direct child elements in a single pass over the children.  Must be called while holding the lock.
+     */
+    private void removeChildElements()
+    {
+        final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+        Node child = element.getFirstChild();
+        while ( child != null )
+        {
+            final Node next = child.getNextSibling();
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                if ( attached != null )
+                {
+                    attached.elementDetaching( ( org.w3c.dom.Element ) child );
+                }
+                element.removeChild( child );
+            }
+            child = next;
+        }
+    }
+
+    /**
+     * Remove all descendant elements of a name.  Each element is removed from its own parent, so a match nested inside
+     * another match is removed along with it.  Must be called while holding the lock.
+     * @param elementName name of the elements to remove.
+     */
+    private void removeDescendantElements( final String elementName )
+    {
+        final NodeList nodeList = element.getElementsByTagName( elementName );
+        final List<Node> matches = new ArrayList<>( nodeList.getLength() );
+        for ( int i = 0; i < nodeList.getLength(); i++ )
+        {
+            matches.add( nodeList.item( i ) );
+        }
+        final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+        for ( final Node match : matches )
+        {
+            if ( attached != null )
+            {
+                attached.elementDetaching( ( org.w3c.dom.Element ) match );
+            }
+            match.getParentNode().removeChild( match );
+        }
+    }
+
     @Override
     public void removeAttributes()
     {
@@ -336,11 +478,21 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.invalidate( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.attributesRemoving( element );
+            }
             while ( element.getAttributes().getLength() > 0 )
             {
                 final Node attribute = element.getAttributes().item( 0 );
                 element.getAttributes().removeNamedItem( attribute.getNodeName() );
             }
+            if ( attached != null )
+            {
+                attached.attributesRemoved( element );
+            }
         }
         finally
         {
@@ -359,7 +511,17 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.invalidate( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.attributeRemoving( element, attributeName );
+            }
             element.removeAttribute( attributeName );
+            if ( attached != null )
+            {
+                attached.attributesRemoved( element );
+            }
         }
         finally
         {
@@ -374,9 +536,19 @@ class XmlElementW3c implements XmlElement
 
         modificationCheck();
 
-        final XmlElement newNode = factory.newElement( elementName );
-        attachElement( newNode );
-        return newNode;
+        final Lock lock = getLock();
+        lock.lock();
+        try
+        {
+            XmlContentHashW3c.invalidate( element );
+            final org.w3c.dom.Element newElement = element.getOwnerDocument().createElement( XmlChaiInternalUtils.internName( elementName ) );
+            element.appendChild( newElement );
+            return new XmlElementW3c( newElement, factory, xmlDocument );
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -394,30 +566,77 @@ class XmlElementW3c implements XmlElement
 
         modificationCheck();
 
-        for ( final XmlElement element : elements )
+        final List<XmlElementW3c> children = new ArrayList<>( elements.size() );
+        final List<Lock> locks = new ArrayList<>( elements.size() + 1 );
+        locks.add( getLock() );
+        for ( final XmlElement xmlElement : elements )
         {
-            if ( element.parent().isPresent() )
+            if ( !( xmlElement instanceof XmlElementW3c ) )
             {
-                throw new IllegalStateException( "element named '" + element.getName() + "' already has an attached parent" );
+                throw new IllegalArgumentException( "element named '" + xmlElement.getName() + "' can not be attached, it is not a mutable w3c element" );
             }
+            final XmlElementW3c childW3c = ( XmlElementW3c ) xmlElement;
+            children.add( childW3c );
+            locks.add( childW3c.getLock() );
         }
 
-        final Lock lock = getLock();
-        lock.lock();
-        try
+        // the adopted elements' previous owner documents are modified as well, so their locks are also held
+        XmlChaiInternalUtils.executeWithLocks( locks, () ->
+        {
+            attachChildren( children );
+            return null;
+        } );
+    }
+
+    /**
+     * Check and then attach elements.  Every element is checked before any is moved, so a rejected call leaves all
+     * elements unchanged.  Must be called while holding the lock of this element and of each attached element.
+     * @param children the elements to attach.
+     */
+    private void attachChildren( final List<XmlElementW3c> children )
+    {
+        org.w3c.dom.Element topElement = element;
+        while ( topElement.getParentNode() instanceof org.w3c.dom.Element )
+        {
+            topElement = ( org.w3c.dom.Element ) topElement.getParentNode();
+        }
+        for ( final XmlElementW3c childW3c : children )
         {
-            for ( final XmlElement element : elements )
+            if ( childW3c.element.getParentNode() instanceof org.w3c.dom.Element )
             {
-                final org.w3c.dom.Element w3cElement = ( ( XmlElementW3c ) element ).element;
-                this.element.getOwnerDocument().adoptNode( w3cElement );
-                this.element.appendChild( w3cElement );
-                ( ( XmlElementW3c ) element ).xmlDocument = xmlDocument;
-                ( ( XmlElementW3c ) element ).localLock = null;
+                throw new IllegalStateException( "element named '" + childW3c.element.getTagName() + "' already has an attached parent" );
+            }
+            if ( childW3c.element == topElement )
+            {
+                throw new IllegalArgumentException( "element named '" + childW3c.element.getTagName() + "' can not be attached to itself or its descendant" );
             }
         }
-        finally
+
+        final XmlDocumentW3c currentDocument = xmlDocument;
+        final DocumentFragment fragment = element.getOwnerDocument().createDocumentFragment();
+        for ( final XmlElementW3c childW3c : children )
         {
-            lock.unlock();
+            XmlContentHashW3c.discard( childW3c.element );
+            final XmlDocumentW3c previousDocument = XmlDocumentW3c.attachedDocument( childW3c.element );
+            if ( previousDocument != null )
+            {
+                // a root element leaves its previous document
+                previousDocument.elementDetaching( childW3c.element );
+            }
+            fragment.getOwnerDocument().adoptNode( childW3c.element );
+            fragment.appendChild( childW3c.element );
+        }
+
+        XmlContentHashW3c.invalidate( element );
+        element.appendChild( fragment );
+        final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+        for ( final XmlElementW3c childW3c : children )
+        {
+            if ( attached != null )
+            {
+                attached.elementAttached( childW3c.element );
+            }
+            childW3c.xmlDocument = currentDocument;
         }
     }
 
@@ -430,6 +649,12 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.invalidate( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.childrenDetaching( element );
+            }
             this.element.setTextContent( null );
         }
         finally
@@ -449,6 +674,12 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.invalidate( element );
+            final XmlDocumentW3c attached = XmlDocumentW3c.attachedDocument( element );
+            if ( attached != null )
+            {
+                attached.childrenDetaching( element );
+            }
             this.element.setTextContent( text );
         }
         finally
@@ -468,6 +699,7 @@ class XmlElementW3c implements XmlElement
         lock.lock();
         try
         {
+            XmlContentHashW3c.invalidate( element );
             final NodeList nodeList = element.getChildNodes();
             for ( int i = 0; i < nodeList.getLength(); i++ )
             {
@@ -522,6 +754,15 @@ class XmlElementW3c implements XmlElement
         }
     }
 
+    @Override
+    public XmlElement copy( final ForkJoinPool forkJoinPool )
+    {
+        Objects.requireNonNull( forkJoinPool );
+
+        final org.w3c.dom.Element copiedElement = XmlParallelCopyW3c.copyElement( element, getLock(), forkJoinPool );
+        return new XmlElementW3c( copiedElement, factory, null );
+    }
+
     @Override
     public Optional<XmlElement> parent()
     {
@@ -541,4 +782,73 @@ class XmlElementW3c implements XmlElement
             lock.unlock();
         }
     }
+
+    @Override
+    public int contentHash()
+    {
+        final Lock lock = getLock();
+        lock.lock();
+        try
+        {
+            return XmlContentHashW3c.contentHash( element );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean contentEquals( final XmlElement other )
+    {
+        Objects.requireNonNull( other );
+
+        if ( other instanceof XmlCompactElement )
+        {
+            // compared by the compact implementation, which compares its w3c copy
+            return other.contentEquals( this );
+        }
+        if ( !( other instanceof XmlElementW3c ) )
+        {
+            return false;
+        }
+
+        final XmlElementW3c otherW3c = ( XmlElementW3c ) other;
+        return XmlChaiInternalUtils.executeWithLocks(
+                getLock(),
+                otherW3c.getLock(),
+                () -> XmlContentHashW3c.contentEquals( element, otherW3c.element ) );
+    }
+
+    /**
+     * The lock of an owner document.
+     */
+    private static final class OwnerLock
+    {
+        /**
+         * The owner document.
+         */
+        private final org.w3c.dom.Document document;
+
+        /**
+         * The lock guarding {@link #document}.
+         */
+        private final Lock lock;
+
+        OwnerLock( final org.w3c.dom.Document document, final Lock lock )
+        {
+            this.document = document;
+            this.lock = lock;
+        }
+
+        org.w3c.dom.Document getDocument()
+        {
+            return document;
+        }
+
+        Lock getLock()
+        {
+            return lock;
+        }
+    }
 }
@@ -22,6 +22,14 @@ package org.jrivard.xmlchai;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 /**
  * Factory for creating new XML object instances, including the {@code XmlFactory} itself.
@@ -38,6 +46,122 @@ public interface XmlFactory
          * Use Compact mode (no line-feeds or whitespace indentations) as opposed to default "Pretty Print" mode.
          */
         Compact,
+
+        /**
+         * Omit the XML declaration, so the output can be embedded in a larger document or stream.
+         */
+        Fragment,
+
+        /**
+         * Output the Canonical XML 1.0 form, omitting comments.  Canonical output has no XML declaration or
+         * indentation, so {@link #Compact} and {@link #Fragment} have no effect.  An element is output as a document
+         * subset, including the namespace declarations and {@code xml:} attributes it inherits.  Not supported by
+         * {@link #newWriter(OutputStream, OutputFlag...)}.
+         */
+        Canonical,
+
+        /**
+         * Output the Canonical XML 1.0 form, including comments.  Otherwise the same as {@link #Canonical}.
+         */
+        CanonicalWithComments,
+
+        /**
+         * Gzip compress the output written to an output stream.  The output stream is not closed, but the compressed
+         * content is complete once the output method returns.  Ignored when the output is a {@code String} and not
+         * supported by {@link #newWriter(OutputStream, OutputFlag...)}.
+         */
+        Gzip,
+    }
+
+    /**
+     * Options applied when parsing XML text.
+     */
+    enum ParseFlag
+    {
+        /**
+         * Discard whitespace-only text between elements, such as indentation.  Text of elements without element children
+         * is kept, as is all text within the scope of an {@code xml:space="preserve"} attribute.
+         */
+        StripWhitespace,
+
+        /**
+         * Convert CDATA sections to text and merge adjacent text, so each run of character data is a single text node.
+         * As a result leading and trailing whitespace of former CDATA content is trimmed by {@link XmlElement#getText()}.
+         */
+        CoalesceText,
+
+        /**
+         * Resolve element and attribute names to a namespace and local name.  Required to select namespaced elements
+         * using {@link XmlElement#getChildren(String, String)} or prefixed xpath name tests.  Without this flag all
+         * names, including any prefix, are treated as plain names without a namespace.
+         */
+        NamespaceAware,
+
+        /**
+         * Decompress input that starts with the gzip magic bytes.  Other input is parsed unchanged, so the flag can be
+         * used for input that may or may not be compressed.
+         */
+        Decompress,
+    }
+
+    /**
+     * Conventions of JSON text converted from XML.  By default each element is a property named after the element.
+     * An element with only text is a string, an element with attributes or child elements is an object.  Attributes
+     * are properties named with an {@code @} prefix, the text of an element with attributes or child elements is an
+     * {@code #text} property, and sibling elements of the same name are an array at the position of the first of
+     * them.  All values are strings.
+     */
+    enum JsonFlag
+    {
+        /**
+         * Name attribute properties without the {@code @} prefix.  JSON text written using this flag can not be parsed
+         * back into the same document.
+         */
+        AttributesWithoutPrefix,
+
+        /**
+         * Write every element other than the root element as an array, even if it has no sibling of the same name, so
+         * the shape of the JSON does not depend on the number of elements.  Converted output is also never held back
+         * waiting for a following sibling.
+         */
+        ElementsAsArrays,
+    }
+
+    /**
+     * Storage of the elements of documents parsed by {@link #parseCompact(InputStream, CompactStorage, ParseFlag...)}.
+     */
+    enum CompactStorage
+    {
+        /**
+         * Store elements in a temporary file that is mapped into memory, so the operating system pages them in on
+         * demand and the document may be larger than the heap.  The file is deleted once parsing completes; its
+         * space is released once the document is no longer referenced, or after {@link XmlDocument#release()}.
+         */
+        TempFile,
+
+        /**
+         * Store elements in direct buffers allocated outside of the heap, sized to the parsed document.  Intended for
+         * immutable documents that are cached for a long time, as the elements are not scanned by the garbage
+         * collector.  The memory is released once the document is no longer referenced, or after
+         * {@link XmlDocument#release()}.  The total size of direct buffers is limited by the
+         * {@code -XX:MaxDirectMemorySize} JVM option, which defaults to the maximum heap size; size it for all off heap
+         * documents held at once, as parsing fails with an {@link IOException} once the limit is reached.
+         */
+        OffHeap,
+    }
+
+    /**
+     * Hints for newly created elements.
+     */
+    enum ElementFlag
+    {
+        /**
+         * The element, and any elements attached to it while it is detached, will only be accessed by the thread that
+         * created it.  Such elements are not locked until they are attached to an element of an {@link XmlDocument}, which
+         * makes bulk construction of element trees faster.  Accessing them from multiple threads before they are attached
+         * is not safe.
+         */
+        SingleThreaded,
     }
 
     /**
@@ -51,6 +175,77 @@ public interface XmlFactory
     XmlDocument parse( InputStream inputStream, AccessMode accessMode )
             throws IOException;
 
+    /**
+     * Parse an input stream into an {@link XmlDocument} using the specified {@code ParseFlag}s.
+     * @param inputStream value for {@code InputStream} containing XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param parseFlags one or more {@code ParseFlag}s to shape the parsed document.
+     * @return a parsed XML document.
+     * @throws NullPointerException if {@code inputStream} or {@code accessMode} is null.
+     * @throws IOException if there is a stream or XML parsing error.
+     */
+    XmlDocument parse( InputStream inputStream, AccessMode accessMode, ParseFlag... parseFlags )
+            throws IOException;
+
+    /**
+     * Parse an input stream into a compact, immutable {@link XmlDocument} for documents too large to parse into
+     * heap memory, or held long enough that their nodes would burden the garbage collector.  Elements are stored as
+     * fixed size records outside of the heap and read on demand, and the parse only holds the currently open elements
+     * on the heap.
+     *
+     * <p>Compact documents retain elements, attributes and element text as returned by {@link XmlElement#getText()};
+     * comments, processing instructions and the position of text among child elements are discarded.  Names are
+     * not resolved to namespaces.  Xpath expressions are limited to paths of child and descendant steps with name
+     * tests, attribute predicates and positional predicates; other expressions throw
+     * {@link UnsupportedOperationException}.  Copies of compact documents and elements are mutable documents and
+     * elements held in heap memory.  Compact documents and elements are written directly from their store by
+     * {@link #output(XmlDocument, OutputStream, OutputFlag...)}, {@link #outputString(XmlDocument, OutputFlag...)}
+     * and {@link XmlWriter#element(XmlElement)}.  Canonical output, digests, JSON and binary output are written from
+     * such a copy, so need heap memory for the whole document or element.</p>
+     * @param inputStream value for {@code InputStream} containing XML data to parse.
+     * @param storage storage of the elements of the document.
+     * @param parseFlags {@link ParseFlag#CoalesceText} and {@link ParseFlag#Decompress} are applied, other flags
+     *     have no effect.
+     * @return a parsed, immutable XML document.
+     * @throws NullPointerException if {@code inputStream} or {@code storage} is null.
+     * @throws IOException if there is a stream, storage or XML parsing error.
+     */
+    XmlDocument parseCompact( InputStream inputStream, CompactStorage storage, ParseFlag... parseFlags )
+            throws IOException;
+
+    /**
+     * Parse an input stream that may be gzip compressed into an {@link XmlDocument}, decompressing it concurrently with
+     * parsing.  Compressed input is recognized by the gzip magic bytes and decompressed by a task run on
+     * {@code executor}, which stays a bounded distance ahead of the parser.  Uncompressed input is parsed directly
+     * without using {@code executor}.  The executor must run tasks on a thread other than the calling thread.
+     * @param inputStream value for {@code InputStream} containing compressed or uncompressed XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param executor executor of the decompression task.
+     * @param parseFlags one or more {@code ParseFlag}s to shape the parsed document.
+     * @return a parsed XML document.
+     * @throws NullPointerException if {@code inputStream}, {@code accessMode} or {@code executor} is null.
+     * @throws IOException if there is a stream, decompression or XML parsing error.
+     */
+    XmlDocument parseCompressed( InputStream inputStream, AccessMode accessMode, Executor executor, ParseFlag... parseFlags )
+            throws IOException;
+
+    /**
+     * Parse an input stream into an {@link XmlDocument}, validating it against an XML schema in the same pass.  The
+     * schema is compiled on first use and cached by {@code schemaLocation}, so later parses using the same schema do
+     * not compile it again.  Schema components imported or included by the schema are only loaded using the same
+     * protocol as {@code schemaLocation}.  The document is always parsed as if {@link ParseFlag#NamespaceAware} was
+     * specified, since schema validation matches names by namespace.
+     * @param inputStream value for {@code InputStream} containing XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param schemaLocation location of a W3C XML schema document.
+     * @param parseFlags one or more {@code ParseFlag}s to shape the parsed document.
+     * @return a parsed and valid XML document.
+     * @throws NullPointerException if {@code inputStream}, {@code accessMode} or {@code schemaLocation} is null.
+     * @throws IOException if there is a stream, schema or XML parsing error, or the document is not valid.
+     */
+    XmlDocument parse( InputStream inputStream, AccessMode accessMode, URL schemaLocation, ParseFlag... parseFlags )
+            throws IOException;
+
     /**
      * Parse a String stream into an {@link XmlDocument}.
      * @param input value for {@code InputStream} containing XML data to parse.  Assumed to be in {@link java.nio.charset.StandardCharsets#UTF_8}.
@@ -62,12 +257,25 @@ public interface XmlFactory
     XmlDocument parseString( String input, AccessMode accessMode )
             throws IOException;
 
+    /**
+     * Parse a String into an {@link XmlDocument} using the specified {@code ParseFlag}s.
+     * @param input value containing XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param parseFlags one or more {@code ParseFlag}s to shape the parsed document.
+     * @return a parsed XML document.
+     * @throws NullPointerException if {@code input} or {@code accessMode} is null.
+     * @throws IOException if there is an XML parsing error.
+     */
+    XmlDocument parseString( String input, AccessMode accessMode, ParseFlag... parseFlags )
+            throws IOException;
+
     /**
      * Output an XmlDocument to an output stream.
      * @param document document to be output.
      * @param outputStream output stream to write document to.
      * @param outputFlags one or more {@code OutputFlag}s to shape the output.
      * @throws NullPointerException if {@code document} or {@code outputStream} is null.
+     * @throws IllegalArgumentException if {@code document} is not created by this factory.
      * @throws IOException if there is a failure writing to the stream.
      */
     void output( XmlDocument document, OutputStream outputStream, OutputFlag... outputFlags )
@@ -79,11 +287,249 @@ public interface XmlFactory
      * @param outputFlags one or more {@code OutputFlag}s to shape the output.
      * @return a String containing the serialized XML document.
      * @throws NullPointerException if {@code document} is null.
+     * @throws IllegalArgumentException if {@code document} is not created by this factory.
      * @throws IOException if there is a failure writing to the stream.
      */
     String outputString( XmlDocument document, OutputFlag... outputFlags )
             throws IOException;
 
+    /**
+     * Output an element and its descendants to an output stream, without copying the element.  The element's document
+     * is locked while the element is serialized, but not while the output is written to {@code outputStream}.
+     * @param element element to be output.
+     * @param outputStream output stream to write the element to.
+     * @param outputFlags one or more {@code OutputFlag}s to shape the output.
+     * @throws NullPointerException if {@code element} or {@code outputStream} is null.
+     * @throws IllegalArgumentException if {@code element} is not created by this factory.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    void output( XmlElement element, OutputStream outputStream, OutputFlag... outputFlags )
+            throws IOException;
+
+    /**
+     * Output an element and its descendants to a {@code String}, without copying the element.
+     * @param element element to be output.
+     * @param outputFlags one or more {@code OutputFlag}s to shape the output.
+     * @return a String containing the serialized element.
+     * @throws NullPointerException if {@code element} is null.
+     * @throws IllegalArgumentException if {@code element} is not created by this factory.
+     * @throws IOException if there is a failure serializing the element.
+     */
+    String outputString( XmlElement element, OutputFlag... outputFlags )
+            throws IOException;
+
+    /**
+     * Update a message digest with the canonical form of a document, as output with {@link OutputFlag#Canonical}.  The
+     * canonical form is streamed into the digest as it is generated, so it is never held in memory.  The document is
+     * locked while the digest is updated.
+     * @param document document to be digested.
+     * @param messageDigest digest to update.
+     * @param outputFlags {@link OutputFlag#CanonicalWithComments} to include comments, other flags are ignored.
+     * @throws NullPointerException if {@code document} or {@code messageDigest} is null.
+     * @throws IllegalArgumentException if the document contains characters that can not be represented in XML, or is
+     *     not created by this factory.
+     */
+    void digest( XmlDocument document, MessageDigest messageDigest, OutputFlag... outputFlags );
+
+    /**
+     * Update a message digest with the canonical form of an element and its descendants, as output with
+     * {@link OutputFlag#Canonical}.  The element's document is locked while the digest is updated.
+     * @param element element to be digested.
+     * @param messageDigest digest to update.
+     * @param outputFlags {@link OutputFlag#CanonicalWithComments} to include comments, other flags are ignored.
+     * @throws NullPointerException if {@code element} or {@code messageDigest} is null.
+     * @throws IllegalArgumentException if the element contains characters that can not be represented in XML, or is not
+     *     created by this factory.
+     */
+    void digest( XmlElement element, MessageDigest messageDigest, OutputFlag... outputFlags );
+
+    /**
+     * Output an XmlDocument to an output stream as UTF-8 encoded JSON text, following the conventions of
+     * {@link JsonFlag}.  Comments and processing instructions are not output.
+     * @param document document to be output.
+     * @param outputStream output stream to write the JSON text to.
+     * @param jsonFlags one or more {@code JsonFlag}s to shape the output.
+     * @throws NullPointerException if {@code document} or {@code outputStream} is null.
+     * @throws IllegalArgumentException if {@code document} is not created by this factory.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    void outputJson( XmlDocument document, OutputStream outputStream, JsonFlag... jsonFlags )
+            throws IOException;
+
+    /**
+     * Output an XmlDocument to a {@code String} as JSON text, following the conventions of {@link JsonFlag}.
+     * @param document document to be output.
+     * @param jsonFlags one or more {@code JsonFlag}s to shape the output.
+     * @return a String containing the JSON text.
+     * @throws NullPointerException if {@code document} is null.
+     * @throws IllegalArgumentException if {@code document} is not created by this factory.
+     * @throws IOException if there is a failure writing the output.
+     */
+    String outputJsonString( XmlDocument document, JsonFlag... jsonFlags )
+            throws IOException;
+
+    /**
+     * Convert XML text read from an input stream to UTF-8 encoded JSON text as it is read, without building an
+     * {@link XmlDocument}.  The output is the same as {@link #outputJson(XmlDocument, OutputStream, JsonFlag...)} of the
+     * parsed document, except that attributes are in document order.  As elements are written when they are read,
+     * sibling elements of the same name must be adjacent; a name repeated after a sibling of another name fails the
+     * conversion rather than being written as a duplicate property.  Beyond a fixed size output buffer, memory is only
+     * used to hold the text and child element names of each open element and, unless {@link JsonFlag#ElementsAsArrays}
+     * is used, the output of the first element of a name until it is known whether a sibling of the same name follows.
+     * @param inputStream value for {@code InputStream} containing XML data to convert.
+     * @param outputStream output stream to write the JSON text to.  The stream is flushed but not closed.
+     * @param jsonFlags one or more {@code JsonFlag}s to shape the output.
+     * @throws NullPointerException if {@code inputStream} or {@code outputStream} is null.
+     * @throws IOException if there is a stream or XML parsing error, or sibling elements of the same name are not
+     *     adjacent.  Output already written to the stream is then incomplete.
+     */
+    void convertToJson( InputStream inputStream, OutputStream outputStream, JsonFlag... jsonFlags )
+            throws IOException;
+
+    /**
+     * Parse UTF-8 encoded JSON text using the conventions of {@link JsonFlag}, without any flags, into an
+     * {@link XmlDocument}.  The JSON text must be an object with a single property, which is the root element.  Arrays
+     * are repeated elements of the property name, {@code null} values are empty elements or absent attributes, and
+     * numbers and booleans are text.
+     * @param inputStream value for {@code InputStream} containing JSON text to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @return a parsed XML document.
+     * @throws NullPointerException if {@code inputStream} or {@code accessMode} is null.
+     * @throws IOException if there is a stream or JSON parsing error, or the JSON text can not be represented as XML,
+     *     such as property names that are not valid XML names or nested arrays.
+     */
+    XmlDocument parseJson( InputStream inputStream, AccessMode accessMode )
+            throws IOException;
+
+    /**
+     * Output an XmlDocument to an output stream using a compact binary encoding that can be read using
+     * {@link #parseBinary(InputStream, AccessMode)}.  The binary encoding preserves all element, attribute, text,
+     * CDATA, comment and processing instruction nodes exactly, and is significantly faster to load than XML text.
+     * The encoding is specific to this library and is not intended for interchange with other XML tools.
+     * @param document document to be output.
+     * @param outputStream output stream to write document to.
+     * @throws NullPointerException if {@code document} or {@code outputStream} is null.
+     * @throws IllegalArgumentException if {@code document} is not created by this factory.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    void outputBinary( XmlDocument document, OutputStream outputStream )
+            throws IOException;
+
+    /**
+     * Parse an input stream written by {@link #outputBinary(XmlDocument, OutputStream)} into an {@link XmlDocument}.
+     * @param inputStream value for {@code InputStream} containing binary XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @return a parsed XML document.
+     * @throws NullPointerException if {@code inputStream} or {@code accessMode} is null.
+     * @throws IOException if there is a stream error or the data is not valid binary XML data.
+     */
+    XmlDocument parseBinary( InputStream inputStream, AccessMode accessMode )
+            throws IOException;
+
+    /**
+     * Create a builder declaring how {@link XmlElement}s are mapped onto instances of {@code type}.
+     * @param type the mapped type, a public record or a public class with a public no-argument constructor.
+     * @param <T> the mapped type.
+     * @return a new mapper builder.
+     * @throws NullPointerException if {@code type} is null.
+     */
+    <T> XmlMapper.Builder<T> newMapperBuilder( Class<T> type );
+
+    /**
+     * Parse an input stream, mapping each element named {@code elementName} using {@code mapper} as soon as it has
+     * been read, without building an {@link XmlDocument}.  Memory use is bounded by the size of a single mapped element,
+     * so documents of any size can be read.  Matching elements are found at any depth; elements nested within a matching
+     * element are only mapped as part of it.  Names are matched as by a parse without {@link ParseFlag#NamespaceAware}.
+     *
+     * <p>The stream is lazily evaluated: the input is read as the stream is consumed.  The stream should be closed
+     * after use to release the parser; {@code inputStream} is not closed by the stream.</p>
+     * @param inputStream value for {@code InputStream} containing XML data to parse.
+     * @param elementName name of the elements to map.
+     * @param mapper mapper of the elements, created using {@link #newMapperBuilder(Class)}.
+     * @param <T> the mapped type.
+     * @return a sequential stream of the mapped elements in document order.  Stream or XML parsing errors while
+     *     consuming the stream are thrown as {@link java.io.UncheckedIOException}.
+     * @throws NullPointerException if {@code inputStream}, {@code elementName} or {@code mapper} is null.
+     * @throws IllegalArgumentException if {@code mapper} is not built by a builder of this factory.
+     * @throws IOException if there is a stream or XML parsing error reading the start of the document.
+     */
+    <T> Stream<T> parseMapped( InputStream inputStream, String elementName, XmlMapper<T> mapper )
+            throws IOException;
+
+    /**
+     * Create a new forward-only writer that writes an XML document to {@code outputStream} without building an
+     * {@link XmlDocument}.  The XML declaration is written immediately, unless {@link OutputFlag#Fragment} is used.
+     * @param outputStream output stream to write the document to.  The stream is not closed by the writer.
+     * @param outputFlags one or more {@code OutputFlag}s to shape the output.
+     * @return a new writer.
+     * @throws NullPointerException if {@code outputStream} is null.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter newWriter( OutputStream outputStream, OutputFlag... outputFlags )
+            throws IOException;
+
+    /**
+     * Parse an input stream into an {@link XmlDocument} using {@code executor}, so the calling thread is not blocked
+     * while the stream is read and parsed.
+     * @param inputStream value for {@code InputStream} containing XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param executor executor used to read and parse the stream.
+     * @return a future that is completed with the parsed XML document, or with an {@link IOException} if there
+     *     is a stream or XML parsing error.
+     * @throws NullPointerException if {@code inputStream}, {@code accessMode} or {@code executor} is null.
+     */
+    CompletableFuture<XmlDocument> parseAsync( InputStream inputStream, AccessMode accessMode, Executor executor );
+
+    /**
+     * Parse the remaining content of a buffer into an {@link XmlDocument} using {@code executor}.  The buffer's
+     * position is not changed, and its content must not be modified until the returned future is complete.
+     * @param byteBuffer buffer containing XML data to parse.
+     * @param accessMode declare if the returned XML document will be mutable or immutable.
+     * @param executor executor used to parse the buffer.
+     * @return a future that is completed with the parsed XML document, or with an {@link IOException} if there
+     *     is an XML parsing error.
+     * @throws NullPointerException if {@code byteBuffer}, {@code accessMode} or {@code executor} is null.
+     */
+    CompletableFuture<XmlDocument> parseAsync( ByteBuffer byteBuffer, AccessMode accessMode, Executor executor );
+
+    /**
+     * Output an XmlDocument to an output stream using {@code executor}, so the calling thread is not blocked
+     * while the document is serialized and written.
+     * @param document document to be output.
+     * @param outputStream output stream to write document to.
+     * @param executor executor used to serialize and write the document.
+     * @param outputFlags one or more {@code OutputFlag}s to shape the output.
+     * @return a future that is completed once the document has been written, or with an {@link IOException} if
+     *     there is a failure writing to the stream.
+     * @throws NullPointerException if {@code document}, {@code outputStream} or {@code executor} is null.
+     */
+    CompletableFuture<Void> outputAsync( XmlDocument document, OutputStream outputStream, Executor executor, OutputFlag... outputFlags );
+
+    /**
+     * Create a new parser that can be fed a document in chunks as they arrive, for example from a non-blocking
+     * network channel.  The document is parsed using {@code executor} once its end has been fed.  The size of the
+     * accumulated document is only limited by the maximum array size; use
+     * {@link #newIncrementalParser(AccessMode, Executor, int)} for data from untrusted sources.
+     * @param accessMode declare if the parsed XML document will be mutable or immutable.
+     * @param executor executor used to parse the document.
+     * @return a new incremental parser.
+     * @throws NullPointerException if {@code accessMode} or {@code executor} is null.
+     */
+    XmlIncrementalParser newIncrementalParser( AccessMode accessMode, Executor executor );
+
+    /**
+     * Create a new parser that can be fed a document in chunks as they arrive, accumulating at most
+     * {@code maxDocumentSize} bytes.  If more data is fed before the end of the document, the parser's
+     * {@link XmlIncrementalParser#result()} is completed with an {@link IOException}.
+     * @param accessMode declare if the parsed XML document will be mutable or immutable.
+     * @param executor executor used to parse the document.
+     * @param maxDocumentSize maximum size of the document in bytes.
+     * @return a new incremental parser.
+     * @throws NullPointerException if {@code accessMode} or {@code executor} is null.
+     * @throws IllegalArgumentException if {@code maxDocumentSize} is not positive.
+     */
+    XmlIncrementalParser newIncrementalParser( AccessMode accessMode, Executor executor, int maxDocumentSize );
+
     /**
      * Create a new XML document.  The newly created document will be mutable as defined by {@link AccessMode#MUTABLE}.
      * @param rootElementName the element name of the root Xml Node.
@@ -101,6 +547,54 @@ public interface XmlFactory
      */
     XmlElement newElement( String elementName );
 
+    /**
+     * Create a new XML element using the specified {@code ElementFlag}s.  Until attached to an element that is part of a
+     * document, this element will be mutable as defined by {@link AccessMode#MUTABLE}.
+     * @param elementName the newly created element's name.
+     * @param elementFlags one or more {@code ElementFlag}s for the new element.
+     * @return a newly created element.
+     * @throws NullPointerException if {@code elementName} is null.
+     */
+    XmlElement newElement( String elementName, ElementFlag... elementFlags );
+
+    /**
+     * Evaluate each of the {@code xpathExpressions} against each of the {@code documents} in parallel.  Expressions
+     * are compiled once per worker and re-used for each document that worker evaluates.  A bounded number of documents
+     * are evaluated ahead of the consumer of the returned stream.
+     *
+     * <p>On JDK 21 and newer, an executor such as {@code Executors.newVirtualThreadPerTaskExecutor()} is well suited to
+     * large batches of small documents.</p>
+     *
+     * <p>CAUTION: It is the client's responsibility to ensure the XPath expressions
+     * are protected from untrusted data injection.</p>
+     * @param documents documents to evaluate.
+     * @param xpathExpressions valid xpath expressions to evaluate against each document.
+     * @param executor executor used to evaluate the documents.
+     * @return A stream with one result per document, in the iteration order of {@code documents}.  Each result
+     *     holds the matching elements of that document for each xpath expression, by position in {@code xpathExpressions},
+     *     so repeated expressions each have their own entry.
+     * @throws NullPointerException if {@code documents}, {@code xpathExpressions} or {@code executor} is null.
+     * @throws IllegalArgumentException if any of the {@code xpathExpressions} is invalid.
+     */
+    Stream<List<List<XmlElement>>> evaluateXpathToElements(
+            Collection<XmlDocument> documents,
+            List<String> xpathExpressions,
+            Executor executor );
+
+    /**
+     * Evaluate each of the {@code xpathExpressions} against each of the {@code documents} in parallel using
+     * the {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     * @param documents documents to evaluate.
+     * @param xpathExpressions valid xpath expressions to evaluate against each document.
+     * @return A stream with one result per document, in the iteration order of {@code documents}.
+     * @throws NullPointerException if {@code documents} or {@code xpathExpressions} is null.
+     * @throws IllegalArgumentException if any of the {@code xpathExpressions} is invalid.
+     * @see #evaluateXpathToElements(Collection, List, Executor)
+     */
+    Stream<List<List<XmlElement>>> evaluateXpathToElements(
+            Collection<XmlDocument> documents,
+            List<String> xpathExpressions );
+
     /**
      * Get an instance of {@link XmlFactory}.
      * @return an instance of {@link XmlFactory}
@@ -20,6 +20,8 @@
 package org.jrivard.xmlchai;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.w3c.dom.DOMException;
+import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -33,18 +35,33 @@ import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Schema;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
 @SuppressFBWarnings( "FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY" )
 // FCCD_FIND_CLASS_CIRCULAR_DEPENDENCY is incorrectly detected on this class
@@ -60,6 +77,11 @@ class XmlFactoryW3c implements XmlFactory
      */
     private static final Charset XML_STRING_CHARSET = StandardCharsets.UTF_8;
 
+    /**
+     * DOM implementation used to create documents for new elements, avoiding a builder instance per element.
+     */
+    private static final DOMImplementation DOM_IMPLEMENTATION = getBuilder().getDOMImplementation();
+
     private XmlFactoryW3c()
     {
     }
@@ -70,15 +92,84 @@ class XmlFactoryW3c implements XmlFactory
     }
 
     @Override
-    @SuppressFBWarnings( value = "XXE_DOCUMENT" )
-    // XXE_DOCUMENT suppressing XXE warning as appropriate builder features are set in getBuilder() method
     public XmlDocument parse( final InputStream inputStream, final AccessMode accessMode )
             throws IOException
+    {
+        return parse( inputStream, accessMode, new ParseFlag[0] );
+    }
+
+    @Override
+    public XmlDocument parse( final InputStream inputStream, final AccessMode accessMode, final ParseFlag... parseFlags )
+            throws IOException
+    {
+        return parseDocument( inputStream, accessMode, null, parseFlags );
+    }
+
+    @Override
+    public XmlDocument parse( final InputStream inputStream, final AccessMode accessMode, final URL schemaLocation, final ParseFlag... parseFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( accessMode );
+        Objects.requireNonNull( schemaLocation );
+
+        return parseDocument( inputStream, accessMode, XmlSchemaCacheW3c.forLocation( schemaLocation ), parseFlags );
+    }
+
+    @Override
+    public XmlDocument parseCompact( final InputStream inputStream, final CompactStorage storage, final ParseFlag... parseFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( storage );
+
+        final boolean decompress = XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.Decompress );
+        final boolean coalesce = XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.CoalesceText );
+        final XmlCompactStore.PageAllocator allocator = storage == CompactStorage.OffHeap
+                ? new XmlCompactStore.DirectAllocator()
+                : new XmlCompactStore.MappedFileAllocator();
+        try ( InputStream decompressedStream = decompress ? XmlCompression.decompress( inputStream ) : null )
+        {
+            return new XmlCompactDocument( XmlCompactParser.parse( decompress ? decompressedStream : inputStream, allocator, coalesce ) );
+        }
+    }
+
+    @Override
+    public XmlDocument parseCompressed( final InputStream inputStream, final AccessMode accessMode, final Executor executor, final ParseFlag... parseFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( accessMode );
+        Objects.requireNonNull( executor );
+
+        try ( InputStream decompressedStream = XmlCompression.decompress( inputStream, executor ) )
+        {
+            return parseDocument( decompressedStream, accessMode, null, parseFlags );
+        }
+    }
+
+    @SuppressFBWarnings( value = "XXE_DOCUMENT" )
+    // XXE_DOCUMENT suppressing XXE warning as appropriate builder features are set in newBuilder() method
+    private XmlDocument parseDocument( final InputStream inputStream, final AccessMode accessMode, final Schema schema, final ParseFlag... parseFlags )
+            throws IOException
     {
         try
         {
-            final DocumentBuilder builder = getBuilder();
-            final org.w3c.dom.Document inputDocument = builder.parse( inputStream );
+            final boolean coalesce = XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.CoalesceText );
+            final boolean namespaceAware = XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.NamespaceAware );
+            final DocumentBuilder builder = coalesce || namespaceAware || schema != null
+                    ? newBuilder( coalesce, namespaceAware, schema )
+                    : getBuilder();
+            final boolean decompress = XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.Decompress );
+            final org.w3c.dom.Document inputDocument;
+            try ( InputStream decompressedStream = decompress ? XmlCompression.decompress( inputStream ) : null )
+            {
+                inputDocument = builder.parse( decompress ? decompressedStream : inputStream );
+            }
+            if ( XmlChaiInternalUtils.enumArrayContainsValue( parseFlags, ParseFlag.StripWhitespace ) )
+            {
+                XmlWhitespaceW3c.strip( inputDocument );
+            }
             return new XmlDocumentW3c( this, inputDocument, accessMode );
         }
         catch ( final Exception e )
@@ -90,18 +181,47 @@ class XmlFactoryW3c implements XmlFactory
     @Override
     public XmlDocument parseString( final String input, final AccessMode accessMode )
             throws IOException
+    {
+        return parseString( input, accessMode, new ParseFlag[0] );
+    }
+
+    @Override
+    public XmlDocument parseString( final String input, final AccessMode accessMode, final ParseFlag... parseFlags )
+            throws IOException
     {
         Objects.requireNonNull( input );
         Objects.requireNonNull( accessMode );
 
         try ( ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream( input.getBytes( XML_STRING_CHARSET ) ) )
         {
-            return parse( byteArrayInputStream, accessMode );
+            return parse( byteArrayInputStream, accessMode, parseFlags );
         }
     }
 
-    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    /**
+     * Create an empty w3c document without a document element.
+     * @return a new document.
+     */
+    static org.w3c.dom.Document newW3cDocument()
+    {
+        return DOM_IMPLEMENTATION.createDocument( null, null, null );
+    }
+
     static DocumentBuilder getBuilder()
+    {
+        return newBuilder( false, false, null );
+    }
+
+    /**
+     * Create a document builder.
+     * @param coalescing true to convert CDATA sections to text and merge adjacent text.
+     * @param namespaceAware true to resolve names to a namespace and local name.  Always true if {@code schema} is
+     *     not null, since schema validation matches element names by namespace.
+     * @param schema schema the parsed documents are validated against, or null.
+     * @return a new builder.
+     */
+    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    private static DocumentBuilder newBuilder( final boolean coalescing, final boolean namespaceAware, final Schema schema )
     {
         try
         {
@@ -111,7 +231,16 @@ class XmlFactoryW3c implements XmlFactory
             dbFactory.setValidating( false );
             dbFactory.setXIncludeAware( false );
             dbFactory.setExpandEntityReferences( false );
-            return dbFactory.newDocumentBuilder();
+            dbFactory.setCoalescing( coalescing );
+            dbFactory.setNamespaceAware( namespaceAware || schema != null );
+            dbFactory.setSchema( schema );
+            final DocumentBuilder documentBuilder = dbFactory.newDocumentBuilder();
+            if ( schema != null )
+            {
+                // the default error handler only reports validation errors
+                documentBuilder.setErrorHandler( XmlSchemaCacheW3c.FAILING_ERROR_HANDLER );
+            }
+            return documentBuilder;
         }
         catch ( final ParserConfigurationException e )
         {
@@ -126,12 +255,162 @@ class XmlFactoryW3c implements XmlFactory
         Objects.requireNonNull( document );
         Objects.requireNonNull( outputStream );
 
+        if ( document instanceof XmlCompactDocument )
+        {
+            outputCompact( document.getRootElement(), outputStream, XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Gzip ), outputFlags );
+            return;
+        }
+
+        // the document is serialized to memory and the lock released before writing to a potentially slow stream
+        writeBuffer( outputToBuffer( toW3c( document ), outputFlags ), outputStream, outputFlags );
+    }
+
+    @Override
+    public void output( final XmlElement element, final OutputStream outputStream, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( element );
+        Objects.requireNonNull( outputStream );
+
+        if ( element instanceof XmlCompactElement )
+        {
+            outputCompact( element, outputStream, XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Gzip ), outputFlags );
+            return;
+        }
+
+        writeBuffer( outputToBuffer( toW3c( element ), outputFlags ), outputStream, outputFlags );
+    }
+
+    /**
+     * Output an element of a compact document.  Compact documents are immutable, so the element is written directly
+     * to the stream without first serializing it to memory, except in canonical form.
+     * @param element the element, which is the root element when a document is output.
+     * @param outputStream the destination.
+     * @param gzip true to compress the output.
+     * @param outputFlags {@code OutputFlag}s to shape the output.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    private static void outputCompact( final XmlElement element, final OutputStream outputStream, final boolean gzip, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        final boolean compact = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Compact );
+        final boolean fragment = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Fragment );
+        final boolean canonical = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Canonical )
+                || XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.CanonicalWithComments );
+        try ( OutputStream destination = gzip ? XmlCompression.compress( outputStream ) : new XmlCompression.UnclosedOutputStream( outputStream ) )
+        {
+            if ( canonical )
+            {
+                // canonical form is written from a w3c copy
+                outputToBuffer( toW3c( element ), outputFlags ).writeTo( destination );
+                return;
+            }
+
+            try ( XmlWriter writer = new XmlStreamingWriter( destination, !compact, fragment ) )
+            {
+                writer.element( element );
+            }
+        }
+    }
+
+    /**
+     * Get the w3c implementation of a document.  A compact document is copied, as its content is only held in its
+     * store.
+     * @param document a document created by this factory.
+     * @return the document, or its copy.
+     * @throws IllegalArgumentException if the document is not created by this factory.
+     */
+    @SuppressFBWarnings( "ITC_INHERITANCE_TYPE_CHECKING" )
+    // ITC_INHERITANCE_TYPE_CHECKING the implementations are internal, the public interface has no conversion method
+    private static XmlDocumentW3c toW3c( final XmlDocument document )
+    {
+        if ( document instanceof XmlDocumentW3c )
+        {
+            return ( XmlDocumentW3c ) document;
+        }
+        if ( document instanceof XmlCompactDocument )
+        {
+            return ( ( XmlCompactDocument ) document ).copyW3c();
+        }
+        throw new IllegalArgumentException( "document is not a document of this factory: " + document.getClass().getName() );
+    }
+
+    /**
+     * Get the w3c implementation of an element.  An element of a compact document is copied, as its content is only
+     * held in the store of its document.
+     * @param element an element created by this factory.
+     * @return the element, or its copy.
+     * @throws IllegalArgumentException if the element is not created by this factory.
+     */
+    @SuppressFBWarnings( "ITC_INHERITANCE_TYPE_CHECKING" )
+    // ITC_INHERITANCE_TYPE_CHECKING the implementations are internal, the public interface has no conversion method
+    private static XmlElementW3c toW3c( final XmlElement element )
+    {
+        if ( element instanceof XmlElementW3c )
+        {
+            return ( XmlElementW3c ) element;
+        }
+        if ( element instanceof XmlCompactElement )
+        {
+            return ( ( XmlCompactElement ) element ).copyW3c();
+        }
+        throw new IllegalArgumentException( "element is not an element of this factory: " + element.getClass().getName() );
+    }
+
+    private static void writeBuffer( final ByteArrayOutputStream buffer, final OutputStream outputStream, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        if ( XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Gzip ) )
+        {
+            try ( OutputStream compressedStream = XmlCompression.compress( outputStream ) )
+            {
+                buffer.writeTo( compressedStream );
+            }
+        }
+        else
+        {
+            buffer.writeTo( outputStream );
+        }
+    }
+
+    private static ByteArrayOutputStream outputToBuffer( final XmlDocumentW3c document, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        return outputToBuffer( document.getW3cDocument(), document.getLock(), outputFlags );
+    }
+
+    private static ByteArrayOutputStream outputToBuffer( final XmlElementW3c element, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        return outputToBuffer( element.getW3cElement(), element.getLock(), outputFlags );
+    }
+
+    /**
+     * Serialize a document or element subtree to memory.
+     * @param node the document or element to serialize.
+     * @param lock lock of the node, held while it is serialized.
+     * @param outputFlags {@code OutputFlag}s to shape the output.
+     * @return the serialized node.
+     * @throws IOException if the node can not be serialized.
+     */
+    private static ByteArrayOutputStream outputToBuffer( final Node node, final Lock lock, final OutputFlag... outputFlags )
+            throws IOException
+    {
         final boolean compact = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Compact );
+        final boolean fragment = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Fragment );
+        final boolean withComments = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.CanonicalWithComments );
+        final boolean canonical = withComments || XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Canonical );
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
 
-        final Lock lock = ( ( XmlDocumentW3c ) document ).getLock();
         lock.lock();
         try
         {
+            if ( canonical )
+            {
+                XmlCanonicalW3c.write( node, buffer, withComments );
+                return buffer;
+            }
+
             final TransformerFactory factory = TransformerFactory.newInstance();
             factory.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
             factory.setAttribute( XMLConstants.ACCESS_EXTERNAL_DTD, "" );
@@ -141,8 +420,9 @@ class XmlFactoryW3c implements XmlFactory
             transformer.setOutputProperty( OutputKeys.INDENT, compact ? "no" : "yes" );
             transformer.setOutputProperty( OutputKeys.METHOD, "xml" );
             transformer.setOutputProperty( OutputKeys.ENCODING, XML_STRING_CHARSET.toString() );
+            transformer.setOutputProperty( OutputKeys.OMIT_XML_DECLARATION, fragment ? "yes" : "no" );
 
-            transformer.transform( new DOMSource( ( ( XmlDocumentW3c ) document ).getW3cDocument() ), new StreamResult( outputStream ) );
+            transformer.transform( new DOMSource( node ), new StreamResult( buffer ) );
         }
         catch ( final TransformerException e )
         {
@@ -152,6 +432,48 @@ class XmlFactoryW3c implements XmlFactory
         {
             lock.unlock();
         }
+        return buffer;
+    }
+
+    @Override
+    public void digest( final XmlDocument document, final MessageDigest messageDigest, final OutputFlag... outputFlags )
+    {
+        Objects.requireNonNull( document );
+        Objects.requireNonNull( messageDigest );
+
+        final XmlDocumentW3c documentW3c = toW3c( document );
+        digestNode( documentW3c.getW3cDocument(), documentW3c.getLock(), messageDigest, outputFlags );
+    }
+
+    @Override
+    public void digest( final XmlElement element, final MessageDigest messageDigest, final OutputFlag... outputFlags )
+    {
+        Objects.requireNonNull( element );
+        Objects.requireNonNull( messageDigest );
+
+        final XmlElementW3c elementW3c = toW3c( element );
+        digestNode( elementW3c.getW3cElement(), elementW3c.getLock(), messageDigest, outputFlags );
+    }
+
+    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    // EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS a message digest sink never throws IOException
+    private static void digestNode( final Node node, final Lock lock, final MessageDigest messageDigest, final OutputFlag... outputFlags )
+    {
+        final boolean withComments = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.CanonicalWithComments );
+
+        lock.lock();
+        try
+        {
+            XmlCanonicalW3c.digest( node, messageDigest, withComments );
+        }
+        catch ( final IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        finally
+        {
+            lock.unlock();
+        }
     }
 
     @Override
@@ -160,11 +482,267 @@ class XmlFactoryW3c implements XmlFactory
     {
         Objects.requireNonNull( document );
 
-        try ( ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream() )
+        if ( document instanceof XmlCompactDocument )
         {
-            output( document, byteArrayOutputStream, outputFlags );
-            return byteArrayOutputStream.toString( XML_STRING_CHARSET.name() );
+            return outputString( document.getRootElement(), outputFlags );
         }
+
+        return outputToBuffer( toW3c( document ), outputFlags ).toString( XML_STRING_CHARSET.name() );
+    }
+
+    @Override
+    public String outputString( final XmlElement element, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( element );
+
+        if ( element instanceof XmlCompactElement )
+        {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            outputCompact( element, buffer, false, outputFlags );
+            return buffer.toString( XML_STRING_CHARSET.name() );
+        }
+
+        return outputToBuffer( toW3c( element ), outputFlags ).toString( XML_STRING_CHARSET.name() );
+    }
+
+    @Override
+    public void outputJson( final XmlDocument document, final OutputStream outputStream, final JsonFlag... jsonFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( document );
+        Objects.requireNonNull( outputStream );
+
+        writeJson( document, new OutputStreamWriter( outputStream, XML_STRING_CHARSET ), jsonFlags );
+    }
+
+    @Override
+    public String outputJsonString( final XmlDocument document, final JsonFlag... jsonFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( document );
+
+        final StringWriter writer = new StringWriter();
+        writeJson( document, writer, jsonFlags );
+        return writer.toString();
+    }
+
+    private static void writeJson( final XmlDocument document, final Writer writer, final JsonFlag... jsonFlags )
+            throws IOException
+    {
+        // the document is copied under the lock and written after it is released, as writing may block on the stream
+        final XmlDocumentW3c documentW3c = toW3c( document );
+        final org.w3c.dom.Document snapshot;
+        final Lock lock = documentW3c.getLock();
+        lock.lock();
+        try
+        {
+            snapshot = ( org.w3c.dom.Document ) documentW3c.getW3cDocument().cloneNode( true );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        XmlJsonW3c.writeDocument( snapshot, writer, jsonFlags );
+    }
+
+    @Override
+    public void convertToJson( final InputStream inputStream, final OutputStream outputStream, final JsonFlag... jsonFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( outputStream );
+
+        XmlJsonW3c.convertToJson( inputStream, new OutputStreamWriter( outputStream, XML_STRING_CHARSET ), jsonFlags );
+    }
+
+    @Override
+    public XmlDocument parseJson( final InputStream inputStream, final AccessMode accessMode )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( accessMode );
+
+        final org.w3c.dom.Document document = XmlJsonW3c.parseJson( new InputStreamReader( inputStream, XML_STRING_CHARSET ) );
+        return new XmlDocumentW3c( this, document, accessMode );
+    }
+
+    @Override
+    public void outputBinary( final XmlDocument document, final OutputStream outputStream )
+            throws IOException
+    {
+        Objects.requireNonNull( document );
+        Objects.requireNonNull( outputStream );
+
+        final XmlDocumentW3c documentW3c = toW3c( document );
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        final Lock lock = documentW3c.getLock();
+        lock.lock();
+        try
+        {
+            XmlBinaryCodecW3c.encode( documentW3c.getW3cDocument(), buffer );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        buffer.writeTo( outputStream );
+    }
+
+    @Override
+    public XmlDocument parseBinary( final InputStream inputStream, final AccessMode accessMode )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( accessMode );
+
+        try
+        {
+            final org.w3c.dom.Document document = getBuilder().newDocument();
+            XmlBinaryCodecW3c.decode( inputStream, document );
+            return new XmlDocumentW3c( this, document, accessMode );
+        }
+        catch ( final DOMException e )
+        {
+            throw new IOException( "error parsing binary xml data: " + e.getMessage(), e );
+        }
+    }
+
+    @Override
+    public <T> XmlMapper.Builder<T> newMapperBuilder( final Class<T> type )
+    {
+        Objects.requireNonNull( type );
+
+        return new XmlMapperW3c.BuilderW3c<>( type );
+    }
+
+    @Override
+    public <T> Stream<T> parseMapped( final InputStream inputStream, final String elementName, final XmlMapper<T> mapper )
+            throws IOException
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( elementName );
+        Objects.requireNonNull( mapper );
+
+        return XmlMappedStreamW3c.stream( inputStream, elementName, XmlMapperW3c.toW3c( mapper ) );
+    }
+
+    @Override
+    public XmlWriter newWriter( final OutputStream outputStream, final OutputFlag... outputFlags )
+            throws IOException
+    {
+        Objects.requireNonNull( outputStream );
+
+        final boolean compact = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Compact );
+        final boolean fragment = XmlChaiInternalUtils.enumArrayContainsValue( outputFlags, OutputFlag.Fragment );
+        return new XmlStreamingWriter( outputStream, !compact, fragment );
+    }
+
+    @Override
+    public CompletableFuture<XmlDocument> parseAsync( final InputStream inputStream, final AccessMode accessMode, final Executor executor )
+    {
+        Objects.requireNonNull( inputStream );
+        Objects.requireNonNull( accessMode );
+        Objects.requireNonNull( executor );
+
+        return CompletableFuture.supplyAsync( () ->
+        {
+            try
+            {
+                return parse( inputStream, accessMode );
+            }
+            catch ( final IOException e )
+            {
+                throw new CompletionException( e );
+            }
+        }, executor );
+    }
+
+    @Override
+    public CompletableFuture<XmlDocument> parseAsync( final ByteBuffer byteBuffer, final AccessMode accessMode, final Executor executor )
+    {
+        Objects.requireNonNull( byteBuffer );
+
+        final ByteBuffer source = byteBuffer.duplicate();
+        final InputStream inputStream;
+        if ( source.hasArray() )
+        {
+            inputStream = new ByteArrayInputStream( source.array(), source.arrayOffset() + source.position(), source.remaining() );
+        }
+        else
+        {
+            final byte[] bytes = new byte[source.remaining()];
+            source.get( bytes );
+            inputStream = new ByteArrayInputStream( bytes );
+        }
+        return parseAsync( inputStream, accessMode, executor );
+    }
+
+    @Override
+    public CompletableFuture<Void> outputAsync(
+            final XmlDocument document,
+            final OutputStream outputStream,
+            final Executor executor,
+            final OutputFlag... outputFlags
+    )
+    {
+        Objects.requireNonNull( document );
+        Objects.requireNonNull( outputStream );
+        Objects.requireNonNull( executor );
+
+        return CompletableFuture.runAsync( () ->
+        {
+            try
+            {
+                output( document, outputStream, outputFlags );
+            }
+            catch ( final IOException e )
+            {
+                throw new CompletionException( e );
+            }
+        }, executor );
+    }
+
+    @Override
+    public XmlIncrementalParser newIncrementalParser( final AccessMode accessMode, final Executor executor )
+    {
+        return newIncrementalParser( accessMode, executor, XmlIncrementalParserW3c.MAX_BUFFER_SIZE );
+    }
+
+    @Override
+    public XmlIncrementalParser newIncrementalParser( final AccessMode accessMode, final Executor executor, final int maxDocumentSize )
+    {
+        Objects.requireNonNull( accessMode );
+        Objects.requireNonNull( executor );
+        if ( maxDocumentSize <= 0 )
+        {
+            throw new IllegalArgumentException( "maxDocumentSize must be positive" );
+        }
+
+        return new XmlIncrementalParserW3c( inputStream -> parse( inputStream, accessMode ), executor, maxDocumentSize );
+    }
+
+    @Override
+    public Stream<List<List<XmlElement>>> evaluateXpathToElements(
+            final Collection<XmlDocument> documents,
+            final List<String> xpathExpressions,
+            final Executor executor
+    )
+    {
+        Objects.requireNonNull( documents );
+        Objects.requireNonNull( xpathExpressions );
+        Objects.requireNonNull( executor );
+
+        return new XPathBatchEvaluator( xpathExpressions, executor ).evaluate( documents );
+    }
+
+    @Override
+    public Stream<List<List<XmlElement>>> evaluateXpathToElements(
+            final Collection<XmlDocument> documents,
+            final List<String> xpathExpressions
+    )
+    {
+        return evaluateXpathToElements( documents, xpathExpressions, ForkJoinPool.commonPool() );
     }
 
     static List<XmlElement> nodeListToElementList(
@@ -201,7 +779,7 @@ class XmlFactoryW3c implements XmlFactory
         final DocumentBuilder documentBuilder = getBuilder();
         final org.w3c.dom.Document document = documentBuilder.newDocument();
         document.setXmlStandalone( true );
-        final org.w3c.dom.Element rootElement = document.createElement( rootElementName );
+        final org.w3c.dom.Element rootElement = document.createElement( XmlChaiInternalUtils.internName( rootElementName ) );
         document.appendChild( rootElement );
         return new XmlDocumentW3c( this, document, AccessMode.MUTABLE );
     }
@@ -209,9 +787,20 @@ class XmlFactoryW3c implements XmlFactory
     @Override
     public XmlElement newElement( final String elementName )
     {
-        final DocumentBuilder documentBuilder = getBuilder();
-        final org.w3c.dom.Document document = documentBuilder.newDocument();
-        final org.w3c.dom.Element element = document.createElement( elementName );
+        return newElement( elementName, new ElementFlag[0] );
+    }
+
+    @Override
+    public XmlElement newElement( final String elementName, final ElementFlag... elementFlags )
+    {
+        Objects.requireNonNull( elementName );
+
+        final org.w3c.dom.Document document = newW3cDocument();
+        if ( XmlChaiInternalUtils.enumArrayContainsValue( elementFlags, ElementFlag.SingleThreaded ) )
+        {
+            XmlDocumentLockW3c.registerUnlocked( document );
+        }
+        final org.w3c.dom.Element element = document.createElement( XmlChaiInternalUtils.internName( elementName ) );
         return new XmlElementW3c( element, this, null );
     }
 }
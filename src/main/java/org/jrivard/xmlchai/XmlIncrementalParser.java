@@ -0,0 +1,61 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Parser that is fed an XML document in chunks as they become available, for example as they are received
+ * from a non-blocking network channel.  Chunks are scanned as they are fed to detect the end of the document
+ * root element; the document is then parsed using the executor supplied when the parser was created, so no
+ * thread is blocked waiting for input.  Use
+ * {@link XmlFactory#newIncrementalParser(AccessMode, java.util.concurrent.Executor)} to obtain an instance.
+ *
+ * <p>The document must use an ASCII compatible encoding such as UTF-8.  Any data fed after the end of the
+ * root element is ignored.</p>
+ *
+ * <p><code>XmlIncrementalParser</code> instances are not thread-safe; chunks must be fed by one thread at a time.</p>
+ */
+public interface XmlIncrementalParser
+{
+    /**
+     * Feed the next chunk of the document.  All remaining bytes of {@code chunk} are consumed.
+     * @param chunk the next chunk of document data.
+     * @return true if the end of the document has been reached, or if the {@link #result()} has already been completed
+     *     exceptionally because the document exceeds the maximum size or could not be scheduled for parsing.
+     * @throws NullPointerException if {@code chunk} is null.
+     * @throws IllegalStateException if {@link #end()} has been called.
+     */
+    boolean feed( ByteBuffer chunk );
+
+    /**
+     * Signal that no more data will be fed.  If the end of the document has not yet been reached, the
+     * {@link #result()} is completed with an {@link java.io.IOException}.
+     */
+    void end();
+
+    /**
+     * Get the result of the parse.
+     * @return a future that is completed with the parsed document, or with an {@link java.io.IOException} if the
+     *     document is not valid or incomplete.
+     */
+    CompletableFuture<XmlDocument> result();
+}
@@ -0,0 +1,466 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link XmlIncrementalParser} implementation.  Fed bytes are accumulated while a small lexer tracks the element
+ * depth, skipping over comments, CDATA sections, processing instructions and quoted attribute values.  Once the
+ * root element ends, the accumulated bytes are parsed on the executor.  If the accumulated bytes would exceed
+ * the maximum document size, or the executor rejects the parse, the result is completed exceptionally.
+ */
+class XmlIncrementalParserW3c implements XmlIncrementalParser
+{
+    /**
+     * Initial size of the accumulation buffer.
+     */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Largest supported accumulation buffer, a conservative maximum array size.
+     */
+    static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Characters following {@code <!} that open a CDATA section.
+     */
+    private static final byte[] CDATA_OPEN = {'[', 'C', 'D', 'A', 'T', 'A', '['};
+
+    /**
+     * Lexer states.
+     */
+    private enum LexState
+    {
+        /**
+         * Character data or whitespace outside of markup.
+         */
+        Text,
+
+        /**
+         * Following {@code <}.
+         */
+        MarkupStart,
+
+        /**
+         * Following {@code <!}.
+         */
+        Bang,
+
+        /**
+         * Following {@code <!-}.
+         */
+        BangDash,
+
+        /**
+         * Matching {@link #CDATA_OPEN}.
+         */
+        CdataOpen,
+
+        /**
+         * Inside a comment.
+         */
+        Comment,
+
+        /**
+         * Inside a CDATA section.
+         */
+        Cdata,
+
+        /**
+         * Inside a processing instruction or xml declaration.
+         */
+        ProcessingInstruction,
+
+        /**
+         * Inside a declaration such as a document type declaration.
+         */
+        Declaration,
+
+        /**
+         * Inside a start tag.
+         */
+        StartTag,
+
+        /**
+         * Inside a quoted attribute value of a start tag.
+         */
+        AttributeValue,
+
+        /**
+         * Inside an end tag.
+         */
+        EndTag,
+    }
+
+    /**
+     * Parser of the accumulated document.
+     */
+    private final DocumentParser documentParser;
+
+    /**
+     * Executor used to parse the document.
+     */
+    private final Executor executor;
+
+    /**
+     * Maximum count of accumulated bytes.
+     */
+    private final int maxDocumentSize;
+
+    /**
+     * Result of the parse.
+     */
+    private final CompletableFuture<XmlDocument> result = new CompletableFuture<>();
+
+    /**
+     * Accumulated document bytes.
+     */
+    private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+
+    /**
+     * Count of accumulated bytes.
+     */
+    private int size;
+
+    /**
+     * Current lexer state.
+     */
+    private LexState state = LexState.Text;
+
+    /**
+     * Current element depth.
+     */
+    private int depth;
+
+    /**
+     * State specific counter: matched characters of {@link #CDATA_OPEN}, or count of consecutive {@code -}
+     * or {@code ]} characters.
+     */
+    private int matchCount;
+
+    /**
+     * Quote character of the current attribute value.
+     */
+    private byte quote;
+
+    /**
+     * True if the previous start tag character was {@code /}, or in a processing instruction, {@code ?}.
+     */
+    private boolean previousSlash;
+
+    /**
+     * True once the end of the root element has been found.
+     */
+    private boolean complete;
+
+    /**
+     * True once {@link #end()} has been called.
+     */
+    private boolean ended;
+
+    /**
+     * Parses a complete document.
+     */
+    interface DocumentParser
+    {
+        XmlDocument parse( InputStream inputStream )
+                throws IOException;
+    }
+
+    XmlIncrementalParserW3c( final DocumentParser documentParser, final Executor executor, final int maxDocumentSize )
+    {
+        this.documentParser = documentParser;
+        this.executor = executor;
+        this.maxDocumentSize = maxDocumentSize;
+    }
+
+    @Override
+    public boolean feed( final ByteBuffer chunk )
+    {
+        Objects.requireNonNull( chunk );
+        if ( ended )
+        {
+            throw new IllegalStateException( "end() has already been called" );
+        }
+
+        if ( complete )
+        {
+            // cast required for java 8 compatibility of the covariant ByteBuffer.position() override
+            ( ( Buffer ) chunk ).position( chunk.limit() );
+            return true;
+        }
+
+        final int length = chunk.remaining();
+        if ( length > maxDocumentSize - size )
+        {
+            ( ( Buffer ) chunk ).position( chunk.limit() );
+            fail( new IOException( "error parsing xml data: document exceeds maximum size of " + maxDocumentSize + " bytes" ) );
+            return true;
+        }
+        if ( buffer.length - size < length )
+        {
+            // grown in int arithmetic that cannot overflow: size + length is at most maxDocumentSize
+            final int doubled = buffer.length > maxDocumentSize / 2 ? maxDocumentSize : buffer.length * 2;
+            buffer = Arrays.copyOf( buffer, Math.max( doubled, size + length ) );
+        }
+        final int start = size;
+        chunk.get( buffer, size, length );
+        size += length;
+
+        for ( int i = start; i < size; i++ )
+        {
+            if ( lex( buffer[i] ) )
+            {
+                size = i + 1;
+                complete = true;
+                try
+                {
+                    executor.execute( this::parse );
+                }
+                catch ( final RejectedExecutionException e )
+                {
+                    buffer = null;
+                    result.completeExceptionally( e );
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void end()
+    {
+        if ( !ended )
+        {
+            ended = true;
+            if ( !complete )
+            {
+                fail( new IOException( "error parsing xml data: end of input before end of document" ) );
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<XmlDocument> result()
+    {
+        return result;
+    }
+
+    private void fail( final IOException exception )
+    {
+        complete = true;
+        buffer = null;
+        result.completeExceptionally( exception );
+    }
+
+    private void parse()
+    {
+        try
+        {
+            result.complete( documentParser.parse( new ByteArrayInputStream( buffer, 0, size ) ) );
+        }
+        catch ( final IOException | RuntimeException e )
+        {
+            result.completeExceptionally( e );
+        }
+        finally
+        {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Advance the lexer by one byte.
+     * @param value the next byte of the document.
+     * @return true if the byte ends the document root element.
+     */
+    private boolean lex( final byte value )
+    {
+        switch ( state )
+        {
+            case Text:
+                if ( value == '<' )
+                {
+                    state = LexState.MarkupStart;
+                }
+                return false;
+
+            case MarkupStart:
+                return lexMarkupStart( value );
+
+            case Bang:
+                if ( value == '-' )
+                {
+                    state = LexState.BangDash;
+                }
+                else if ( value == CDATA_OPEN[0] )
+                {
+                    state = LexState.CdataOpen;
+                    matchCount = 1;
+                }
+                else
+                {
+                    state = value == '>' ? LexState.Text : LexState.Declaration;
+                }
+                return false;
+
+            case BangDash:
+                state = value == '-' ? LexState.Comment : LexState.Declaration;
+                matchCount = 0;
+                return false;
+
+            case CdataOpen:
+                if ( value == CDATA_OPEN[matchCount] )
+                {
+                    matchCount++;
+                    if ( matchCount == CDATA_OPEN.length )
+                    {
+                        state = LexState.Cdata;
+                        matchCount = 0;
+                    }
+                }
+                else
+                {
+                    state = value == '>' ? LexState.Text : LexState.Declaration;
+                }
+                return false;
+
+            case Comment:
+                return lexTerminated( value, ( byte ) '-' );
+
+            case Cdata:
+                return lexTerminated( value, ( byte ) ']' );
+
+            case ProcessingInstruction:
+                if ( value == '>' && previousSlash )
+                {
+                    state = LexState.Text;
+                }
+                previousSlash = value == '?';
+                return false;
+
+            case Declaration:
+                if ( value == '>' )
+                {
+                    state = LexState.Text;
+                }
+                return false;
+
+            case StartTag:
+                return lexStartTag( value );
+
+            case AttributeValue:
+                if ( value == quote )
+                {
+                    state = LexState.StartTag;
+                }
+                return false;
+
+            case EndTag:
+                if ( value == '>' )
+                {
+                    state = LexState.Text;
+                    depth--;
+                    return depth <= 0;
+                }
+                return false;
+
+            default:
+                throw new IllegalStateException( "unexpected lexer state " + state );
+        }
+    }
+
+    private boolean lexMarkupStart( final byte value )
+    {
+        switch ( value )
+        {
+            case '/':
+                state = LexState.EndTag;
+                break;
+
+            case '?':
+                state = LexState.ProcessingInstruction;
+                previousSlash = false;
+                break;
+
+            case '!':
+                state = LexState.Bang;
+                break;
+
+            default:
+                state = LexState.StartTag;
+                previousSlash = false;
+                return lexStartTag( value );
+        }
+        return false;
+    }
+
+    private boolean lexStartTag( final byte value )
+    {
+        if ( value == '"' || value == '\'' )
+        {
+            quote = value;
+            state = LexState.AttributeValue;
+            previousSlash = false;
+        }
+        else if ( value == '>' )
+        {
+            state = LexState.Text;
+            if ( previousSlash )
+            {
+                return depth == 0;
+            }
+            depth++;
+        }
+        else
+        {
+            previousSlash = value == '/';
+        }
+        return false;
+    }
+
+    /**
+     * Lex the content of a comment or CDATA section, which is terminated by two {@code terminator} characters
+     * followed by {@code >}.
+     * @param value the next byte of the document.
+     * @param terminator the terminating character.
+     * @return false, as the byte cannot end the document root element.
+     */
+    private boolean lexTerminated( final byte value, final byte terminator )
+    {
+        if ( value == '>' && matchCount >= 2 )
+        {
+            state = LexState.Text;
+        }
+        matchCount = value == terminator ? matchCount + 1 : 0;
+        return false;
+    }
+}
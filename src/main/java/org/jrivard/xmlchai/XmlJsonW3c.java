@@ -0,0 +1,648 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.DOMException;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Conversion between XML and JSON text using the conventions of {@link XmlJsonWriter}.  XML is converted from a
+ * w3c document or directly from a StAX reader, and JSON is parsed directly into a w3c document, without intermediate
+ * object trees.
+ */
+final class XmlJsonW3c
+{
+    /**
+     * Maximum nesting of JSON objects and arrays accepted when parsing.
+     */
+    private static final int MAX_DEPTH = 1000;
+
+    /**
+     * Size of the parse buffer.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Source of JSON text.
+     */
+    private final Reader reader;
+
+    /**
+     * Document that parsed elements are created in.
+     */
+    private final org.w3c.dom.Document document;
+
+    /**
+     * Characters read from {@link #reader}.
+     */
+    private final char[] buffer = new char[BUFFER_SIZE];
+
+    /**
+     * Index of the next character in {@link #buffer}.
+     */
+    private int bufferPosition;
+
+    /**
+     * Count of characters in {@link #buffer}.
+     */
+    private int bufferLength;
+
+    /**
+     * Count of characters consumed before {@link #buffer}, for error messages.
+     */
+    private long offset;
+
+    /**
+     * Current nesting of objects.
+     */
+    private int depth;
+
+    private XmlJsonW3c( final Reader reader, final org.w3c.dom.Document document )
+    {
+        this.reader = reader;
+        this.document = document;
+    }
+
+    /**
+     * Write a document as JSON.  Must be called while holding the lock of the document.
+     * @param document the document.
+     * @param writer destination of the JSON text, which is flushed but not closed.
+     * @param jsonFlags conventions of the JSON text.
+     * @throws IOException if the destination fails.
+     */
+    static void writeDocument( final org.w3c.dom.Document document, final Writer writer, final XmlFactory.JsonFlag... jsonFlags )
+            throws IOException
+    {
+        final XmlJsonWriter jsonWriter = new XmlJsonWriter( writer, jsonFlags );
+        writeElement( jsonWriter, document.getDocumentElement() );
+        jsonWriter.endDocument();
+    }
+
+    private static void writeElement( final XmlJsonWriter jsonWriter, final org.w3c.dom.Element element )
+            throws IOException
+    {
+        jsonWriter.startElement( element.getNodeName() );
+
+        final NamedNodeMap attributes = element.getAttributes();
+        for ( int i = 0; i < attributes.getLength(); i++ )
+        {
+            final Node attribute = attributes.item( i );
+            jsonWriter.attribute( attribute.getNodeName(), attribute.getNodeValue() );
+        }
+
+        jsonWriter.text( XmlElementW3c.elementText( element ) );
+
+        // same-name children are written consecutively, at the position of the first, so each name is a single array
+        final Map<String, List<org.w3c.dom.Element>> childrenByName = new LinkedHashMap<>();
+        for ( Node child = element.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                childrenByName.computeIfAbsent( child.getNodeName(), k -> new ArrayList<>() ).add( ( org.w3c.dom.Element ) child );
+            }
+        }
+
+        for ( final List<org.w3c.dom.Element> children : childrenByName.values() )
+        {
+            for ( final org.w3c.dom.Element child : children )
+            {
+                writeElement( jsonWriter, child );
+            }
+        }
+
+        jsonWriter.endElement();
+    }
+
+    /**
+     * Convert XML text to JSON as it is read, without building a document.  Only adjacent sibling elements of the
+     * same name are written as an array.
+     * @param inputStream source of the XML text.
+     * @param writer destination of the JSON text, which is flushed but not closed.
+     * @param jsonFlags conventions of the JSON text.
+     * @throws IOException if there is a stream or XML parsing error.
+     */
+    static void convertToJson( final InputStream inputStream, final Writer writer, final XmlFactory.JsonFlag... jsonFlags )
+            throws IOException
+    {
+        try
+        {
+            final XMLStreamReader xmlReader = XmlMappedStreamW3c.newReader( inputStream );
+            try
+            {
+                convertToJson( xmlReader, new XmlJsonWriter( writer, jsonFlags ) );
+            }
+            finally
+            {
+                xmlReader.close();
+            }
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new IOException( "error parsing xml data: " + e.getMessage(), e );
+        }
+    }
+
+    private static void convertToJson( final XMLStreamReader xmlReader, final XmlJsonWriter jsonWriter )
+            throws IOException, XMLStreamException
+    {
+        final StringBuilder textRun = new StringBuilder();
+        while ( xmlReader.hasNext() )
+        {
+            final int event = xmlReader.next();
+            if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE )
+            {
+                textRun.append( xmlReader.getTextCharacters(), xmlReader.getTextStart(), xmlReader.getTextLength() );
+                continue;
+            }
+
+            if ( textRun.length() > 0 )
+            {
+                jsonWriter.textRun( textRun );
+                textRun.setLength( 0 );
+            }
+
+            switch ( event )
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    jsonWriter.startElement( xmlReader.getLocalName() );
+                    for ( int i = 0; i < xmlReader.getAttributeCount(); i++ )
+                    {
+                        jsonWriter.attribute( xmlReader.getAttributeLocalName( i ), xmlReader.getAttributeValue( i ) );
+                    }
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    jsonWriter.endElement();
+                    break;
+
+                case XMLStreamConstants.CDATA:
+                    jsonWriter.text( xmlReader.getText() );
+                    break;
+
+                case XMLStreamConstants.DTD:
+                    throw new XMLStreamException( "DOCTYPE is disallowed", xmlReader.getLocation() );
+
+                default:
+                    break;
+            }
+        }
+        jsonWriter.endDocument();
+    }
+
+    /**
+     * Parse JSON text into a new document.
+     * @param reader source of the JSON text.
+     * @return a new document.
+     * @throws IOException if there is a stream or JSON parsing error, or the JSON can not be represented as XML.
+     */
+    static org.w3c.dom.Document parseJson( final Reader reader )
+            throws IOException
+    {
+        final org.w3c.dom.Document document = XmlFactoryW3c.getBuilder().newDocument();
+        document.setXmlStandalone( true );
+        new XmlJsonW3c( reader, document ).readDocument();
+        return document;
+    }
+
+    private void readDocument()
+            throws IOException
+    {
+        expect( '{' );
+        expect( '"' );
+        final String name = readStringBody();
+        expect( ':' );
+        if ( peek() == '[' )
+        {
+            throw newParseException( "the root element can not be an array" );
+        }
+        readValue( ( org.w3c.dom.Element ) document.appendChild( createElement( name ) ) );
+        expect( '}' );
+        if ( peek() != -1 )
+        {
+            throw newParseException( "a single root object property is required" );
+        }
+    }
+
+    private void readValue( final org.w3c.dom.Element element )
+            throws IOException
+    {
+        final int c = peek();
+        if ( c == '{' )
+        {
+            read();
+            readObject( element );
+        }
+        else if ( c == '[' )
+        {
+            throw newParseException( "nested arrays can not be represented as xml" );
+        }
+        else
+        {
+            final String text = readPrimitive();
+            if ( text != null && !text.isEmpty() )
+            {
+                element.appendChild( document.createTextNode( text ) );
+            }
+        }
+    }
+
+    private void readObject( final org.w3c.dom.Element element )
+            throws IOException
+    {
+        if ( ++depth > MAX_DEPTH )
+        {
+            throw newParseException( "nesting exceeds " + MAX_DEPTH + " levels" );
+        }
+
+        if ( peek() == '}' )
+        {
+            read();
+            depth--;
+            return;
+        }
+
+        while ( true )
+        {
+            expect( '"' );
+            final String name = readStringBody();
+            expect( ':' );
+
+            if ( name.startsWith( XmlJsonWriter.ATTRIBUTE_PREFIX ) && name.length() > XmlJsonWriter.ATTRIBUTE_PREFIX.length() )
+            {
+                readAttribute( element, name.substring( XmlJsonWriter.ATTRIBUTE_PREFIX.length() ) );
+            }
+            else if ( XmlJsonWriter.TEXT_PROPERTY.equals( name ) )
+            {
+                final String text = readPrimitive();
+                if ( text != null && !text.isEmpty() )
+                {
+                    element.appendChild( document.createTextNode( text ) );
+                }
+            }
+            else if ( peek() == '[' )
+            {
+                read();
+                readArray( element, name );
+            }
+            else
+            {
+                readValue( ( org.w3c.dom.Element ) element.appendChild( createElement( name ) ) );
+            }
+
+            final int c = readSignificant();
+            if ( c == '}' )
+            {
+                depth--;
+                return;
+            }
+            if ( c != ',' )
+            {
+                throw newParseException( "expected ',' or '}'" );
+            }
+        }
+    }
+
+    private void readArray( final org.w3c.dom.Element element, final String name )
+            throws IOException
+    {
+        if ( peek() == ']' )
+        {
+            read();
+            return;
+        }
+
+        while ( true )
+        {
+            readValue( ( org.w3c.dom.Element ) element.appendChild( createElement( name ) ) );
+
+            final int c = readSignificant();
+            if ( c == ']' )
+            {
+                return;
+            }
+            if ( c != ',' )
+            {
+                throw newParseException( "expected ',' or ']'" );
+            }
+        }
+    }
+
+    private void readAttribute( final org.w3c.dom.Element element, final String name )
+            throws IOException
+    {
+        final String value = readPrimitive();
+        if ( value != null )
+        {
+            try
+            {
+                element.setAttribute( XmlChaiInternalUtils.internName( name ), value );
+            }
+            catch ( final DOMException e )
+            {
+                throw newParseException( "invalid attribute name '" + name + "'", e );
+            }
+        }
+    }
+
+    private org.w3c.dom.Element createElement( final String name )
+            throws IOException
+    {
+        try
+        {
+            return document.createElement( XmlChaiInternalUtils.internName( name ) );
+        }
+        catch ( final DOMException e )
+        {
+            throw newParseException( "invalid element name '" + name + "'", e );
+        }
+    }
+
+    /**
+     * Read a string, number, boolean or null value.
+     * @return the text of the value, or null for a JSON null.
+     * @throws IOException if the value is not a string, number, boolean or null.
+     */
+    private String readPrimitive()
+            throws IOException
+    {
+        final int c = readSignificant();
+        if ( c == '"' )
+        {
+            return readStringBody();
+        }
+
+        final StringBuilder literal = new StringBuilder();
+        if ( isLiteralChar( c ) )
+        {
+            literal.append( ( char ) c );
+            while ( isLiteralChar( peekRaw() ) )
+            {
+                literal.append( ( char ) read() );
+            }
+        }
+
+        final String value = literal.toString();
+        if ( "null".equals( value ) )
+        {
+            return null;
+        }
+        if ( "true".equals( value ) || "false".equals( value ) || isNumber( value ) )
+        {
+            return value;
+        }
+        throw newParseException( "expected a string, number, boolean or null value" );
+    }
+
+    /**
+     * Test if a literal is a valid JSON number, an optional minus sign followed by an integer without leading zeros,
+     * an optional fraction and an optional exponent.
+     * @param value the literal.
+     * @return true if the literal is a number.
+     */
+    private static boolean isNumber( final String value )
+    {
+        final int length = value.length();
+        int index = value.startsWith( "-" ) ? 1 : 0;
+
+        final int integerStart = index;
+        index = skipDigits( value, index );
+        if ( index == integerStart || ( value.charAt( integerStart ) == '0' && index - integerStart > 1 ) )
+        {
+            return false;
+        }
+
+        if ( index < length && value.charAt( index ) == '.' )
+        {
+            final int fractionStart = ++index;
+            index = skipDigits( value, index );
+            if ( index == fractionStart )
+            {
+                return false;
+            }
+        }
+
+        if ( index < length && ( value.charAt( index ) == 'e' || value.charAt( index ) == 'E' ) )
+        {
+            index++;
+            if ( index < length && ( value.charAt( index ) == '+' || value.charAt( index ) == '-' ) )
+            {
+                index++;
+            }
+            final int exponentStart = index;
+            index = skipDigits( value, index );
+            if ( index == exponentStart )
+            {
+                return false;
+            }
+        }
+
+        return index == length;
+    }
+
+    private static int skipDigits( final String value, final int start )
+    {
+        int index = start;
+        while ( index < value.length() && value.charAt( index ) >= '0' && value.charAt( index ) <= '9' )
+        {
+            index++;
+        }
+        return index;
+    }
+
+    private static boolean isLiteralChar( final int c )
+    {
+        return ( c >= '0' && c <= '9' ) || ( c >= 'a' && c <= 'z' ) || c == '-' || c == '+' || c == '.' || c == 'E';
+    }
+
+    /**
+     * Read the remainder of a string after its opening quote.
+     * @return the string value.
+     * @throws IOException if the string is not valid.
+     */
+    private String readStringBody()
+            throws IOException
+    {
+        final StringBuilder value = new StringBuilder();
+        while ( true )
+        {
+            final int c = read();
+            if ( c == '"' )
+            {
+                return value.toString();
+            }
+            if ( c == -1 || c < 0x20 )
+            {
+                throw newParseException( "unterminated string" );
+            }
+            if ( c != '\\' )
+            {
+                value.append( ( char ) c );
+                continue;
+            }
+
+            final int escape = read();
+            switch ( escape )
+            {
+                case '"':
+                case '\\':
+                case '/':
+                    value.append( ( char ) escape );
+                    break;
+
+                case 'b':
+                    value.append( '\b' );
+                    break;
+
+                case 'f':
+                    value.append( '\f' );
+                    break;
+
+                case 'n':
+                    value.append( '\n' );
+                    break;
+
+                case 'r':
+                    value.append( '\r' );
+                    break;
+
+                case 't':
+                    value.append( '\t' );
+                    break;
+
+                case 'u':
+                    value.append( readUnicodeEscape() );
+                    break;
+
+                default:
+                    throw newParseException( "invalid escape sequence" );
+            }
+        }
+    }
+
+    private char readUnicodeEscape()
+            throws IOException
+    {
+        int value = 0;
+        for ( int i = 0; i < 4; i++ )
+        {
+            final int digit = Character.digit( read(), 16 );
+            if ( digit < 0 )
+            {
+                throw newParseException( "invalid unicode escape" );
+            }
+            value = ( value << 4 ) | digit;
+        }
+        return ( char ) value;
+    }
+
+    private void expect( final char expected )
+            throws IOException
+    {
+        if ( readSignificant() != expected )
+        {
+            throw newParseException( "expected '" + expected + "'" );
+        }
+    }
+
+    /**
+     * Read the next character that is not whitespace.
+     * @return the character, or -1 at the end of the input.
+     * @throws IOException if the source fails.
+     */
+    private int readSignificant()
+            throws IOException
+    {
+        final int c = peek();
+        if ( c != -1 )
+        {
+            bufferPosition++;
+        }
+        return c;
+    }
+
+    /**
+     * Skip whitespace and get the next character without consuming it.
+     * @return the character, or -1 at the end of the input.
+     * @throws IOException if the source fails.
+     */
+    private int peek()
+            throws IOException
+    {
+        while ( true )
+        {
+            final int c = peekRaw();
+            if ( c != ' ' && c != '\t' && c != '\n' && c != '\r' )
+            {
+                return c;
+            }
+            bufferPosition++;
+        }
+    }
+
+    private int peekRaw()
+            throws IOException
+    {
+        if ( bufferPosition >= bufferLength )
+        {
+            offset += bufferLength;
+            bufferPosition = 0;
+            bufferLength = Math.max( reader.read( buffer ), 0 );
+            if ( bufferLength == 0 )
+            {
+                return -1;
+            }
+        }
+        return buffer[bufferPosition];
+    }
+
+    private int read()
+            throws IOException
+    {
+        final int c = peekRaw();
+        if ( c != -1 )
+        {
+            bufferPosition++;
+        }
+        return c;
+    }
+
+    private IOException newParseException( final String message )
+    {
+        return newParseException( message, null );
+    }
+
+    private IOException newParseException( final String message, final Exception cause )
+    {
+        return new IOException( "error parsing json data at offset " + ( offset + bufferPosition ) + ": " + message, cause );
+    }
+}
@@ -0,0 +1,423 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Internal writer of JSON text from a sequence of XML element events, as produced by a document walk or a streaming
+ * parse.
+ *
+ * <p>An element is written as a property named after the element.  Its value is a string if the element has only
+ * text, otherwise an object holding its attributes, child elements and text.  Adjacent sibling elements of the same
+ * name are written as one array property; a name repeated after a sibling of another name can not be written
+ * without a duplicate property and fails with an {@link IOException}.  Whether an element is followed by a sibling of the same name is only known
+ * once that sibling starts, so the output of the first element of a name is held back until then.  Other output is
+ * passed to the destination as soon as a buffer fills.  Instances are not thread-safe.</p>
+ */
+final class XmlJsonWriter
+{
+    /**
+     * Prefix of property names of attributes.
+     */
+    static final String ATTRIBUTE_PREFIX = "@";
+
+    /**
+     * Property name of element text.
+     */
+    static final String TEXT_PROPERTY = "#text";
+
+    /**
+     * Count of characters to buffer before writing to the destination.
+     */
+    private static final int FLUSH_THRESHOLD = 8 * 1024;
+
+    /**
+     * Hexadecimal digits of unicode escapes.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * The destination.
+     */
+    private final Writer writer;
+
+    /**
+     * True to name attribute properties with the {@link #ATTRIBUTE_PREFIX}.
+     */
+    private final boolean attributePrefix;
+
+    /**
+     * True to write every element as an array property.
+     */
+    private final boolean elementArrays;
+
+    /**
+     * Output not yet written to {@link #writer}.
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * Open elements, outermost first.  The first frame is the document.
+     */
+    private final List<Frame> frames = new ArrayList<>();
+
+    /**
+     * Count of characters already written to {@link #writer}.
+     */
+    private long flushed;
+
+    /**
+     * Length of {@link #pending} at which to next try to write to {@link #writer}.
+     */
+    private int nextFlush = FLUSH_THRESHOLD;
+
+    XmlJsonWriter( final Writer writer, final XmlFactory.JsonFlag... jsonFlags )
+    {
+        this.writer = writer;
+        this.attributePrefix = !XmlChaiInternalUtils.enumArrayContainsValue( jsonFlags, XmlFactory.JsonFlag.AttributesWithoutPrefix );
+        this.elementArrays = XmlChaiInternalUtils.enumArrayContainsValue( jsonFlags, XmlFactory.JsonFlag.ElementsAsArrays );
+
+        final Frame documentFrame = new Frame();
+        documentFrame.objectOpen = true;
+        frames.add( documentFrame );
+        pending.append( '{' );
+    }
+
+    /**
+     * Start an element.  Attributes of the element must be written before any of its text or child elements.
+     * @param name the element name.
+     * @throws IOException if the destination fails, or a sibling element of the same name is not adjacent.
+     */
+    void startElement( final String name )
+            throws IOException
+    {
+        final Frame parent = frames.get( frames.size() - 1 );
+        final boolean root = frames.size() == 1;
+        openObject( parent );
+
+        if ( name.equals( parent.lastName ) && parent.lastState != ChildState.None )
+        {
+            if ( parent.lastState == ChildState.Single )
+            {
+                pending.insert( ( int ) ( parent.lastValuePosition - flushed ), '[' );
+                parent.lastState = ChildState.Array;
+            }
+            pending.append( ',' );
+        }
+        else
+        {
+            if ( parent.lastName != null )
+            {
+                if ( parent.closedNames == null )
+                {
+                    parent.closedNames = new HashSet<>();
+                }
+                parent.closedNames.add( parent.lastName );
+                if ( parent.closedNames.contains( name ) )
+                {
+                    throw new IOException( "element '" + name + "' is not adjacent to its previous sibling of the same name, "
+                            + "which can not be converted to JSON as it is read" );
+                }
+            }
+            if ( parent.lastState == ChildState.Array )
+            {
+                pending.append( ']' );
+            }
+            writePropertyName( parent, name );
+            parent.lastName = name;
+            if ( elementArrays && !root )
+            {
+                pending.append( '[' );
+                parent.lastState = ChildState.Array;
+            }
+            else
+            {
+                parent.lastValuePosition = flushed + pending.length();
+                parent.lastState = root ? ChildState.None : ChildState.Single;
+            }
+        }
+
+        frames.add( new Frame() );
+    }
+
+    /**
+     * Write an attribute of the current element.
+     * @param name the attribute name.
+     * @param value the attribute value.
+     * @throws IOException if the destination fails.
+     */
+    void attribute( final String name, final String value )
+            throws IOException
+    {
+        final Frame frame = frames.get( frames.size() - 1 );
+        openObject( frame );
+        writePropertyName( frame, attributePrefix ? ATTRIBUTE_PREFIX + name : name );
+        writeString( value );
+        flushIfFull();
+    }
+
+    /**
+     * Add text to the current element.  The text of an element is written when the element ends.
+     * @param text text, trimmed as by {@link XmlElement#getText()}.
+     */
+    void text( final CharSequence text )
+    {
+        if ( text.length() > 0 )
+        {
+            final Frame frame = frames.get( frames.size() - 1 );
+            if ( frame.text == null )
+            {
+                frame.text = new StringBuilder();
+            }
+            frame.text.append( text );
+        }
+    }
+
+    /**
+     * Add a run of adjacent character data to the current element, trimmed as a text node by
+     * {@link XmlElement#getText()}.
+     * @param textRun character data.
+     */
+    void textRun( final CharSequence textRun )
+    {
+        final Frame frame = frames.get( frames.size() - 1 );
+        if ( frame.text == null )
+        {
+            frame.text = new StringBuilder();
+        }
+        XmlChaiInternalUtils.appendTrimmed( frame.text, textRun );
+    }
+
+    /**
+     * End the current element.
+     * @throws IOException if the destination fails.
+     */
+    void endElement()
+            throws IOException
+    {
+        final Frame frame = frames.remove( frames.size() - 1 );
+        if ( frame.objectOpen )
+        {
+            if ( frame.lastState == ChildState.Array )
+            {
+                pending.append( ']' );
+            }
+            if ( frame.text != null && frame.text.length() > 0 )
+            {
+                writePropertyName( frame, TEXT_PROPERTY );
+                writeString( frame.text );
+            }
+            pending.append( '}' );
+        }
+        else
+        {
+            writeString( frame.text == null ? "" : frame.text );
+        }
+        flushIfFull();
+    }
+
+    /**
+     * End the document and write all remaining output to the destination, which is flushed but not closed.
+     * @throws IOException if the destination fails.
+     */
+    void endDocument()
+            throws IOException
+    {
+        if ( frames.size() != 1 )
+        {
+            throw new IllegalStateException( "elements are still open" );
+        }
+        pending.append( '}' );
+        writer.append( pending );
+        pending.setLength( 0 );
+        writer.flush();
+    }
+
+    private void openObject( final Frame frame )
+    {
+        if ( !frame.objectOpen )
+        {
+            frame.objectOpen = true;
+            pending.append( '{' );
+        }
+    }
+
+    private void writePropertyName( final Frame frame, final String name )
+    {
+        if ( frame.propertyCount++ > 0 )
+        {
+            pending.append( ',' );
+        }
+        writeString( name );
+        pending.append( ':' );
+    }
+
+    private void writeString( final CharSequence value )
+    {
+        pending.append( '"' );
+        final int length = value.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            final char c = value.charAt( i );
+            switch ( c )
+            {
+                case '"':
+                    pending.append( "\\\"" );
+                    break;
+
+                case '\\':
+                    pending.append( "\\\\" );
+                    break;
+
+                case '\n':
+                    pending.append( "\\n" );
+                    break;
+
+                case '\r':
+                    pending.append( "\\r" );
+                    break;
+
+                case '\t':
+                    pending.append( "\\t" );
+                    break;
+
+                default:
+                    if ( c < 0x20 || c == 0x2028 || c == 0x2029 )
+                    {
+                        pending.append( "\\u" )
+                                .append( HEX_DIGITS[( c >> 12 ) & 0xF] )
+                                .append( HEX_DIGITS[( c >> 8 ) & 0xF] )
+                                .append( HEX_DIGITS[( c >> 4 ) & 0xF] )
+                                .append( HEX_DIGITS[c & 0xF] );
+                    }
+                    else
+                    {
+                        pending.append( c );
+                    }
+            }
+        }
+        pending.append( '"' );
+    }
+
+    /**
+     * Write buffered output to the destination, up to the first position at which an array may still be opened.
+     * @throws IOException if the destination fails.
+     */
+    private void flushIfFull()
+            throws IOException
+    {
+        if ( pending.length() < nextFlush )
+        {
+            return;
+        }
+
+        long limit = flushed + pending.length();
+        for ( final Frame frame : frames )
+        {
+            if ( frame.lastState == ChildState.Single )
+            {
+                limit = frame.lastValuePosition;
+                break;
+            }
+        }
+
+        final int count = ( int ) ( limit - flushed );
+        if ( count > 0 )
+        {
+            writer.append( pending, 0, count );
+            pending.delete( 0, count );
+            flushed = limit;
+        }
+        nextFlush = pending.length() + FLUSH_THRESHOLD;
+    }
+
+    /**
+     * State of the last child element of an element.
+     */
+    private enum ChildState
+    {
+        /**
+         * No child element has started, or it can not be followed by a sibling.
+         */
+        None,
+
+        /**
+         * A single element of the name has been written, without array brackets.
+         */
+        Single,
+
+        /**
+         * An array of elements of the name is open.
+         */
+        Array,
+    }
+
+    /**
+     * State of an open element.
+     */
+    @SuppressFBWarnings( "FCBL_FIELD_COULD_BE_LOCAL" )
+    // FCBL_FIELD_COULD_BE_LOCAL frame fields are state of the enclosing writer
+    private static final class Frame
+    {
+        /**
+         * True once the object holding the element's content has been opened.
+         */
+        private boolean objectOpen;
+
+        /**
+         * Count of properties written to the element's object.
+         */
+        private int propertyCount;
+
+        /**
+         * Text of the element, or null if it has none.
+         */
+        private StringBuilder text;
+
+        /**
+         * Name of the last child element.
+         */
+        private String lastName;
+
+        /**
+         * Names of child elements followed by a sibling of another name, or null if there are none.
+         */
+        private Set<String> closedNames;
+
+        /**
+         * State of the last child element.
+         */
+        private ChildState lastState = ChildState.None;
+
+        /**
+         * Output position of the value of the last child element, where an array is opened if a sibling of the same
+         * name follows.
+         */
+        private long lastValuePosition;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams the elements of a name read by a StAX reader, each mapped by an {@link XmlMapperW3c} as soon as it has
+ * been read.  No DOM of the document is built, so memory use is independent of the size of the document.
+ *
+ * @param <T> the mapped type.
+ */
+final class XmlMappedStreamW3c<T> extends Spliterators.AbstractSpliterator<T>
+{
+    /**
+     * Property of the JDK's StAX implementation to report CDATA sections as separate events, as they are separate
+     * nodes of a parsed DOM.
+     */
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    /**
+     * Configured input factory, which is safe to share once configured.
+     */
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+    /**
+     * Reader of the document.
+     */
+    private final XMLStreamReader reader;
+
+    /**
+     * Name of the mapped elements.
+     */
+    private final String elementName;
+
+    /**
+     * Mapper of the mapped elements.
+     */
+    private final XmlMapperW3c<T> mapper;
+
+    private XmlMappedStreamW3c( final XMLStreamReader reader, final String elementName, final XmlMapperW3c<T> mapper )
+    {
+        super( Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL );
+        this.reader = reader;
+        this.elementName = elementName;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Create a lazily evaluated stream of the elements of a name in a document.
+     * @param inputStream the document.
+     * @param elementName name of the elements to map.
+     * @param mapper mapper of the elements.
+     * @param <T> the mapped type.
+     * @return a sequential stream, which closes its reader when closed.
+     * @throws IOException if the document can not be read.
+     */
+    static <T> Stream<T> stream( final InputStream inputStream, final String elementName, final XmlMapperW3c<T> mapper )
+            throws IOException
+    {
+        try
+        {
+            final XmlMappedStreamW3c<T> spliterator = new XmlMappedStreamW3c<>( newReader( inputStream ), elementName, mapper );
+            return StreamSupport.stream( spliterator, false ).onClose( spliterator::close );
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new IOException( "error parsing xml stream: " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Create a stream reader using the same settings as the default DOM parser, except that a DOCTYPE is only
+     * rejected when its {@link XMLStreamConstants#DTD} event is read.
+     * @param inputStream the document.
+     * @return a new reader.
+     * @throws XMLStreamException if the document can not be read.
+     */
+    @SuppressFBWarnings( "XXE_XMLSTREAMREADER" )
+    // XXE_XMLSTREAMREADER dtd and external entity support are disabled on the shared input factory
+    static XMLStreamReader newReader( final InputStream inputStream )
+            throws XMLStreamException
+    {
+        return INPUT_FACTORY.createXMLStreamReader( inputStream );
+    }
+
+    @Override
+    public boolean tryAdvance( final Consumer<? super T> action )
+    {
+        try
+        {
+            while ( reader.hasNext() )
+            {
+                final int event = reader.next();
+                if ( event == XMLStreamConstants.DTD )
+                {
+                    throw new XMLStreamException( "DOCTYPE is disallowed", reader.getLocation() );
+                }
+                if ( event == XMLStreamConstants.START_ELEMENT && elementName.equals( reader.getLocalName() ) )
+                {
+                    action.accept( mapper.mapStream( reader ) );
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new UncheckedIOException( new IOException( "error parsing xml stream: " + e.getMessage(), e ) );
+        }
+    }
+
+    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    // EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS stream close handlers can not throw checked exceptions
+    private void close()
+    {
+        try
+        {
+            reader.close();
+        }
+        catch ( final XMLStreamException e )
+        {
+            throw new UncheckedIOException( new IOException( "error closing xml stream: " + e.getMessage(), e ) );
+        }
+    }
+
+    private static XMLInputFactory newInputFactory()
+    {
+        final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+        inputFactory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+        inputFactory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE );
+        inputFactory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+        if ( inputFactory.isPropertySupported( REPORT_CDATA_PROPERTY ) )
+        {
+            inputFactory.setProperty( REPORT_CDATA_PROPERTY, Boolean.TRUE );
+        }
+        return inputFactory;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.util.List;
+
+/**
+ * Maps {@link XmlElement}s onto instances of a Java type according to a mapping declared using a {@link Builder},
+ * obtained from {@link XmlFactory#newMapperBuilder(Class)}.
+ *
+ * <p>The target type may be a record, which is constructed using its canonical constructor, or a class with a
+ * public no-argument constructor and public setters named after each mapped property.  The type, its constructor and
+ * setters must be public.  Mapped values are converted to the type of the property, which may be {@code String},
+ * {@code int}, {@code long}, {@code double}, {@code boolean}, their wrapper types, or an enum.  Properties whose
+ * source is missing or empty are left at their default value.</p>
+ *
+ * <p>Mappers are resolved once when built, and read an element and all its mapped descendants in a single traversal
+ * while holding the lock of the element.  Mappers are immutable and thread-safe.</p>
+ *
+ * @param <T> the mapped type.
+ */
+public interface XmlMapper<T>
+{
+    /**
+     * Map an element.
+     * @param element the element to map.
+     * @return a new instance of the mapped type.
+     * @throws NullPointerException if {@code element} is null.
+     * @throws IllegalArgumentException if a value can not be converted to the type of its property.
+     */
+    T map( XmlElement element );
+
+    /**
+     * Map all the direct child elements of {@code parent} of the name {@code elementName}.
+     * @param parent the parent of the elements to map.
+     * @param elementName name of the elements to map.
+     * @return new instances of the mapped type in document order, or an empty list if no such elements are present.
+     * @throws NullPointerException if {@code parent} or {@code elementName} is null.
+     * @throws IllegalArgumentException if a value can not be converted to the type of its property.
+     */
+    List<T> mapChildren( XmlElement parent, String elementName );
+
+    /**
+     * Declares the mapping of a type.  Each method maps one property of the type, identified by its record component
+     * name or, for other classes, by the name of its setter without the {@code set} prefix.  If a class has several
+     * one argument setters of that name, the one taking the type of the field of the property's name, or else of
+     * its getter, is used.
+     * @param <T> the mapped type.
+     */
+    interface Builder<T>
+    {
+        /**
+         * Map a property to the value of an attribute of the element.
+         * @param property name of the property.
+         * @param attributeName name of the attribute.
+         * @return this builder.
+         */
+        Builder<T> attribute( String property, String attributeName );
+
+        /**
+         * Map a property to the text of the element, as returned by {@link XmlElement#getText()}.
+         * @param property name of the property.
+         * @return this builder.
+         */
+        Builder<T> text( String property );
+
+        /**
+         * Map a property to the text of the first direct child element of the name {@code elementName}.
+         * @param property name of the property.
+         * @param elementName name of the child element.
+         * @return this builder.
+         */
+        Builder<T> childText( String property, String elementName );
+
+        /**
+         * Map a property to the first direct child element of the name {@code elementName}, mapped by
+         * {@code mapper}.
+         * @param property name of the property.
+         * @param elementName name of the child element.
+         * @param mapper mapper of the child element.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code mapper} is not built by a builder of the same factory.
+         */
+        Builder<T> child( String property, String elementName, XmlMapper<?> mapper );
+
+        /**
+         * Map a {@link List} property to all the direct child elements of the name {@code elementName}, mapped by
+         * {@code mapper}.  The property is an empty list if no such elements are present.
+         * @param property name of the property.
+         * @param elementName name of the child elements.
+         * @param mapper mapper of the child elements.
+         * @return this builder.
+         * @throws IllegalArgumentException if {@code mapper} is not built by a builder of the same factory.
+         */
+        Builder<T> children( String property, String elementName, XmlMapper<?> mapper );
+
+        /**
+         * Resolve the mapping.
+         * @return a mapper of the type.
+         * @throws IllegalArgumentException if a property does not exist, a property type is not supported, or the type
+         *     can not be instantiated.
+         */
+        XmlMapper<T> build();
+    }
+}
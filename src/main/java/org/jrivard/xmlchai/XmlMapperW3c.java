@@ -0,0 +1,1083 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.w3c.dom.Node;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+
+/**
+ * {@link XmlMapper} implementation.  Constructors and setters of the mapped type are resolved to method handles when
+ * the mapper is built, so mapping performs no reflective lookups.  Mapping walks the w3c element directly, visiting
+ * each child element once and dispatching it to the bindings of its name.
+ *
+ * @param <T> the mapped type.
+ */
+class XmlMapperW3c<T> implements XmlMapper<T>
+{
+    /**
+     * Source of a mapped property value.
+     */
+    private enum SourceKind
+    {
+        /**
+         * Value of an attribute.
+         */
+        Attribute,
+
+        /**
+         * Text of the element.
+         */
+        Text,
+
+        /**
+         * Text of the first child element of a name.
+         */
+        ChildText,
+
+        /**
+         * First child element of a name, mapped by a nested mapper.
+         */
+        Child,
+
+        /**
+         * All child elements of a name, mapped by a nested mapper.
+         */
+        Children,
+    }
+
+    /**
+     * The mapped type.
+     */
+    private final Class<T> type;
+
+    /**
+     * For records, the canonical constructor adapted to {@code (Object[])Object}, otherwise the no-argument
+     * constructor adapted to {@code ()Object}.
+     */
+    private final MethodHandle constructor;
+
+    /**
+     * For types other than records, the setter of each slot adapted to {@code (Object,Object)void}, otherwise null.
+     */
+    private final MethodHandle[] setters;
+
+    /**
+     * Initial value of each slot.
+     */
+    private final Object[] defaults;
+
+    /**
+     * Bindings to attributes.
+     */
+    private final Binding[] attributeBindings;
+
+    /**
+     * Binding to the element text, or null.
+     */
+    private final Binding textBinding;
+
+    /**
+     * Bindings to child elements, per child element name.
+     */
+    private final Map<String, Binding[]> childBindings;
+
+    /**
+     * Bindings of {@link SourceKind#Children}.
+     */
+    private final Binding[] listBindings;
+
+    private XmlMapperW3c(
+            final Class<T> type,
+            final MethodHandle constructor,
+            final MethodHandle[] setters,
+            final Object[] defaults,
+            final List<Binding> bindings
+    )
+    {
+        this.type = type;
+        this.constructor = constructor;
+        this.setters = setters;
+        this.defaults = defaults;
+
+        final List<Binding> attributes = new ArrayList<>( bindings.size() );
+        final List<Binding> lists = new ArrayList<>( bindings.size() );
+        final Map<String, List<Binding>> children = new HashMap<>( bindings.size() * 2 );
+        Binding text = null;
+        for ( final Binding binding : bindings )
+        {
+            switch ( binding.getKind() )
+            {
+                case Attribute:
+                    attributes.add( binding );
+                    break;
+
+                case Text:
+                    text = binding;
+                    break;
+
+                case Children:
+                    lists.add( binding );
+                    children.computeIfAbsent( binding.getSourceName(), name -> new ArrayList<>() ).add( binding );
+                    break;
+
+                default:
+                    children.computeIfAbsent( binding.getSourceName(), name -> new ArrayList<>() ).add( binding );
+                    break;
+            }
+        }
+
+        this.attributeBindings = attributes.toArray( new Binding[0] );
+        this.textBinding = text;
+        this.listBindings = lists.toArray( new Binding[0] );
+        final Map<String, Binding[]> childMap = new HashMap<>( children.size() * 2 );
+        for ( final Map.Entry<String, List<Binding>> entry : children.entrySet() )
+        {
+            childMap.put( entry.getKey(), entry.getValue().toArray( new Binding[0] ) );
+        }
+        this.childBindings = childMap;
+    }
+
+    /**
+     * Get the implementation of a mapper.
+     * @param mapper a mapper built by a builder of this implementation.
+     * @param <T> the mapped type.
+     * @return the mapper.
+     * @throws IllegalArgumentException if the mapper is not built by a builder of this implementation.
+     */
+    @SuppressFBWarnings( "ITC_INHERITANCE_TYPE_CHECKING" )
+    // ITC_INHERITANCE_TYPE_CHECKING the implementation is internal, the public interface has no conversion method
+    static <T> XmlMapperW3c<T> toW3c( final XmlMapper<T> mapper )
+    {
+        if ( mapper instanceof XmlMapperW3c )
+        {
+            return ( XmlMapperW3c<T> ) mapper;
+        }
+        throw new IllegalArgumentException( "mapper is not built by a builder of this factory: " + mapper.getClass().getName() );
+    }
+
+    Class<T> getType()
+    {
+        return type;
+    }
+
+    @Override
+    public T map( final XmlElement element )
+    {
+        Objects.requireNonNull( element );
+
+        final XmlElementW3c elementW3c = toW3c( element );
+        final Lock lock = elementW3c.getLock();
+        lock.lock();
+        try
+        {
+            return mapElement( elementW3c.getW3cElement() );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<T> mapChildren( final XmlElement parent, final String elementName )
+    {
+        Objects.requireNonNull( parent );
+        Objects.requireNonNull( elementName );
+
+        if ( !( parent instanceof XmlElementW3c ) )
+        {
+            // only the matching children are copied, rather than the entire parent
+            final List<T> returnList = new ArrayList<>();
+            for ( final XmlElement child : parent.getChildren() )
+            {
+                if ( elementName.equals( child.getName() ) )
+                {
+                    returnList.add( map( child ) );
+                }
+            }
+            return returnList.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList( returnList );
+        }
+
+        final XmlElementW3c parentW3c = ( XmlElementW3c ) parent;
+        final Lock lock = parentW3c.getLock();
+        lock.lock();
+        try
+        {
+            final List<T> returnList = new ArrayList<>();
+            for ( Node child = parentW3c.getW3cElement().getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                if ( child.getNodeType() == Node.ELEMENT_NODE && elementName.equals( child.getNodeName() ) )
+                {
+                    returnList.add( mapElement( ( org.w3c.dom.Element ) child ) );
+                }
+            }
+            return returnList.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList( returnList );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get a w3c element with the content of an element.  Elements of other implementations, such as those of
+     * compact documents, are copied.
+     * @param element an element.
+     * @return {@code element}, or a w3c copy of it.
+     * @throws IllegalArgumentException if the element is of an implementation that does not copy to a w3c element.
+     */
+    private static XmlElementW3c toW3c( final XmlElement element )
+    {
+        if ( element instanceof XmlElementW3c )
+        {
+            return ( XmlElementW3c ) element;
+        }
+        final XmlElement copy = element.copy();
+        if ( copy instanceof XmlElementW3c )
+        {
+            return ( XmlElementW3c ) copy;
+        }
+        throw new IllegalArgumentException( "unsupported element implementation " + element.getClass().getName() );
+    }
+
+    /**
+     * Map an element.  Must be called while holding the lock of the element.
+     * @param element the element to map.
+     * @return a new instance of the mapped type.
+     */
+    @SuppressWarnings( "unchecked" )
+    private T mapElement( final org.w3c.dom.Element element )
+    {
+        final Object[] values = defaults.clone();
+
+        for ( final Binding binding : attributeBindings )
+        {
+            final String value = element.getAttribute( binding.getSourceName() );
+            if ( !value.isEmpty() )
+            {
+                values[binding.getSlot()] = binding.convert( value );
+            }
+        }
+
+        if ( textBinding != null )
+        {
+            final String text = XmlElementW3c.elementText( element );
+            if ( !text.isEmpty() )
+            {
+                values[textBinding.getSlot()] = textBinding.convert( text );
+            }
+        }
+
+        if ( !childBindings.isEmpty() )
+        {
+            for ( final Binding binding : listBindings )
+            {
+                values[binding.getSlot()] = new ArrayList<>();
+            }
+
+            final boolean[] assigned = new boolean[values.length];
+            for ( Node child = element.getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                if ( child.getNodeType() == Node.ELEMENT_NODE )
+                {
+                    final Binding[] bindings = childBindings.get( child.getNodeName() );
+                    if ( bindings != null )
+                    {
+                        for ( final Binding binding : bindings )
+                        {
+                            mapChild( ( org.w3c.dom.Element ) child, binding, values, assigned );
+                        }
+                    }
+                }
+            }
+
+            for ( final Binding binding : listBindings )
+            {
+                final List<Object> list = ( List<Object> ) values[binding.getSlot()];
+                values[binding.getSlot()] = list.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList( list );
+            }
+        }
+
+        return newInstance( values );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static void mapChild( final org.w3c.dom.Element child, final Binding binding, final Object[] values, final boolean[] assigned )
+    {
+        final int slot = binding.getSlot();
+        switch ( binding.getKind() )
+        {
+            case ChildText:
+                if ( !assigned[slot] )
+                {
+                    assigned[slot] = true;
+                    final String text = XmlElementW3c.elementText( child );
+                    if ( !text.isEmpty() )
+                    {
+                        values[slot] = binding.convert( text );
+                    }
+                }
+                break;
+
+            case Child:
+                if ( !assigned[slot] )
+                {
+                    assigned[slot] = true;
+                    values[slot] = binding.getMapper().mapElement( child );
+                }
+                break;
+
+            case Children:
+                ( ( List<Object> ) values[slot] ).add( binding.getMapper().mapElement( child ) );
+                break;
+
+            default:
+                throw new IllegalStateException( "unexpected child binding " + binding.getKind() );
+        }
+    }
+
+    /**
+     * Map an element read from a stream reader, without building a DOM of it.  The text and child elements of the
+     * element are read in a single pass and the reader is left on the end tag of the element.  A child element bound to
+     * more than one property is read into a detached w3c element and mapped from that.
+     * @param reader a reader positioned on the start tag of the element to map.
+     * @return a new instance of the mapped type.
+     * @throws XMLStreamException if there is a stream or XML parsing error.
+     */
+    @SuppressWarnings( "unchecked" )
+    T mapStream( final XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        final Object[] values = defaults.clone();
+
+        for ( final Binding binding : attributeBindings )
+        {
+            final String value = reader.getAttributeValue( null, binding.getSourceName() );
+            if ( value != null && !value.isEmpty() )
+            {
+                values[binding.getSlot()] = binding.convert( value );
+            }
+        }
+
+        for ( final Binding binding : listBindings )
+        {
+            values[binding.getSlot()] = new ArrayList<>();
+        }
+
+        final StringBuilder text = textBinding == null ? null : new StringBuilder();
+        final StringBuilder textRun = textBinding == null ? null : new StringBuilder();
+        final boolean[] assigned = new boolean[values.length];
+        while ( true )
+        {
+            final int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                appendTextRun( text, textRun );
+                mapStreamChild( reader, values, assigned );
+            }
+            else if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE )
+            {
+                if ( textRun != null )
+                {
+                    textRun.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                }
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                appendTextRun( text, textRun );
+                break;
+            }
+            else
+            {
+                appendTextRun( text, textRun );
+                if ( event == XMLStreamConstants.CDATA && text != null )
+                {
+                    text.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                }
+            }
+        }
+
+        if ( text != null && text.length() > 0 )
+        {
+            values[textBinding.getSlot()] = textBinding.convert( text.toString() );
+        }
+
+        for ( final Binding binding : listBindings )
+        {
+            final List<Object> list = ( List<Object> ) values[binding.getSlot()];
+            values[binding.getSlot()] = list.isEmpty() ? Collections.emptyList() : Collections.unmodifiableList( list );
+        }
+
+        return newInstance( values );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private void mapStreamChild( final XMLStreamReader reader, final Object[] values, final boolean[] assigned )
+            throws XMLStreamException
+    {
+        final Binding[] bindings = childBindings.get( reader.getLocalName() );
+        Binding pending = null;
+        int pendingCount = 0;
+        if ( bindings != null )
+        {
+            for ( final Binding binding : bindings )
+            {
+                if ( binding.getKind() == SourceKind.Children || !assigned[binding.getSlot()] )
+                {
+                    pending = binding;
+                    pendingCount++;
+                }
+            }
+        }
+
+        if ( pendingCount == 0 )
+        {
+            skipElement( reader );
+        }
+        else if ( pendingCount > 1 )
+        {
+            final org.w3c.dom.Element child = readElement( reader, XmlFactoryW3c.newW3cDocument() );
+            for ( final Binding binding : bindings )
+            {
+                mapChild( child, binding, values, assigned );
+            }
+        }
+        else if ( pending.getKind() == SourceKind.ChildText )
+        {
+            assigned[pending.getSlot()] = true;
+            final String text = readText( reader );
+            if ( !text.isEmpty() )
+            {
+                values[pending.getSlot()] = pending.convert( text );
+            }
+        }
+        else if ( pending.getKind() == SourceKind.Child )
+        {
+            assigned[pending.getSlot()] = true;
+            values[pending.getSlot()] = pending.getMapper().mapStream( reader );
+        }
+        else
+        {
+            ( ( List<Object> ) values[pending.getSlot()] ).add( pending.getMapper().mapStream( reader ) );
+        }
+    }
+
+    /**
+     * Read the text of an element as returned by {@link XmlElement#getText()}, skipping its child elements.
+     * @param reader a reader positioned on the start tag of the element, which is left on its end tag.
+     * @return the text of the element, or an empty string if it has none.
+     * @throws XMLStreamException if there is a stream or XML parsing error.
+     */
+    private static String readText( final XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        final StringBuilder text = new StringBuilder();
+        final StringBuilder textRun = new StringBuilder();
+        while ( true )
+        {
+            final int event = reader.next();
+            if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE )
+            {
+                textRun.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+            }
+            else
+            {
+                appendTextRun( text, textRun );
+                if ( event == XMLStreamConstants.END_ELEMENT )
+                {
+                    return text.toString();
+                }
+                else if ( event == XMLStreamConstants.START_ELEMENT )
+                {
+                    skipElement( reader );
+                }
+                else if ( event == XMLStreamConstants.CDATA )
+                {
+                    text.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a run of adjacent character data, which forms a single text node in a DOM, trimmed as by
+     * {@link XmlElement#getText()}.
+     * @param text the text to append to, or null if text is not being collected.
+     * @param textRun the run of character data, which is cleared.
+     */
+    private static void appendTextRun( final StringBuilder text, final StringBuilder textRun )
+    {
+        if ( text == null || textRun.length() == 0 )
+        {
+            return;
+        }
+
+        XmlChaiInternalUtils.appendTrimmed( text, textRun );
+        textRun.setLength( 0 );
+    }
+
+    private static void skipElement( final XMLStreamReader reader )
+            throws XMLStreamException
+    {
+        int depth = 1;
+        while ( depth > 0 )
+        {
+            final int event = reader.next();
+            if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                depth++;
+            }
+            else if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Read an element and its content into a detached w3c element.
+     * @param reader a reader positioned on the start tag of the element, which is left on its end tag.
+     * @param document the document that creates the element.
+     * @return the element.
+     * @throws XMLStreamException if there is a stream or XML parsing error.
+     */
+    private static org.w3c.dom.Element readElement( final XMLStreamReader reader, final org.w3c.dom.Document document )
+            throws XMLStreamException
+    {
+        final org.w3c.dom.Element element = document.createElement( XmlChaiInternalUtils.internName( reader.getLocalName() ) );
+        for ( int i = 0; i < reader.getAttributeCount(); i++ )
+        {
+            element.setAttribute( XmlChaiInternalUtils.internName( reader.getAttributeLocalName( i ) ), reader.getAttributeValue( i ) );
+        }
+
+        final StringBuilder textRun = new StringBuilder();
+        while ( true )
+        {
+            final int event = reader.next();
+            if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE )
+            {
+                textRun.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+                continue;
+            }
+
+            if ( textRun.length() > 0 )
+            {
+                element.appendChild( document.createTextNode( textRun.toString() ) );
+                textRun.setLength( 0 );
+            }
+
+            if ( event == XMLStreamConstants.END_ELEMENT )
+            {
+                return element;
+            }
+            else if ( event == XMLStreamConstants.START_ELEMENT )
+            {
+                element.appendChild( readElement( reader, document ) );
+            }
+            else if ( event == XMLStreamConstants.CDATA )
+            {
+                element.appendChild( document.createCDATASection( reader.getText() ) );
+            }
+        }
+    }
+
+    @SuppressWarnings( "checkstyle:IllegalCatch" )
+    @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS" )
+    // EXS_EXCEPTION_SOFTENING_NO_CONSTRAINTS method handles declare Throwable, but the constructors and setters invoked are public api
+    private T newInstance( final Object[] values )
+    {
+        try
+        {
+            if ( setters == null )
+            {
+                return type.cast( ( Object ) constructor.invokeExact( values ) );
+            }
+
+            final Object instance = ( Object ) constructor.invokeExact();
+            for ( int i = 0; i < values.length; i++ )
+            {
+                if ( values[i] != null )
+                {
+                    setters[i].invokeExact( instance, values[i] );
+                }
+            }
+            return type.cast( instance );
+        }
+        catch ( final RuntimeException | Error e )
+        {
+            throw e;
+        }
+        catch ( final Throwable e )
+        {
+            throw new IllegalStateException( "unable to create instance of " + type.getName() + ": " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * A mapped property.
+     */
+    private static final class Binding
+    {
+        /**
+         * Name of the property.
+         */
+        private final String property;
+
+        /**
+         * Source of the property value.
+         */
+        private final SourceKind kind;
+
+        /**
+         * Attribute or child element name, or null for {@link SourceKind#Text}.
+         */
+        private final String sourceName;
+
+        /**
+         * Index of the value in the slot array.
+         */
+        private final int slot;
+
+        /**
+         * Converter of text values, or null for nested mappings.
+         */
+        private final Function<String, Object> converter;
+
+        /**
+         * Mapper of nested mappings, or null.
+         */
+        private final XmlMapperW3c<?> mapper;
+
+        Binding(
+                final String property,
+                final SourceKind kind,
+                final String sourceName,
+                final int slot,
+                final Function<String, Object> converter,
+                final XmlMapperW3c<?> mapper
+        )
+        {
+            this.property = property;
+            this.kind = kind;
+            this.sourceName = sourceName;
+            this.slot = slot;
+            this.converter = converter;
+            this.mapper = mapper;
+        }
+
+        SourceKind getKind()
+        {
+            return kind;
+        }
+
+        String getSourceName()
+        {
+            return sourceName;
+        }
+
+        int getSlot()
+        {
+            return slot;
+        }
+
+        XmlMapperW3c<?> getMapper()
+        {
+            return mapper;
+        }
+
+        Object convert( final String value )
+        {
+            try
+            {
+                return converter.apply( value );
+            }
+            catch ( final IllegalArgumentException e )
+            {
+                throw new IllegalArgumentException( "unable to map value '" + value + "' to property " + property + ": " + e.getMessage(), e );
+            }
+        }
+    }
+
+    /**
+     * A declared property mapping.
+     */
+    private static final class Declaration
+    {
+        /**
+         * Source of the property value.
+         */
+        private final SourceKind kind;
+
+        /**
+         * Attribute or child element name, or null for {@link SourceKind#Text}.
+         */
+        private final String sourceName;
+
+        /**
+         * Mapper of nested mappings, or null.
+         */
+        private final XmlMapperW3c<?> mapper;
+
+        Declaration( final SourceKind kind, final String sourceName, final XmlMapperW3c<?> mapper )
+        {
+            this.kind = kind;
+            this.sourceName = sourceName;
+            this.mapper = mapper;
+        }
+
+        SourceKind getKind()
+        {
+            return kind;
+        }
+
+        String getSourceName()
+        {
+            return sourceName;
+        }
+
+        XmlMapperW3c<?> getMapper()
+        {
+            return mapper;
+        }
+    }
+
+    /**
+     * {@link XmlMapper.Builder} implementation.
+     * @param <T> the mapped type.
+     */
+    static final class BuilderW3c<T> implements XmlMapper.Builder<T>
+    {
+        /**
+         * The mapped type.
+         */
+        private final Class<T> type;
+
+        /**
+         * Declared mappings per property name, in declaration order.
+         */
+        private final Map<String, Declaration> declarations = new LinkedHashMap<>();
+
+        BuilderW3c( final Class<T> type )
+        {
+            this.type = type;
+        }
+
+        @Override
+        public Builder<T> attribute( final String property, final String attributeName )
+        {
+            return declare( property, new Declaration( SourceKind.Attribute, Objects.requireNonNull( attributeName ), null ) );
+        }
+
+        @Override
+        public Builder<T> text( final String property )
+        {
+            if ( declarations.values().stream().anyMatch( declaration -> declaration.getKind() == SourceKind.Text ) )
+            {
+                throw new IllegalArgumentException( "element text is already mapped" );
+            }
+            return declare( property, new Declaration( SourceKind.Text, null, null ) );
+        }
+
+        @Override
+        public Builder<T> childText( final String property, final String elementName )
+        {
+            return declare( property, new Declaration( SourceKind.ChildText, Objects.requireNonNull( elementName ), null ) );
+        }
+
+        @Override
+        public Builder<T> child( final String property, final String elementName, final XmlMapper<?> mapper )
+        {
+            Objects.requireNonNull( elementName );
+            return declare( property, new Declaration( SourceKind.Child, elementName, toW3c( Objects.requireNonNull( mapper ) ) ) );
+        }
+
+        @Override
+        public Builder<T> children( final String property, final String elementName, final XmlMapper<?> mapper )
+        {
+            Objects.requireNonNull( elementName );
+            return declare( property, new Declaration( SourceKind.Children, elementName, toW3c( Objects.requireNonNull( mapper ) ) ) );
+        }
+
+        private Builder<T> declare( final String property, final Declaration declaration )
+        {
+            Objects.requireNonNull( property );
+            if ( declarations.containsKey( property ) )
+            {
+                throw new IllegalArgumentException( "property " + property + " is already mapped" );
+            }
+            declarations.put( property, declaration );
+            return this;
+        }
+
+        @Override
+        @SuppressFBWarnings( "EXS_EXCEPTION_SOFTENING_NO_CHECKED" )
+        // EXS_EXCEPTION_SOFTENING_NO_CHECKED an unresolvable type is reported as an invalid argument of the builder
+        public XmlMapper<T> build()
+        {
+            try
+            {
+                return isRecord( type ) ? buildRecordMapper() : buildBeanMapper();
+            }
+            catch ( final ReflectiveOperationException e )
+            {
+                throw new IllegalArgumentException( "unable to map type " + type.getName() + ": " + e.getMessage(), e );
+            }
+        }
+
+        private XmlMapper<T> buildRecordMapper()
+                throws ReflectiveOperationException
+        {
+            final Object[] components = ( Object[] ) Class.class.getMethod( "getRecordComponents" ).invoke( type );
+            final Method getName = components.getClass().getComponentType().getMethod( "getName" );
+            final Method getType = components.getClass().getComponentType().getMethod( "getType" );
+
+            final Map<String, Integer> slots = new HashMap<>( components.length * 2 );
+            final Class<?>[] componentTypes = new Class<?>[components.length];
+            final Object[] defaults = new Object[components.length];
+            for ( int i = 0; i < components.length; i++ )
+            {
+                slots.put( ( String ) getName.invoke( components[i] ), i );
+                componentTypes[i] = ( Class<?> ) getType.invoke( components[i] );
+                defaults[i] = componentTypes[i].isPrimitive() ? Array.get( Array.newInstance( componentTypes[i], 1 ), 0 ) : null;
+            }
+
+            final List<Binding> bindings = new ArrayList<>( declarations.size() );
+            for ( final Map.Entry<String, Declaration> entry : declarations.entrySet() )
+            {
+                final Integer slot = slots.get( entry.getKey() );
+                if ( slot == null )
+                {
+                    throw new IllegalArgumentException( "record " + type.getName() + " has no component " + entry.getKey() );
+                }
+                bindings.add( newBinding( entry.getKey(), entry.getValue(), slot, componentTypes[slot] ) );
+            }
+
+            final MethodHandle constructor = MethodHandles.publicLookup()
+                    .findConstructor( type, MethodType.methodType( void.class, componentTypes ) )
+                    .asSpreader( Object[].class, components.length )
+                    .asType( MethodType.methodType( Object.class, Object[].class ) );
+            return new XmlMapperW3c<>( type, constructor, null, defaults, bindings );
+        }
+
+        private XmlMapper<T> buildBeanMapper()
+                throws ReflectiveOperationException
+        {
+            final MethodHandle constructor = MethodHandles.publicLookup()
+                    .findConstructor( type, MethodType.methodType( void.class ) )
+                    .asType( MethodType.methodType( Object.class ) );
+
+            final List<Binding> bindings = new ArrayList<>( declarations.size() );
+            final MethodHandle[] setters = new MethodHandle[declarations.size()];
+            for ( final Map.Entry<String, Declaration> entry : declarations.entrySet() )
+            {
+                final Method setter = findSetter( entry.getKey() );
+                final int slot = bindings.size();
+                setters[slot] = MethodHandles.publicLookup().unreflect( setter )
+                        .asType( MethodType.methodType( void.class, Object.class, Object.class ) );
+                bindings.add( newBinding( entry.getKey(), entry.getValue(), slot, setter.getParameterTypes()[0] ) );
+            }
+
+            return new XmlMapperW3c<>( type, constructor, setters, new Object[setters.length], bindings );
+        }
+
+        /**
+         * Find the setter of a property.  If there are several one argument overloads, the one taking the type of the
+         * field of the property's name, or else of its getter, is used.
+         * @param property the property name.
+         * @return the setter.
+         * @throws IllegalArgumentException if there is no setter, or no unambiguous one.
+         */
+        private Method findSetter( final String property )
+        {
+            final String capitalized = Character.toUpperCase( property.charAt( 0 ) ) + property.substring( 1 );
+            final String setterName = "set" + capitalized;
+            final List<Method> candidates = new ArrayList<>( 1 );
+            for ( final Method method : type.getMethods() )
+            {
+                if ( method.getName().equals( setterName ) && method.getParameterCount() == 1 )
+                {
+                    candidates.add( method );
+                }
+            }
+            if ( candidates.isEmpty() )
+            {
+                throw new IllegalArgumentException( "type " + type.getName() + " has no public method " + setterName + " for property " + property );
+            }
+
+            final Class<?> propertyType = propertyType( property, capitalized );
+            for ( final Method candidate : candidates )
+            {
+                // without a declared property type, only a single overload is unambiguous
+                if ( propertyType == null ? candidates.size() == 1 : candidate.getParameterTypes()[0] == propertyType )
+                {
+                    return candidate;
+                }
+            }
+            if ( propertyType == null )
+            {
+                throw new IllegalArgumentException( "type " + type.getName() + " has several " + setterName
+                        + " methods and no field or getter declaring the type of property " + property );
+            }
+            throw new IllegalArgumentException( "type " + type.getName() + " has no public method " + setterName
+                    + "(" + propertyType.getName() + ") for property " + property );
+        }
+
+        /**
+         * Get the declared type of a property, from the field of its name or else from its public getter.
+         * @param property the property name.
+         * @param capitalized the property name with its first character in upper case.
+         * @return the property type, or null if there is no such field or getter.
+         */
+        private Class<?> propertyType( final String property, final String capitalized )
+        {
+            for ( Class<?> declaringType = type; declaringType != null && declaringType != Object.class; declaringType = declaringType.getSuperclass() )
+            {
+                for ( final Field field : declaringType.getDeclaredFields() )
+                {
+                    if ( field.getName().equals( property ) && !Modifier.isStatic( field.getModifiers() ) )
+                    {
+                        return field.getType();
+                    }
+                }
+            }
+            for ( final Method method : type.getMethods() )
+            {
+                if ( method.getParameterCount() == 0 && method.getReturnType() != void.class
+                        && ( method.getName().equals( "get" + capitalized ) || method.getName().equals( "is" + capitalized ) ) )
+                {
+                    return method.getReturnType();
+                }
+            }
+            return null;
+        }
+
+        private Binding newBinding( final String property, final Declaration declaration, final int slot, final Class<?> propertyType )
+        {
+            switch ( declaration.getKind() )
+            {
+                case Child:
+                    if ( !propertyType.isAssignableFrom( declaration.getMapper().getType() ) )
+                    {
+                        throw new IllegalArgumentException( "property " + property + " of type " + propertyType.getName()
+                                + " can not hold " + declaration.getMapper().getType().getName() );
+                    }
+                    return new Binding( property, declaration.getKind(), declaration.getSourceName(), slot, null, declaration.getMapper() );
+
+                case Children:
+                    if ( !propertyType.isAssignableFrom( List.class ) )
+                    {
+                        throw new IllegalArgumentException( "property " + property + " of type " + propertyType.getName() + " can not hold a List" );
+                    }
+                    return new Binding( property, declaration.getKind(), declaration.getSourceName(), slot, null, declaration.getMapper() );
+
+                default:
+                    final Function<String, Object> converter = converterFor( propertyType );
+                    if ( converter == null )
+                    {
+                        throw new IllegalArgumentException( "property " + property + " has unsupported type " + propertyType.getName() );
+                    }
+                    return new Binding( property, declaration.getKind(), declaration.getSourceName(), slot, converter, null );
+            }
+        }
+
+        private static boolean isRecord( final Class<?> type )
+        {
+            // Class.isRecord() is not available in the java 8 api
+            final Class<?> superclass = type.getSuperclass();
+            return superclass != null && "java.lang.Record".equals( superclass.getName() );
+        }
+
+        private static Function<String, Object> converterFor( final Class<?> propertyType )
+        {
+            if ( propertyType == String.class || propertyType == Object.class )
+            {
+                return String::toString;
+            }
+            if ( propertyType == int.class || propertyType == Integer.class )
+            {
+                return Integer::valueOf;
+            }
+            if ( propertyType == long.class || propertyType == Long.class )
+            {
+                return Long::valueOf;
+            }
+            if ( propertyType == double.class || propertyType == Double.class )
+            {
+                return Double::valueOf;
+            }
+            if ( propertyType == boolean.class || propertyType == Boolean.class )
+            {
+                return BuilderW3c::parseBoolean;
+            }
+            if ( propertyType.isEnum() )
+            {
+                final Object[] enumConstants = propertyType.getEnumConstants();
+                final Map<String, Object> constants = new HashMap<>( enumConstants.length * 2 );
+                for ( final Object constant : enumConstants )
+                {
+                    constants.put( ( ( Enum<?> ) constant ).name(), constant );
+                }
+                return value ->
+                {
+                    final Object constant = constants.get( value );
+                    if ( constant == null )
+                    {
+                        throw new IllegalArgumentException( "no constant " + value + " in " + propertyType.getName() );
+                    }
+                    return constant;
+                };
+            }
+            return null;
+        }
+
+        private static Object parseBoolean( final String value )
+        {
+            if ( "true".equals( value ) )
+            {
+                return Boolean.TRUE;
+            }
+            if ( "false".equals( value ) )
+            {
+                return Boolean.FALSE;
+            }
+            throw new IllegalArgumentException( "not a boolean value" );
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import org.w3c.dom.DOMImplementation;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentFragment;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Internal helper to deep copy large w3c node trees using a {@link ForkJoinPool}.
+ *
+ * <p>The copy is done in three phases:</p>
+ * <ol>
+ *     <li>While holding the source lock, the source tree is walked once to force any deferred node expansion
+ *     of the w3c implementation, so that the source can afterwards be safely read by several threads.  The walk
+ *     also records subtree sizes used to plan the copy.  The upper levels of the tree are then copied into the
+ *     target document as a skeleton, with a placeholder for each batch of independent sibling subtrees.</li>
+ *     <li>Still holding the source lock, each batch is imported by a fork-join worker into its own private document,
+ *     so no w3c document is ever modified by more than one thread.</li>
+ *     <li>After the source lock is released, the batches are adopted into the target document and replace
+ *     their placeholders.</li>
+ * </ol>
+ */
+final class XmlParallelCopyW3c
+{
+    /**
+     * Trees with fewer nodes than this value are copied using a single threaded clone.
+     */
+    private static final int MIN_PARALLEL_NODE_COUNT = 10_000;
+
+    /**
+     * Minimum number of nodes assigned to a single batch.
+     */
+    private static final int MIN_BATCH_NODE_COUNT = 1_000;
+
+    /**
+     * Elements with a subtree smaller than this value do not have their size recorded, limiting the
+     * memory used by the copy plan.
+     */
+    private static final int MIN_RECORDED_SIZE = 32;
+
+    /**
+     * Size estimate for elements whose subtree size was not recorded.
+     */
+    private static final int UNRECORDED_SIZE_ESTIMATE = MIN_RECORDED_SIZE / 2;
+
+    /**
+     * Recorded subtree sizes of larger elements.
+     */
+    private final Map<Node, Integer> subtreeSizes = new IdentityHashMap<>();
+
+    /**
+     * Batches of source nodes, each of which is copied by a separate task.
+     */
+    private final List<CopyBatch> batches = new ArrayList<>();
+
+    /**
+     * Document that receives the copied nodes.
+     */
+    private final Document targetDocument;
+
+    /**
+     * Pool used to execute the copy tasks.
+     */
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * Approximate count of nodes copied by each task.
+     */
+    private int targetBatchSize;
+
+    private XmlParallelCopyW3c( final Document targetDocument, final ForkJoinPool forkJoinPool )
+    {
+        this.targetDocument = targetDocument;
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    static Document copyDocument( final Document sourceDocument, final Lock sourceLock, final ForkJoinPool forkJoinPool )
+    {
+        final XmlParallelCopyW3c parallelCopy;
+        List<ForkJoinTask<DocumentFragment>> copyTasks = Collections.emptyList();
+
+        sourceLock.lock();
+        try
+        {
+            final Element sourceRoot = sourceDocument.getDocumentElement();
+            if ( sourceRoot == null )
+            {
+                return ( Document ) sourceDocument.cloneNode( true );
+            }
+
+            final Document targetDocument = sourceDocument.getImplementation().createDocument( null, null, null );
+            parallelCopy = new XmlParallelCopyW3c( targetDocument, forkJoinPool );
+
+            final int nodeCount = parallelCopy.expand( sourceRoot );
+            if ( nodeCount < MIN_PARALLEL_NODE_COUNT )
+            {
+                return ( Document ) sourceDocument.cloneNode( true );
+            }
+
+            targetDocument.setXmlStandalone( sourceDocument.getXmlStandalone() );
+            targetDocument.setXmlVersion( sourceDocument.getXmlVersion() );
+
+            for ( Node child = sourceDocument.getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                if ( child == sourceRoot )
+                {
+                    final Node targetRoot = targetDocument.importNode( sourceRoot, false );
+                    targetDocument.appendChild( targetRoot );
+                    copyTasks = parallelCopy.planAndCopy( sourceRoot, targetRoot, nodeCount );
+                }
+                else if ( child.getNodeType() != Node.DOCUMENT_TYPE_NODE )
+                {
+                    targetDocument.appendChild( targetDocument.importNode( child, true ) );
+                }
+            }
+        }
+        finally
+        {
+            sourceLock.unlock();
+        }
+
+        parallelCopy.stitch( copyTasks );
+        return parallelCopy.targetDocument;
+    }
+
+    static Element copyElement( final Element sourceElement, final Lock sourceLock, final ForkJoinPool forkJoinPool )
+    {
+        final XmlParallelCopyW3c parallelCopy;
+        final Element targetElement;
+        final List<ForkJoinTask<DocumentFragment>> copyTasks;
+
+        sourceLock.lock();
+        try
+        {
+            final Document targetDocument = sourceElement.getOwnerDocument().getImplementation().createDocument( null, null, null );
+            parallelCopy = new XmlParallelCopyW3c( targetDocument, forkJoinPool );
+
+            final int nodeCount = parallelCopy.expand( sourceElement );
+            if ( nodeCount < MIN_PARALLEL_NODE_COUNT )
+            {
+                return ( Element ) targetDocument.importNode( sourceElement, true );
+            }
+
+            targetElement = ( Element ) targetDocument.importNode( sourceElement, false );
+            copyTasks = parallelCopy.planAndCopy( sourceElement, targetElement, nodeCount );
+        }
+        finally
+        {
+            sourceLock.unlock();
+        }
+
+        parallelCopy.stitch( copyTasks );
+        return targetElement;
+    }
+
+    /**
+     * Walk the entire subtree once, forcing expansion of any deferred w3c nodes and recording subtree sizes.
+     * @param node subtree root
+     * @return count of nodes in the subtree, including attributes.
+     */
+    @SuppressFBWarnings( "RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT" )
+    // RV_RETURN_VALUE_IGNORED_NO_SIDE_EFFECT reading node values has the side effect of expanding deferred nodes
+    private int expand( final Node node )
+    {
+        int count = 1;
+
+        if ( node.getNodeType() == Node.ELEMENT_NODE )
+        {
+            final NamedNodeMap attributes = node.getAttributes();
+            final int length = attributes.getLength();
+            for ( int i = 0; i < length; i++ )
+            {
+                attributes.item( i ).getNodeValue();
+            }
+            count += length;
+
+            for ( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() )
+            {
+                count += expand( child );
+            }
+
+            if ( count >= MIN_RECORDED_SIZE )
+            {
+                subtreeSizes.put( node, count );
+            }
+        }
+        else
+        {
+            node.getNodeValue();
+        }
+
+        return count;
+    }
+
+    private List<ForkJoinTask<DocumentFragment>> planAndCopy( final Node sourceParent, final Node targetParent, final int nodeCount )
+    {
+        targetBatchSize = Math.max( MIN_BATCH_NODE_COUNT, nodeCount / ( forkJoinPool.getParallelism() * 4 ) );
+        plan( sourceParent, targetParent );
+
+        final DOMImplementation domImplementation = targetDocument.getImplementation();
+        final List<ForkJoinTask<DocumentFragment>> copyTasks = new ArrayList<>( batches.size() );
+        for ( final CopyBatch batch : batches )
+        {
+            copyTasks.add( ForkJoinTask.adapt( () -> batch.copy( domImplementation ) ) );
+        }
+        forkJoinPool.invoke( ForkJoinTask.adapt( () -> ForkJoinTask.invokeAll( copyTasks ) ) );
+        return copyTasks;
+    }
+
+    private void plan( final Node sourceParent, final Node targetParent )
+    {
+        CopyBatch currentBatch = null;
+
+        for ( Node child = sourceParent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            final Integer recordedSize = subtreeSizes.get( child );
+            if ( recordedSize != null && recordedSize > targetBatchSize )
+            {
+                // subtree is too large for a single batch, so copy the element itself and plan its children.
+                currentBatch = null;
+                final Node targetChild = targetDocument.importNode( child, false );
+                targetParent.appendChild( targetChild );
+                plan( child, targetChild );
+            }
+            else
+            {
+                if ( currentBatch == null || currentBatch.getNodeCount() >= targetBatchSize )
+                {
+                    final Node placeholder = targetDocument.createComment( "" );
+                    targetParent.appendChild( placeholder );
+                    currentBatch = new CopyBatch( placeholder );
+                    batches.add( currentBatch );
+                }
+
+                currentBatch.add( child, recordedSize == null ? UNRECORDED_SIZE_ESTIMATE : recordedSize );
+            }
+        }
+    }
+
+    private void stitch( final List<ForkJoinTask<DocumentFragment>> copyTasks )
+    {
+        for ( int i = 0; i < batches.size(); i++ )
+        {
+            final CopyBatch batch = batches.get( i );
+            final Node adoptedFragment = targetDocument.adoptNode( copyTasks.get( i ).join() );
+            final Node placeholder = batch.getPlaceholder();
+            placeholder.getParentNode().replaceChild( adoptedFragment, placeholder );
+        }
+    }
+
+    private static final class CopyBatch
+    {
+        /**
+         * Consecutive source sibling nodes copied by this batch.
+         */
+        private final List<Node> sourceNodes = new ArrayList<>();
+
+        /**
+         * Placeholder in the target document that is replaced by the copied nodes.
+         */
+        private final Node placeholder;
+
+        /**
+         * Approximate count of nodes in this batch.
+         */
+        private int nodeCount;
+
+        CopyBatch( final Node placeholder )
+        {
+            this.placeholder = placeholder;
+        }
+
+        void add( final Node sourceNode, final int sourceNodeCount )
+        {
+            sourceNodes.add( sourceNode );
+            nodeCount += sourceNodeCount;
+        }
+
+        int getNodeCount()
+        {
+            return nodeCount;
+        }
+
+        Node getPlaceholder()
+        {
+            return placeholder;
+        }
+
+        /**
+         * Import the source nodes of this batch into a new private document.
+         * @param domImplementation implementation used to create the private document.
+         * @return a fragment containing the copied nodes, owned by the private document.
+         */
+        DocumentFragment copy( final DOMImplementation domImplementation )
+        {
+            final Document privateDocument = domImplementation.createDocument( null, null, null );
+            final DocumentFragment fragment = privateDocument.createDocumentFragment();
+            for ( final Node sourceNode : sourceNodes )
+            {
+                fragment.appendChild( privateDocument.importNode( sourceNode, true ) );
+            }
+            return fragment;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cache of compiled W3C XML schemas.  Compiled {@link Schema}s are immutable and thread-safe, so a single instance
+ * per schema location is shared by all parses.
+ */
+final class XmlSchemaCacheW3c
+{
+    /**
+     * Error handler that fails the parse on any validation or parsing error, and ignores warnings.
+     */
+    static final ErrorHandler FAILING_ERROR_HANDLER = new ErrorHandler()
+    {
+        @Override
+        public void warning( final SAXParseException exception )
+        {
+        }
+
+        @Override
+        public void error( final SAXParseException exception )
+                throws SAXException
+        {
+            throw exception;
+        }
+
+        @Override
+        public void fatalError( final SAXParseException exception )
+                throws SAXException
+        {
+            throw exception;
+        }
+    };
+
+    /**
+     * Maximum number of compiled schemas retained in {@link #SCHEMAS}.
+     */
+    private static final int MAX_CACHE_SIZE = 100;
+
+    /**
+     * Compiled schema per schema location, in access order so the least recently used schema is evicted once
+     * {@link #MAX_CACHE_SIZE} is exceeded.
+     */
+    private static final Map<String, Schema> SCHEMAS = new LinkedHashMap<String, Schema>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( final Map.Entry<String, Schema> eldest )
+        {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Guards {@link #SCHEMAS}, an access ordered map is modified by every lookup.  Not held while compiling.
+     */
+    private static final Lock SCHEMAS_LOCK = new ReentrantLock();
+
+    private XmlSchemaCacheW3c()
+    {
+    }
+
+    /**
+     * Get the compiled schema at a location, compiling it on first use.
+     * @param schemaLocation location of a W3C XML schema document.
+     * @return the compiled schema.
+     * @throws IOException if the schema can not be read or is not valid.
+     */
+    static Schema forLocation( final URL schemaLocation )
+            throws IOException
+    {
+        final String key = schemaLocation.toExternalForm();
+        SCHEMAS_LOCK.lock();
+        try
+        {
+            final Schema schema = SCHEMAS.get( key );
+            if ( schema != null )
+            {
+                return schema;
+            }
+        }
+        finally
+        {
+            SCHEMAS_LOCK.unlock();
+        }
+
+        // concurrent first uses may each compile the schema; the first one cached is kept
+        final Schema compiled = compile( schemaLocation );
+        SCHEMAS_LOCK.lock();
+        try
+        {
+            final Schema cached = SCHEMAS.putIfAbsent( key, compiled );
+            return cached == null ? compiled : cached;
+        }
+        finally
+        {
+            SCHEMAS_LOCK.unlock();
+        }
+    }
+
+    private static Schema compile( final URL schemaLocation )
+            throws IOException
+    {
+        try
+        {
+            final SchemaFactory schemaFactory = SchemaFactory.newInstance( XMLConstants.W3C_XML_SCHEMA_NS_URI );
+            schemaFactory.setFeature( XMLConstants.FEATURE_SECURE_PROCESSING, true );
+            schemaFactory.setProperty( XMLConstants.ACCESS_EXTERNAL_DTD, "" );
+            schemaFactory.setProperty( XMLConstants.ACCESS_EXTERNAL_SCHEMA, schemaLocation.getProtocol() );
+            schemaFactory.setErrorHandler( FAILING_ERROR_HANDLER );
+            return schemaFactory.newSchema( schemaLocation );
+        }
+        catch ( final SAXException e )
+        {
+            throw new IOException( "error compiling xml schema " + schemaLocation + ": " + e.getMessage(), e );
+        }
+    }
+}
@@ -0,0 +1,560 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Objects;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * {@link XmlWriter} implementation writing directly to an {@link XmlUtf8Output}.  Only the names of the
+ * currently open elements are retained.
+ */
+class XmlStreamingWriter implements XmlWriter
+{
+    /**
+     * Indentation used per element depth when pretty printing.
+     */
+    private static final String INDENT = "    ";
+
+    /**
+     * The output destination.
+     */
+    private final XmlUtf8Output output;
+
+    /**
+     * True if elements are indented, false for compact output.
+     */
+    private final boolean pretty;
+
+    /**
+     * Currently open elements, innermost first.
+     */
+    private final Deque<OpenElement> openElements = new ArrayDeque<>();
+
+    /**
+     * True while the start tag of the innermost open element is not yet terminated, so attributes may be added.
+     */
+    private boolean startTagOpen;
+
+    /**
+     * True until the first top level markup is written, if no XML declaration was written before it.
+     */
+    private boolean atFragmentStart;
+
+    /**
+     * True once the root element has been ended.
+     */
+    private boolean rootEnded;
+
+    /**
+     * True once this writer has been closed.
+     */
+    private boolean closed;
+
+    XmlStreamingWriter( final OutputStream outputStream, final boolean pretty, final boolean fragment )
+            throws IOException
+    {
+        this.output = new XmlUtf8Output( outputStream );
+        this.pretty = pretty;
+        this.atFragmentStart = fragment;
+        if ( !fragment )
+        {
+            output.writeRaw( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>" );
+        }
+    }
+
+    @Override
+    public XmlWriter startElement( final String elementName )
+            throws IOException
+    {
+        checkName( elementName );
+        checkOpen();
+        if ( rootEnded )
+        {
+            throw new IllegalStateException( "root element has already been ended" );
+        }
+
+        beginChildMarkup();
+        output.writeAscii( '<' );
+        output.writeRaw( elementName );
+        openElements.push( new OpenElement( elementName ) );
+        startTagOpen = true;
+        return this;
+    }
+
+    @Override
+    public XmlWriter attribute( final String attributeName, final String value )
+            throws IOException
+    {
+        checkName( attributeName );
+        Objects.requireNonNull( value );
+        checkOpen();
+        if ( !startTagOpen )
+        {
+            throw new IllegalStateException( "attributes must be written immediately after startElement" );
+        }
+
+        writeAttribute( attributeName, () -> output.writeEscapedAttribute( value ) );
+        return this;
+    }
+
+    /**
+     * Write an attribute of the open start tag.
+     * @param attributeName name of the attribute, which is written unescaped.
+     * @param valueWriter writer of the escaped value.
+     * @throws IOException if the underlying stream fails.
+     */
+    private void writeAttribute( final String attributeName, final ValueWriter valueWriter )
+            throws IOException
+    {
+        output.writeAscii( ' ' );
+        output.writeRaw( attributeName );
+        output.writeAscii( '=' );
+        output.writeAscii( '"' );
+        valueWriter.write();
+        output.writeAscii( '"' );
+    }
+
+    @Override
+    public XmlWriter text( final String text )
+            throws IOException
+    {
+        Objects.requireNonNull( text );
+        final OpenElement current = currentElement();
+
+        closeStartTag();
+        current.markText();
+        output.writeEscapedText( text );
+        return this;
+    }
+
+    @Override
+    public XmlWriter comment( final String comment )
+            throws IOException
+    {
+        Objects.requireNonNull( comment );
+        checkOpen();
+        if ( comment.contains( "--" ) || comment.endsWith( "-" ) )
+        {
+            throw new IllegalArgumentException( "comment may not contain '--' or end with '-'" );
+        }
+
+        beginChildMarkup();
+        output.writeRaw( "<!--" );
+        output.writeRaw( comment );
+        output.writeRaw( "-->" );
+        return this;
+    }
+
+    @Override
+    public XmlWriter endElement()
+            throws IOException
+    {
+        final OpenElement current = currentElement();
+        openElements.pop();
+
+        if ( startTagOpen )
+        {
+            output.writeAscii( '/' );
+            output.writeAscii( '>' );
+            startTagOpen = false;
+        }
+        else
+        {
+            if ( current.hasChildMarkup() && !current.hasText() )
+            {
+                writeIndent( openElements.size() );
+            }
+            output.writeAscii( '<' );
+            output.writeAscii( '/' );
+            output.writeRaw( current.getName() );
+            output.writeAscii( '>' );
+        }
+
+        if ( openElements.isEmpty() )
+        {
+            rootEnded = true;
+        }
+        return this;
+    }
+
+    @Override
+    public XmlWriter element( final XmlElement element )
+            throws IOException
+    {
+        Objects.requireNonNull( element );
+        checkOpen();
+        if ( rootEnded )
+        {
+            throw new IllegalStateException( "root element has already been ended" );
+        }
+
+        if ( element instanceof XmlCompactElement )
+        {
+            writeCompactElement( ( XmlCompactElement ) element );
+            return this;
+        }
+        if ( !( element instanceof XmlElementW3c ) )
+        {
+            throw new IllegalArgumentException( "element is not an element of XmlFactory: " + element.getClass().getName() );
+        }
+
+        // the subtree is copied under the lock and written after it is released, as writing may block on the stream
+        final XmlElementW3c xmlElementW3c = ( XmlElementW3c ) element;
+        final Node snapshot;
+        final Lock lock = xmlElementW3c.getLock();
+        lock.lock();
+        try
+        {
+            snapshot = xmlElementW3c.getW3cElement().cloneNode( true );
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        writeNode( snapshot );
+        return this;
+    }
+
+    @Override
+    public void flush()
+            throws IOException
+    {
+        output.flush();
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        while ( !openElements.isEmpty() )
+        {
+            endElement();
+        }
+        output.flush();
+        closed = true;
+    }
+
+    /**
+     * Write an element of a compact document, which is immutable and needs no snapshot.  Elements are visited in
+     * document order, so the subtree is written without recursion.  The text of each element is written before its
+     * child elements.  Text and attribute values are escaped from the UTF-8 bytes of the store, without decoding them.
+     * @param element the element.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    private void writeCompactElement( final XmlCompactElement element )
+            throws IOException
+    {
+        final XmlCompactStore store = element.getStore();
+        final int first = element.getElement();
+        final int lastDescendant = store.getLastDescendant( first );
+        final Deque<Integer> ancestors = new ArrayDeque<>();
+        for ( int current = first; current <= lastDescendant; current++ )
+        {
+            while ( !ancestors.isEmpty() && ancestors.peek() != store.getParent( current ) )
+            {
+                ancestors.pop();
+                endElement();
+            }
+
+            startElement( store.getName( current ) );
+            final int attributeCount = store.getAttributeCount( current );
+            for ( int i = 0; i < attributeCount; i++ )
+            {
+                final int owner = current;
+                final int index = i;
+                writeAttribute( store.getAttributeName( current, i ), () -> store.writeAttributeValue( owner, index, output ) );
+            }
+            if ( store.hasText( current ) )
+            {
+                closeStartTag();
+                currentElement().markText();
+                store.writeText( current, output );
+            }
+            ancestors.push( current );
+        }
+        while ( !ancestors.isEmpty() )
+        {
+            ancestors.pop();
+            endElement();
+        }
+    }
+
+    private void writeNode( final Node node )
+            throws IOException
+    {
+        switch ( node.getNodeType() )
+        {
+            case Node.ELEMENT_NODE:
+                startElement( node.getNodeName() );
+                final NamedNodeMap attributes = node.getAttributes();
+                for ( int i = 0; i < attributes.getLength(); i++ )
+                {
+                    final Attr attr = ( Attr ) attributes.item( i );
+                    attribute( attr.getName(), attr.getValue() );
+                }
+                writeChildren( node );
+                endElement();
+                break;
+
+            case Node.TEXT_NODE:
+                if ( !pretty || !isFormattingWhitespace( node ) )
+                {
+                    text( node.getNodeValue() );
+                }
+                break;
+
+            case Node.CDATA_SECTION_NODE:
+                writeCdata( node.getNodeValue() );
+                break;
+
+            case Node.COMMENT_NODE:
+                comment( node.getNodeValue() );
+                break;
+
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                beginChildMarkup();
+                output.writeRaw( "<?" );
+                output.writeRaw( ( ( ProcessingInstruction ) node ).getTarget() );
+                output.writeAscii( ' ' );
+                output.writeRaw( ( ( ProcessingInstruction ) node ).getData() );
+                output.writeRaw( "?>" );
+                break;
+
+            case Node.ENTITY_REFERENCE_NODE:
+                writeChildren( node );
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private void writeChildren( final Node parent )
+            throws IOException
+    {
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            writeNode( child );
+        }
+    }
+
+    private void writeCdata( final String value )
+            throws IOException
+    {
+        final OpenElement current = currentElement();
+        closeStartTag();
+        current.markText();
+
+        output.writeRaw( "<![CDATA[" );
+        output.writeRaw( value.replace( "]]>", "]]]]><![CDATA[>" ) );
+        output.writeRaw( "]]>" );
+    }
+
+    /**
+     * Test if a text node only contains whitespace used to format its parent's child elements.
+     * @param textNode the text node.
+     * @return true if the text is whitespace and the parent has element children.
+     */
+    private static boolean isFormattingWhitespace( final Node textNode )
+    {
+        if ( !textNode.getNodeValue().trim().isEmpty() )
+        {
+            return false;
+        }
+
+        for ( Node sibling = textNode.getParentNode().getFirstChild(); sibling != null; sibling = sibling.getNextSibling() )
+        {
+            if ( sibling.getNodeType() == Node.ELEMENT_NODE )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Prepare to write an element, comment or processing instruction as a child of the current element,
+     * or at the top level of the document.
+     */
+    private void beginChildMarkup()
+            throws IOException
+    {
+        closeStartTag();
+
+        final OpenElement parent = openElements.peek();
+        if ( parent == null )
+        {
+            if ( atFragmentStart )
+            {
+                atFragmentStart = false;
+            }
+            else
+            {
+                writeIndent( 0 );
+            }
+        }
+        else
+        {
+            parent.markChildMarkup();
+            if ( !parent.hasText() )
+            {
+                writeIndent( openElements.size() );
+            }
+        }
+    }
+
+    private void writeIndent( final int depth )
+            throws IOException
+    {
+        if ( pretty )
+        {
+            output.writeAscii( '\n' );
+            for ( int i = 0; i < depth; i++ )
+            {
+                output.writeRaw( INDENT );
+            }
+        }
+    }
+
+    private void closeStartTag()
+            throws IOException
+    {
+        if ( startTagOpen )
+        {
+            output.writeAscii( '>' );
+            startTagOpen = false;
+        }
+    }
+
+    private OpenElement currentElement()
+    {
+        checkOpen();
+        final OpenElement current = openElements.peek();
+        if ( current == null )
+        {
+            throw new IllegalStateException( "no element has been started" );
+        }
+        return current;
+    }
+
+    private void checkOpen()
+    {
+        if ( closed )
+        {
+            throw new IllegalStateException( "writer has been closed" );
+        }
+    }
+
+    private static void checkName( final String name )
+    {
+        Objects.requireNonNull( name );
+        if ( name.isEmpty() )
+        {
+            throw new IllegalArgumentException( "name may not be empty" );
+        }
+
+        for ( int i = 0; i < name.length(); i++ )
+        {
+            final char c = name.charAt( i );
+            final boolean valid = Character.isLetter( c ) || c == '_' || c == ':'
+                    || ( i > 0 && ( Character.isDigit( c ) || c == '-' || c == '.' ) );
+            if ( !valid )
+            {
+                throw new IllegalArgumentException( "invalid xml name '" + name + "'" );
+            }
+        }
+    }
+
+    /**
+     * Writer of an escaped attribute value to {@link #output}.
+     */
+    @FunctionalInterface
+    private interface ValueWriter
+    {
+        void write()
+                throws IOException;
+    }
+
+    /**
+     * State of an element that has been started but not yet ended.
+     */
+    private static final class OpenElement
+    {
+        /**
+         * Name of the element.
+         */
+        private final String name;
+
+        /**
+         * True if a child element, comment or processing instruction has been written.
+         */
+        private boolean hasChildMarkup;
+
+        /**
+         * True if text content has been written, in which case no indentation is added to the content.
+         */
+        private boolean hasText;
+
+        OpenElement( final String name )
+        {
+            this.name = name;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        boolean hasChildMarkup()
+        {
+            return hasChildMarkup;
+        }
+
+        void markChildMarkup()
+        {
+            hasChildMarkup = true;
+        }
+
+        boolean hasText()
+        {
+            return hasText;
+        }
+
+        void markText()
+        {
+            hasText = true;
+        }
+    }
+}
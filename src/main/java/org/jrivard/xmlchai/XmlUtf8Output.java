@@ -0,0 +1,468 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Internal buffered writer of UTF-8 encoded XML markup.  Characters are encoded directly into a fixed size
+ * byte buffer, so memory use does not depend on the amount of data written.  Instances are not thread-safe.
+ */
+final class XmlUtf8Output
+{
+    /**
+     * Size of the output buffer.
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Maximum number of bytes a single character escape or encoding may use.
+     */
+    private static final int MAX_CHAR_BYTES = 16;
+
+    /**
+     * A word with each byte set to one.
+     */
+    private static final long ONES = 0x0101_0101_0101_0101L;
+
+    /**
+     * A word with the high bit of each byte set.
+     */
+    private static final long HIGH_BITS = ONES << 7;
+
+    /**
+     * Escapes of raw output, where no character is escaped.
+     */
+    private static final String[] RAW_ESCAPES = new String[0x80];
+
+    /**
+     * Escapes of element text.
+     */
+    private static final String[] TEXT_ESCAPES = newEscapes( false, false );
+
+    /**
+     * Escapes of attribute values.
+     */
+    private static final String[] ATTRIBUTE_ESCAPES = newEscapes( true, false );
+
+    /**
+     * Escapes of element text in Canonical XML.
+     */
+    private static final String[] CANONICAL_TEXT_ESCAPES = newEscapes( false, true );
+
+    /**
+     * Escapes of attribute values in Canonical XML.
+     */
+    private static final String[] CANONICAL_ATTRIBUTE_ESCAPES = newEscapes( true, true );
+
+    /**
+     * The destination stream.
+     */
+    private final OutputStream outputStream;
+
+    /**
+     * Bytes not yet written to {@link #outputStream}.
+     */
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * Count of bytes used in {@link #buffer}.
+     */
+    private int position;
+
+    XmlUtf8Output( final OutputStream outputStream )
+    {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Build the escapes of the ASCII characters, indexed by character.  A null escape writes the character as is, and
+     * an empty escape marks a character that can not be represented in XML.
+     * @param attribute true for escapes of attribute values, false for element text.
+     * @param canonical true for the escapes required by Canonical XML.
+     * @return the escapes.
+     */
+    private static String[] newEscapes( final boolean attribute, final boolean canonical )
+    {
+        final String[] escapes = new String[0x80];
+        for ( int c = 0; c < 0x20; c++ )
+        {
+            escapes[c] = "";
+        }
+        escapes['\t'] = attribute ? ( canonical ? "&#x9;" : "&#9;" ) : null;
+        escapes['\n'] = attribute ? ( canonical ? "&#xA;" : "&#10;" ) : null;
+        escapes['\r'] = canonical ? "&#xD;" : "&#13;";
+        escapes['&'] = "&amp;";
+        escapes['<'] = "&lt;";
+        escapes['>'] = attribute && canonical ? null : "&gt;";
+        escapes['"'] = attribute ? "&quot;" : null;
+        return escapes;
+    }
+
+    /**
+     * Write a value that is known to be valid markup, such as an element name, without escaping.
+     * @param value value to write.
+     * @throws IOException if the underlying stream fails.
+     */
+    void writeRaw( final String value )
+            throws IOException
+    {
+        writeEscaped( value, RAW_ESCAPES );
+    }
+
+    /**
+     * Write a single ASCII character.
+     * @param c character to write.
+     * @throws IOException if the underlying stream fails.
+     */
+    void writeAscii( final char c )
+            throws IOException
+    {
+        ensureCapacity();
+        buffer[position++] = ( byte ) c;
+    }
+
+    /**
+     * Write element text content, escaping markup characters.
+     * @param value text to write.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if {@code value} contains characters that can not be represented in XML.
+     */
+    void writeEscapedText( final String value )
+            throws IOException
+    {
+        writeEscaped( value, TEXT_ESCAPES );
+    }
+
+    /**
+     * Write an attribute value, escaping markup and whitespace characters.  The value is expected to be enclosed
+     * in double quotes.
+     * @param value attribute value to write.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if {@code value} contains characters that can not be represented in XML.
+     */
+    void writeEscapedAttribute( final String value )
+            throws IOException
+    {
+        writeEscaped( value, ATTRIBUTE_ESCAPES );
+    }
+
+    /**
+     * Write UTF-8 encoded element text content, escaping markup characters.
+     * @param source buffer holding the text; its position and limit are not changed.
+     * @param index index of the first byte of the text.
+     * @param length count of bytes of the text.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if the text contains characters that can not be represented in XML.
+     */
+    void writeEscapedText( final ByteBuffer source, final int index, final int length )
+            throws IOException
+    {
+        writeEscaped( source, index, length, TEXT_ESCAPES );
+    }
+
+    /**
+     * Write a UTF-8 encoded attribute value, escaping markup and whitespace characters.  The value is expected to be
+     * enclosed in double quotes.
+     * @param source buffer holding the value; its position and limit are not changed.
+     * @param index index of the first byte of the value.
+     * @param length count of bytes of the value.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if the value contains characters that can not be represented in XML.
+     */
+    void writeEscapedAttribute( final ByteBuffer source, final int index, final int length )
+            throws IOException
+    {
+        writeEscaped( source, index, length, ATTRIBUTE_ESCAPES );
+    }
+
+    /**
+     * Write element text content escaped as required by Canonical XML.
+     * @param value text to write.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if {@code value} contains characters that can not be represented in XML.
+     */
+    void writeCanonicalText( final String value )
+            throws IOException
+    {
+        writeEscaped( value, CANONICAL_TEXT_ESCAPES );
+    }
+
+    /**
+     * Write an attribute value escaped as required by Canonical XML.  The value is expected to be enclosed in double
+     * quotes.
+     * @param value attribute value to write.
+     * @throws IOException if the underlying stream fails.
+     * @throws IllegalArgumentException if {@code value} contains characters that can not be represented in XML.
+     */
+    void writeCanonicalAttribute( final String value )
+            throws IOException
+    {
+        writeEscaped( value, CANONICAL_ATTRIBUTE_ESCAPES );
+    }
+
+    void flush()
+            throws IOException
+    {
+        flushBuffer();
+        outputStream.flush();
+    }
+
+    /**
+     * Write any buffered bytes to the underlying stream without flushing the stream itself.
+     * @throws IOException if the underlying stream fails.
+     */
+    void flushBuffer()
+            throws IOException
+    {
+        if ( position > 0 )
+        {
+            outputStream.write( buffer, 0, position );
+            position = 0;
+        }
+    }
+
+    /**
+     * Write a value, copying runs of characters that need no escape directly into the buffer.  Runs are bounded so
+     * that each character of a run may encode to two bytes, which avoids a capacity check per character.
+     * @param value value to write.
+     * @param escapes escape of each ASCII character, see {@link #newEscapes(boolean, boolean)}.
+     * @throws IOException if the underlying stream fails.
+     */
+    private void writeEscaped( final String value, final String[] escapes )
+            throws IOException
+    {
+        final int length = value.length();
+        int index = 0;
+        while ( index < length )
+        {
+            final int end = Math.min( length, index + ( ( BUFFER_SIZE - MAX_CHAR_BYTES - position ) >> 1 ) );
+            int written = position;
+            while ( index < end )
+            {
+                final char c = value.charAt( index );
+                if ( c < 0x80 )
+                {
+                    if ( escapes[c] != null )
+                    {
+                        break;
+                    }
+                    buffer[written++] = ( byte ) c;
+                }
+                else if ( c < 0x800 )
+                {
+                    buffer[written++] = ( byte ) ( 0xC0 | ( c >> 6 ) );
+                    buffer[written++] = ( byte ) ( 0x80 | ( c & 0x3F ) );
+                }
+                else
+                {
+                    break;
+                }
+                index++;
+            }
+            position = written;
+
+            if ( index < end )
+            {
+                final char c = value.charAt( index );
+                if ( c < 0x80 )
+                {
+                    writeEscape( c, escapes );
+                    index++;
+                }
+                else
+                {
+                    index += writeEncoded( value, index );
+                }
+            }
+            else if ( index < length )
+            {
+                flushBuffer();
+            }
+        }
+    }
+
+    /**
+     * Write UTF-8 encoded bytes, copying runs of bytes that need no escape in bulk.  Runs are found eight bytes at a
+     * time using {@link #mayNeedEscape(long)}, so only blocks containing markup or control characters are examined a
+     * byte at a time.  Bytes of multi-byte characters never need an escape, and are copied as is.
+     * @param source buffer holding the bytes; its position and limit are not changed.
+     * @param index index of the first byte to write.
+     * @param length count of bytes to write.
+     * @param escapes escape of each ASCII character, see {@link #newEscapes(boolean, boolean)}.
+     * @throws IOException if the underlying stream fails.
+     */
+    private void writeEscaped( final ByteBuffer source, final int index, final int length, final String[] escapes )
+            throws IOException
+    {
+        final int end = index + length;
+        int runStart = index;
+        int current = index;
+        while ( current < end )
+        {
+            if ( current + Long.BYTES <= end && !mayNeedEscape( source.getLong( current ) ) )
+            {
+                current += Long.BYTES;
+                continue;
+            }
+
+            final int b = source.get( current ) & 0xFF;
+            if ( b < 0x80 && escapes[b] != null )
+            {
+                writeBytes( source, runStart, current - runStart );
+                ensureCapacity();
+                writeEscape( b, escapes );
+                runStart = current + 1;
+            }
+            current++;
+        }
+        writeBytes( source, runStart, end - runStart );
+    }
+
+    /**
+     * Test if any byte of a word is a control character or one of {@code & < > "}.  The test has no false negatives,
+     * never returning false for a word with such a byte, but is not exact, as borrows of the subtractions propagate
+     * into the bytes above a matching byte, so the bytes of a word it is true for are examined one at a time.
+     * @param word eight bytes, in any byte order.
+     * @return true if any byte may need an escape.
+     */
+    private static boolean mayNeedEscape( final long word )
+    {
+        final long controls = ( word - ONES * 0x20 ) & ~word;
+        return ( ( controls | zeroBytes( word ^ ONES * '&' ) | zeroBytes( word ^ ONES * '<' ) | zeroBytes( word ^ ONES * '>' )
+                | zeroBytes( word ^ ONES * '"' ) ) & HIGH_BITS ) != 0;
+    }
+
+    /**
+     * Find the zero bytes of a word.  The high bit of each byte of the result is set if the byte is zero, and the high
+     * bits of bytes above a zero byte may also be set.
+     * @param word eight bytes.
+     * @return nonzero high bits if any byte is zero.
+     */
+    private static long zeroBytes( final long word )
+    {
+        return ( word - ONES ) & ~word;
+    }
+
+    private void writeBytes( final ByteBuffer source, final int index, final int length )
+            throws IOException
+    {
+        int copied = 0;
+        while ( copied < length )
+        {
+            if ( position == BUFFER_SIZE )
+            {
+                flushBuffer();
+            }
+            final int count = Math.min( length - copied, BUFFER_SIZE - position );
+            XmlPlatform.getBytes( source, index + copied, buffer, position, count );
+            position += count;
+            copied += count;
+        }
+    }
+
+    /**
+     * Write the escape of an ASCII character.  The caller must ensure capacity.
+     * @param c the character.
+     * @param escapes escape of each ASCII character.
+     * @throws IllegalArgumentException if {@code c} can not be represented in XML.
+     */
+    private void writeEscape( final int c, final String[] escapes )
+    {
+        final String escape = escapes[c];
+        if ( escape == null )
+        {
+            buffer[position++] = ( byte ) c;
+        }
+        else if ( escape.isEmpty() )
+        {
+            throw new IllegalArgumentException( "character 0x" + Integer.toHexString( c ) + " can not be represented in xml" );
+        }
+        else
+        {
+            writeReference( escape );
+        }
+    }
+
+    private void writeReference( final String reference )
+    {
+        final int length = reference.length();
+        for ( int i = 0; i < length; i++ )
+        {
+            buffer[position++] = ( byte ) reference.charAt( i );
+        }
+    }
+
+    /**
+     * UTF-8 encode the non-ASCII character at {@code index}, which may be the first half of a surrogate pair.
+     * @param value the source string.
+     * @param index index of the character to encode.
+     * @return the count of characters consumed, 2 for a surrogate pair and otherwise 1.
+     * @throws IOException if the underlying stream fails.
+     */
+    private int writeEncoded( final String value, final int index )
+            throws IOException
+    {
+        ensureCapacity();
+        final char c = value.charAt( index );
+
+        if ( c < 0x800 )
+        {
+            buffer[position++] = ( byte ) ( 0xC0 | ( c >> 6 ) );
+            buffer[position++] = ( byte ) ( 0x80 | ( c & 0x3F ) );
+            return 1;
+        }
+
+        if ( Character.isSurrogate( c ) )
+        {
+            if ( !Character.isHighSurrogate( c ) || index + 1 >= value.length() || !Character.isLowSurrogate( value.charAt( index + 1 ) ) )
+            {
+                throw new IllegalArgumentException( "unpaired surrogate character at index " + index );
+            }
+            final int codePoint = Character.toCodePoint( c, value.charAt( index + 1 ) );
+            buffer[position++] = ( byte ) ( 0xF0 | ( codePoint >> 18 ) );
+            buffer[position++] = ( byte ) ( 0x80 | ( ( codePoint >> 12 ) & 0x3F ) );
+            buffer[position++] = ( byte ) ( 0x80 | ( ( codePoint >> 6 ) & 0x3F ) );
+            buffer[position++] = ( byte ) ( 0x80 | ( codePoint & 0x3F ) );
+            return 2;
+        }
+
+        if ( c == 0xFFFE || c == 0xFFFF )
+        {
+            throw new IllegalArgumentException( "character 0x" + Integer.toHexString( c ) + " can not be represented in xml" );
+        }
+
+        buffer[position++] = ( byte ) ( 0xE0 | ( c >> 12 ) );
+        buffer[position++] = ( byte ) ( 0x80 | ( ( c >> 6 ) & 0x3F ) );
+        buffer[position++] = ( byte ) ( 0x80 | ( c & 0x3F ) );
+        return 1;
+    }
+
+    private void ensureCapacity()
+            throws IOException
+    {
+        if ( position > BUFFER_SIZE - MAX_CHAR_BYTES )
+        {
+            flushBuffer();
+        }
+    }
+}
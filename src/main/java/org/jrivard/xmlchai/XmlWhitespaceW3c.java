@@ -0,0 +1,88 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Removes whitespace used only to format element content from a parsed w3c document.
+ */
+final class XmlWhitespaceW3c
+{
+    /**
+     * Attribute controlling whitespace handling as defined by the XML specification.
+     */
+    private static final String XML_SPACE_ATTRIBUTE = "xml:space";
+
+    private XmlWhitespaceW3c()
+    {
+    }
+
+    /**
+     * Remove whitespace-only text nodes that are siblings of at least one element.  Text within elements
+     * that have no element children is kept, as is all text in the scope of {@code xml:space="preserve"}.
+     * @param parent the subtree root.
+     */
+    static void strip( final Node parent )
+    {
+        boolean hasElementChild = false;
+        for ( Node child = parent.getFirstChild(); child != null; child = child.getNextSibling() )
+        {
+            if ( child.getNodeType() == Node.ELEMENT_NODE )
+            {
+                hasElementChild = true;
+                if ( !"preserve".equals( ( ( Element ) child ).getAttribute( XML_SPACE_ATTRIBUTE ) ) )
+                {
+                    strip( child );
+                }
+            }
+        }
+
+        if ( !hasElementChild )
+        {
+            return;
+        }
+
+        Node child = parent.getFirstChild();
+        while ( child != null )
+        {
+            final Node next = child.getNextSibling();
+            if ( child.getNodeType() == Node.TEXT_NODE && isWhitespace( child.getNodeValue() ) )
+            {
+                parent.removeChild( child );
+            }
+            child = next;
+        }
+    }
+
+    private static boolean isWhitespace( final String value )
+    {
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            final char c = value.charAt( i );
+            if ( c != ' ' && c != '\n' && c != '\t' && c != '\r' )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
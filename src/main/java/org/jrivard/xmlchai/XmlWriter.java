@@ -0,0 +1,128 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Forward-only writer of an XML document.  Markup is escaped and written as UTF-8 directly to the underlying
+ * output stream using a fixed size buffer, so documents of any size can be written without building an
+ * {@link XmlDocument}.  Use {@link XmlFactory#newWriter(java.io.OutputStream, XmlFactory.OutputFlag...)} to obtain
+ * an instance.
+ *
+ * <p><b>Example:</b></p>
+ * <pre>
+ * {@code try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream ) )}
+ * {@code {}
+ * {@code     writer.startElement( "PLANT" ).attribute( "id", "1" ).text( "Bloodroot" ).endElement();}
+ * {@code }}
+ * </pre>
+ *
+ * <p><code>XmlWriter</code> instances are not thread-safe.</p>
+ */
+public interface XmlWriter extends Closeable
+{
+    /**
+     * Start a new element.  The first element started is the document root element.
+     * @param elementName name of the element.
+     * @return this writer.
+     * @throws NullPointerException if {@code elementName} is null.
+     * @throws IllegalArgumentException if {@code elementName} is empty.
+     * @throws IllegalStateException if the root element has already been ended.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter startElement( String elementName )
+            throws IOException;
+
+    /**
+     * Add an attribute to the most recently started element.  Must be called before any content is
+     * written to the element.
+     * @param attributeName name of the attribute.
+     * @param value value of the attribute.
+     * @return this writer.
+     * @throws NullPointerException if {@code attributeName} or {@code value} is null.
+     * @throws IllegalArgumentException if {@code attributeName} is empty or {@code value} can not be represented in XML.
+     * @throws IllegalStateException if content has already been written to the current element.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter attribute( String attributeName, String value )
+            throws IOException;
+
+    /**
+     * Write text content to the current element.
+     * @param text the text content.
+     * @return this writer.
+     * @throws NullPointerException if {@code text} is null.
+     * @throws IllegalArgumentException if {@code text} can not be represented in XML.
+     * @throws IllegalStateException if there is no current element.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter text( String text )
+            throws IOException;
+
+    /**
+     * Write a comment.
+     * @param comment the comment text.
+     * @return this writer.
+     * @throws NullPointerException if {@code comment} is null.
+     * @throws IllegalArgumentException if {@code comment} contains {@code --} or ends with {@code -}.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter comment( String comment )
+            throws IOException;
+
+    /**
+     * End the current element.
+     * @return this writer.
+     * @throws IllegalStateException if there is no current element.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter endElement()
+            throws IOException;
+
+    /**
+     * Write a copy of an existing element, including all of its attributes and descendants.  If no element has
+     * been started, the copy becomes the document root element.
+     * @param element element to write.
+     * @return this writer.
+     * @throws NullPointerException if {@code element} is null.
+     * @throws IllegalStateException if the root element has already been ended.
+     * @throws IllegalArgumentException if {@code element} is not created by {@link XmlFactory}.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    XmlWriter element( XmlElement element )
+            throws IOException;
+
+    /**
+     * Flush any buffered output to the underlying stream.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    void flush()
+            throws IOException;
+
+    /**
+     * End any elements that are still open and flush the output.  The underlying output stream is not closed.
+     * @throws IOException if there is a failure writing to the stream.
+     */
+    @Override
+    void close()
+            throws IOException;
+}
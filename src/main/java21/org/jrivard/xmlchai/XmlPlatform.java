@@ -0,0 +1,70 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Operations whose best implementation depends on the Java release.  This is the Java 21 implementation, using the
+ * absolute bulk buffer operations so that no buffer view is allocated per call.
+ */
+final class XmlPlatform
+{
+    private XmlPlatform()
+    {
+    }
+
+    /**
+     * Copy bytes from a buffer without changing its position or limit.
+     * @param buffer the source buffer.
+     * @param index buffer index of the first byte to copy.
+     * @param bytes the destination array.
+     * @param offset array index of the first copied byte.
+     * @param length count of bytes to copy.
+     */
+    static void getBytes( final ByteBuffer buffer, final int index, final byte[] bytes, final int offset, final int length )
+    {
+        buffer.get( index, bytes, offset, length );
+    }
+
+    /**
+     * Copy bytes into a buffer without changing its position or limit.
+     * @param buffer the destination buffer.
+     * @param index buffer index of the first copied byte.
+     * @param bytes the source array.
+     * @param offset array index of the first byte to copy.
+     * @param length count of bytes to copy.
+     */
+    static void putBytes( final ByteBuffer buffer, final int index, final byte[] bytes, final int offset, final int length )
+    {
+        buffer.put( index, bytes, offset, length );
+    }
+
+    /**
+     * Allocate a direct buffer holding a copy of the first bytes of another buffer.
+     * @param buffer the source buffer.
+     * @param length count of bytes to copy.
+     * @return a new direct buffer with a capacity of {@code length}.
+     */
+    static ByteBuffer copyDirect( final ByteBuffer buffer, final int length )
+    {
+        return ByteBuffer.allocateDirect( length ).put( 0, buffer, 0, length );
+    }
+}
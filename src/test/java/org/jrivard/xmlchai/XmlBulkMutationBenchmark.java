@@ -0,0 +1,110 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of bulk child attach and removal at increasing child counts; time per child should remain
+ * constant as {@code size} grows.  Run using {@code mvn test-compile} followed by executing this class with the
+ * test classpath.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class XmlBulkMutationBenchmark
+{
+    @Param( {"1000", "10000", "100000"} )
+    private int size;
+
+    private XmlDocument emptyDocument;
+
+    private XmlDocument populatedDocument;
+
+    private List<XmlElement> elements;
+
+    @Setup( Level.Invocation )
+    public void setup()
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        elements = new ArrayList<>( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            final XmlElement element = xmlFactory.newElement( "item", XmlFactory.ElementFlag.SingleThreaded );
+            element.setAttribute( "id", String.valueOf( i ) );
+            elements.add( element );
+        }
+        emptyDocument = xmlFactory.newDocument( "root" );
+
+        populatedDocument = xmlFactory.newDocument( "root" );
+        final XmlElement rootElement = populatedDocument.getRootElement();
+        for ( int i = 0; i < size; i++ )
+        {
+            rootElement.newChildElement( i % 2 == 0 ? "item" : "other" );
+        }
+    }
+
+    @Benchmark
+    public XmlDocument attachElements()
+    {
+        emptyDocument.getRootElement().attachElement( elements );
+        return emptyDocument;
+    }
+
+    @Benchmark
+    public XmlDocument removeAllChildren()
+    {
+        populatedDocument.getRootElement().removeChildren();
+        return populatedDocument;
+    }
+
+    @Benchmark
+    public XmlDocument removeNamedChildren()
+    {
+        populatedDocument.getRootElement().removeChildren( "item" );
+        return populatedDocument;
+    }
+
+    public static void main( final String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( XmlBulkMutationBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
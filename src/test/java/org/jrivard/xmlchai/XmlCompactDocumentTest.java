@@ -0,0 +1,245 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package org.jrivard.xmlchai;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class XmlCompactDocumentTest
+{
+    private static XmlDocument parseCompact( final String xml )
+            throws IOException
+    {
+        return XmlFactory.getFactory().parseCompact( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ), XmlFactory.CompactStorage.TempFile );
+    }
+
+    @Test
+    public void testNavigation()
+            throws IOException
+    {
+        final XmlDocument xmlDocument = parseCompact( "<root a=\"1\" b=\"\"><c>  one <!--x--> two </c><c><![CDATA[ cdata ]]> text </c><p:d/>mixed</root>" );
+        final XmlElement root = xmlDocument.getRootElement();
+
+        Assertions.assertEquals( "root", root.getName() );
+        Assertions.assertEquals( List.of( "a", "b" ), root.getAttributeNames() );
+        Assertions.assertEquals( "1", root.getAttribute( "a" ).orElseThrow() );
+        Assertions.assertTrue( root.getAttribute( "b" ).isEmpty() );
+        Assertions.assertEquals( "mixed", root.getText().orElseThrow() );
+        Assertions.assertEquals( 3, root.getChildren().size() );
+        Assertions.assertEquals( 2, root.getChildren( "c" ).size() );
+        Assertions.assertEquals( "onetwo", root.getChild( "c" ).orElseThrow().getText().orElseThrow() );
+        Assertions.assertEquals( " cdata text", root.getChildren( "c" ).get( 1 ).getText().orElseThrow() );
+        Assertions.assertEquals( 1, root.getChildren( null, "d" ).size() );
+        Assertions.assertTrue( root.getChildren( "urn:x", "d" ).isEmpty() );
+        Assertions.assertEquals( "root", root.getChildren().get( 2 ).parent().orElseThrow().getName() );
+        Assertions.assertTrue( root.parent().isEmpty() );
+        Assertions.assertEquals( AccessMode.IMMUTABLE, xmlDocument.getAccessMode() );
+
+        Assertions.assertThrows( UnsupportedOperationException.class, () -> root.setAttribute( "a", "2" ) );
+        Assertions.assertThrows( UnsupportedOperationException.class, () -> root.newChildElement( "e" ) );
+    }
+
+    @Test
+    public void testMatchesDomDocument()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument domDocument;
+        final XmlDocument compactDocument;
+        try ( InputStream domStream = this.getClass().getResourceAsStream( "plant_catalog.xml" );
+              InputStream compactStream = this.getClass().getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            domDocument = xmlFactory.parse( domStream, AccessMode.IMMUTABLE, XmlFactory.ParseFlag.StripWhitespace );
+            compactDocument = xmlFactory.parseCompact( compactStream, XmlFactory.CompactStorage.TempFile );
+        }
+
+        for ( final String xpath : List.of( "//PLANT", "/CATALOG/PLANT[3]/COMMON", "//PLANT/*[2]", "//ZONE", "/CATALOG/*" ) )
+        {
+            Assertions.assertEquals( texts( domDocument.evaluateXpathToElements( xpath ) ), texts( compactDocument.evaluateXpathToElements( xpath ) ), xpath );
+        }
+        Assertions.assertThrows( UnsupportedOperationException.class, () -> compactDocument.evaluateXpathToElements( "//PLANT[ZONE[text()=$0]]", List.of( "4" ) ) );
+
+        Assertions.assertTrue( domDocument.contentEquals( compactDocument.copy() ) );
+        Assertions.assertTrue( compactDocument.contentEquals( xmlFactory.parseCompact(
+                new ByteArrayInputStream( xmlFactory.outputString( compactDocument ).getBytes( StandardCharsets.UTF_8 ) ), XmlFactory.CompactStorage.TempFile ) ) );
+        Assertions.assertEquals( AccessMode.MUTABLE, compactDocument.copy().getAccessMode() );
+    }
+
+    @Test
+    public void testOffHeapStorage()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument tempFileDocument;
+        final XmlDocument offHeapDocument;
+        try ( InputStream tempFileStream = this.getClass().getResourceAsStream( "plant_catalog.xml" );
+              InputStream offHeapStream = this.getClass().getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            tempFileDocument = xmlFactory.parseCompact( tempFileStream, XmlFactory.CompactStorage.TempFile );
+            offHeapDocument = xmlFactory.parseCompact( offHeapStream, XmlFactory.CompactStorage.OffHeap );
+        }
+
+        Assertions.assertTrue( offHeapDocument.contentEquals( tempFileDocument ) );
+        Assertions.assertEquals( tempFileDocument.contentHash(), offHeapDocument.contentHash() );
+        Assertions.assertEquals( "Marsh Marigold", offHeapDocument.evaluateXpathToElement( "/CATALOG/PLANT[3]/COMMON" ).orElseThrow().getText().orElseThrow() );
+        Assertions.assertEquals( xmlFactory.outputString( tempFileDocument ), xmlFactory.outputString( offHeapDocument ) );
+
+        final XmlElement offHeapRoot = offHeapDocument.getRootElement();
+        offHeapDocument.release();
+        offHeapDocument.release();
+        Assertions.assertThrows( IllegalStateException.class, offHeapRoot::getName );
+        Assertions.assertThrows( IllegalStateException.class, () -> offHeapDocument.evaluateXpathToElements( "//PLANT" ) );
+        Assertions.assertEquals( "CATALOG", tempFileDocument.getRootElement().getName() );
+        tempFileDocument.release();
+        Assertions.assertThrows( IllegalStateException.class, () -> xmlFactory.outputString( tempFileDocument ) );
+
+        final XmlDocument domDocument = xmlFactory.parseString( "<a/>", AccessMode.IMMUTABLE );
+        domDocument.release();
+        Assertions.assertEquals( "a", domDocument.getRootElement().getName() );
+    }
+
+    @Test
+    public void testAttributeLookupAndLargeDocument()
+            throws IOException
+    {
+        final StringBuilder xml = new StringBuilder( "<root>" );
+        for ( int i = 0; i < 300_000; i++ )
+        {
+            xml.append( "<item id=\"" ).append( i ).append( "\" group=\"g" ).append( i % 10 ).append( "\">value " ).append( i ).append( "</item>" );
+        }
+        xml.append( "</root>" );
+        final XmlDocument xmlDocument = parseCompact( xml.toString() );
+
+        final List<XmlElement> items = xmlDocument.getRootElement().getChildren();
+        Assertions.assertEquals( 300_000, items.size() );
+        Assertions.assertEquals( "value 299999", items.get( 299_999 ).getText().orElseThrow() );
+
+        final List<XmlElement> byXpath = xmlDocument.evaluateXpathToElements( "//item[@id=$id]", Map.of( "id", "123456" ) );
+        Assertions.assertEquals( "value 123456", byXpath.get( 0 ).getText().orElseThrow() );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> xmlDocument.evaluateXpathToElements( "//item", Map.of( "id", "1" ) ) );
+
+        Assertions.assertEquals( 30_000, xmlDocument.findByAttribute( "group", "g3" ).size() );
+        xmlDocument.addAttributeIndex( "id" );
+        Assertions.assertEquals( "value 7", xmlDocument.findByAttribute( "id", "7" ).get( 0 ).getText().orElseThrow() );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "-1" ).isEmpty() );
+    }
+
+    @Test
+    public void testNestedAndDeepPaths()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        for ( final String xml : List.of( "<r><s><t>1</t><s><t>2</t></s></s></r>", "<r><s><s><t>1</t></s><t>2</t></s></r>", "<r><a><b>1</b><b>2</b></a><b>3</b></r>" ) )
+        {
+            final XmlDocument domDocument = xmlFactory.parseString( xml, AccessMode.IMMUTABLE );
+            final XmlDocument compactDocument = parseCompact( xml );
+            for ( final String xpath : List.of( "//s/t", "//s/s", "//b[1]", "/r//b[2]" ) )
+            {
+                Assertions.assertEquals( texts( domDocument.evaluateXpathToElements( xpath ) ), texts( compactDocument.evaluateXpathToElements( xpath ) ), xpath );
+            }
+        }
+
+        final int depth = 100_000;
+        final StringBuilder xml = new StringBuilder();
+        for ( int i = 0; i < depth; i++ )
+        {
+            xml.append( "<e>" );
+        }
+        for ( int i = 0; i < depth; i++ )
+        {
+            xml.append( "</e>" );
+        }
+        final XmlDocument deepDocument = parseCompact( xml.toString() );
+        Assertions.assertEquals( depth, deepDocument.evaluateXpathToElements( "//e" ).size() );
+        Assertions.assertEquals( depth - 1, deepDocument.evaluateXpathToElements( "/e//e[1]" ).size() );
+        Assertions.assertNotEquals( deepDocument.contentHash(), parseCompact( xml.substring( 3, xml.length() - 4 ) ).contentHash() );
+    }
+
+    @Test
+    public void testCompactArguments()
+            throws Exception
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final String xml = "<CATALOG><PLANT id=\"1\" zone=\"4\"><COMMON>Bloodroot</COMMON><PRICE>2.44</PRICE></PLANT><HEADER/><PLANT id=\"2\"/></CATALOG>";
+        final XmlDocument compactDocument = parseCompact( xml );
+        final XmlDocument domDocument = xmlFactory.parseString( xml, AccessMode.IMMUTABLE );
+        final XmlElement compactPlant = compactDocument.getRootElement().getChild( "PLANT" ).orElseThrow();
+        final XmlElement domPlant = domDocument.getRootElement().getChild( "PLANT" ).orElseThrow();
+
+        Assertions.assertEquals( domDocument.contentHash(), compactDocument.contentHash() );
+        Assertions.assertTrue( domDocument.contentEquals( compactDocument ) );
+        Assertions.assertTrue( compactDocument.contentEquals( domDocument ) );
+        Assertions.assertEquals( domPlant.contentHash(), compactPlant.contentHash() );
+        Assertions.assertTrue( domPlant.contentEquals( compactPlant ) );
+        Assertions.assertTrue( compactPlant.contentEquals( domPlant ) );
+        Assertions.assertFalse( compactPlant.contentEquals( domDocument.getRootElement() ) );
+        Assertions.assertFalse( domDocument.getRootElement().contentEquals( compactPlant ) );
+
+        Assertions.assertEquals( xmlFactory.outputJsonString( domDocument ), xmlFactory.outputJsonString( compactDocument ) );
+        final ByteArrayOutputStream json = new ByteArrayOutputStream();
+        xmlFactory.outputJson( compactDocument, json );
+        Assertions.assertEquals( xmlFactory.outputJsonString( domDocument ), json.toString( StandardCharsets.UTF_8 ) );
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        xmlFactory.outputBinary( compactDocument, binary );
+        Assertions.assertTrue( domDocument.contentEquals( xmlFactory.parseBinary( new ByteArrayInputStream( binary.toByteArray() ), AccessMode.IMMUTABLE ) ) );
+
+        Assertions.assertArrayEquals( digest( xmlFactory, domDocument ), digest( xmlFactory, compactDocument ) );
+        final MessageDigest domDigest = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( domPlant, domDigest );
+        final MessageDigest compactDigest = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( compactPlant, compactDigest );
+        Assertions.assertArrayEquals( domDigest.digest(), compactDigest.digest() );
+        Assertions.assertEquals( xmlFactory.outputString( domDocument, XmlFactory.OutputFlag.Canonical ),
+                xmlFactory.outputString( compactDocument, XmlFactory.OutputFlag.Canonical ) );
+        Assertions.assertEquals( xmlFactory.outputString( domPlant, XmlFactory.OutputFlag.Canonical ),
+                xmlFactory.outputString( compactPlant, XmlFactory.OutputFlag.Canonical ) );
+
+        final XmlElement target = xmlFactory.newElement( "TARGET" );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> target.attachElement( compactPlant ) );
+        target.attachElement( compactPlant.copy() );
+        Assertions.assertTrue( target.getChild( "PLANT" ).orElseThrow().contentEquals( compactPlant ) );
+    }
+
+    private static byte[] digest( final XmlFactory xmlFactory, final XmlDocument xmlDocument )
+            throws NoSuchAlgorithmException
+    {
+        final MessageDigest messageDigest = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( xmlDocument, messageDigest );
+        return messageDigest.digest();
+    }
+
+    private static List<String> texts( final List<XmlElement> elements )
+    {
+        return elements.stream()
+                .map( element -> element.getName() + "=" + element.getText().orElse( "" ) )
+                .collect( Collectors.toList() );
+    }
+}
@@ -23,9 +23,20 @@ import org.junit.Assert;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class XmlDocument1Test
@@ -54,4 +65,114 @@ public class XmlDocument1Test
                 UnsupportedOperationException.class,
                 () -> xmlDocument.getRootElement().setAttribute( "newAttribute", "newValue" ) );
     }
+
+    @Test
+    public void testFastXpathMatchesJaxp()
+            throws Exception
+    {
+        final XmlDocumentW3c xmlDocument = ( XmlDocumentW3c ) readXmlDocument();
+        final Map<String, String> values = new HashMap<>();
+        values.put( "0", "template.ldap" );
+        values.put( "1", "SELECT" );
+
+        final List<String> expressions = Arrays.asList(
+                "/PwmConfiguration/settings/setting",
+                "PwmConfiguration/settings/setting",
+                "//setting",
+                "//setting/value",
+                "//value",
+                "//*",
+                "/*/*",
+                "//setting[@syntax]",
+                "//setting[@syntax='SELECT']",
+                "//setting[@syntax=\"SELECT\"][2]",
+                "//setting[2]",
+                "//setting[1]/label",
+                "//value[1]",
+                "//*[1]",
+                "/PwmConfiguration/settings/setting[ @key = $0 ]/value",
+                "//setting[@syntax=$1][@key=$0]",
+                "/PwmConfiguration//property[@key='configIsEditable']",
+                "//settings//value[2]",
+                "/missing//setting" );
+
+        final XmlAttributeIndexW3c attributeIndex = new XmlAttributeIndexW3c( xmlDocument.getW3cDocument() );
+        attributeIndex.addAttributeName( "key" );
+        attributeIndex.addAttributeName( "syntax" );
+
+        for ( final String expression : expressions )
+        {
+            final Map<String, String> expressionValues = new HashMap<>();
+            for ( final Map.Entry<String, String> entry : values.entrySet() )
+            {
+                if ( expression.contains( "$" + entry.getKey() ) )
+                {
+                    expressionValues.put( entry.getKey(), entry.getValue() );
+                }
+            }
+
+            final List<org.w3c.dom.Element> fastResults = XPathFastEvaluator.evaluate( expression, xmlDocument.getW3cDocument(), expressionValues, XPathNamespaceContext.EMPTY, null );
+            Assertions.assertNotNull( fastResults, expression );
+
+            final XPath xPath = XPathFactory.newInstance().newXPath();
+            xPath.setXPathVariableResolver( name -> expressionValues.get( name.getLocalPart() ) );
+            final NodeList nodeList = ( NodeList ) xPath.compile( expression ).evaluate( xmlDocument.getW3cDocument(), XPathConstants.NODESET );
+            final List<Node> jaxpResults = new ArrayList<>();
+            for ( int i = 0; i < nodeList.getLength(); i++ )
+            {
+                jaxpResults.add( nodeList.item( i ) );
+            }
+
+            Assertions.assertEquals( jaxpResults, fastResults, expression );
+
+            final List<org.w3c.dom.Element> indexedResults = XPathFastEvaluator.evaluate( expression, xmlDocument.getW3cDocument(), expressionValues, XPathNamespaceContext.EMPTY, attributeIndex );
+            Assertions.assertEquals( jaxpResults, indexedResults, expression );
+        }
+
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//setting[label='Storage Default Settings']", xmlDocument.getW3cDocument(), null, XPathNamespaceContext.EMPTY, null ) );
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//setting/../label", xmlDocument.getW3cDocument(), null, XPathNamespaceContext.EMPTY, null ) );
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//setting[@key=$9]", xmlDocument.getW3cDocument(), Collections.emptyMap(), XPathNamespaceContext.EMPTY, null ) );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//setting[label='Storage Default Settings']" ).size() );
+
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> xmlDocument.evaluateXpathToElements( "//setting", Collections.singletonList( "unused" ) ) );
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> xmlDocument.evaluateXpathToElements( "//missing[@key=$0]", Collections.singletonList( "unused" ) ) );
+    }
+
+    @Test
+    public void testFastXpathNamespacesMatchJaxp()
+            throws Exception
+    {
+        final String xml = "<r xmlns:v='urn:v' xmlns='urn:d' xmlns:w='urn:w'>"
+                + "<v:i id='1'><i id='5'/><v:i id='6'/></v:i><i id='2'/><x:i xmlns:x='urn:v' id='3'/><i xmlns='' id='4'/>"
+                + "</r>";
+        final XmlDocumentW3c xmlDocument = ( XmlDocumentW3c ) XmlFactory.getFactory().parseString( xml, AccessMode.IMMUTABLE, XmlFactory.ParseFlag.NamespaceAware );
+        final XPathNamespaceContext namespaceContext = XPathNamespaceContext.declaredBy( xmlDocument.getW3cDocument().getDocumentElement() )
+                .withBindings( Collections.singletonMap( "d", "urn:d" ) );
+
+        final XmlAttributeIndexW3c attributeIndex = new XmlAttributeIndexW3c( xmlDocument.getW3cDocument() );
+        attributeIndex.addAttributeName( "id" );
+
+        for ( final String expression : Arrays.asList( "//v:i", "//i", "//d:i", "/d:r/v:i", "/r/i", "/d:r/v:i/d:i", "//v:i[@id='6']", "//*[@id]", "//d:i[1]", "//w:i" ) )
+        {
+            final XPath xPath = XPathFactory.newInstance().newXPath();
+            xPath.setNamespaceContext( namespaceContext );
+            final NodeList nodeList = ( NodeList ) xPath.compile( expression ).evaluate( xmlDocument.getW3cDocument(), XPathConstants.NODESET );
+            final List<Node> jaxpResults = new ArrayList<>();
+            for ( int i = 0; i < nodeList.getLength(); i++ )
+            {
+                jaxpResults.add( nodeList.item( i ) );
+            }
+
+            Assertions.assertEquals( jaxpResults, XPathFastEvaluator.evaluate( expression, xmlDocument.getW3cDocument(), null, namespaceContext, null ), expression );
+            Assertions.assertEquals( jaxpResults, XPathFastEvaluator.evaluate( expression, xmlDocument.getW3cDocument(), null, namespaceContext, attributeIndex ), expression );
+        }
+
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//u:i", xmlDocument.getW3cDocument(), null, namespaceContext, null ) );
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//*[@xmlns]", xmlDocument.getW3cDocument(), null, namespaceContext, null ) );
+        Assertions.assertNull( XPathFastEvaluator.evaluate( "//*[@v:id]", xmlDocument.getW3cDocument(), null, namespaceContext, null ) );
+    }
 }
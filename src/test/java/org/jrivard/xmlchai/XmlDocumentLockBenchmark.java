@@ -0,0 +1,109 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.w3c.dom.Document;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * JMH benchmarks comparing the multithreaded throughput of document lock lookups using the striped
+ * {@link XmlDocumentLockW3c} registry and a single registry guarded by one global lock, and of creating and
+ * querying documents, which registers their locks.  Run using {@code mvn test-compile} followed by executing this
+ * class with the test classpath.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Threads( 8 )
+@Fork( 1 )
+public class XmlDocumentLockBenchmark
+{
+    private static final Map<Document, Lock> GLOBAL_LOCKS = new WeakHashMap<>();
+
+    private static final Lock GLOBAL_REGISTRY_LOCK = new ReentrantLock();
+
+    private Document[] documents;
+
+    @Setup
+    public void setup()
+    {
+        documents = new Document[1024];
+        for ( int i = 0; i < documents.length; i++ )
+        {
+            documents[i] = XmlFactoryW3c.getBuilder().newDocument();
+        }
+    }
+
+    @Benchmark
+    public Lock globalRegistry()
+    {
+        final Document document = documents[ThreadLocalRandom.current().nextInt( documents.length )];
+        GLOBAL_REGISTRY_LOCK.lock();
+        try
+        {
+            return GLOBAL_LOCKS.computeIfAbsent( document, key -> new ReentrantLock() );
+        }
+        finally
+        {
+            GLOBAL_REGISTRY_LOCK.unlock();
+        }
+    }
+
+    @Benchmark
+    public Lock stripedRegistry()
+    {
+        return XmlDocumentLockW3c.forDocument( documents[ThreadLocalRandom.current().nextInt( documents.length )] );
+    }
+
+    @Benchmark
+    public int newDocumentAndQuery()
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().newDocument( "root" );
+        xmlDocument.getRootElement().newChildElement( "child" ).setText( "value" );
+        return xmlDocument.evaluateXpathToElements( "/root/child" ).size();
+    }
+
+    public static void main( final String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( XmlDocumentLockBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
@@ -21,9 +21,21 @@ package org.jrivard.xmlchai;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class XmlDocumentTest
 {
@@ -51,4 +63,353 @@ public class XmlDocumentTest
 
     }
 
+    @Test
+    public void testContentEquals()
+            throws Exception
+    {
+        final XmlDocument xmlDocument1 = readXmlDocument();
+        final XmlDocument xmlDocument2 = XmlFactory.getFactory().parseString(
+                XmlFactory.getFactory().outputString( xmlDocument1, XmlFactory.OutputFlag.Compact ), AccessMode.MUTABLE );
+        final XmlDocument xmlDocument3 = xmlDocument1.copy();
+
+        Assertions.assertEquals( xmlDocument1.contentHash(), xmlDocument3.contentHash() );
+        Assertions.assertTrue( xmlDocument1.contentEquals( xmlDocument3 ) );
+        Assertions.assertTrue( xmlDocument1.getRootElement().contentEquals( xmlDocument2.getRootElement().copy() ) );
+
+        final int originalHash = xmlDocument2.contentHash();
+        final XmlElement plant = xmlDocument2.evaluateXpathToElement( "//PLANT[3]" ).orElseThrow( IllegalStateException::new );
+        plant.setAttribute( "modified", "true" );
+        Assertions.assertNotEquals( originalHash, xmlDocument2.contentHash() );
+        Assertions.assertFalse( xmlDocument2.contentEquals( xmlDocument1 ) );
+
+        plant.removeAttribute( "modified" );
+        Assertions.assertEquals( originalHash, xmlDocument2.contentHash() );
+    }
+
+    @Test
+    public void testParallelCopy()
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().newDocument( "root" );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+        rootElement.setComment( Collections.singletonList( "parallel copy test" ) );
+        rootElement.newChildElement( "small" ).setText( "small text" );
+        final XmlElement largeElement = rootElement.newChildElement( "large" );
+        for ( int i = 0; i < 6_000; i++ )
+        {
+            final XmlElement child = largeElement.newChildElement( "child" );
+            child.setAttribute( "id", String.valueOf( i ) );
+            child.setText( "text value " + i );
+        }
+        rootElement.newChildElement( "trailer" );
+
+        final ForkJoinPool forkJoinPool = new ForkJoinPool( 4 );
+        try
+        {
+            final XmlDocument copiedDocument = xmlDocument.copy( forkJoinPool );
+            Assertions.assertTrue( xmlDocument.contentEquals( copiedDocument ) );
+            Assertions.assertEquals( xmlDocument.contentHash(), copiedDocument.contentHash() );
+            Assertions.assertEquals( 6_000, copiedDocument.evaluateXpathToElements( "/root/large/child" ).size() );
+            Assertions.assertEquals( "5999", copiedDocument.evaluateXpathToElements( "/root/large/child" ).get( 5_999 ).getAttribute( "id" ).get() );
+
+            final XmlElement copiedElement = largeElement.copy( forkJoinPool );
+            Assertions.assertTrue( largeElement.contentEquals( copiedElement ) );
+            Assertions.assertFalse( copiedElement.parent().isPresent() );
+        }
+        finally
+        {
+            forkJoinPool.shutdown();
+        }
+    }
+
+    @Test
+    public void testAttributeIndex()
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().newDocument( "root" );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+        for ( int i = 0; i < 100; i++ )
+        {
+            rootElement.newChildElement( "child" ).setAttribute( "id", String.valueOf( i % 50 ) );
+        }
+
+        xmlDocument.addAttributeIndex( "id" );
+        final List<XmlElement> unindexedResults = xmlDocument.evaluateXpathToElements( "//child[@id='7']" );
+        Assertions.assertEquals( 2, xmlDocument.findByAttribute( "id", "7" ).size() );
+        Assertions.assertEquals( 2, unindexedResults.size() );
+
+        final XmlElement firstMatch = unindexedResults.get( 0 );
+        firstMatch.setAttribute( "id", "new" );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "7" ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//child[@id=$0]", List.of( "new" ) ).size() );
+
+        firstMatch.detach();
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "new" ).isEmpty() );
+        Assertions.assertTrue( xmlDocument.evaluateXpathToElements( "//child[@id=$0]", List.of( "new" ) ).isEmpty() );
+
+        final XmlElement attached = XmlFactory.getFactory().newElement( "attached" );
+        attached.newChildElement( "nested" ).setAttribute( "id", "7" );
+        rootElement.getChildren().get( 0 ).attachElement( attached );
+        rootElement.attachElement( firstMatch );
+
+        final List<XmlElement> results = xmlDocument.findByAttribute( "id", "7" );
+        Assertions.assertEquals( 2, results.size() );
+        Assertions.assertEquals( "nested", results.get( 0 ).getName() );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "new" ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//child[@id=$0]", List.of( "7" ) ).size() );
+
+        Assertions.assertTrue( xmlDocument.evaluateXpathToElements( "//child[@id=$0]", List.of( "nonexistent" ) ).isEmpty() );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> xmlDocument.evaluateXpathToElements(
+                "//missing[@id=$0]",
+                Map.of( "0", "7", "1", "unused" ) ) );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> xmlDocument.evaluateXpathToElements(
+                "//child[@id=$0]",
+                List.of( "nonexistent", "unused" ) ) );
+    }
+
+    @Test
+    public void testAttributeIndexMutations()
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().newDocument( "root" );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+        for ( int i = 0; i < 4; i++ )
+        {
+            final XmlElement group = rootElement.newChildElement( "group" );
+            group.setAttribute( "id", "g" + i );
+            group.newChildElement( "item" ).setAttribute( "id", "i" + i );
+        }
+        xmlDocument.addAttributeIndex( "id" );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "i0" ).size() );
+
+        final List<XmlElement> groups = rootElement.getChildren();
+        groups.get( 0 ).removeAttribute( "id" );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "g0" ).isEmpty() );
+
+        groups.get( 1 ).removeAttributes();
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "g1" ).isEmpty() );
+
+        // replacing a value moves the element to the new value
+        groups.get( 2 ).setAttribute( "id", "replaced" );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "g2" ).isEmpty() );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "replaced" ).size() );
+
+        // text replaces the child elements
+        groups.get( 0 ).setText( "text" );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "i0" ).isEmpty() );
+
+        groups.get( 1 ).removeChildren( "item" );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "i1" ).isEmpty() );
+
+        groups.get( 3 ).detach();
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "g3" ).isEmpty() );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "i3" ).isEmpty() );
+
+        groups.get( 2 ).removeChildren();
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "i2" ).isEmpty() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//*[@id=$0]", List.of( "replaced" ) ).size() );
+
+        // a root element attached to another document leaves the index of its previous document
+        final XmlDocument otherDocument = XmlFactory.getFactory().newDocument( "other" );
+        otherDocument.getRootElement().setAttribute( "id", "moved" );
+        otherDocument.addAttributeIndex( "id" );
+        Assertions.assertEquals( 1, otherDocument.findByAttribute( "id", "moved" ).size() );
+        rootElement.attachElement( otherDocument.getRootElement() );
+        Assertions.assertTrue( otherDocument.findByAttribute( "id", "moved" ).isEmpty() );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "moved" ).size() );
+    }
+
+    @Test
+    public void testAttributeIndexWrapperReferences()
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().newDocument( "root" );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+        xmlDocument.addAttributeIndex( "id" );
+
+        // a child wrapper created while its parent was detached updates the index once the parent is attached
+        final XmlElement parent = XmlFactory.getFactory().newElement( "p" );
+        final XmlElement child = parent.newChildElement( "c" );
+        rootElement.attachElement( parent );
+        child.setAttribute( "id", "x" );
+        Assertions.assertEquals( 1, xmlDocument.findByAttribute( "id", "x" ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//c[@id='x']" ).size() );
+
+        // a child wrapper taken while attached no longer updates the index once its parent is detached
+        final XmlElement attachedChild = rootElement.getChild( "p" ).orElseThrow().getChild( "c" ).orElseThrow();
+        rootElement.getChild( "p" ).orElseThrow().detach();
+        attachedChild.setAttribute( "id", "y" );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "x" ).isEmpty() );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "id", "y" ).isEmpty() );
+        Assertions.assertTrue( xmlDocument.evaluateXpathToElements( "//c[@id='y']" ).isEmpty() );
+    }
+
+    @Test
+    public void testNamespaces()
+            throws Exception
+    {
+        final String xml = "<catalog xmlns:v='urn:vendor' xmlns='urn:default'>"
+                + "<v:plant id='1'/><plant id='2'/><x:plant xmlns:x='urn:vendor' id='3'/><item xmlns='' id='4'/>"
+                + "</catalog>";
+        final XmlDocument xmlDocument = XmlFactory.getFactory().parseString( xml, AccessMode.MUTABLE, XmlFactory.ParseFlag.NamespaceAware );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+
+        Assertions.assertEquals( 2, rootElement.getChildren( "urn:vendor", "plant" ).size() );
+        Assertions.assertEquals( "2", rootElement.getChildren( "urn:default", "plant" ).get( 0 ).getAttribute( "id" ).orElseThrow() );
+        Assertions.assertEquals( "4", rootElement.getChildren( null, "item" ).get( 0 ).getAttribute( "id" ).orElseThrow() );
+        Assertions.assertTrue( rootElement.getChildren( null, "plant" ).isEmpty() );
+
+        // prefixes declared on the root element, and explicit bindings which take precedence
+        Assertions.assertEquals( 2, xmlDocument.evaluateXpathToElements( "//v:plant" ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "/d:catalog/v:plant[@id=$0]", Map.of( "0", "3" ), Map.of( "d", "urn:default" ) ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//v:plant", Collections.emptyMap(), Map.of( "v", "urn:default" ) ).size() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//item" ).size() );
+        Assertions.assertTrue( xmlDocument.evaluateXpathToElements( "//plant" ).isEmpty() );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//*[local-name()='plant'][namespace-uri()='urn:default']" ).size() );
+        Assertions.assertThrows( IllegalStateException.class, () -> xmlDocument.evaluateXpathToElements( "//u:plant" ) );
+
+        rootElement.setAttribute( "xmlns:u", "urn:default" );
+        Assertions.assertEquals( 1, xmlDocument.evaluateXpathToElements( "//u:plant" ).size() );
+        rootElement.removeAttribute( "xmlns:u" );
+        Assertions.assertThrows( IllegalStateException.class, () -> xmlDocument.evaluateXpathToElements( "//u:plant" ) );
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        XmlFactory.getFactory().outputBinary( xmlDocument, binary );
+        final XmlDocument decoded = XmlFactory.getFactory().parseBinary( new ByteArrayInputStream( binary.toByteArray() ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals( 2, decoded.getRootElement().getChildren( "urn:vendor", "plant" ).size() );
+        Assertions.assertEquals( 2, decoded.evaluateXpathToElements( "//v:plant" ).size() );
+        Assertions.assertTrue( decoded.contentEquals( xmlDocument ) );
+
+        final XmlDocument plainDocument = XmlFactory.getFactory().parseString( xml, AccessMode.IMMUTABLE );
+        Assertions.assertEquals( 3, plainDocument.getRootElement().getChildren( null, "plant" ).size() );
+        Assertions.assertTrue( plainDocument.getRootElement().getChildren( "urn:vendor", "plant" ).isEmpty() );
+        Assertions.assertTrue( plainDocument.evaluateXpathToElements( "//v:plant" ).isEmpty() );
+    }
+
+    @Test
+    public void testOutputDoesNotBlockReaders()
+            throws Exception
+    {
+        final XmlDocument xmlDocument = readXmlDocument();
+        final CountDownLatch writeStarted = new CountDownLatch( 1 );
+        final CountDownLatch releaseWrite = new CountDownLatch( 1 );
+        final OutputStream blockedStream = new OutputStream()
+        {
+            @Override
+            public void write( final int value )
+                    throws IOException
+            {
+                write( new byte[] {( byte ) value}, 0, 1 );
+            }
+
+            @Override
+            public void write( final byte[] bytes, final int offset, final int length )
+                    throws IOException
+            {
+                writeStarted.countDown();
+                try
+                {
+                    releaseWrite.await();
+                }
+                catch ( final InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+            }
+        };
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final Future<Void> outputFuture = XmlFactory.getFactory().outputAsync( xmlDocument, blockedStream, executorService );
+            Assertions.assertTrue( writeStarted.await( 10, TimeUnit.SECONDS ) );
+
+            // the document remains readable while output is blocked on the stream
+            final Future<Integer> readFuture = executorService.submit( () -> xmlDocument.evaluateXpathToElements( "//PLANT" ).size() );
+            Assertions.assertEquals( 36, readFuture.get( 10, TimeUnit.SECONDS ) );
+
+            releaseWrite.countDown();
+            outputFuture.get( 10, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            releaseWrite.countDown();
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void testConcurrentLoad()
+            throws Exception
+    {
+        final int taskCount = 10_000;
+        final List<XmlDocument> documents = new ArrayList<>();
+        for ( int i = 0; i < 4; i++ )
+        {
+            documents.add( readXmlDocument() );
+        }
+        final String expectedOutput = XmlFactory.getFactory().outputString( documents.get( 0 ), XmlFactory.OutputFlag.Compact );
+        final OutputStream slowStream = new OutputStream()
+        {
+            @Override
+            public void write( final int value )
+            {
+                write( new byte[] {( byte ) value}, 0, 1 );
+            }
+
+            @Override
+            public void write( final byte[] bytes, final int offset, final int length )
+            {
+                try
+                {
+                    Thread.sleep( 1 );
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        final ExecutorService executorService = newVirtualThreadExecutor();
+        try
+        {
+            final List<Future<Boolean>> futures = new ArrayList<>( taskCount );
+            for ( int i = 0; i < taskCount; i++ )
+            {
+                final XmlDocument xmlDocument = documents.get( i % documents.size() );
+                final int task = i;
+                futures.add( executorService.submit( () ->
+                {
+                    if ( task % 10 == 0 )
+                    {
+                        XmlFactory.getFactory().output( xmlDocument, slowStream, XmlFactory.OutputFlag.Compact );
+                        return expectedOutput.equals( XmlFactory.getFactory().outputString( xmlDocument, XmlFactory.OutputFlag.Compact ) );
+                    }
+                    final List<XmlElement> plants = xmlDocument.evaluateXpathToElements( "//PLANT[ZONE[text()=$0]]", List.of( "Annual" ) );
+                    return plants.size() == 8 && xmlDocument.getRootElement().getChildren( "PLANT" ).size() == 36;
+                } ) );
+            }
+
+            for ( final Future<Boolean> future : futures )
+            {
+                Assertions.assertTrue( future.get( 2, TimeUnit.MINUTES ) );
+            }
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
+
+    /**
+     * Use a virtual thread per task executor when running on JDK 21 or newer.
+     */
+    private static ExecutorService newVirtualThreadExecutor()
+    {
+        try
+        {
+            return ( ExecutorService ) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+        }
+        catch ( final ReflectiveOperationException e )
+        {
+            return Executors.newFixedThreadPool( 64 );
+        }
+    }
 }
@@ -22,6 +22,11 @@ package org.jrivard.xmlchai;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 public class XmlElementTest
 {
     @Test
@@ -92,4 +97,133 @@ public class XmlElementTest
         xmlElement.removeChildren();
         Assertions.assertEquals( 0, xmlElement.getChildren().size() );
     }
+
+    @Test
+    public void testContentEquals()
+    {
+        final XmlElement xmlElement1 = XmlFactory.getFactory().newElement( "TEST" );
+        xmlElement1.setAttribute( "a", "1" );
+        xmlElement1.setAttribute( "b", "2" );
+        xmlElement1.newChildElement( "child" ).setText( "text1" );
+
+        final XmlElement xmlElement2 = XmlFactory.getFactory().newElement( "TEST" );
+        xmlElement2.setAttribute( "b", "2" );
+        xmlElement2.setAttribute( "a", "1" );
+        final XmlElement child2 = xmlElement2.newChildElement( "child" );
+        child2.setText( "text1" );
+
+        Assertions.assertEquals( xmlElement1.contentHash(), xmlElement2.contentHash() );
+        Assertions.assertTrue( xmlElement1.contentEquals( xmlElement2 ) );
+        Assertions.assertTrue( xmlElement2.contentEquals( xmlElement1 ) );
+
+        child2.setText( "text2" );
+        Assertions.assertNotEquals( xmlElement1.contentHash(), xmlElement2.contentHash() );
+        Assertions.assertFalse( xmlElement1.contentEquals( xmlElement2 ) );
+
+        child2.setText( "text1" );
+        Assertions.assertTrue( xmlElement1.contentEquals( xmlElement2 ) );
+
+        xmlElement2.newChildElement( "child" );
+        Assertions.assertFalse( xmlElement1.contentEquals( xmlElement2 ) );
+    }
+
+    @Test
+    public void testSingleThreadedElement()
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlElement builder = xmlFactory.newElement( "PLANT", XmlFactory.ElementFlag.SingleThreaded );
+        builder.setAttribute( "id", "1" );
+        final XmlElement child = xmlFactory.newElement( "COMMON" );
+        child.setText( "Bloodroot" );
+        builder.attachElement( child );
+
+        Assertions.assertSame( ( ( XmlElementW3c ) builder ).getLock(), ( ( XmlElementW3c ) builder.getChild( "COMMON" ).get() ).getLock() );
+        Assertions.assertSame( XmlDocumentLockW3c.NoOpLock.INSTANCE, ( ( XmlElementW3c ) builder ).getLock() );
+
+        final XmlDocument xmlDocument = xmlFactory.newDocument( "CATALOG" );
+        xmlDocument.getRootElement().attachElement( builder );
+
+        final XmlElement attached = xmlDocument.getRootElement().getChild( "PLANT" ).get();
+        Assertions.assertSame( ( ( XmlDocumentW3c ) xmlDocument ).getLock(), ( ( XmlElementW3c ) attached ).getLock() );
+        Assertions.assertSame( ( ( XmlDocumentW3c ) xmlDocument ).getLock(), ( ( XmlElementW3c ) builder ).getLock() );
+        Assertions.assertEquals( "1", attached.getAttribute( "id" ).get() );
+        Assertions.assertEquals( "Bloodroot", attached.getChild( "COMMON" ).get().getText().get() );
+
+        final XmlElement detached = xmlFactory.newElement( "PLANT" );
+        detached.newChildElement( "COMMON" );
+        Assertions.assertNotSame( XmlDocumentLockW3c.NoOpLock.INSTANCE, ( ( XmlElementW3c ) detached ).getLock() );
+        Assertions.assertSame( ( ( XmlElementW3c ) detached ).getLock(), ( ( XmlElementW3c ) detached.getChild( "COMMON" ).get() ).getLock() );
+    }
+
+    @Test
+    public void testBulkAttachAndRemove()
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument xmlDocument = xmlFactory.newDocument( "CATALOG" );
+        xmlDocument.addAttributeIndex( "type" );
+        final XmlElement rootElement = xmlDocument.getRootElement();
+
+        final List<XmlElement> elements = new ArrayList<>();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            final XmlElement element = xmlFactory.newElement( i % 2 == 0 ? "PLANT" : "TREE" );
+            element.setAttribute( "type", "perennial" );
+            element.newChildElement( "PLANT" );
+            elements.add( element );
+        }
+        rootElement.attachElement( elements );
+
+        Assertions.assertEquals( 1000, rootElement.getChildren().size() );
+        Assertions.assertEquals( 1500, rootElement.getChildren( "PLANT" ).size() );
+        Assertions.assertEquals( 1000, xmlDocument.findByAttribute( "type", "perennial" ).size() );
+        Assertions.assertEquals( AccessMode.MUTABLE, elements.get( 0 ).getAccessMode() );
+        Assertions.assertTrue( elements.get( 0 ).parent().isPresent() );
+
+        // every element is checked before any is moved
+        final XmlElement attached = elements.get( 0 );
+        final XmlElement unattached = xmlFactory.newElement( "UNATTACHED" );
+        final XmlElement other = xmlFactory.newElement( "OTHER" );
+        Assertions.assertThrows( IllegalStateException.class, () -> other.attachElement( List.of( unattached, attached ) ) );
+        Assertions.assertFalse( unattached.parent().isPresent() );
+        Assertions.assertTrue( other.getChildren().isEmpty() );
+
+        final XmlElement nested = other.newChildElement( "NESTED" );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> nested.attachElement( List.of( unattached, other ) ) );
+        Assertions.assertFalse( unattached.parent().isPresent() );
+
+        rootElement.removeChildren( "PLANT" );
+        Assertions.assertEquals( 0, rootElement.getChildren( "PLANT" ).size() );
+        Assertions.assertEquals( 500, rootElement.getChildren( "TREE" ).size() );
+        Assertions.assertTrue( rootElement.getChildren( "TREE" ).get( 0 ).getChildren( "PLANT" ).isEmpty() );
+
+        rootElement.removeChildren();
+        Assertions.assertTrue( rootElement.getChildren().isEmpty() );
+        Assertions.assertTrue( xmlDocument.findByAttribute( "type", "perennial" ).isEmpty() );
+    }
+
+    @Test
+    public void testNamesShared()
+            throws Exception
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument parsedDocument = xmlFactory.parseString( "<CATALOG><PLANT ZONE=\"4\"/></CATALOG>", AccessMode.MUTABLE );
+        final XmlElement parsedElement = parsedDocument.getRootElement().getChild( "PLANT" ).get();
+
+        final XmlElement createdElement = xmlFactory.newElement( new String( "PLANT".toCharArray() ) );
+        createdElement.setAttribute( new String( "ZONE".toCharArray() ), "5" );
+        final XmlElement childElement = createdElement.newChildElement( new String( "PLANT".toCharArray() ) );
+        parsedDocument.getRootElement().attachElement( createdElement );
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xmlFactory.outputBinary( parsedDocument, outputStream );
+        final XmlDocument decodedDocument = xmlFactory.parseBinary( new ByteArrayInputStream( outputStream.toByteArray() ), AccessMode.IMMUTABLE );
+        final XmlElement decodedElement = decodedDocument.getRootElement().getChildren( "PLANT" ).get( 1 );
+
+        Assertions.assertSame( parsedElement.getName(), createdElement.getName() );
+        Assertions.assertSame( parsedElement.getName(), childElement.getName() );
+        Assertions.assertSame( parsedElement.getName(), decodedElement.getName() );
+        Assertions.assertSame( parsedElement.getAttributeNames().get( 0 ), createdElement.getAttributeNames().get( 0 ) );
+        Assertions.assertSame( parsedElement.getAttributeNames().get( 0 ), decodedElement.getAttributeNames().get( 0 ) );
+        Assertions.assertEquals( 3, parsedDocument.getRootElement().getChildren( new String( "PLANT".toCharArray() ) ).size() );
+    }
 }
@@ -3,6 +3,27 @@ package org.jrivard.xmlchai;
 import org.junit.Test;
 import org.junit.jupiter.api.Assertions;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+
 public class XmlFactoryTest
 {
 
@@ -12,4 +33,528 @@ public class XmlFactoryTest
         final XmlFactory xmlFactory = XmlFactory.getFactory();
         Assertions.assertNotNull( xmlFactory );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void evaluateXpathBatch()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final List<XmlDocument> documents = new ArrayList<>();
+        for ( int i = 0; i < 500; i++ )
+        {
+            documents.add( xmlFactory.parseString( "<root><item id=\"" + i + "\"/><item/><other/></root>", AccessMode.IMMUTABLE ) );
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 4 );
+        try
+        {
+            final List<List<List<XmlElement>>> results = xmlFactory.evaluateXpathToElements(
+                    documents,
+                    Arrays.asList( "/root/item", "//other", "//missing", "/root/item" ),
+                    executorService ).collect( Collectors.toList() );
+
+            Assertions.assertEquals( 500, results.size() );
+            for ( int i = 0; i < results.size(); i++ )
+            {
+                final List<List<XmlElement>> result = results.get( i );
+                Assertions.assertEquals( 4, result.size() );
+                Assertions.assertEquals( 2, result.get( 0 ).size() );
+                Assertions.assertEquals( String.valueOf( i ), result.get( 0 ).get( 0 ).getAttribute( "id" ).get() );
+                Assertions.assertEquals( 1, result.get( 1 ).size() );
+                Assertions.assertTrue( result.get( 2 ).isEmpty() );
+                Assertions.assertEquals( 2, result.get( 3 ).size() );
+            }
+
+            final XmlDocument compactDocument = xmlFactory.parseCompact(
+                    new ByteArrayInputStream( "<root><item id=\"c\"/><item/><other/></root>".getBytes( StandardCharsets.UTF_8 ) ),
+                    XmlFactory.CompactStorage.TempFile );
+            final List<List<XmlElement>> compactResult = xmlFactory.evaluateXpathToElements(
+                    Collections.singletonList( compactDocument ),
+                    Arrays.asList( "/root/item", "//other" ),
+                    executorService ).findFirst().orElseThrow( IllegalStateException::new );
+            Assertions.assertEquals( "c", compactResult.get( 0 ).get( 0 ).getAttribute( "id" ).orElse( null ) );
+            Assertions.assertEquals( 1, compactResult.get( 1 ).size() );
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+
+        Assertions.assertThrows( IllegalArgumentException.class, () -> xmlFactory.evaluateXpathToElements(
+                documents, Arrays.asList( "/root/[" ) ) );
+    }
+
+    @Test
+    public void binaryRoundTrip()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument xmlDocument;
+        try ( InputStream inputStream = XmlFactoryTest.class.getResourceAsStream( "XmlDocument1.xml" ) )
+        {
+            xmlDocument = xmlFactory.parse( inputStream, AccessMode.MUTABLE );
+        }
+        final XmlElement rootElement = xmlDocument.getRootElement();
+        rootElement.setComment( Arrays.asList( "first comment", "second comment é😀" ) );
+        rootElement.newChildElement( "special" ).setText( "<&>\"\r\n\t ]]> text" );
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xmlFactory.outputBinary( xmlDocument, outputStream );
+        final byte[] binaryData = outputStream.toByteArray();
+        final XmlDocument decodedDocument = xmlFactory.parseBinary( new ByteArrayInputStream( binaryData ), AccessMode.IMMUTABLE );
+
+        Assertions.assertEquals( AccessMode.IMMUTABLE, decodedDocument.getAccessMode() );
+        Assertions.assertTrue( xmlDocument.contentEquals( decodedDocument ) );
+        Assertions.assertEquals( xmlFactory.outputString( xmlDocument ), xmlFactory.outputString( decodedDocument ) );
+        Assertions.assertTrue( binaryData.length < xmlFactory.outputString( xmlDocument, XmlFactory.OutputFlag.Compact ).length() );
+
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parseBinary(
+                new ByteArrayInputStream( "<root/>".getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE ) );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parseBinary(
+                new ByteArrayInputStream( Arrays.copyOf( binaryData, binaryData.length / 2 ) ), AccessMode.IMMUTABLE ) );
+    }
+
+    @Test
+    public void binaryUntrustedData()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+
+        // element name that would inject markup when the document is output
+        final ByteArrayOutputStream invalidName = binaryHeader();
+        invalidName.write( new byte[] {1, 0, 9} );
+        invalidName.write( "a><script".getBytes( StandardCharsets.UTF_8 ) );
+        invalidName.write( new byte[] {0, 0, 0} );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parseBinary(
+                new ByteArrayInputStream( invalidName.toByteArray() ), AccessMode.IMMUTABLE ) );
+
+        // a second root element
+        final ByteArrayOutputStream twoRoots = binaryHeader();
+        twoRoots.write( new byte[] {1, 0, 1, 'a', 0, 0, 1, 1, 0, 0, 0} );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parseBinary(
+                new ByteArrayInputStream( twoRoots.toByteArray() ), AccessMode.IMMUTABLE ) );
+
+        // text outside of the root element
+        final ByteArrayOutputStream rootText = binaryHeader();
+        rootText.write( new byte[] {2, 1, 'a', 0} );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parseBinary(
+                new ByteArrayInputStream( rootText.toByteArray() ), AccessMode.IMMUTABLE ) );
+
+        // nesting deeper than a recursive decoder or encoder could handle
+        final int depth = 100_000;
+        final ByteArrayOutputStream deep = binaryHeader();
+        deep.write( new byte[] {1, 0, 1, 'a', 0} );
+        for ( int i = 1; i < depth; i++ )
+        {
+            deep.write( new byte[] {1, 1, 0} );
+        }
+        deep.write( new byte[depth + 1] );
+        final XmlDocument deepDocument = xmlFactory.parseBinary( new ByteArrayInputStream( deep.toByteArray() ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals( "a", deepDocument.getRootElement().getName() );
+        final ByteArrayOutputStream deepOutput = new ByteArrayOutputStream();
+        xmlFactory.outputBinary( deepDocument, deepOutput );
+        Assertions.assertArrayEquals( deep.toByteArray(), deepOutput.toByteArray() );
+    }
+
+    private static ByteArrayOutputStream binaryHeader()
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write( new byte[] {'X', 'C', 'B', 1, 0, 3, '1', '.', '0'}, 0, 9 );
+        return outputStream;
+    }
+
+    @Test
+    public void parseAndOutputAsync()
+            throws Exception
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final byte[] data;
+        try ( InputStream inputStream = XmlFactoryTest.class.getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            inputStream.transferTo( outputStream );
+            data = outputStream.toByteArray();
+        }
+
+        final ExecutorService executorService = Executors.newFixedThreadPool( 2 );
+        try
+        {
+            final XmlDocument streamDocument = xmlFactory.parseAsync( new ByteArrayInputStream( data ), AccessMode.IMMUTABLE, executorService ).get();
+            Assertions.assertEquals( 36, streamDocument.getRootElement().getChildren( "PLANT" ).size() );
+
+            final ByteBuffer directBuffer = ByteBuffer.allocateDirect( data.length ).put( data );
+            directBuffer.flip();
+            final XmlDocument bufferDocument = xmlFactory.parseAsync( directBuffer, AccessMode.IMMUTABLE, executorService ).get();
+            Assertions.assertEquals( 0, directBuffer.position() );
+            Assertions.assertTrue( streamDocument.contentEquals( bufferDocument ) );
+
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            xmlFactory.outputAsync( bufferDocument, outputStream, executorService, XmlFactory.OutputFlag.Compact ).get();
+            Assertions.assertEquals( xmlFactory.outputString( streamDocument, XmlFactory.OutputFlag.Compact ),
+                    outputStream.toString( StandardCharsets.UTF_8 ) );
+
+            final ExecutionException executionException = Assertions.assertThrows( ExecutionException.class, () -> xmlFactory.parseAsync(
+                    ByteBuffer.wrap( "<root>".getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE, executorService ).get() );
+            Assertions.assertTrue( executionException.getCause() instanceof IOException );
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+    }
+
+    @Test
+    public void incrementalParse()
+            throws Exception
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final String document = "<?xml version=\"1.0\"?><!-- <root> --><root a=\"/>\" b='>'>"
+                + "<![CDATA[</root>]]><empty/><?pi </root>?><child x=\"1\">text</child></root>";
+
+        final XmlIncrementalParser parser = xmlFactory.newIncrementalParser( AccessMode.IMMUTABLE, Runnable::run );
+        final byte[] data = ( document + "  trailing" ).getBytes( StandardCharsets.UTF_8 );
+        for ( int i = 0; i < data.length; i++ )
+        {
+            final boolean complete = parser.feed( ByteBuffer.wrap( data, i, 1 ) );
+            Assertions.assertEquals( i >= document.length() - 1, complete );
+        }
+        parser.end();
+
+        final XmlDocument xmlDocument = parser.result().get();
+        Assertions.assertTrue( xmlDocument.contentEquals( xmlFactory.parseString( document, AccessMode.IMMUTABLE ) ) );
+        Assertions.assertEquals( "text", xmlDocument.getRootElement().getChild( "child" ).get().getText().get() );
+        Assertions.assertThrows( IllegalStateException.class, () -> parser.feed( ByteBuffer.allocate( 0 ) ) );
+
+        final XmlIncrementalParser incompleteParser = xmlFactory.newIncrementalParser( AccessMode.IMMUTABLE, Runnable::run );
+        Assertions.assertFalse( incompleteParser.feed( ByteBuffer.wrap( "<root><child/>".getBytes( StandardCharsets.UTF_8 ) ) ) );
+        Assertions.assertFalse( incompleteParser.result().isDone() );
+        incompleteParser.end();
+        final ExecutionException executionException = Assertions.assertThrows( ExecutionException.class, () -> incompleteParser.result().get() );
+        Assertions.assertTrue( executionException.getCause() instanceof IOException );
+
+        final XmlIncrementalParser boundedParser = xmlFactory.newIncrementalParser( AccessMode.IMMUTABLE, Runnable::run, 16 );
+        Assertions.assertFalse( boundedParser.feed( ByteBuffer.wrap( "<root>".getBytes( StandardCharsets.UTF_8 ) ) ) );
+        Assertions.assertTrue( boundedParser.feed( ByteBuffer.wrap( "<child>text</child></root>".getBytes( StandardCharsets.UTF_8 ) ) ) );
+        final ExecutionException sizeException = Assertions.assertThrows( ExecutionException.class, () -> boundedParser.result().get() );
+        Assertions.assertTrue( sizeException.getCause() instanceof IOException );
+        boundedParser.end();
+        Assertions.assertThrows( IllegalArgumentException.class, () -> xmlFactory.newIncrementalParser( AccessMode.IMMUTABLE, Runnable::run, 0 ) );
+
+        final ExecutorService shutdownExecutor = Executors.newSingleThreadExecutor();
+        shutdownExecutor.shutdown();
+        final XmlIncrementalParser rejectedParser = xmlFactory.newIncrementalParser( AccessMode.IMMUTABLE, shutdownExecutor );
+        Assertions.assertTrue( rejectedParser.feed( ByteBuffer.wrap( "<root/>".getBytes( StandardCharsets.UTF_8 ) ) ) );
+        final ExecutionException rejectedException = Assertions.assertThrows( ExecutionException.class, () -> rejectedParser.result().get() );
+        Assertions.assertTrue( rejectedException.getCause() instanceof RejectedExecutionException );
+    }
+
+    @Test
+    public void parseFlags()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument plainDocument;
+        final XmlDocument strippedDocument;
+        try ( InputStream inputStream = XmlFactoryTest.class.getResourceAsStream( "XmlDocument1.xml" ) )
+        {
+            plainDocument = xmlFactory.parse( inputStream, AccessMode.IMMUTABLE );
+        }
+        try ( InputStream inputStream = XmlFactoryTest.class.getResourceAsStream( "XmlDocument1.xml" ) )
+        {
+            strippedDocument = xmlFactory.parse( inputStream, AccessMode.IMMUTABLE, XmlFactory.ParseFlag.StripWhitespace );
+        }
+        assertSameText( plainDocument.getRootElement(), strippedDocument.getRootElement() );
+        Assertions.assertTrue( xmlFactory.outputString( strippedDocument, XmlFactory.OutputFlag.Compact ).length()
+                < xmlFactory.outputString( plainDocument, XmlFactory.OutputFlag.Compact ).length() );
+
+        final XmlDocument preserveDocument = xmlFactory.parseString(
+                "<root>\n  <a> </a>\n  <b xml:space=\"preserve\">\n    <c/>\n  </b>\n</root>", AccessMode.IMMUTABLE, XmlFactory.ParseFlag.StripWhitespace );
+        Assertions.assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><root><a> </a><b xml:space=\"preserve\">\n    <c/>\n  </b></root>",
+                xmlFactory.outputString( preserveDocument, XmlFactory.OutputFlag.Compact ) );
+
+        final XmlDocument coalescedDocument = xmlFactory.parseString(
+                "<root><a>x <![CDATA[<y>]]> z</a></root>", AccessMode.IMMUTABLE, XmlFactory.ParseFlag.CoalesceText );
+        final org.w3c.dom.Element coalescedElement = ( ( XmlElementW3c ) coalescedDocument.getRootElement().getChild( "a" ).get() ).getW3cElement();
+        Assertions.assertEquals( 1, coalescedElement.getChildNodes().getLength() );
+        Assertions.assertEquals( "x <y> z", coalescedDocument.getRootElement().getChild( "a" ).get().getText().get() );
+    }
+
+    @Test
+    public void parseWithSchema()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final URL schemaLocation = XmlFactoryTest.class.getResource( "plant_catalog.xsd" );
+
+        final XmlDocument validDocument;
+        try ( InputStream inputStream = XmlFactoryTest.class.getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            validDocument = xmlFactory.parse( inputStream, AccessMode.IMMUTABLE, schemaLocation );
+        }
+        Assertions.assertEquals( 36, validDocument.getRootElement().getChildren( "PLANT" ).size() );
+        Assertions.assertSame( XmlSchemaCacheW3c.forLocation( schemaLocation ), XmlSchemaCacheW3c.forLocation( schemaLocation ) );
+
+        final String validPlant = "<CATALOG><PLANT><COMMON>a</COMMON><BOTANICAL>b</BOTANICAL><ZONE>4</ZONE><LIGHT>Sun</LIGHT>"
+                + "<PRICE>$2.44</PRICE><AVAILABILITY>031599</AVAILABILITY></PLANT></CATALOG>";
+        final XmlDocument strippedDocument = xmlFactory.parse( new ByteArrayInputStream( validPlant.getBytes( StandardCharsets.UTF_8 ) ),
+                AccessMode.IMMUTABLE, schemaLocation, XmlFactory.ParseFlag.StripWhitespace );
+        Assertions.assertEquals( "031599", strippedDocument.evaluateXpathToElement( "//AVAILABILITY" ).get().getText().get() );
+
+        final String invalidValue = validPlant.replace( "031599", "March" );
+        final IOException invalidValueException = Assertions.assertThrows( IOException.class, () -> xmlFactory.parse(
+                new ByteArrayInputStream( invalidValue.getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE, schemaLocation ) );
+        Assertions.assertTrue( invalidValueException.getMessage().contains( "March" ), invalidValueException.getMessage() );
+
+        final String missingElement = validPlant.replace( "<LIGHT>Sun</LIGHT>", "" );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parse(
+                new ByteArrayInputStream( missingElement.getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE, schemaLocation ) );
+
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parse( new ByteArrayInputStream( validPlant.getBytes( StandardCharsets.UTF_8 ) ),
+                AccessMode.IMMUTABLE, XmlFactoryTest.class.getResource( "plant_catalog.xml" ) ) );
+
+        // a schema with a target namespace only matches namespace aware names, even without the NamespaceAware flag
+        final URL namespacedLocation = XmlFactoryTest.class.getResource( "namespaced.xsd" );
+        final XmlDocument namespacedDocument = xmlFactory.parse( new ByteArrayInputStream( "<a xmlns='urn:t'>x</a>".getBytes( StandardCharsets.UTF_8 ) ),
+                AccessMode.IMMUTABLE, namespacedLocation );
+        Assertions.assertEquals( "x", namespacedDocument.getRootElement().getText().orElse( null ) );
+        Assertions.assertEquals( 1, namespacedDocument.evaluateXpathToElements(
+                "/t:a", Collections.emptyMap(), Collections.singletonMap( "t", "urn:t" ) ).size() );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.parse( new ByteArrayInputStream( "<a>x</a>".getBytes( StandardCharsets.UTF_8 ) ),
+                AccessMode.IMMUTABLE, namespacedLocation ) );
+    }
+
+    @Test
+    public void outputElement()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument xmlDocument = xmlFactory.parseString( "<root><a x=\"1\"><b>t &amp; u</b></a><c/></root>", AccessMode.IMMUTABLE );
+        final XmlElement element = xmlDocument.getRootElement().getChild( "a" ).orElseThrow();
+
+        Assertions.assertEquals( "<a x=\"1\"><b>t &amp; u</b></a>",
+                xmlFactory.outputString( element, XmlFactory.OutputFlag.Compact, XmlFactory.OutputFlag.Fragment ) );
+        Assertions.assertEquals( "<?xml version=\"1.0\" encoding=\"UTF-8\"?><a x=\"1\"><b>t &amp; u</b></a>",
+                xmlFactory.outputString( element, XmlFactory.OutputFlag.Compact ) );
+        Assertions.assertEquals( "<root><a x=\"1\"><b>t &amp; u</b></a><c/></root>",
+                xmlFactory.outputString( xmlDocument, XmlFactory.OutputFlag.Compact, XmlFactory.OutputFlag.Fragment ) );
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xmlFactory.output( element, outputStream, XmlFactory.OutputFlag.Fragment );
+        final XmlDocument reparsed = xmlFactory.parse( new ByteArrayInputStream( outputStream.toByteArray() ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals( "a", reparsed.getRootElement().getName() );
+        Assertions.assertEquals( "t & u", reparsed.getRootElement().getChild( "b" ).orElseThrow().getText().orElseThrow() );
+
+        final XmlElement detached = xmlFactory.newElement( "detached" );
+        detached.setText( "text" );
+        Assertions.assertEquals( "<detached>text</detached>", xmlFactory.outputString( detached, XmlFactory.OutputFlag.Compact, XmlFactory.OutputFlag.Fragment ) );
+    }
+
+    @Test
+    public void canonicalOutput()
+            throws IOException, NoSuchAlgorithmException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final String xml = "<?xml version=\"1.0\"?>\n<!--head--><r z=\"1\" a=\"x&#10;&lt;&gt;\" xmlns:p=\"urn:p\" xmlns=\"urn:d\" p:k=\"2\">"
+                + "<e/><p:f xmlns:p=\"urn:p\" xmlns=\"\">t &amp; &gt;<![CDATA[<c>]]></p:f><!--inner--></r>";
+        final XmlDocument xmlDocument = xmlFactory.parseString( xml, AccessMode.IMMUTABLE );
+
+        Assertions.assertEquals( "<r xmlns=\"urn:d\" xmlns:p=\"urn:p\" a=\"x&#xA;&lt;>\" z=\"1\" p:k=\"2\">"
+                        + "<e></e><p:f xmlns=\"\">t &amp; &gt;&lt;c&gt;</p:f></r>",
+                xmlFactory.outputString( xmlDocument, XmlFactory.OutputFlag.Canonical ) );
+        Assertions.assertEquals( "<!--head-->\n<r xmlns=\"urn:d\" xmlns:p=\"urn:p\" a=\"x&#xA;&lt;>\" z=\"1\" p:k=\"2\">"
+                        + "<e></e><p:f xmlns=\"\">t &amp; &gt;&lt;c&gt;</p:f><!--inner--></r>",
+                xmlFactory.outputString( xmlDocument, XmlFactory.OutputFlag.CanonicalWithComments, XmlFactory.OutputFlag.Compact ) );
+
+        final XmlElement element = xmlDocument.getRootElement().getChildren().get( 0 );
+        Assertions.assertEquals( "<e xmlns=\"urn:d\" xmlns:p=\"urn:p\"></e>", xmlFactory.outputString( element, XmlFactory.OutputFlag.Canonical ) );
+
+        final MessageDigest expected = MessageDigest.getInstance( "SHA-256" );
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        xmlFactory.output( xmlDocument, outputStream, XmlFactory.OutputFlag.Canonical );
+        expected.update( outputStream.toByteArray() );
+
+        final MessageDigest streamed = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( xmlDocument, streamed );
+        Assertions.assertArrayEquals( expected.digest(), streamed.digest() );
+
+        final XmlDocument reordered = xmlFactory.parseString( "<r xmlns:p='urn:p'   p:k='2' z='1' a='x&#10;&lt;&gt;' xmlns='urn:d'>"
+                + "<e></e><p:f xmlns=''>t &amp; ><![CDATA[<c>]]></p:f></r>", AccessMode.IMMUTABLE );
+        final MessageDigest first = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( xmlDocument, first );
+        final MessageDigest second = MessageDigest.getInstance( "SHA-256" );
+        xmlFactory.digest( reordered, second );
+        Assertions.assertArrayEquals( first.digest(), second.digest() );
+    }
+
+    @Test
+    public void compressedParseAndOutput()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final StringBuilder xml = new StringBuilder( "<root>" );
+        for ( int i = 0; i < 20_000; i++ )
+        {
+            xml.append( "<item id=\"" ).append( i ).append( "\">value " ).append( i ).append( "</item>" );
+        }
+        xml.append( "</root>" );
+        final XmlDocument xmlDocument = xmlFactory.parseString( xml.toString(), AccessMode.IMMUTABLE );
+
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        xmlFactory.output( xmlDocument, compressed, XmlFactory.OutputFlag.Gzip, XmlFactory.OutputFlag.Compact );
+        final byte[] compressedBytes = compressed.toByteArray();
+        Assertions.assertEquals( 0x1f, compressedBytes[0] & 0xff );
+        Assertions.assertEquals( 0x8b, compressedBytes[1] & 0xff );
+
+        // the decompressing stream is closed after parsing, but the caller's stream is not
+        final boolean[] closed = new boolean[1];
+        final InputStream callerStream = new ByteArrayInputStream( compressedBytes )
+        {
+            @Override
+            public void close()
+            {
+                closed[0] = true;
+            }
+        };
+        final XmlDocument inline = xmlFactory.parse( callerStream, AccessMode.IMMUTABLE, XmlFactory.ParseFlag.Decompress );
+        Assertions.assertFalse( closed[0] );
+        Assertions.assertEquals( 20_000, inline.getRootElement().getChildren().size() );
+        Assertions.assertEquals( "value 19999", inline.getRootElement().getChildren().get( 19_999 ).getText().orElseThrow() );
+
+        final ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try
+        {
+            final XmlDocument piped = xmlFactory.parseCompressed( new ByteArrayInputStream( compressedBytes ), AccessMode.IMMUTABLE, executorService );
+            Assertions.assertEquals( xmlFactory.outputString( inline ), xmlFactory.outputString( piped ) );
+
+            final XmlDocument uncompressed = xmlFactory.parseCompressed(
+                    new ByteArrayInputStream( "<a>b</a>".getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE, executorService );
+            Assertions.assertEquals( "b", uncompressed.getRootElement().getText().orElseThrow() );
+
+            final byte[] truncated = Arrays.copyOf( compressedBytes, compressedBytes.length / 2 );
+            Assertions.assertThrows( IOException.class, () -> xmlFactory.parseCompressed( new ByteArrayInputStream( truncated ), AccessMode.IMMUTABLE, executorService ) );
+
+            // a failing source is reported to the parser rather than read as a truncated document
+            final InputStream failingStream = new ByteArrayInputStream( compressedBytes )
+            {
+                private boolean headerRead;
+
+                @Override
+                public synchronized int read( final byte[] bytes, final int offset, final int length )
+                {
+                    if ( headerRead )
+                    {
+                        throw new IllegalStateException( "source failed" );
+                    }
+                    headerRead = true;
+                    return super.read( bytes, offset, Math.min( length, 16 ) );
+                }
+            };
+            Assertions.assertTimeoutPreemptively( Duration.ofSeconds( 30 ), () -> Assertions.assertThrows( IOException.class,
+                    () -> xmlFactory.parseCompressed( failingStream, AccessMode.IMMUTABLE, executorService ) ) );
+        }
+        finally
+        {
+            executorService.shutdown();
+        }
+
+        // an interrupted decompression task still ends the stream
+        final Executor interruptedExecutor = task -> new Thread( () ->
+        {
+            Thread.currentThread().interrupt();
+            task.run();
+        } ).start();
+        Assertions.assertTimeoutPreemptively( Duration.ofSeconds( 30 ), () -> Assertions.assertThrows( IOException.class,
+                () -> xmlFactory.parseCompressed( new ByteArrayInputStream( compressedBytes ), AccessMode.IMMUTABLE, interruptedExecutor ) ) );
+
+        final XmlDocument plain = xmlFactory.parse( new ByteArrayInputStream( "<a>b</a>".getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE,
+                XmlFactory.ParseFlag.Decompress );
+        Assertions.assertEquals( "b", plain.getRootElement().getText().orElseThrow() );
+    }
+
+    @Test
+    public void jsonConversion()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final String xml = "<r id=\"1\"><a>x</a><a>y</a><b k=\"v\">text<c/></b><a>z</a><d/><e>\"quoted\"\n\\</e></r>";
+        final XmlDocument xmlDocument = xmlFactory.parseString( xml, AccessMode.IMMUTABLE );
+
+        final String json = xmlFactory.outputJsonString( xmlDocument );
+        Assertions.assertEquals( "{\"r\":{\"@id\":\"1\",\"a\":[\"x\",\"y\",\"z\"],\"b\":{\"@k\":\"v\",\"c\":\"\",\"#text\":\"text\"},"
+                + "\"d\":\"\",\"e\":\"\\\"quoted\\\"\\n\\\\\"}}", json );
+        Assertions.assertEquals( "{\"r\":{\"id\":\"1\",\"a\":[\"x\",\"y\",\"z\"],\"b\":[{\"k\":\"v\",\"c\":[\"\"],\"#text\":\"text\"}],"
+                        + "\"d\":[\"\"],\"e\":[\"\\\"quoted\\\"\\n\\\\\"]}}",
+                xmlFactory.outputJsonString( xmlDocument, XmlFactory.JsonFlag.AttributesWithoutPrefix, XmlFactory.JsonFlag.ElementsAsArrays ) );
+
+        final ByteArrayOutputStream documentJson = new ByteArrayOutputStream();
+        xmlFactory.outputJson( xmlDocument, documentJson );
+        Assertions.assertEquals( json, documentJson.toString( StandardCharsets.UTF_8 ) );
+
+        // converted text can only group adjacent siblings, and never writes a property twice
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.convertToJson(
+                new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ), new ByteArrayOutputStream() ) );
+        Assertions.assertThrows( IOException.class, () -> xmlFactory.convertToJson(
+                new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ), new ByteArrayOutputStream(), XmlFactory.JsonFlag.ElementsAsArrays ) );
+        final String adjacentXml = "<r id=\"1\"><a>x</a><a>y</a><a>z</a><b k=\"v\">text<c/></b><d/><e>\"quoted\"\n\\</e></r>";
+        final ByteArrayOutputStream convertedJson = new ByteArrayOutputStream();
+        xmlFactory.convertToJson( new ByteArrayInputStream( adjacentXml.getBytes( StandardCharsets.UTF_8 ) ), convertedJson );
+        Assertions.assertEquals( json, convertedJson.toString( StandardCharsets.UTF_8 ) );
+
+        final XmlDocument parsedDocument = xmlFactory.parseJson( new ByteArrayInputStream( json.getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals( json, xmlFactory.outputJsonString( parsedDocument ) );
+        Assertions.assertEquals( "1", parsedDocument.getRootElement().getAttribute( "id" ).orElseThrow() );
+        Assertions.assertEquals( 3, parsedDocument.getRootElement().getChildren( "a" ).size() );
+
+        final XmlDocument numberDocument = xmlFactory.parseJson( new ByteArrayInputStream(
+                "{ \"r\" : { \"@n\" : -1.5e3, \"t\" : true, \"u\" : null, \"s\" : \"\\u00e9\" } }".getBytes( StandardCharsets.UTF_8 ) ),
+                AccessMode.IMMUTABLE );
+        Assertions.assertEquals( "-1.5e3", numberDocument.getRootElement().getAttribute( "n" ).orElseThrow() );
+        Assertions.assertEquals( "true", numberDocument.getRootElement().getChild( "t" ).orElseThrow().getText().orElseThrow() );
+        Assertions.assertTrue( numberDocument.getRootElement().getChild( "u" ).orElseThrow().getText().isEmpty() );
+        Assertions.assertEquals( "\u00e9", numberDocument.getRootElement().getChild( "s" ).orElseThrow().getText().orElseThrow() );
+
+        for ( final String invalidJson : Arrays.asList( "{}", "{\"a\":[1]}", "{\"a\":{\"b\":[[1]]}}", "{\"a\":1,\"b\":2}", "{\"1a\":1}", "{\"a\":tru}", "{\"a\":\"x" ) )
+        {
+            Assertions.assertThrows( IOException.class, () -> xmlFactory.parseJson(
+                    new ByteArrayInputStream( invalidJson.getBytes( StandardCharsets.UTF_8 ) ), AccessMode.IMMUTABLE ), invalidJson );
+        }
+    }
+
+    @Test
+    public void jsonConversionOfLargeDocument()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final StringBuilder xml = new StringBuilder( "<CATALOG><HEADER/>" );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            xml.append( "<PLANT id=\"" ).append( i ).append( "\">\n  <COMMON>plant " ).append( i ).append( "</COMMON>\n  <ZONE>4</ZONE><ZONE>5</ZONE>\n</PLANT>\n" );
+        }
+        xml.append( "<FOOTER/></CATALOG>" );
+        final byte[] xmlBytes = xml.toString().getBytes( StandardCharsets.UTF_8 );
+
+        final ByteArrayOutputStream documentJson = new ByteArrayOutputStream();
+        xmlFactory.outputJson( xmlFactory.parse( new ByteArrayInputStream( xmlBytes ), AccessMode.IMMUTABLE ), documentJson );
+        final ByteArrayOutputStream convertedJson = new ByteArrayOutputStream();
+        xmlFactory.convertToJson( new ByteArrayInputStream( xmlBytes ), convertedJson );
+        Assertions.assertArrayEquals( documentJson.toByteArray(), convertedJson.toByteArray() );
+
+        final XmlDocument parsedDocument = xmlFactory.parseJson( new ByteArrayInputStream( documentJson.toByteArray() ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals( 5000, parsedDocument.getRootElement().getChildren( "PLANT" ).size() );
+        Assertions.assertEquals( "4999", parsedDocument.getRootElement().getChildren( "PLANT" ).get( 4999 ).getAttribute( "id" ).orElseThrow() );
+        Assertions.assertEquals( 2, parsedDocument.getRootElement().getChildren( "PLANT" ).get( 0 ).getChildren( "ZONE" ).size() );
+    }
+
+    private static void assertSameText( final XmlElement expected, final XmlElement actual )
+    {
+        Assertions.assertEquals( expected.getName(), actual.getName() );
+        Assertions.assertEquals( expected.getText(), actual.getText() );
+        final List<XmlElement> expectedChildren = expected.getChildren();
+        final List<XmlElement> actualChildren = actual.getChildren();
+        Assertions.assertEquals( expectedChildren.size(), actualChildren.size() );
+        for ( int i = 0; i < expectedChildren.size(); i++ )
+        {
+            assertSameText( expectedChildren.get( i ), actualChildren.get( i ) );
+        }
+    }
+}
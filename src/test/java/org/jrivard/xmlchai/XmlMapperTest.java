@@ -0,0 +1,402 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class XmlMapperTest
+{
+    public enum Light
+    {
+        Sun,
+        Shade,
+    }
+
+    public static class Plant
+    {
+        private String common;
+        private String zone;
+        private long availability;
+        private String price;
+
+        public String getCommon()
+        {
+            return common;
+        }
+
+        public void setCommon( final String common )
+        {
+            this.common = common;
+        }
+
+        public String getZone()
+        {
+            return zone;
+        }
+
+        public void setZone( final String zone )
+        {
+            this.zone = zone;
+        }
+
+        public long getAvailability()
+        {
+            return availability;
+        }
+
+        public void setAvailability( final long availability )
+        {
+            this.availability = availability;
+        }
+
+        public String getPrice()
+        {
+            return price;
+        }
+
+        public void setPrice( final String price )
+        {
+            this.price = price;
+        }
+    }
+
+    public static class Catalog
+    {
+        private List<Plant> plants;
+
+        public List<Plant> getPlants()
+        {
+            return plants;
+        }
+
+        public void setPlants( final List<Plant> plants )
+        {
+            this.plants = plants;
+        }
+    }
+
+    public static class Item
+    {
+        private int count;
+        private Integer optional;
+        private boolean enabled;
+        private Light light;
+        private String text;
+        private Item nested;
+
+        public int getCount()
+        {
+            return count;
+        }
+
+        public void setCount( final int count )
+        {
+            this.count = count;
+        }
+
+        // overload that does not match the field type, never used by a mapper
+        public void setCount( final String count )
+        {
+            this.count = -1;
+        }
+
+        public Integer getOptional()
+        {
+            return optional;
+        }
+
+        public void setOptional( final Integer optional )
+        {
+            this.optional = optional;
+        }
+
+        public boolean isEnabled()
+        {
+            return enabled;
+        }
+
+        public void setEnabled( final boolean enabled )
+        {
+            this.enabled = enabled;
+        }
+
+        public Light getLight()
+        {
+            return light;
+        }
+
+        public void setLight( final Light light )
+        {
+            this.light = light;
+        }
+
+        public String getText()
+        {
+            return text;
+        }
+
+        public void setText( final String text )
+        {
+            this.text = text;
+        }
+
+        public Item getNested()
+        {
+            return nested;
+        }
+
+        public void setNested( final Item nested )
+        {
+            this.nested = nested;
+        }
+    }
+
+    private XmlDocument readXmlDocument() throws IOException
+    {
+        final InputStream xmlFactoryTestXmlFile = this.getClass().getResourceAsStream( "plant_catalog.xml" );
+        return XmlFactory.getFactory().parse( xmlFactoryTestXmlFile, AccessMode.IMMUTABLE );
+    }
+
+    private static XmlMapper<Plant> plantMapper()
+    {
+        return XmlFactory.getFactory().newMapperBuilder( Plant.class )
+                .childText( "common", "COMMON" )
+                .childText( "zone", "ZONE" )
+                .childText( "availability", "AVAILABILITY" )
+                .childText( "price", "PRICE" )
+                .build();
+    }
+
+    @Test
+    public void testMapCatalog()
+            throws IOException
+    {
+        final XmlDocument xmlDocument = readXmlDocument();
+        final XmlMapper<Catalog> catalogMapper = XmlFactory.getFactory().newMapperBuilder( Catalog.class )
+                .children( "plants", "PLANT", plantMapper() )
+                .build();
+
+        final Catalog catalog = catalogMapper.map( xmlDocument.getRootElement() );
+        Assertions.assertEquals( 36, catalog.getPlants().size() );
+
+        final Plant plant = catalog.getPlants().get( 0 );
+        Assertions.assertEquals( "Bloodroot", plant.getCommon() );
+        Assertions.assertEquals( "4", plant.getZone() );
+        Assertions.assertEquals( 31599, plant.getAvailability() );
+        Assertions.assertEquals( "$2.44", plant.getPrice() );
+        Assertions.assertThrows( UnsupportedOperationException.class, () -> catalog.getPlants().clear() );
+
+        final List<Plant> plants = plantMapper().mapChildren( xmlDocument.getRootElement(), "PLANT" );
+        Assertions.assertEquals( 36, plants.size() );
+        for ( int i = 0; i < plants.size(); i++ )
+        {
+            final XmlElement plantElement = xmlDocument.getRootElement().getChildren( "PLANT" ).get( i );
+            Assertions.assertEquals( plantElement.getChild( "COMMON" ).orElseThrow().getText().orElseThrow(), plants.get( i ).getCommon() );
+            Assertions.assertEquals( plantElement.getChild( "ZONE" ).orElseThrow().getText().orElseThrow(), plants.get( i ).getZone() );
+        }
+
+        Assertions.assertTrue( plantMapper().mapChildren( xmlDocument.getRootElement(), "TREE" ).isEmpty() );
+
+        // compact document elements are mapped from copies
+        final XmlDocument compactDocument;
+        try ( InputStream inputStream = this.getClass().getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            compactDocument = XmlFactory.getFactory().parseCompact( inputStream, XmlFactory.CompactStorage.TempFile );
+        }
+        Assertions.assertEquals( 36, catalogMapper.map( compactDocument.getRootElement() ).getPlants().size() );
+        final List<Plant> compactPlants = plantMapper().mapChildren( compactDocument.getRootElement(), "PLANT" );
+        Assertions.assertEquals( 36, compactPlants.size() );
+        Assertions.assertEquals( "Bloodroot", compactPlants.get( 0 ).getCommon() );
+        Assertions.assertEquals( 31599, compactPlants.get( 0 ).getAvailability() );
+    }
+
+    @Test
+    public void testMapValues()
+            throws IOException
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().parseString(
+                "<item count='3' enabled='true' light='Shade'><nested count='7'>nested text</nested><nested count='8'/>item text</item>",
+                AccessMode.IMMUTABLE );
+
+        final XmlMapper<Item> nestedMapper = XmlFactory.getFactory().newMapperBuilder( Item.class )
+                .attribute( "count", "count" )
+                .text( "text" )
+                .build();
+        final XmlMapper<Item> itemMapper = XmlFactory.getFactory().newMapperBuilder( Item.class )
+                .attribute( "count", "count" )
+                .attribute( "optional", "optional" )
+                .attribute( "enabled", "enabled" )
+                .attribute( "light", "light" )
+                .text( "text" )
+                .child( "nested", "nested", nestedMapper )
+                .build();
+
+        final Item item = itemMapper.map( xmlDocument.getRootElement() );
+        Assertions.assertEquals( 3, item.getCount() );
+        Assertions.assertNull( item.getOptional() );
+        Assertions.assertTrue( item.isEnabled() );
+        Assertions.assertEquals( Light.Shade, item.getLight() );
+        Assertions.assertEquals( "item text", item.getText() );
+        Assertions.assertEquals( 7, item.getNested().getCount() );
+        Assertions.assertEquals( "nested text", item.getNested().getText() );
+        Assertions.assertNull( item.getNested().getNested() );
+
+        final XmlDocument badDocument = XmlFactory.getFactory().parseString( "<item count='three'/>", AccessMode.IMMUTABLE );
+        final IllegalArgumentException exception = Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () -> itemMapper.map( badDocument.getRootElement() ) );
+        Assertions.assertTrue( exception.getMessage().contains( "three" ) );
+
+        final XmlDocument badEnumDocument = XmlFactory.getFactory().parseString( "<item light='Dark'/>", AccessMode.IMMUTABLE );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> itemMapper.map( badEnumDocument.getRootElement() ) );
+    }
+
+    @Test
+    public void testInvalidMappings()
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Item.class ).attribute( "missing", "missing" ).build() );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Item.class ).attribute( "count", "a" ).attribute( "count", "b" ) );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Item.class ).childText( "nested", "nested" ).build() );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Item.class ).child( "nested", "PLANT", plantMapper() ).build() );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Catalog.class ).children( "plants", "PLANT", plantMapper() ).text( "plants" ) );
+
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Item.class ).children( "count", "item", plantMapper() ).build() );
+
+        // nested mappers must be built by the same factory
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Catalog.class ).child( "plants", "PLANT", foreignMapper() ) );
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> xmlFactory.newMapperBuilder( Catalog.class ).children( "plants", "PLANT", foreignMapper() ) );
+    }
+
+    private static XmlMapper<Plant> foreignMapper()
+    {
+        return new XmlMapper<>()
+        {
+            @Override
+            public Plant map( final XmlElement element )
+            {
+                return new Plant();
+            }
+
+            @Override
+            public List<Plant> mapChildren( final XmlElement parent, final String elementName )
+            {
+                return List.of();
+            }
+        };
+    }
+
+    @Test
+    public void testParseMapped()
+            throws IOException
+    {
+        final List<Plant> domPlants = plantMapper().mapChildren( readXmlDocument().getRootElement(), "PLANT" );
+
+        try ( InputStream inputStream = this.getClass().getResourceAsStream( "plant_catalog.xml" );
+              Stream<Plant> plantStream = XmlFactory.getFactory().parseMapped( inputStream, "PLANT", plantMapper() ) )
+        {
+            final List<Plant> streamPlants = plantStream.collect( Collectors.toList() );
+            Assertions.assertEquals( domPlants.size(), streamPlants.size() );
+            for ( int i = 0; i < domPlants.size(); i++ )
+            {
+                Assertions.assertEquals( domPlants.get( i ).getCommon(), streamPlants.get( i ).getCommon() );
+                Assertions.assertEquals( domPlants.get( i ).getZone(), streamPlants.get( i ).getZone() );
+                Assertions.assertEquals( domPlants.get( i ).getAvailability(), streamPlants.get( i ).getAvailability() );
+                Assertions.assertEquals( domPlants.get( i ).getPrice(), streamPlants.get( i ).getPrice() );
+            }
+        }
+
+        Assertions.assertThrows( IllegalArgumentException.class, () -> XmlFactory.getFactory().parseMapped(
+                new ByteArrayInputStream( "<root/>".getBytes( StandardCharsets.UTF_8 ) ), "PLANT", foreignMapper() ) );
+    }
+
+    @Test
+    public void testParseMappedValues()
+            throws IOException
+    {
+        final String xml = "<root><item count='3' light='Sun'>  first <!-- comment --> text <![CDATA[ cdata ]]>"
+                + "<nested count='7'>nested <b>skipped</b> text</nested><nested count='8'/>tail</item>"
+                + "<wrapper><item count='4'/></wrapper></root>";
+        final XmlDocument xmlDocument = XmlFactory.getFactory().parseString( xml, AccessMode.IMMUTABLE );
+
+        final XmlMapper<Item> nestedMapper = XmlFactory.getFactory().newMapperBuilder( Item.class )
+                .attribute( "count", "count" )
+                .text( "text" )
+                .build();
+        final XmlMapper<Item> itemMapper = XmlFactory.getFactory().newMapperBuilder( Item.class )
+                .attribute( "count", "count" )
+                .attribute( "light", "light" )
+                .text( "text" )
+                .child( "nested", "nested", nestedMapper )
+                .build();
+
+        final List<Item> items;
+        try ( Stream<Item> itemStream = XmlFactory.getFactory().parseMapped(
+                new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ), "item", itemMapper ) )
+        {
+            items = itemStream.collect( Collectors.toList() );
+        }
+
+        Assertions.assertEquals( 2, items.size() );
+        final Item domItem = itemMapper.map( xmlDocument.getRootElement().getChild( "item" ).orElseThrow() );
+        final Item streamItem = items.get( 0 );
+        Assertions.assertEquals( domItem.getText(), streamItem.getText() );
+        Assertions.assertEquals( "firsttext cdata tail", streamItem.getText() );
+        Assertions.assertEquals( Light.Sun, streamItem.getLight() );
+        Assertions.assertEquals( 7, streamItem.getNested().getCount() );
+        Assertions.assertEquals( domItem.getNested().getText(), streamItem.getNested().getText() );
+        Assertions.assertEquals( 4, items.get( 1 ).getCount() );
+
+        try ( Stream<Item> itemStream = XmlFactory.getFactory().parseMapped(
+                new ByteArrayInputStream( "<root><item count='1'/><item".getBytes( StandardCharsets.UTF_8 ) ), "item", itemMapper ) )
+        {
+            Assertions.assertThrows( UncheckedIOException.class, () -> itemStream.collect( Collectors.toList() ) );
+        }
+
+        try ( Stream<Item> itemStream = XmlFactory.getFactory().parseMapped(
+                new ByteArrayInputStream( "<!DOCTYPE root><root><item/></root>".getBytes( StandardCharsets.UTF_8 ) ), "item", itemMapper ) )
+        {
+            Assertions.assertThrows( UncheckedIOException.class, () -> itemStream.collect( Collectors.toList() ) );
+        }
+    }
+}
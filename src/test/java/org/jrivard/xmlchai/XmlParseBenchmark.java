@@ -0,0 +1,93 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks comparing the load time of the text and binary document formats.  Run using
+ * {@code mvn test-compile} followed by executing this class with the test classpath.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class XmlParseBenchmark
+{
+    private byte[] textData;
+
+    private byte[] binaryData;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final XmlDocument xmlDocument;
+        try ( InputStream inputStream = XmlParseBenchmark.class.getResourceAsStream( "XmlDocument1.xml" ) )
+        {
+            xmlDocument = xmlFactory.parse( inputStream, AccessMode.IMMUTABLE );
+        }
+
+        final ByteArrayOutputStream textOutput = new ByteArrayOutputStream();
+        xmlFactory.output( xmlDocument, textOutput, XmlFactory.OutputFlag.Compact );
+        textData = textOutput.toByteArray();
+
+        final ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+        xmlFactory.outputBinary( xmlDocument, binaryOutput );
+        binaryData = binaryOutput.toByteArray();
+    }
+
+    @Benchmark
+    public XmlDocument parseText() throws IOException
+    {
+        return XmlFactory.getFactory().parse( new ByteArrayInputStream( textData ), AccessMode.IMMUTABLE );
+    }
+
+    @Benchmark
+    public XmlDocument parseBinary() throws IOException
+    {
+        return XmlFactory.getFactory().parseBinary( new ByteArrayInputStream( binaryData ), AccessMode.IMMUTABLE );
+    }
+
+    public static void main( final String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( XmlParseBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks comparing the output time of a text heavy document using the {@code Transformer} based
+ * {@link XmlFactory#output(XmlDocument, java.io.OutputStream, XmlFactory.OutputFlag...)}, the streaming writer, and a
+ * compact document.  Run using {@code mvn test-compile} followed by executing this class with the test classpath.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class XmlSerializeBenchmark
+{
+    private static final String[] WORDS = ( "lorem ipsum dolor sit amet, consectetur adipiscing elit sed do eiusmod tempor incididunt ut "
+            + "labore et dolore magna aliqua & \"quoted\" <tagged> café naïve" ).split( " " );
+
+    private XmlDocument domDocument;
+
+    private XmlDocument compactDocument;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        final Random random = new Random( 1 );
+        final StringBuilder xml = new StringBuilder( "<catalog>" );
+        for ( int i = 0; i < 2000; i++ )
+        {
+            xml.append( "<entry id=\"" ).append( i ).append( "\" title=\"" ).append( paragraph( random, 8 ) ).append( "\">" );
+            xml.append( "<summary>" ).append( paragraph( random, 40 ) ).append( "</summary>" );
+            xml.append( "<body>" ).append( paragraph( random, 300 ) ).append( "</body>" );
+            xml.append( "</entry>" );
+        }
+        xml.append( "</catalog>" );
+        final byte[] data = xml.toString().getBytes( StandardCharsets.UTF_8 );
+
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        domDocument = xmlFactory.parse( new ByteArrayInputStream( data ), AccessMode.IMMUTABLE );
+        compactDocument = xmlFactory.parseCompact( new ByteArrayInputStream( data ), XmlFactory.CompactStorage.OffHeap );
+    }
+
+    private static String paragraph( final Random random, final int wordCount )
+    {
+        final StringBuilder paragraph = new StringBuilder();
+        for ( int i = 0; i < wordCount; i++ )
+        {
+            final String word = WORDS[random.nextInt( WORDS.length )];
+            paragraph.append( i == 0 ? "" : " " ).append( word.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\"", "&quot;" ) );
+        }
+        return paragraph.toString();
+    }
+
+    @Benchmark
+    public int outputTransformer() throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlFactory.getFactory().output( domDocument, outputStream, XmlFactory.OutputFlag.Compact );
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int outputStreamingWriter() throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream, XmlFactory.OutputFlag.Compact ) )
+        {
+            writer.element( domDocument.getRootElement() );
+        }
+        return outputStream.size();
+    }
+
+    @Benchmark
+    public int outputCompact() throws IOException
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        XmlFactory.getFactory().output( compactDocument, outputStream, XmlFactory.OutputFlag.Compact );
+        return outputStream.size();
+    }
+
+    public static void main( final String[] args ) throws RunnerException
+    {
+        new Runner( new OptionsBuilder().include( XmlSerializeBenchmark.class.getSimpleName() ).build() ).run();
+    }
+}
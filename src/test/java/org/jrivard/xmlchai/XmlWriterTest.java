@@ -0,0 +1,155 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+public class XmlWriterTest
+{
+    @Test
+    public void testCompactOutput()
+            throws Exception
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream, XmlFactory.OutputFlag.Compact ) )
+        {
+            writer.startElement( "root" ).attribute( "quote", "a\"b<c>\td" );
+            writer.comment( " note " );
+            writer.startElement( "text" ).text( "1 < 2 & é€😀" ).endElement();
+            writer.startElement( "empty" ).endElement();
+            writer.startElement( "unclosed" );
+        }
+
+        final String expected = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<root quote=\"a&quot;b&lt;c&gt;&#9;d\"><!-- note --><text>1 &lt; 2 &amp; é€😀</text>"
+                + "<empty/><unclosed/></root>";
+        Assertions.assertEquals( expected, outputStream.toString( StandardCharsets.UTF_8.name() ) );
+
+        final XmlDocument parsed = XmlFactory.getFactory().parseString( expected, AccessMode.IMMUTABLE );
+        Assertions.assertEquals( "a\"b<c>\td", parsed.getRootElement().getAttribute( "quote" ).orElseThrow( IllegalStateException::new ) );
+        Assertions.assertEquals( "1 < 2 & é€😀", parsed.getRootElement().getChild( "text" ).flatMap( XmlElement::getText ).orElse( null ) );
+    }
+
+    @Test
+    public void testFragmentOutput()
+            throws Exception
+    {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream, XmlFactory.OutputFlag.Fragment ) )
+        {
+            writer.startElement( "root" );
+            writer.startElement( "child" ).text( "value" ).endElement();
+        }
+
+        Assertions.assertEquals( "<root>\n    <child>value</child>\n</root>", outputStream.toString( StandardCharsets.UTF_8.name() ) );
+    }
+
+    @Test
+    public void testEmbedElement()
+            throws Exception
+    {
+        final XmlDocument sourceDocument;
+        try ( InputStream inputStream = this.getClass().getResourceAsStream( "plant_catalog.xml" ) )
+        {
+            sourceDocument = XmlFactory.getFactory().parse( inputStream, AccessMode.IMMUTABLE );
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream ) )
+        {
+            writer.startElement( "CATALOG" );
+            for ( final XmlElement plant : sourceDocument.getRootElement().getChildren() )
+            {
+                writer.element( plant );
+            }
+            writer.endElement();
+
+            Assertions.assertThrows( IllegalStateException.class, () -> writer.startElement( "second" ) );
+            Assertions.assertThrows( IllegalStateException.class, () -> writer.text( "text" ) );
+        }
+
+        final XmlDocument writtenDocument = XmlFactory.getFactory().parseString(
+                outputStream.toString( StandardCharsets.UTF_8.name() ), AccessMode.IMMUTABLE );
+        Assertions.assertEquals(
+                sourceDocument.evaluateXpathToElements( "/CATALOG/PLANT" ).size(),
+                writtenDocument.evaluateXpathToElements( "/CATALOG/PLANT" ).size() );
+        Assertions.assertEquals( "Bloodroot", writtenDocument.evaluateXpathToElement( "/CATALOG/PLANT[1]/COMMON" )
+                .flatMap( XmlElement::getText ).orElse( null ) );
+    }
+
+    @Test
+    public void testLongEscapedText()
+            throws Exception
+    {
+        // runs of varying length move the characters to escape across word and buffer boundaries
+        final StringBuilder text = new StringBuilder();
+        for ( int i = 0; text.length() < 40_000; i++ )
+        {
+            text.append( "x".repeat( i % 23 ) ).append( "a<b>c&d\"é€😀" );
+        }
+        final String value = "q\"t\tn\nr\r<>&é" + text;
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( XmlWriter writer = XmlFactory.getFactory().newWriter( outputStream, XmlFactory.OutputFlag.Compact, XmlFactory.OutputFlag.Fragment ) )
+        {
+            writer.startElement( "root" ).attribute( "value", value ).text( text.toString() ).endElement();
+        }
+        final String expected = "<root value=\"" + escape( value, true ) + "\">" + escape( text.toString(), false ) + "</root>";
+        final String written = outputStream.toString( StandardCharsets.UTF_8.name() );
+        Assertions.assertEquals( expected, written );
+
+        // compact documents escape the stored UTF-8 bytes directly
+        final XmlDocument compactDocument = XmlFactory.getFactory().parseCompact(
+                new ByteArrayInputStream( written.getBytes( StandardCharsets.UTF_8 ) ), XmlFactory.CompactStorage.OffHeap );
+        Assertions.assertEquals( expected, XmlFactory.getFactory().outputString( compactDocument, XmlFactory.OutputFlag.Compact, XmlFactory.OutputFlag.Fragment ) );
+    }
+
+    private static String escape( final String value, final boolean attribute )
+    {
+        final String escaped = value.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( ">", "&gt;" ).replace( "\r", "&#13;" );
+        return attribute
+                ? escaped.replace( "\"", "&quot;" ).replace( "\t", "&#9;" ).replace( "\n", "&#10;" )
+                : escaped;
+    }
+
+    @Test
+    public void testInvalidUsage()
+            throws Exception
+    {
+        final XmlWriter writer = XmlFactory.getFactory().newWriter( new ByteArrayOutputStream() );
+        Assertions.assertThrows( IllegalStateException.class, () -> writer.attribute( "name", "value" ) );
+        Assertions.assertThrows( IllegalStateException.class, writer::endElement );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> writer.startElement( "bad name" ) );
+
+        writer.startElement( "root" ).text( "text" );
+        Assertions.assertThrows( IllegalStateException.class, () -> writer.attribute( "name", "value" ) );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> writer.comment( "a--b" ) );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> writer.text( "\u0001" ) );
+        writer.close();
+
+        Assertions.assertThrows( IllegalStateException.class, () -> writer.startElement( "root" ) );
+    }
+}
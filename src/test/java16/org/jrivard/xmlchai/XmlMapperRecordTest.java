@@ -0,0 +1,83 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+public class XmlMapperRecordTest
+{
+    public record Plant( String common, int zone, boolean perennial )
+    {
+    }
+
+    public record Catalog( String name, Plant featured, List<Plant> plants )
+    {
+    }
+
+    private static XmlMapper<Plant> plantMapper()
+    {
+        return XmlFactory.getFactory().newMapperBuilder( Plant.class )
+                .attribute( "common", "common" )
+                .childText( "zone", "ZONE" )
+                .attribute( "perennial", "perennial" )
+                .build();
+    }
+
+    @Test
+    public void testMapRecords()
+            throws IOException
+    {
+        final XmlDocument xmlDocument = XmlFactory.getFactory().parseString(
+                "<catalog name='garden'><featured common='Iris' perennial='true'><ZONE>4</ZONE></featured>"
+                        + "<plant common='Bloodroot' perennial='true'><ZONE>3</ZONE></plant><plant common='Marigold'/></catalog>",
+                AccessMode.IMMUTABLE );
+
+        final XmlMapper<Catalog> catalogMapper = XmlFactory.getFactory().newMapperBuilder( Catalog.class )
+                .attribute( "name", "name" )
+                .child( "featured", "featured", plantMapper() )
+                .children( "plants", "plant", plantMapper() )
+                .build();
+
+        final Catalog catalog = catalogMapper.map( xmlDocument.getRootElement() );
+        Assertions.assertEquals( "garden", catalog.name() );
+        Assertions.assertEquals( new Plant( "Iris", 4, true ), catalog.featured() );
+        Assertions.assertEquals( List.of( new Plant( "Bloodroot", 3, true ), new Plant( "Marigold", 0, false ) ), catalog.plants() );
+
+        // unmapped components receive their default value
+        final Plant namedOnly = XmlFactory.getFactory().newMapperBuilder( Plant.class )
+                .attribute( "common", "common" )
+                .build()
+                .map( xmlDocument.getRootElement().getChild( "featured" ).orElseThrow() );
+        Assertions.assertEquals( new Plant( "Iris", 0, false ), namedOnly );
+    }
+
+    @Test
+    public void testInvalidRecordMappings()
+    {
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> XmlFactory.getFactory().newMapperBuilder( Plant.class ).attribute( "missing", "missing" ).build() );
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> XmlFactory.getFactory().newMapperBuilder( Catalog.class ).children( "featured", "plant", plantMapper() ).build() );
+    }
+}
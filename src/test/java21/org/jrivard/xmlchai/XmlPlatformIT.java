@@ -0,0 +1,93 @@
+/*
+ * XML Chai Library
+ * Copyright (c) 2021-2023 Jason D. Rivard
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package org.jrivard.xmlchai;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Runs against the packaged multi-release jar on Java 21, so the Java 21 implementation of {@link XmlPlatform} is
+ * used.
+ */
+public class XmlPlatformIT
+{
+    @Test
+    public void testVersionedClassIsLoaded()
+    {
+        final String location = XmlPlatform.class.getResource( "XmlPlatform.class" ).toString();
+        Assertions.assertTrue( location.startsWith( "jar:" ), location );
+        Assertions.assertTrue( location.contains( "META-INF/versions/21/" ), location );
+    }
+
+    @Test
+    public void testBufferOperations()
+    {
+        final ByteBuffer buffer = ByteBuffer.allocate( 16 );
+        buffer.position( 3 ).limit( 14 );
+
+        XmlPlatform.putBytes( buffer, 10, new byte[] {0, 1, 2, 3}, 1, 3 );
+        final byte[] bytes = new byte[5];
+        XmlPlatform.getBytes( buffer, 9, bytes, 1, 4 );
+        Assertions.assertArrayEquals( new byte[] {0, 0, 1, 2, 3}, bytes );
+        Assertions.assertEquals( 3, buffer.position() );
+        Assertions.assertEquals( 14, buffer.limit() );
+
+        final ByteBuffer copy = XmlPlatform.copyDirect( buffer, 13 );
+        Assertions.assertTrue( copy.isDirect() );
+        Assertions.assertEquals( 13, copy.capacity() );
+        Assertions.assertEquals( 0, copy.position() );
+        Assertions.assertEquals( 3, copy.get( 12 ) );
+    }
+
+    @Test
+    public void testCompactDocument()
+            throws IOException
+    {
+        final XmlFactory xmlFactory = XmlFactory.getFactory();
+        final StringBuilder xml = new StringBuilder( "<root>" );
+        for ( int i = 0; i < 1_000; i++ )
+        {
+            xml.append( "<item id=\"" ).append( i ).append( "\">value é " ).append( i ).append( "</item>" );
+        }
+        xml.append( "</root>" );
+        final byte[] xmlBytes = xml.toString().getBytes( StandardCharsets.UTF_8 );
+
+        final XmlDocument w3cDocument = xmlFactory.parse( new ByteArrayInputStream( xmlBytes ), AccessMode.IMMUTABLE );
+        for ( final XmlFactory.CompactStorage storage : XmlFactory.CompactStorage.values() )
+        {
+            final XmlDocument compactDocument = xmlFactory.parseCompact( new ByteArrayInputStream( xmlBytes ), storage );
+            try
+            {
+                Assertions.assertEquals( "value é 999", compactDocument.getRootElement().getChildren().get( 999 ).getText().orElseThrow() );
+                Assertions.assertTrue( compactDocument.contentEquals( w3cDocument ) );
+                Assertions.assertEquals( w3cDocument.contentHash(), compactDocument.contentHash() );
+            }
+            finally
+            {
+                compactDocument.release();
+            }
+        }
+    }
+}